@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ordering a scan of DVE paths with a comparator that stats both paths on every comparison (the original implementation) to
+ * {@link CreationTimeComparator#sort(java.util.Collection)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CreationTimeSortBenchmark {
+    private static final Comparator<Path> STAT_ON_EVERY_COMPARE = (o1, o2) -> {
+        try {
+            return Long.compare(Files.readAttributes(o1, BasicFileAttributes.class).creationTime().toMillis(),
+                Files.readAttributes(o2, BasicFileAttributes.class).creationTime().toMillis());
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    };
+
+    @Param({ "10000", "100000" })
+    public int numberOfDves;
+
+    private Path dir;
+    private List<Path> paths;
+
+    @Setup(Level.Trial)
+    public void createDves() throws IOException {
+        dir = Files.createTempDirectory("creation-time-sort");
+        paths = new ArrayList<>(numberOfDves);
+        for (int i = 0; i < numberOfDves; i++) {
+            paths.add(Files.createFile(dir.resolve(String.format("doi-10-5072-dar-%08dv1.%d.zip", i, i % 7))));
+        }
+        Collections.shuffle(paths, new Random(42));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDves() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public List<Path> statOnEveryCompare() {
+        var copy = new ArrayList<>(paths);
+        copy.sort(STAT_ON_EVERY_COMPARE);
+        return copy;
+    }
+
+    @Benchmark
+    public List<Path> firstScan() {
+        var comparator = CreationTimeComparator.getInstance();
+        paths.forEach(comparator::forget);
+        return comparator.sort(paths);
+    }
+
+    @Benchmark
+    public List<Path> repeatedScan() {
+        return CreationTimeComparator.getInstance().sort(paths);
+    }
+}
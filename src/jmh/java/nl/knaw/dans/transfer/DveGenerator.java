@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * Generates synthetic DVEs for the benchmarks. A DVE is a ZIP file containing a bag with the layout of a Dataverse bagpack: {@code bagit.txt},
+ * {@code bag-info.txt}, the payload files under {@code data/}, a {@code manifest-sha1.txt} for the payload, the dataset metadata in
+ * {@code metadata/oai-ore.jsonld} and {@code metadata/pid-mapping.txt}, and a {@code tagmanifest-sha1.txt} for the tag files. The result passes the
+ * {@link nl.knaw.dans.transfer.core.BagpackValidator}, so that the benchmarks measure the path of a valid DVE.
+ * </p>
+ * <p>
+ * The OAI-ORE document lists every payload file with its name, directory label, size and SHA-1 checksum in {@code ore:aggregates} and is padded with a
+ * description to the requested size. The NBN comes after the aggregates, which is the worst case for a streaming reader. The payload is random, so it does not
+ * compress, and the same parameters always produce the same DVE.
+ * </p>
+ */
+public class DveGenerator {
+    private static final String BAG = "bag/";
+    private static final String DATASET_PID = "doi:10.5072/DAR/SYNTHETIC";
+
+    private final int numberOfFiles;
+    private final int fileSize;
+    private final int metadataSize;
+
+    /**
+     * @param numberOfFiles the number of payload files
+     * @param fileSize      the size of each payload file in bytes
+     * @param metadataSize  the minimum size of the OAI-ORE document in bytes
+     */
+    public DveGenerator(int numberOfFiles, int fileSize, int metadataSize) {
+        this.numberOfFiles = numberOfFiles;
+        this.fileSize = fileSize;
+        this.metadataSize = metadataSize;
+    }
+
+    /**
+     * Writes a DVE for the given NBN.
+     *
+     * @param zip the ZIP file to create
+     * @param nbn the NBN to put in the metadata
+     * @return the ZIP file
+     * @throws IOException if the file cannot be written
+     */
+    public Path generate(Path zip, String nbn) throws IOException {
+        var random = new Random(numberOfFiles * 31L + fileSize);
+        var content = new byte[fileSize];
+        var sha1 = newSha1();
+        var manifest = new StringBuilder();
+        var pidMapping = new StringBuilder(DATASET_PID + " data/\n");
+        var tagManifest = new StringBuilder();
+        var checksums = new String[numberOfFiles];
+        try (var zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(zip), 1024 * 1024))) {
+            writeTagFile(zos, "bagit.txt", "BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n", tagManifest);
+            writeTagFile(zos, "bag-info.txt", "Bagging-Date: 2025-01-01\nPayload-Oxum: " + (long) numberOfFiles * fileSize + "." + numberOfFiles + "\n",
+                tagManifest);
+            for (int i = 0; i < numberOfFiles; i++) {
+                random.nextBytes(content);
+                var path = "data/" + getDirectoryLabel(i) + "/" + getFileName(i);
+                zos.putNextEntry(new ZipEntry(BAG + path));
+                zos.write(content);
+                zos.closeEntry();
+                checksums[i] = HexFormat.of().formatHex(sha1.digest(content));
+                manifest.append(checksums[i]).append("  ").append(path).append('\n');
+                pidMapping.append("file-").append(i).append(' ').append(path).append('\n');
+            }
+            writeTagFile(zos, "manifest-sha1.txt", manifest, tagManifest);
+            writeTagFile(zos, "metadata/pid-mapping.txt", pidMapping, tagManifest);
+            zos.putNextEntry(new ZipEntry(BAG + "metadata/oai-ore.jsonld"));
+            // Not closed, because that would close the ZIP file
+            var oaiOre = new DigestOutputStream(zos, sha1);
+            writeOaiOre(oaiOre, nbn, checksums);
+            zos.closeEntry();
+            appendChecksum(tagManifest, sha1.digest(), "metadata/oai-ore.jsonld");
+            writeEntry(zos, BAG + "tagmanifest-sha1.txt", tagManifest);
+        }
+        return zip;
+    }
+
+    /*
+     * Spreads the files over directories of at most 1000 files, as a large dataset would be.
+     */
+    private static String getDirectoryLabel(int i) {
+        return String.format("dir-%04d", i / 1000);
+    }
+
+    private static String getFileName(int i) {
+        return String.format("file-%07d.bin", i);
+    }
+
+    private void writeOaiOre(OutputStream os, String nbn, String[] checksums) throws IOException {
+        var sb = new StringBuilder(Math.max(metadataSize, 1024) + 256);
+        sb.append("{\"@context\": {\"ore\": \"http://www.openarchives.org/ore/terms/\", \"dcterms\": \"http://purl.org/dc/terms/\",\n");
+        sb.append("  \"schema\": \"http://schema.org/\", \"dvcore\": \"https://dataverse.org/schema/core#\"},\n");
+        sb.append(" \"ore:describes\": {\n");
+        sb.append("  \"@id\": \"").append(DATASET_PID).append("\",\n");
+        sb.append("  \"title\": \"Synthetic dataset with ").append(numberOfFiles).append(" files\",\n");
+        sb.append("  \"ore:aggregates\": [");
+        for (int i = 0; i < numberOfFiles; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("\n   {\"@id\": \"file-").append(i).append("\", \"schema:name\": \"").append(getFileName(i))
+                .append("\", \"dvcore:directoryLabel\": \"").append(getDirectoryLabel(i)).append("\", \"dvcore:filesize\": ").append(fileSize)
+                .append(", \"dvcore:checksum\": {\"@type\": \"SHA-1\", \"@value\": \"").append(checksums[i]).append("\"}}");
+            if (sb.length() > 1024 * 1024) {
+                os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                sb.setLength(0);
+            }
+        }
+        sb.append("\n  ],\n");
+        sb.append("  \"dcterms:description\": \"");
+        // Pad to the requested size; the size of the aggregates is counted only roughly, which is fine for a benchmark
+        var padding = metadataSize - (long) numberOfFiles * 180 - 512;
+        for (long i = 0; i < padding; i++) {
+            sb.append((char) ('a' + i % 26));
+            if (sb.length() > 1024 * 1024) {
+                os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                sb.setLength(0);
+            }
+        }
+        sb.append("\",\n");
+        sb.append("  \"dansDataVaultMetadata:dansDataversePid\": \"").append(DATASET_PID).append("\",\n");
+        sb.append("  \"dansDataVaultMetadata:dansDataversePidVersion\": \"1.0\",\n");
+        sb.append("  \"dansDataVaultMetadata:dansBagId\": \"urn:uuid:").append(UUID.nameUUIDFromBytes(nbn.getBytes(StandardCharsets.UTF_8))).append("\",\n");
+        sb.append("  \"dansDataVaultMetadata:dansNbn\": \"").append(nbn).append("\"\n");
+        sb.append(" }\n}\n");
+        os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeTagFile(ZipOutputStream zos, String name, CharSequence content, StringBuilder tagManifest) throws IOException {
+        writeEntry(zos, BAG + name, content);
+        appendChecksum(tagManifest, newSha1().digest(content.toString().getBytes(StandardCharsets.UTF_8)), name);
+    }
+
+    private static void appendChecksum(StringBuilder manifest, byte[] checksum, String path) {
+        manifest.append(HexFormat.of().formatHex(checksum)).append("  ").append(path).append('\n');
+    }
+
+    private static void writeEntry(ZipOutputStream zos, String name, CharSequence content) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(content.toString().getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+    }
+
+    private static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
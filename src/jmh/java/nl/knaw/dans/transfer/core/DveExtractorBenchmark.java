@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.DveGenerator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the send-to-vault unzip path: extracting a DVE into an import batch with {@link DveExtractor}, including the verification of the CRCs and the bag
+ * manifest, for a DVE with many small files and one with a few large files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DveExtractorBenchmark {
+    /**
+     * The number of payload files and the size of each file, as {@code <files>x<bytes>}.
+     */
+    @Param({ "10000x4096", "20x16777216" })
+    public String payload;
+
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private Path dir;
+    private Path dve;
+    private ExecutorService executor;
+    private DveExtractor extractor;
+    private int run;
+
+    @Setup(Level.Trial)
+    public void createDve() throws IOException {
+        var parts = payload.split("x");
+        dir = Files.createTempDirectory("dve-extractor");
+        dve = new DveGenerator(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), 64 * 1024).generate(dir.resolve("dve.zip"), "urn:nbn:nl:ui:13-benchmark");
+        executor = Executors.newFixedThreadPool(parallelism);
+        extractor = new DveExtractor(executor, parallelism);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteBatch() throws IOException {
+        FileUtils.deleteDirectory(dir.resolve("batch").toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDve() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public DveExtractor.Result extract() throws IOException {
+        return extractor.extract(dve, dir.resolve("batch").resolve("dve-" + run++));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.knaw.dans.transfer.DveGenerator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Measures the heap needed to read the metadata and the list of files of a DVE with {@link DveMetadataReader#read(Path, java.util.function.Consumer)}, compared
+ * to loading <code>oai-ore.jsonld</code> as a tree, for DVEs with up to 200k files.
+ * </p>
+ * <p>
+ * Besides the time, two secondary results are reported per operation: <code>allocatedMB</code>, the total allocated by the benchmark thread, and
+ * <code>retainedMB</code>, the heap that is still in use after a full GC while the result of the operation is reachable. The latter is what each worker holds on
+ * to while it processes a DVE; it should not grow with the number of files for the streaming reader.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class DveMetadataReaderBenchmark {
+    private static final String NBN = "urn:nbn:nl:ui:13-benchmark";
+
+    @Param({ "1000", "20000", "200000" })
+    public int numberOfFiles;
+
+    private Path dir;
+    private Path dve;
+    private DveMetadataReader reader;
+    private ObjectMapper objectMapper;
+
+    /**
+     * Heap usage of one operation. Each measurement iteration is a single operation, so the counters are per operation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeapUsage {
+        public double allocatedMB;
+        public double retainedMB;
+
+        private Object result;
+        private long allocatedBefore;
+        private long usedBefore;
+
+        @Setup(Level.Invocation)
+        public void before() {
+            result = null;
+            System.gc();
+            usedBefore = usedHeap();
+            allocatedBefore = allocatedBytes();
+        }
+
+        @TearDown(Level.Invocation)
+        public void after() {
+            allocatedMB = (allocatedBytes() - allocatedBefore) / 1048576.0;
+            System.gc();
+            retainedMB = Math.max(0, usedHeap() - usedBefore) / 1048576.0;
+            result = null;
+        }
+
+        private static long usedHeap() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        private static long allocatedBytes() {
+            var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createDve() throws IOException {
+        dir = Files.createTempDirectory("dve-metadata-reader");
+        dve = new DveGenerator(numberOfFiles, 16, 1024).generate(dir.resolve("dve.zip"), NBN);
+        reader = new DveMetadataReader();
+        objectMapper = new ObjectMapper();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDve() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public long streaming(HeapUsage heap) throws IOException {
+        var totalSize = new AtomicLong();
+        heap.result = reader.read(dve, file -> totalSize.addAndGet(file.size()));
+        return totalSize.get();
+    }
+
+    @Benchmark
+    public Object tree(HeapUsage heap) throws IOException {
+        try (var zip = new ZipFile(dve.toFile()); var is = zip.getInputStream(NbnLocator.findMetadataEntry(zip))) {
+            heap.result = objectMapper.readTree(is);
+            return heap.result;
+        }
+    }
+}
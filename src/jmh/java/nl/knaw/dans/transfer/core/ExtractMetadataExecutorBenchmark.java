@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the platform-thread pool of the extract-metadata stage with {@link VirtualThreadExecutor}. Each task makes a blocking HTTP request to a local server
+ * that answers after <code>latencyMillis</code>, like the calls to the Vault Catalog. The tasks for 64 NBNs go through a {@link KeyedSequentialExecutor}, as in
+ * the service. On a Java runtime without virtual threads, the <code>virtual</code> variant measures the platform-thread fallback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractMetadataExecutorBenchmark {
+    private static final int NUMBER_OF_NBNS = 64;
+    private static final int DVES_PER_NBN = 4;
+
+    @Param({ "platform", "virtual" })
+    public String threads;
+
+    @Param({ "3", "16", "64" })
+    public int concurrency;
+
+    @Param({ "20" })
+    public int latencyMillis;
+
+    private HttpServer server;
+    private ScheduledExecutorService responder;
+    private URL url;
+    private ExecutorService workers;
+    private KeyedSequentialExecutor<String> executor;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        responder = Executors.newScheduledThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/", exchange -> responder.schedule(() -> {
+            try (exchange) {
+                exchange.sendResponseHeaders(200, 2);
+                exchange.getResponseBody().write("{}".getBytes());
+            }
+            catch (IOException e) {
+                // The client went away
+            }
+        }, latencyMillis, TimeUnit.MILLISECONDS));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+        workers = "virtual".equals(threads)
+            ? VirtualThreadExecutor.create("benchmark-worker", concurrency)
+            : Executors.newFixedThreadPool(concurrency);
+        executor = new KeyedSequentialExecutor<>(workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        workers.shutdownNow();
+        server.stop(0);
+        responder.shutdownNow();
+    }
+
+    @Benchmark
+    public void processDves() throws InterruptedException {
+        var done = new CountDownLatch(NUMBER_OF_NBNS * DVES_PER_NBN);
+        for (int i = 0; i < DVES_PER_NBN; i++) {
+            for (int n = 0; n < NUMBER_OF_NBNS; n++) {
+                executor.execute("urn:nbn:nl:ui:13-" + n, () -> {
+                    try {
+                        callCatalog();
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        done.await();
+    }
+
+    private void callCatalog() {
+        try {
+            var connection = (HttpURLConnection) url.openConnection();
+            try (InputStream in = connection.getInputStream()) {
+                in.readAllBytes();
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
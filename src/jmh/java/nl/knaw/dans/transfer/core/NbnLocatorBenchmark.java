@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.DveGenerator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the collect-dve stage takes to determine the target NBN ({@link NbnLocator#findNbn(Path)}) and the identity of a DVE
+ * ({@link NbnLocator#identify(Path)}), for DVEs with up to a million entries and OAI-ORE documents of up to 50MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NbnLocatorBenchmark {
+    private static final String NBN = "urn:nbn:nl:ui:13-benchmark";
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int numberOfFiles;
+
+    @Param({ "1024", "1048576", "52428800" })
+    public int metadataSize;
+
+    private Path dir;
+    private Path dve;
+    private NbnLocator locator;
+
+    @Setup(Level.Trial)
+    public void createDve() throws IOException {
+        dir = Files.createTempDirectory("nbn-locator");
+        dve = new DveGenerator(numberOfFiles, 16, metadataSize).generate(dir.resolve("dve.zip"), NBN);
+        locator = new NbnLocator();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDve() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public String findNbn() throws IOException {
+        return locator.findNbn(dve);
+    }
+
+    @Benchmark
+    public DveIdentity identify() throws IOException {
+        return locator.identify(dve);
+    }
+}
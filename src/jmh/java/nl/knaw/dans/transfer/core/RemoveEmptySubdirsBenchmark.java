@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one run of {@link RemoveEmptySubdirsTask} over an inbox with many NBN subdirectories, most of which are empty. The empty directories are recreated
+ * before every run, so each run does the same amount of work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RemoveEmptySubdirsBenchmark {
+    @Param({ "10000" })
+    public int numberOfSubdirs;
+
+    /**
+     * Every n-th subdirectory contains a DVE and is therefore kept.
+     */
+    @Param({ "10" })
+    public int nonEmptyEvery;
+
+    private Path inbox;
+
+    @Setup(Level.Trial)
+    public void createInbox() throws IOException {
+        inbox = Files.createTempDirectory("remove-empty-subdirs");
+        Files.createDirectories(inbox.resolve("outbox"));
+        for (int i = 0; i < numberOfSubdirs; i += nonEmptyEvery) {
+            var subdir = Files.createDirectories(getSubdir(i));
+            Files.createFile(subdir.resolve("dve.zip"));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createEmptySubdirs() throws IOException {
+        for (int i = 0; i < numberOfSubdirs; i++) {
+            if (i % nonEmptyEvery != 0) {
+                Files.createDirectories(getSubdir(i));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteInbox() throws IOException {
+        FileUtils.deleteDirectory(inbox.toFile());
+    }
+
+    private Path getSubdir(int i) {
+        return inbox.resolve(String.format("urn:nbn:nl:ui:13-%08d", i));
+    }
+
+    @Benchmark
+    public void removeEmptySubdirs() {
+        new RemoveEmptySubdirsTask(inbox, "outbox").run();
+    }
+}
@@ -19,28 +19,169 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
+/**
+ * <p>
+ * Orders inbox items by creation time, using the file name as a tiebreaker so that the order is stable for items created in the same millisecond.
+ * </p>
+ * <p>
+ * The creation time of each path is read only once and then cached, so comparing two paths does not cost any system calls after the first scan, and does not
+ * take a lock. Use {@link #sort(Collection)} to order a complete scan: it looks up each path once, drops the cache entries of paths that are no longer present,
+ * and sorts an array of primitive keys instead of comparing paths.
+ * </p>
+ * <p>
+ * The comparator is shared by all stages. To keep the cache bounded, a scan evicts the entries of its own directories that were not seen, and beyond
+ * {@link #MAX_CACHED_PATHS} entries an arbitrary entry is evicted for every new one.
+ * </p>
+ */
 public class CreationTimeComparator implements Comparator<Path> {
-    private static CreationTimeComparator instance;
+    static final int MAX_CACHED_PATHS = 1_000_000;
+
+    private static final Comparator<Path> BY_NAME = Comparator.comparing(path -> path.getFileName().toString());
+
+    private final Map<Path, Long> creationTimes = new ConcurrentHashMap<>();
+    private final ToLongFunction<Path> creationTimeReader;
+    private final int maxCachedPaths;
+
+    /**
+     * @param creationTimeReader reads the creation time of a path, in milliseconds since the epoch
+     * @param maxCachedPaths     the maximum number of creation times to cache
+     */
+    CreationTimeComparator(ToLongFunction<Path> creationTimeReader, int maxCachedPaths) {
+        this.creationTimeReader = creationTimeReader;
+        this.maxCachedPaths = maxCachedPaths;
+    }
 
-    private CreationTimeComparator() {
-        // Private constructor to prevent instantiation
+    private static class Holder {
+        private static final CreationTimeComparator INSTANCE = new CreationTimeComparator(CreationTimeComparator::readCreationTime, MAX_CACHED_PATHS);
     }
 
     public static CreationTimeComparator getInstance() {
-        if (instance == null) {
-            instance = new CreationTimeComparator();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     @Override
     public int compare(Path o1, Path o2) {
+        int result = Long.compare(getCreationTime(o1), getCreationTime(o2));
+        return result != 0 ? result : BY_NAME.compare(o1, o2);
+    }
+
+    /**
+     * Returns the paths sorted by creation time, with the file name as a tiebreaker. Each path is stat-ed at most once. Cache entries for paths in the same
+     * directories that are not in <code>paths</code> anymore are removed.
+     *
+     * @param paths the items of one scan
+     * @return a new list with the items in processing order
+     */
+    public List<Path> sort(Collection<Path> paths) {
+        var items = paths.toArray(new Path[0]);
+        var n = items.length;
+        var times = new long[n];
+        var oldest = Long.MAX_VALUE;
+        var newest = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            times[i] = getCreationTime(items[i]);
+            oldest = Math.min(oldest, times[i]);
+            newest = Math.max(newest, times[i]);
+        }
+        if (n > 1 && fitsInKey(oldest, newest, n)) {
+            // The key is the creation time relative to the oldest item, times n, plus the index of the item; so sorting the keys orders the items by creation
+            // time, and the item can be found back from its key
+            var keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = (times[i] - oldest) * n + i;
+            }
+            Arrays.sort(keys);
+            var sorted = new Path[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = items[(int) (keys[i] % n)];
+            }
+            sortTiesByName(sorted, keys, n);
+            items = sorted;
+        }
+        else {
+            Arrays.sort(items, this);
+        }
+        evictMissing(paths);
+        return Arrays.asList(items);
+    }
+
+    private static boolean fitsInKey(long oldest, long newest, int n) {
+        var range = newest - oldest;
+        // A negative range means that the subtraction overflowed
+        return range >= 0 && range <= (Long.MAX_VALUE - n) / n;
+    }
+
+    /*
+     * Items with the same creation time are next to each other after sorting on the keys; order each such run by name.
+     */
+    private static void sortTiesByName(Path[] sorted, long[] keys, int n) {
+        int runStart = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || keys[i] / n != keys[runStart] / n) {
+                if (i - runStart > 1) {
+                    Arrays.sort(sorted, runStart, i, BY_NAME);
+                }
+                runStart = i;
+            }
+        }
+    }
+
+    /**
+     * Removes the cached creation time of a path, for instance because the item was moved out of the inbox.
+     *
+     * @param path the path to forget
+     */
+    public void forget(Path path) {
+        creationTimes.remove(path);
+    }
+
+    int getCachedPaths() {
+        return creationTimes.size();
+    }
+
+    private void evictMissing(Collection<Path> paths) {
+        Set<Path> scanned = new HashSet<>(paths);
+        Set<Path> scannedDirs = scanned.stream().map(Path::getParent).collect(Collectors.toSet());
+        creationTimes.keySet().removeIf(p -> !scanned.contains(p) && scannedDirs.contains(p.getParent()));
+    }
+
+    private long getCreationTime(Path path) {
+        var cached = creationTimes.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        // Read outside of any map operation, so that a slow file system does not hold up the other stages
+        var creationTime = creationTimeReader.applyAsLong(path);
+        if (creationTimes.putIfAbsent(path, creationTime) == null && creationTimes.size() > maxCachedPaths) {
+            evictOtherThan(path);
+        }
+        return creationTime;
+    }
+
+    private void evictOtherThan(Path path) {
+        for (var cached : creationTimes.keySet()) {
+            if (!cached.equals(path) && creationTimes.remove(cached) != null) {
+                return;
+            }
+        }
+    }
+
+    private static long readCreationTime(Path path) {
         try {
-            return Long.compare(Files.readAttributes(o1, BasicFileAttributes.class).creationTime().toMillis(),
-                    Files.readAttributes(o2, BasicFileAttributes.class).creationTime().toMillis());
-        } catch (IOException e) {
+            return Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis();
+        }
+        catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -16,15 +16,88 @@
 
 package nl.knaw.dans.transfer;
 
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.core.Application;
 import io.dropwizard.core.setup.Bootstrap;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.db.PooledDataSourceFactory;
+import io.dropwizard.hibernate.HibernateBundle;
+import io.dropwizard.hibernate.UnitOfWorkAwareProxyFactory;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.exporter.MetricsServlet;
+import lombok.extern.slf4j.Slf4j;
 import nl.knaw.dans.lib.util.inbox.Inbox;
+import nl.knaw.dans.lib.util.inbox.InboxTaskFactory;
+import nl.knaw.dans.transfer.admin.FailureSummaryServlet;
+import nl.knaw.dans.transfer.admin.PurgeClusterInstanceTask;
+import nl.knaw.dans.transfer.client.DataVaultClient;
+import nl.knaw.dans.transfer.client.GmhClient;
+import nl.knaw.dans.transfer.client.VaultCatalogClient;
+import nl.knaw.dans.transfer.config.BackpressureConfig;
+import nl.knaw.dans.transfer.config.ClusterConfig;
 import nl.knaw.dans.transfer.config.DdTransferToVaultConfiguration;
+import nl.knaw.dans.transfer.config.InboxConfig;
+import nl.knaw.dans.transfer.core.AdmissionGate;
+import nl.knaw.dans.transfer.core.ArchiveConfirmationScheduler;
+import nl.knaw.dans.transfer.core.BagpackValidator;
+import nl.knaw.dans.transfer.core.CatalogUpdater;
+import nl.knaw.dans.transfer.core.ClusterCoordinator;
+import nl.knaw.dans.transfer.core.ClusterDve;
+import nl.knaw.dans.transfer.core.ClusterMember;
 import nl.knaw.dans.transfer.core.CollectDveTaskFactory;
+import nl.knaw.dans.transfer.core.CollectOrder;
+import nl.knaw.dans.transfer.core.DedupIndex;
+import nl.knaw.dans.transfer.core.DveExtractor;
+import nl.knaw.dans.transfer.core.DveMetadataCache;
+import nl.knaw.dans.transfer.core.DveMetadataReader;
+import nl.knaw.dans.transfer.core.EmptyDirReaper;
 import nl.knaw.dans.transfer.core.ExtractMetadataTaskFactory;
-import nl.knaw.dans.transfer.core.RemoveEmptySubdirsTask;
+import nl.knaw.dans.transfer.core.FailedDveHandler;
+import nl.knaw.dans.transfer.core.FailureIndex;
+import nl.knaw.dans.transfer.core.FileMover;
+import nl.knaw.dans.transfer.core.ImportBatchManager;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+import nl.knaw.dans.transfer.core.KeyedSequentialExecutor;
+import nl.knaw.dans.transfer.core.Lane;
+import nl.knaw.dans.transfer.core.LaneExecutor;
+import nl.knaw.dans.transfer.core.NbnOwnership;
+import nl.knaw.dans.transfer.core.NbnRegistration;
+import nl.knaw.dans.transfer.core.NbnRegistrationBacklog;
+import nl.knaw.dans.transfer.core.NbnRegistrationQueue;
+import nl.knaw.dans.transfer.core.NbnRegistrationScheduler;
+import nl.knaw.dans.transfer.core.PartitionLease;
+import nl.knaw.dans.transfer.core.PartitionLeases;
+import nl.knaw.dans.transfer.core.PipelineJournal;
+import nl.knaw.dans.transfer.core.SendToVaultTaskFactory;
+import nl.knaw.dans.transfer.core.StageLoad;
+import nl.knaw.dans.transfer.core.StageMetrics;
+import nl.knaw.dans.transfer.core.TransferredDve;
+import nl.knaw.dans.transfer.core.TransferredDves;
+import nl.knaw.dans.transfer.core.VirtualThreadExecutor;
+import nl.knaw.dans.transfer.core.Watermark;
+import nl.knaw.dans.transfer.core.WatchingInbox;
+import nl.knaw.dans.transfer.db.NbnRegistrationDao;
+import nl.knaw.dans.transfer.db.PartitionLeaseDao;
+import nl.knaw.dans.transfer.db.TransferredDveDao;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.LongSupplier;
+
+@Slf4j
 public class DdTransferToVaultApplication extends Application<DdTransferToVaultConfiguration> {
 
     public static void main(final String[] args) throws Exception {
@@ -36,34 +109,354 @@ public class DdTransferToVaultApplication extends Application<DdTransferToVaultC
         return "DD Transfer To Vault";
     }
 
+    private final HibernateBundle<DdTransferToVaultConfiguration> hibernateBundle = new HibernateBundle<>(NbnRegistration.class, PartitionLease.class, ClusterMember.class,
+        ClusterDve.class, TransferredDve.class) {
+
+        @Override
+        public PooledDataSourceFactory getDataSourceFactory(DdTransferToVaultConfiguration configuration) {
+            return configuration.getDatabase();
+        }
+    };
+
     @Override
     public void initialize(final Bootstrap<DdTransferToVaultConfiguration> bootstrap) {
-        // TODO: application initialization
+        bootstrap.addBundle(hibernateBundle);
     }
 
     @Override
     public void run(final DdTransferToVaultConfiguration configuration, final Environment environment) {
+        // Managed first, so that it has been replayed before any of the stages start
+        var journal = new PipelineJournal(configuration.getTransfer().getJournal(), environment.getObjectMapper());
+        environment.lifecycle().manage(journal);
+
+        var nbnRegistrationQueue = new UnitOfWorkAwareProxyFactory(hibernateBundle)
+            .create(NbnRegistrationQueue.class, NbnRegistrationDao.class, new NbnRegistrationDao(hibernateBundle.getSessionFactory()));
+        var nbnRegistrationConfig = configuration.getNbnRegistration();
+        var nbnRegistrationMetrics = new StageMetrics(environment.metrics(), StageMetrics.NBN_REGISTRATION);
+        environment.lifecycle().manage(new NbnRegistrationScheduler(nbnRegistrationQueue,
+            new GmhClient(
+                new JerseyClientBuilder(environment).using(nbnRegistrationConfig.getGmh().getHttpClient()).build("gmh"),
+                nbnRegistrationConfig.getGmh().getUrl(),
+                nbnRegistrationConfig.getGmh().getToken()),
+            nbnRegistrationConfig,
+            environment.lifecycle().executorService("nbn-registration-dispatcher").maxThreads(1).minThreads(1).build(),
+            nbnRegistrationConfig.isVirtualThreads()
+                ? createVirtualThreadExecutor(environment, "nbn-registration", nbnRegistrationConfig.getMaxConcurrentRequests())
+                : environment.lifecycle().executorService("nbn-registration-%d")
+                    .minThreads(nbnRegistrationConfig.getMaxConcurrentRequests()).maxThreads(nbnRegistrationConfig.getMaxConcurrentRequests()).build(),
+            nbnRegistrationMetrics));
+
+        var transferConfig = configuration.getTransfer();
+        var collectDveMetrics = new StageMetrics(environment.metrics(), StageMetrics.COLLECT_DVE);
+        // Shared by all stages, so that the metadata of a DVE is read only once, normally by the collect-dve stage
+        var metadataCache = new DveMetadataCache(new DveMetadataReader(collectDveMetrics), transferConfig.getMetadataCache().getMaxEntries(),
+            transferConfig.getMetadataCache().getSpillFile(), environment.getObjectMapper(), environment.metrics());
+        environment.lifecycle().manage(metadataCache);
+        var extractMetadataMetrics = new StageMetrics(environment.metrics(), StageMetrics.EXTRACT_METADATA);
+        var sendToVaultMetrics = new StageMetrics(environment.metrics(), StageMetrics.SEND_TO_VAULT);
+
+        // Kept up to date by the file movers of all stages, so that checking the watermarks never requires listing an inbox
+        var extractMetadataLoad = new StageLoad(transferConfig.getExtractMetadata().getInbox().getPath(), extractMetadataMetrics);
+        var sendToVaultLoad = new StageLoad(transferConfig.getSendToVault().getInbox().getPath(), sendToVaultMetrics);
+        var loads = List.of(extractMetadataLoad, sendToVaultLoad);
+        environment.lifecycle().manage(new Managed() {
+
+            @Override
+            public void start() {
+                loads.forEach(StageLoad::count);
+            }
+        });
+        var admissionCheckInterval = transferConfig.getBackpressureCheckInterval().toMilliseconds();
+        var admissionScheduler = environment.lifecycle().scheduledExecutorService("admission-check").build();
+        var collectDveGate = new AdmissionGate(
+            watermarks("extract-metadata inbox", transferConfig.getExtractMetadata().getBackpressure(), extractMetadataLoad::getItems, extractMetadataLoad::getBytes),
+            admissionCheckInterval, admissionScheduler, null, collectDveMetrics);
+        environment.lifecycle().manage(collectDveGate);
+        var extractMetadataWatermarks = watermarks("send-to-vault inbox", transferConfig.getSendToVault().getBackpressure(), sendToVaultLoad::getItems,
+            sendToVaultLoad::getBytes);
+        // Counted on the admission-check scheduler, so that the gate does not query the database on every check
+        var nbnRegistrationBacklog = new NbnRegistrationBacklog(nbnRegistrationQueue, admissionCheckInterval, admissionScheduler, nbnRegistrationMetrics);
+        environment.lifecycle().manage(nbnRegistrationBacklog);
+        extractMetadataWatermarks.addAll(watermarks("NBN registration queue", nbnRegistrationConfig.getBackpressure(), nbnRegistrationBacklog::getPending, null));
+        var extractMetadataGate = new AdmissionGate(extractMetadataWatermarks, admissionCheckInterval, admissionScheduler, null, extractMetadataMetrics);
+        environment.lifecycle().manage(extractMetadataGate);
+
+        // Removes the NBN directories that the extract-metadata stage has drained; runs on the collect-dve poller
+        var emptyDirReaper = new EmptyDirReaper(configuration.getTransfer().getCollectDve().getOutbox().getProcessed());
+        collectDveMetrics.registerGauge("empty-dirs.pending", emptyDirReaper::getPending);
+        var collectDveConfig = transferConfig.getCollectDve();
+        var laneWeights = transferConfig.getLanes().getWeights();
+        // N.B. this MUST be a single-threaded executor to prevent DVEs from out-racing each other via parallel processing, which would mess up the order of the DVEs.
+        // The lanes only decide which inbox goes next; within an inbox the DVEs are still collected in creation order, and across the inboxes per NBN in arrival order.
+        var collectDveLanes = new LaneExecutor(environment.lifecycle().executorService("transfer-inbox").maxThreads(1).minThreads(1).build(), 1, laneWeights,
+            collectDveMetrics);
+        var nbnResolver = collectDveConfig.getNbnResolution() == null ? null : collectDveConfig.getNbnResolution().build(environment);
+        var collectDveFileMover = new FileMover(environment.metrics(), StageMetrics.COLLECT_DVE, transferConfig.isVerifyCrossDeviceMoves(), loads);
+        DedupIndex dedupIndex = null;
+        if (collectDveConfig.getDedup() != null) {
+            var dedupConfig = collectDveConfig.getDedup();
+            dedupIndex = new DedupIndex(
+                new UnitOfWorkAwareProxyFactory(hibernateBundle)
+                    .create(TransferredDves.class, TransferredDveDao.class, new TransferredDveDao(hibernateBundle.getSessionFactory())),
+                dedupConfig.getOutbox(), dedupConfig.getExpectedEntries(), dedupConfig.getFalsePositiveRate());
+            // Managed before the inboxes, so that the Bloom filter has been filled before the first DVE is collected
+            environment.lifecycle().manage(dedupIndex);
+        }
+        FailedDveHandler failedDveHandler = null;
+        if (collectDveConfig.getFailureHandling() != null) {
+            var failureHandlingConfig = collectDveConfig.getFailureHandling();
+            var failureIndex = new FailureIndex(failureHandlingConfig.getIndex(), environment.getObjectMapper(), failureHandlingConfig.getMaxRecent());
+            environment.lifecycle().manage(failureIndex);
+            // When the queue is full, the collect thread moves the failed DVE itself, so that the quarantine cannot grow without bound
+            var failureWorker = environment.lifecycle().executorService("collect-dve-failures").minThreads(1).maxThreads(1)
+                .workQueue(new ArrayBlockingQueue<>(failureHandlingConfig.getMaxQueueSize()))
+                .rejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+                .build();
+            failedDveHandler = new FailedDveHandler(StageMetrics.COLLECT_DVE, failureHandlingConfig.getQuarantine(), collectDveConfig.getOutbox().getFailed(),
+                collectDveFileMover, failureIndex, failureWorker);
+            // Managed before the inboxes, so that DVEs left in quarantine by a crash are moved on before new failures arrive
+            environment.lifecycle().manage(failedDveHandler);
+            collectDveMetrics.registerGauge("failures.pending", failedDveHandler::getPending);
+            environment.admin().addServlet("failures", new FailureSummaryServlet(failureIndex, environment.getObjectMapper())).addMapping("/failures");
+        }
+        // Keeps a DVE in the interactive lane from overtaking an earlier DVE of the same NBN in the bulk lane
+        CollectOrder collectOrder = null;
+        if (collectDveConfig.getBulkInbox() != null) {
+            collectOrder = new CollectOrder(metadataCache);
+            collectDveMetrics.registerGauge("held-back", collectOrder::getHeldBack);
+        }
         environment.lifecycle().manage(
-            Inbox.builder()
-                .onPollingHandler(new RemoveEmptySubdirsTask(configuration.getTransfer().getCollectDve().getOutbox().getProcessed()))
-                .taskFactory(new CollectDveTaskFactory(
-                    configuration.getTransfer().getCollectDve().getOutbox().getProcessed(),
-                    configuration.getTransfer().getCollectDve().getOutbox().getFailed()))
-                .inbox(configuration.getTransfer().getCollectDve().getInbox().getPath())
-                // N.B. this MUST be a single-threaded executor to prevent DVEs from out-racing each other via parallel processing, which would mess up the order of the DVEs.
-                .executorService(environment.lifecycle().executorService("transfer-inbox").maxThreads(1).minThreads(1).build())
-                .interval(Math.toIntExact(configuration.getTransfer().getCollectDve().getInbox().getPollingInterval().toMilliseconds()))
-                .inboxItemComparator(CreationTimeComparator.getInstance())
-                .build());
+            createInbox(collectDveMetrics,
+                collectDveConfig.getInbox(),
+                false,
+                new CollectDveTaskFactory(collectDveConfig.getOutbox().getProcessed(), collectDveConfig.getOutbox().getFailed(), nbnResolver, collectDveFileMover,
+                    journal, metadataCache, Lane.INTERACTIVE, dedupIndex, failedDveHandler, collectOrder, collectDveMetrics),
+                collectDveLanes.forLane(Lane.INTERACTIVE),
+                emptyDirReaper,
+                collectDveGate,
+                environment));
+        if (collectDveConfig.getBulkInbox() != null) {
+            environment.lifecycle().manage(
+                createInbox(collectDveMetrics,
+                    collectDveConfig.getBulkInbox(),
+                    false,
+                    new CollectDveTaskFactory(collectDveConfig.getOutbox().getProcessed(), collectDveConfig.getOutbox().getFailed(), nbnResolver, collectDveFileMover,
+                        journal, metadataCache, Lane.BULK, dedupIndex, failedDveHandler, collectOrder, collectDveMetrics),
+                    collectDveLanes.forLane(Lane.BULK),
+                    null,
+                    collectDveGate,
+                    environment));
+        }
+
+        var extractMetadataConfig = configuration.getTransfer().getExtractMetadata();
+        // The keyed executor hands at most one task per NBN to the workers, so per-NBN ordering does not depend on the kind of workers
+        var extractMetadataVirtualThreads = extractMetadataConfig.getVirtualThreads();
+        var extractMetadataExecutor = new KeyedSequentialExecutor<String>(extractMetadataVirtualThreads.isEnabled()
+            ? new LaneExecutor(createVirtualThreadExecutor(environment, "extract-metadata-worker", extractMetadataVirtualThreads.getMaxConcurrency()),
+                extractMetadataVirtualThreads.getMaxConcurrency(), laneWeights, extractMetadataMetrics)
+            : new LaneExecutor(extractMetadataConfig.getTaskQueue().build(environment), extractMetadataConfig.getTaskQueue().getMaxThreads(), laneWeights,
+                extractMetadataMetrics));
+        var vaultCatalogConfig = configuration.getVaultCatalog();
+        var vaultCatalogClient = new VaultCatalogClient(new JerseyClientBuilder(environment).using(vaultCatalogConfig.getHttpClient()).build("vault-catalog"),
+            vaultCatalogConfig.getUrl());
+        var catalogUpdater = new CatalogUpdater(
+            vaultCatalogClient,
+            vaultCatalogConfig.getMaxInFlight(),
+            vaultCatalogConfig.getMaxBatchSize(),
+            extractMetadataMetrics);
+        extractMetadataMetrics.registerGauge("queue-depth", extractMetadataExecutor::getTotalQueueDepth);
+        extractMetadataMetrics.registerGauge("active-nbns", extractMetadataExecutor::getActiveKeys);
+        var clusterConfig = configuration.getCluster();
+        ClusterCoordinator clusterCoordinator = null;
+        if (clusterConfig.isEnabled()) {
+            clusterCoordinator = new ClusterCoordinator(
+                new UnitOfWorkAwareProxyFactory(hibernateBundle)
+                    .create(PartitionLeases.class, PartitionLeaseDao.class, new PartitionLeaseDao(hibernateBundle.getSessionFactory())),
+                clusterConfig,
+                getInstanceId(clusterConfig),
+                environment.lifecycle().scheduledExecutorService("cluster-heartbeat").build(),
+                () -> extractMetadataExecutor.getQueueDepths().keySet(),
+                journal,
+                environment.metrics());
+            // Managed before the extract-metadata inbox, so that the first leases are held before it starts, and released only after it has stopped
+            environment.lifecycle().manage(clusterCoordinator);
+        }
+        NbnOwnership ownership = clusterCoordinator == null ? NbnOwnership.all() : clusterCoordinator;
+        var extractMetadataTaskFactory = new ExtractMetadataTaskFactory(extractMetadataConfig.getInbox().getPath(), extractMetadataConfig.getOutbox(),
+            extractMetadataExecutor,
+            new FileMover(environment.metrics(), StageMetrics.EXTRACT_METADATA, transferConfig.isVerifyCrossDeviceMoves(), loads),
+            new BagpackValidator(extractMetadataMetrics), catalogUpdater, nbnRegistrationQueue, nbnRegistrationConfig.getCatalogBaseUrl(), journal, metadataCache,
+            emptyDirReaper, ownership, extractMetadataGate, extractMetadataMetrics);
+        if (clusterCoordinator != null) {
+            // Pick up the NBN directories that were already waiting in partitions taken over from another instance, or for NBNs that were held back
+            clusterCoordinator.onAcquired(extractMetadataTaskFactory::resumeWhere);
+        }
+        environment.lifecycle().manage(new Managed() {
 
+            @Override
+            public void start() {
+                // Start on the NBNs that were in progress before the restart, without waiting for the first scan of the inbox
+                extractMetadataTaskFactory.resume(journal.getNbns(Stage.COLLECTED, Stage.CATALOGED));
+            }
+        });
         environment.lifecycle().manage(
-            Inbox.builder()
-                .taskFactory(new ExtractMetadataTaskFactory())
-                .inbox(configuration.getTransfer().getExtractMetadata().getInbox().getPath())
-                .executorService(configuration.getTransfer().getExtractMetadata().getTaskQueue().build(environment))
-                .interval(Math.toIntExact(configuration.getTransfer().getExtractMetadata().getInbox().getPollingInterval().toMilliseconds()))
+            createInbox(extractMetadataMetrics,
+                extractMetadataConfig.getInbox(),
+                // The DVEs arrive in the NBN directories, which are the items of this inbox
+                true,
+                extractMetadataTaskFactory,
+                // Only hands the NBN directories to the extractMetadataExecutor, so a single thread is enough.
+                environment.lifecycle().executorService("extract-metadata-dispatcher").maxThreads(1).minThreads(1).build(),
+                null,
+                extractMetadataGate,
+                environment));
+
+        var sendToVaultConfig = configuration.getTransfer().getSendToVault();
+        var dataVaultClient = new DataVaultClient(
+            new JerseyClientBuilder(environment).using(configuration.getDataVault().getHttpClient()).build("data-vault"),
+            configuration.getDataVault().getUrl());
+        var archiveConfirmationScheduler = new ArchiveConfirmationScheduler(dataVaultClient, catalogUpdater, configuration.getDataVault().getConfirmation(),
+            sendToVaultConfig.getDataVault().getBatchRoot(),
+            environment.getObjectMapper(),
+            environment.lifecycle().scheduledExecutorService("archive-confirmation").build(),
+            new StageMetrics(environment.metrics(), StageMetrics.ARCHIVE_CONFIRMATION));
+        if (clusterCoordinator != null) {
+            archiveConfirmationScheduler.onArchived(clusterCoordinator::archived);
+            // A failed batch is kept for an operator; the other instances must not hold back its NBNs until then
+            archiveConfirmationScheduler.onImportFailed(clusterCoordinator::importFailed);
+            environment.admin().addTask(new PurgeClusterInstanceTask(clusterCoordinator));
+        }
+        if (dedupIndex != null) {
+            // Only once the vault has confirmed the import, so that a copy of a DVE whose import failed is not set aside as a duplicate
+            archiveConfirmationScheduler.onArchived(dedupIndex::archived);
+        }
+        environment.lifecycle().manage(archiveConfirmationScheduler);
+        // N.B. this MUST be a single-threaded executor, because the batch manager keeps track of the size of the current batch.
+        var sendToVaultExecutor = environment.lifecycle().executorService("send-to-vault").maxThreads(1).minThreads(1).build();
+        var unzipExecutor = sendToVaultConfig.isVirtualThreads()
+            ? createVirtualThreadExecutor(environment, "send-to-vault-unzip", sendToVaultConfig.getUnzipThreads())
+            : environment.lifecycle().executorService("send-to-vault-unzip-%d")
+                .minThreads(sendToVaultConfig.getUnzipThreads()).maxThreads(sendToVaultConfig.getUnzipThreads()).build();
+        var batchManager = new ImportBatchManager(sendToVaultConfig.getDataVault(),
+            new DveExtractor(unzipExecutor, sendToVaultConfig.getUnzipThreads()),
+            (batchDir, dves) -> {
+                var status = dataVaultClient.startImport(batchDir);
+                log.info("Requested import of batch {}; import job id = {}", batchDir, status.getId());
+                archiveConfirmationScheduler.schedule(status.getId(), batchDir, dves);
+            },
+            environment.getObjectMapper(),
+            sendToVaultExecutor,
+            environment.lifecycle().scheduledExecutorService("send-to-vault-batch-timer").build(),
+            sendToVaultMetrics);
+        environment.lifecycle().manage(batchManager);
+        var batchRoot = sendToVaultConfig.getDataVault().getBatchRoot();
+        var sendToVaultWatermarks = new ArrayList<Watermark>();
+        if (sendToVaultConfig.getDataVault().getMinFreeSpace() != null) {
+            sendToVaultWatermarks.add(Watermark.below("free space in " + batchRoot, () -> getUsableSpace(batchRoot),
+                sendToVaultConfig.getDataVault().getMinFreeSpace().toBytes(), sendToVaultConfig.getDataVault().getEffectiveResumeFreeSpace()));
+        }
+        // While paused, the send-to-vault thread still closes the current batch when it expires, so that it can be imported and its space freed
+        var sendToVaultGate = new AdmissionGate(sendToVaultWatermarks, admissionCheckInterval, admissionScheduler, batchManager::closeIfExpired, sendToVaultMetrics);
+        environment.lifecycle().manage(sendToVaultGate);
+        var sendToVaultQueue = new KeyedSequentialExecutor<String>(new LaneExecutor(sendToVaultExecutor, 1, laneWeights, sendToVaultMetrics));
+        sendToVaultMetrics.registerGauge("queue-depth", sendToVaultQueue::getTotalQueueDepth);
+        environment.lifecycle().manage(
+            createInbox(sendToVaultMetrics,
+                sendToVaultConfig.getInbox(),
+                false,
+                new SendToVaultTaskFactory(sendToVaultConfig.getOutbox(), batchManager,
+                    new FileMover(environment.metrics(), StageMetrics.SEND_TO_VAULT, transferConfig.isVerifyCrossDeviceMoves(), loads),
+                    journal,
+                    metadataCache,
+                    catalogUpdater,
+                    sendToVaultQueue,
+                    sendToVaultGate,
+                    sendToVaultMetrics),
+                // Only hands the DVEs to the sendToVaultQueue, which gates them itself; they are sent on the send-to-vault thread
+                environment.lifecycle().executorService("send-to-vault-dispatcher").maxThreads(1).minThreads(1).build(),
+                null,
+                null,
+                environment));
+
+        registerPrometheusEndpoint(environment);
+    }
+
+    private Managed createInbox(StageMetrics metrics, InboxConfig inboxConfig, boolean watchSubdirectories, InboxTaskFactory taskFactory,
+        ExecutorService executorService, Runnable onPollingHandler, AdmissionGate admissionGate, Environment environment) {
+        // Without an admission gate, the task factory gates its tasks itself
+        InboxTaskFactory trackingTaskFactory = admissionGate == null
+            ? path -> metrics.trackBacklog(taskFactory.createInboxTask(path))
+            : path -> metrics.trackBacklog(admissionGate.admit(taskFactory.createInboxTask(path)));
+        if (inboxConfig.isWatch()) {
+            return WatchingInbox.builder()
+                .inbox(inboxConfig.getPath())
+                .taskFactory(trackingTaskFactory)
+                .executorService(executorService)
                 .inboxItemComparator(CreationTimeComparator.getInstance())
-                .build());
+                .onPollingHandler(onPollingHandler)
+                .safetyNetInterval(inboxConfig.getSafetyNetInterval().toMilliseconds())
+                .pickupLatency(environment.metrics().timer(MetricRegistry.name(metrics.getStage(), "pickup-latency")))
+                .watchSubdirectories(watchSubdirectories)
+                .build();
+        }
+        var inbox = Inbox.builder()
+            .taskFactory(trackingTaskFactory)
+            .inbox(inboxConfig.getPath())
+            .executorService(executorService)
+            .interval(Math.toIntExact(inboxConfig.getPollingInterval().toMilliseconds()))
+            .inboxItemComparator(CreationTimeComparator.getInstance());
+        if (onPollingHandler != null) {
+            inbox.onPollingHandler(onPollingHandler);
+        }
+        return inbox.build();
+    }
+
+    private static ExecutorService createVirtualThreadExecutor(Environment environment, String name, int maxConcurrency) {
+        var executor = VirtualThreadExecutor.create(name, maxConcurrency);
+        environment.lifecycle().manage(new ExecutorServiceManager(executor, Duration.seconds(5), name));
+        return executor;
+    }
+
+    private static List<Watermark> watermarks(String name, BackpressureConfig config, LongSupplier items, LongSupplier bytes) {
+        var watermarks = new ArrayList<Watermark>();
+        if (config.getHighItems() > 0) {
+            watermarks.add(Watermark.above(name + " items", items, config.getHighItems(), config.getEffectiveLowItems()));
+        }
+        if (bytes != null && config.getHighBytes() != null) {
+            watermarks.add(Watermark.above(name + " bytes", bytes, config.getHighBytes().toBytes(), config.getEffectiveLowBytes()));
+        }
+        return watermarks;
+    }
+
+    private static String getInstanceId(ClusterConfig config) {
+        if (config.getInstanceId() != null) {
+            return config.getInstanceId();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        }
+        catch (UnknownHostException e) {
+            throw new IllegalStateException("Unable to determine the host name; configure cluster.instanceId", e);
+        }
+    }
+
+    private static long getUsableSpace(Path dir) {
+        try {
+            return Files.getFileStore(dir).getUsableSpace();
+        }
+        catch (IOException e) {
+            log.warn("Unable to determine free space in {}", dir, e);
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+     * All Dropwizard metrics, in the Prometheus text format, on the admin port.
+     */
+    private void registerPrometheusEndpoint(Environment environment) {
+        var collectorRegistry = new CollectorRegistry();
+        collectorRegistry.register(new DropwizardExports(environment.metrics()));
+        environment.admin().addServlet("prometheus", new MetricsServlet(collectorRegistry)).addMapping("/prometheus");
     }
 
 }
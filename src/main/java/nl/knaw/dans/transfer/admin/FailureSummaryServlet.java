@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.admin;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.knaw.dans.transfer.core.FailureIndex;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the summary of a {@link FailureIndex} as JSON on the admin port. The query parameter <code>limit</code> sets the number of recent failures to
+ * include (default 20) and <code>stage</code> restricts them to one stage. The counts always cover the whole index.
+ */
+public class FailureSummaryServlet extends HttpServlet {
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final FailureIndex index;
+    private final ObjectMapper objectMapper;
+
+    public FailureSummaryServlet(FailureIndex index, ObjectMapper objectMapper) {
+        this.index = index;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        int limit;
+        try {
+            limit = request.getParameter("limit") == null ? DEFAULT_LIMIT : Integer.parseInt(request.getParameter("limit"));
+        }
+        catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must be a number");
+            return;
+        }
+        if (limit < 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must not be negative");
+            return;
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "must-revalidate,no-cache,no-store");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(response.getWriter(), index.getSummary(limit, request.getParameter("stage")));
+    }
+}
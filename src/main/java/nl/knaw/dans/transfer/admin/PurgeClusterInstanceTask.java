@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.admin;
+
+import io.dropwizard.servlets.tasks.Task;
+import nl.knaw.dans.transfer.core.ClusterCoordinator;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes the shared DVE state and the leases of an instance that has left the cluster for good, so that the other instances no longer hold back the NBNs of
+ * its DVEs. The instance is given by the query parameter <code>instance</code>. An instance that is still sending heartbeats cannot be purged.
+ */
+public class PurgeClusterInstanceTask extends Task {
+    private final ClusterCoordinator coordinator;
+
+    public PurgeClusterInstanceTask(ClusterCoordinator coordinator) {
+        super("purge-cluster-instance");
+        this.coordinator = coordinator;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        var instances = parameters.getOrDefault("instance", List.of());
+        if (instances.size() != 1 || instances.get(0).isBlank()) {
+            throw new IllegalArgumentException("Specify exactly one instance to purge");
+        }
+        var purged = coordinator.purge(instances.get(0));
+        output.println("Purged " + purged + " DVEs of instance " + instances.get(0));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.client;
+
+import lombok.AllArgsConstructor;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client for the API of <code>dd-data-vault</code>.
+ */
+@AllArgsConstructor
+public class DataVaultClient {
+    private final Client httpClient;
+    private final URI baseUrl;
+
+    /**
+     * Requests the import of a batch directory.
+     *
+     * @param batchDir the batch directory, which must be located in the import inbox of the Data Vault
+     * @return the status of the newly created import job
+     */
+    public ImportJobStatus startImport(Path batchDir) {
+        return httpClient.target(baseUrl).path("import")
+            .request(MediaType.APPLICATION_JSON_TYPE)
+            .post(Entity.json(Map.of("path", batchDir.toAbsolutePath().toString(), "singleObject", false)), ImportJobStatus.class);
+    }
+
+    /**
+     * @param id the id of the import job
+     * @return the current status of the import job
+     */
+    public ImportJobStatus getImportStatus(String id) {
+        return httpClient.target(baseUrl).path("import").path(id)
+            .request(MediaType.APPLICATION_JSON_TYPE)
+            .get(ImportJobStatus.class);
+    }
+
+    /**
+     * Gets the status of several import jobs in one call. Older versions of <code>dd-data-vault</code> do not support this and respond with 404 or 405.
+     *
+     * @param ids the ids of the import jobs
+     * @return the current status of the import jobs that were found
+     */
+    public List<ImportJobStatus> getImportStatuses(Collection<String> ids) {
+        return httpClient.target(baseUrl).path("import")
+            .queryParam("id", ids.toArray())
+            .request(MediaType.APPLICATION_JSON_TYPE)
+            .get(new GenericType<List<ImportJobStatus>>() {
+            });
+    }
+}
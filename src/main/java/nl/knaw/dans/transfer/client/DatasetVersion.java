@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A version of a dataset, as registered in the Vault Catalog. Fields that are {@code null} are not sent, so an update can set a subset of the fields.
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DatasetVersion {
+    private String nbn;
+    private String dataversePid;
+    private String dataversePidVersion;
+    private String bagId;
+    private String title;
+
+    /**
+     * The number of files that were verified against the bag manifests when the DVE was extracted into an import batch.
+     */
+    private Long verifiedFiles;
+
+    /**
+     * The checksum algorithms of the bag manifests that the files were verified with.
+     */
+    private List<String> checksumAlgorithms;
+
+    /**
+     * When the Data Vault confirmed that the DVE has been archived, in ISO-8601 format.
+     */
+    private String archivedTimestamp;
+
+    public DatasetVersion(String nbn, String dataversePid, String dataversePidVersion, String bagId, String title) {
+        this.nbn = nbn;
+        this.dataversePid = dataversePid;
+        this.dataversePidVersion = dataversePidVersion;
+        this.bagId = bagId;
+        this.title = title;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.client;
+
+import lombok.AllArgsConstructor;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client for the API of the GMH NBN resolver.
+ */
+@AllArgsConstructor
+public class GmhClient {
+    private final Client httpClient;
+    private final URI baseUrl;
+    private final String token;
+
+    /**
+     * Registers an NBN with a single location. An NBN that is already registered (409 Conflict) is not an error.
+     *
+     * @param nbn      the NBN
+     * @param location the URL the NBN must resolve to
+     * @throws GmhException if the server responds with any other status than 2xx or 409
+     */
+    public void registerNbn(String nbn, String location) {
+        try (var response = httpClient.target(baseUrl).path("nbn")
+            .request(MediaType.APPLICATION_JSON_TYPE)
+            .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+            .post(Entity.json(Map.of("identifier", nbn, "locations", List.of(location))))) {
+            var status = response.getStatus();
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL && status != Response.Status.CONFLICT.getStatusCode()) {
+                throw new GmhException(status, String.format("GMH responded with %d %s for NBN %s", status, response.getStatusInfo().getReasonPhrase(), nbn));
+            }
+        }
+    }
+}
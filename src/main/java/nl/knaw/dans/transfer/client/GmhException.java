@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.client;
+
+import lombok.Getter;
+
+/**
+ * The GMH server responded with an unexpected status code.
+ */
+@Getter
+public class GmhException extends RuntimeException {
+    private final int status;
+
+    public GmhException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * @return whether the status indicates that the server is overloaded or temporarily unavailable
+     */
+    public boolean isOverload() {
+        return status == 429 || status >= 500;
+    }
+}
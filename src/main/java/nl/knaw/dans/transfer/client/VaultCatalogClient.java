@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.client;
+
+import lombok.AllArgsConstructor;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Client for the API of <code>dd-vault-catalog</code>. The calls are asynchronous, so that several requests can be in flight over the pooled connections of the
+ * HTTP client.
+ */
+@AllArgsConstructor
+public class VaultCatalogClient {
+    private final Client httpClient;
+    private final URI baseUrl;
+
+    /**
+     * Creates or updates a dataset version.
+     *
+     * @param version the dataset version
+     * @return a stage that completes when the catalog has accepted the version, or completes exceptionally if it has not
+     */
+    public CompletionStage<Void> putVersion(DatasetVersion version) {
+        return httpClient.target(baseUrl).path("dataset").path(version.getNbn()).path("version")
+            .request(MediaType.APPLICATION_JSON_TYPE)
+            .rx()
+            .put(Entity.json(version))
+            .thenAccept(response -> checkAndClose(response, "dataset version for " + version.getNbn()));
+    }
+
+    /**
+     * Creates or updates several dataset versions in one request. The versions are applied in list order.
+     *
+     * @param versions the dataset versions
+     * @return a stage that completes when the catalog has accepted all versions, or completes exceptionally if it has not
+     */
+    public CompletionStage<Void> putVersions(List<DatasetVersion> versions) {
+        return httpClient.target(baseUrl).path("dataset-versions")
+            .request(MediaType.APPLICATION_JSON_TYPE)
+            .rx()
+            .put(Entity.json(versions))
+            .thenAccept(response -> checkAndClose(response, versions.size() + " dataset versions"));
+    }
+
+    private void checkAndClose(Response response, String what) {
+        try (response) {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new WebApplicationException("Vault Catalog did not accept " + what + ": " + response.getStatus() + " " + response.getStatusInfo().getReasonPhrase(),
+                    response.getStatus());
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import io.dropwizard.util.Duration;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+@Data
+public class ArchiveConfirmationConfig {
+    /**
+     * How long an import job is expected to take. The status of a job is first checked after this time.
+     */
+    @NotNull
+    private Duration expectedImportDuration = Duration.minutes(2);
+
+    /**
+     * The interval between the first and the second check of a job that is still running. The interval doubles with each check, up to
+     * <code>maxInterval</code>.
+     */
+    @NotNull
+    private Duration minInterval = Duration.seconds(15);
+
+    @NotNull
+    private Duration maxInterval = Duration.minutes(10);
+
+    /**
+     * The maximum number of import jobs whose status is requested from the Data Vault in one call.
+     */
+    @Min(1)
+    private int maxJobsPerRequest = 100;
+}
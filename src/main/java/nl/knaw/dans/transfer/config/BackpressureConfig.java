@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import io.dropwizard.util.DataSize;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Watermarks on the backlog of a stage. When the backlog reaches a high watermark, the stage upstream stops picking up new DVEs until the backlog has gone back
+ * to the corresponding low watermark. A high watermark of zero (or no value for bytes) means no limit. If a low watermark is not set, it is 80% of the high
+ * watermark.
+ */
+@Data
+public class BackpressureConfig {
+    private static final double DEFAULT_LOW_FRACTION = 0.8;
+
+    @Min(0)
+    private long highItems = 0;
+
+    @Min(0)
+    private long lowItems = 0;
+
+    private DataSize highBytes;
+
+    private DataSize lowBytes;
+
+    public long getEffectiveLowItems() {
+        return lowItems > 0 ? lowItems : (long) (highItems * DEFAULT_LOW_FRACTION);
+    }
+
+    public long getEffectiveLowBytes() {
+        if (highBytes == null) {
+            return 0;
+        }
+        return lowBytes != null ? lowBytes.toBytes() : (long) (highBytes.toBytes() * DEFAULT_LOW_FRACTION);
+    }
+}
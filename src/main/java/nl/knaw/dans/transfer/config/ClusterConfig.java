@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import io.dropwizard.util.Duration;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+@Data
+public class ClusterConfig {
+    /**
+     * If true, several instances share the extract-metadata inbox and divide the NBNs among themselves through leases in the database. If false, this instance
+     * processes all NBNs in its inbox.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The name of this instance in the lease table. Must be unique in the cluster. Defaults to the host name and process id.
+     */
+    private String instanceId;
+
+    /**
+     * The number of partitions the NBNs are divided into. Must be the same for all instances and should be well above the number of instances, so that the
+     * partitions can be spread evenly.
+     */
+    @Min(1)
+    private int partitions = 64;
+
+    /**
+     * How long a lease is valid without a heartbeat. When it expires, the partition is taken over by another instance.
+     */
+    @NotNull
+    private Duration leaseDuration = Duration.seconds(30);
+
+    /**
+     * How often the leases are renewed and the partitions are rebalanced. Should be well below <code>leaseDuration</code>.
+     */
+    @NotNull
+    private Duration heartbeatInterval = Duration.seconds(10);
+}
@@ -16,6 +16,7 @@
 package nl.knaw.dans.transfer.config;
 
 import lombok.Data;
+import nl.knaw.dans.lib.util.ExecutorServiceFactory;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
@@ -29,4 +30,32 @@ public class CollectDveConfig {
     @Valid
     @NotNull
     private OutboxConfig outbox;
+
+    /**
+     * Optional executor on which the NBNs of newly detected DVEs are resolved in parallel. The DVEs are still moved to their NBN directories one by one, in
+     * creation order.
+     */
+    @Valid
+    private ExecutorServiceFactory nbnResolution;
+
+    /**
+     * Optional inbox for DVEs of bulk operations, such as migrations. These DVEs go through the pipeline in the bulk lane, so that they do not hold up regular
+     * deposits (see <code>transfer.lanes</code>). All DVEs of a dataset must arrive in the same inbox.
+     */
+    @Valid
+    private InboxConfig bulkInbox;
+
+    /**
+     * Optional index of transferred DVEs. If configured, a DVE that is an exact copy of one that has already been transferred, with the same NBN, version and
+     * contents, is moved to the outbox of the index instead of being transferred again.
+     */
+    @Valid
+    private DedupConfig dedup;
+
+    /**
+     * Optional handling of failed DVEs on a separate worker. If configured, a failed DVE is renamed into a quarantine directory, so that the next DVE can be
+     * collected right away, and the failure is recorded in an index instead of in a file next to the DVE.
+     */
+    @Valid
+    private FailureHandlingConfig failureHandling;
 }
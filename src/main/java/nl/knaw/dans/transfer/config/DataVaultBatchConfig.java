@@ -16,8 +16,10 @@
 package nl.knaw.dans.transfer.config;
 
 import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
 import lombok.Data;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.nio.file.Path;
 
@@ -27,4 +29,34 @@ public class DataVaultBatchConfig {
     private Path batchRoot;
 
     private DataSize threshold = DataSize.megabytes(100);
+
+    /**
+     * Close the batch when it contains this many files. Zero means no limit.
+     */
+    @Min(0)
+    private long maxFiles = 0;
+
+    /**
+     * Close a non-empty batch when it has been open for this long, even if it is not full.
+     */
+    @NotNull
+    private Duration maxAge = Duration.hours(1);
+
+    /**
+     * Stop picking up DVEs when the free space on the file system of <code>batchRoot</code> drops below this value. No limit if not set.
+     */
+    private DataSize minFreeSpace;
+
+    /**
+     * Resume picking up DVEs when the free space is at least this value. Defaults to <code>minFreeSpace</code> plus <code>threshold</code>, so that there is room
+     * for at least one more batch.
+     */
+    private DataSize resumeFreeSpace;
+
+    public long getEffectiveResumeFreeSpace() {
+        if (minFreeSpace == null) {
+            return 0;
+        }
+        return resumeFreeSpace != null ? resumeFreeSpace.toBytes() : minFreeSpace.toBytes() + threshold.toBytes();
+    }
 }
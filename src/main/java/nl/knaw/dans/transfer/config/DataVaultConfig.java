@@ -30,4 +30,11 @@ public class DataVaultConfig {
     @Valid
     @NotNull
     private JerseyClientConfiguration httpClient = new JerseyClientConfiguration();
+
+    /**
+     * How often the status of the import jobs is checked, to confirm that the DVEs have been archived.
+     */
+    @Valid
+    @NotNull
+    private ArchiveConfirmationConfig confirmation = new ArchiveConfirmationConfig();
 }
@@ -46,4 +46,11 @@ public class DdTransferToVaultConfiguration extends Configuration {
     @Valid
     @NotNull
     private DataSourceFactory database;
+
+    /**
+     * Optional cluster mode, in which several instances share the work through leases in the <code>database</code>.
+     */
+    @Valid
+    @NotNull
+    private ClusterConfig cluster = new ClusterConfig();
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import lombok.Data;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Path;
+
+@Data
+public class DedupConfig {
+    /**
+     * The directory to which DVEs are moved that are exact copies of a DVE that has already been transferred.
+     */
+    @NotNull
+    private Path outbox;
+
+    /**
+     * The number of transferred DVEs to size the in-memory Bloom filter for. With more DVEs, more lookups go to the database needlessly.
+     */
+    @Min(1)
+    private long expectedEntries = 1000000;
+
+    /**
+     * The fraction of lookups for new DVEs that go to the database needlessly, when the expected number of DVEs has been transferred.
+     */
+    @DecimalMin("0.000001")
+    @DecimalMax("0.5")
+    private double falsePositiveRate = 0.01;
+}
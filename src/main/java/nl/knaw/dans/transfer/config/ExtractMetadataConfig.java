@@ -34,4 +34,19 @@ public class ExtractMetadataConfig {
     @Valid
     @NotNull
     private ExecutorServiceFactory taskQueue;
+
+    /**
+     * If enabled, the tasks run on virtual threads instead of the <code>taskQueue</code> workers. Processing a DVE mostly waits for the file system and the
+     * Vault Catalog, so this allows a higher concurrency at a lower cost. DVEs of the same NBN are still processed one by one.
+     */
+    @Valid
+    @NotNull
+    private VirtualThreadsConfig virtualThreads = new VirtualThreadsConfig();
+
+    /**
+     * Limits on the number and size of the DVEs waiting in the inbox. When reached, the collect-dve stage pauses.
+     */
+    @Valid
+    @NotNull
+    private BackpressureConfig backpressure = new BackpressureConfig();
 }
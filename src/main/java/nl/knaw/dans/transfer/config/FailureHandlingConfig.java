@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Path;
+
+@Data
+public class FailureHandlingConfig {
+    /**
+     * The directory into which a failed DVE is renamed before it is moved to the failed outbox. It must be on the same file system as the inbox.
+     */
+    @NotNull
+    private Path quarantine;
+
+    /**
+     * The file in which the failures are recorded, one JSON object per line.
+     */
+    @NotNull
+    private Path index;
+
+    /**
+     * The number of failed DVEs that may wait in quarantine. Beyond that, the stage moves the failed DVEs to the failed outbox itself.
+     */
+    @Min(1)
+    private int maxQueueSize = 1000;
+
+    /**
+     * The number of most recent failures that the failure summary on the admin port can show.
+     */
+    @Min(1)
+    private int maxRecent = 100;
+}
@@ -26,4 +26,13 @@ public class InboxConfig {
     @NotNull
     private Path path;
     private Duration pollingInterval = Duration.seconds(5);
+
+    /**
+     * If true, the inbox is driven by file system notifications instead of polling. The inbox is still re-scanned every <code>safetyNetInterval</code>, to pick up
+     * items for which no notification was received (e.g., after an overflow of the notification queue or on file systems that do not support notifications).
+     */
+    private boolean watch = false;
+
+    @NotNull
+    private Duration safetyNetInterval = Duration.minutes(1);
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import lombok.Data;
+import nl.knaw.dans.transfer.core.Lane;
+
+import javax.validation.constraints.Min;
+import java.util.EnumMap;
+import java.util.Map;
+
+@Data
+public class LanesConfig {
+    /**
+     * The number of interactive DVEs a stage starts for every <code>bulkWeight</code> bulk DVEs, while both lanes have DVEs waiting.
+     */
+    @Min(1)
+    private int interactiveWeight = 4;
+
+    @Min(1)
+    private int bulkWeight = 1;
+
+    public Map<Lane, Integer> getWeights() {
+        var weights = new EnumMap<Lane, Integer>(Lane.class);
+        weights.put(Lane.INTERACTIVE, interactiveWeight);
+        weights.put(Lane.BULK, bulkWeight);
+        return weights;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import java.nio.file.Path;
+
+@Data
+public class MetadataCacheConfig {
+    /**
+     * The maximum number of DVEs in the cache. When the cache is full, the least recently used DVE is dropped.
+     */
+    @Min(1)
+    private int maxEntries = 10000;
+
+    /**
+     * The file to which the cache is written on shutdown and from which it is read on startup. If not set, the cache is kept in memory only.
+     */
+    private Path spillFile;
+}
@@ -16,10 +16,14 @@
 package nl.knaw.dans.transfer.config;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.dropwizard.util.Duration;
 import lombok.Data;
 import nl.knaw.dans.convert.jackson.UriAddTrailingSlashConverter;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
 import java.net.URI;
 
 @Data
@@ -31,5 +35,76 @@ public class NbnRegistrationConfig {
     @JsonDeserialize(converter = UriAddTrailingSlashConverter.class)
     private URI catalogBaseUrl;
 
+    /**
+     * Milliseconds to wait before looking for new registrations when the queue is empty.
+     */
     private long registrationInterval = 1000;
+
+    /**
+     * The maximum number of registrations claimed from the queue at once.
+     */
+    @Min(1)
+    private int batchSize = 50;
+
+    /**
+     * The maximum number of requests to the GMH server that may be in flight at the same time.
+     */
+    @Min(1)
+    private int maxConcurrentRequests = 4;
+
+    /**
+     * If true, the requests to the GMH server are made on virtual threads instead of a pool of platform threads. No more than
+     * <code>maxConcurrentRequests</code> requests are in flight at the same time.
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * The request rate (per second) to start with. The rate is increased while the GMH server responds quickly and decreased when it slows down or signals
+     * overload (429 or 5xx), but never goes below <code>minRate</code> or above <code>maxRate</code>.
+     */
+    @Positive
+    private double initialRate = 1.0;
+
+    @Positive
+    private double minRate = 0.2;
+
+    @Positive
+    private double maxRate = 50.0;
+
+    @Positive
+    private double rateIncreaseStep = 0.5;
+
+    /**
+     * Responses slower than this decrease the request rate.
+     */
+    @NotNull
+    private Duration targetLatency = Duration.seconds(2);
+
+    /**
+     * The delay before the first retry of a failed registration. The delay doubles with each attempt, up to <code>maxRetryDelay</code>.
+     */
+    @NotNull
+    private Duration initialRetryDelay = Duration.seconds(10);
+
+    @NotNull
+    private Duration maxRetryDelay = Duration.hours(1);
+
+    /**
+     * The number of attempts after which a registration is marked as failed.
+     */
+    @Min(1)
+    private int maxAttempts = 25;
+
+    /**
+     * Registrations claimed longer ago than this, for instance by an instance that crashed, are returned to the queue.
+     */
+    @NotNull
+    private Duration claimTimeout = Duration.minutes(10);
+
+    /**
+     * Limits on the number of pending registrations. When reached, the extract-metadata stage pauses. Byte limits do not apply to this queue.
+     */
+    @Valid
+    @NotNull
+    private BackpressureConfig backpressure = new BackpressureConfig();
 }
@@ -18,6 +18,7 @@ package nl.knaw.dans.transfer.config;
 import lombok.Data;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 @Data
@@ -34,4 +35,22 @@ public class SendToVaultConfig {
     @NotNull
     private DataVaultBatchConfig dataVault;
 
+    /**
+     * The number of threads that extract the entries of a DVE into the import batch in parallel.
+     */
+    @Min(1)
+    private int unzipThreads = 4;
+
+    /**
+     * If true, the entries are extracted on virtual threads instead of a pool of platform threads. No more than <code>unzipThreads</code> entries are extracted
+     * at the same time.
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Limits on the number and size of the DVEs waiting in the inbox. When reached, the extract-metadata stage pauses.
+     */
+    @Valid
+    @NotNull
+    private BackpressureConfig backpressure = new BackpressureConfig();
 }
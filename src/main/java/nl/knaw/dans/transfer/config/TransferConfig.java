@@ -15,10 +15,12 @@
  */
 package nl.knaw.dans.transfer.config;
 
+import io.dropwizard.util.Duration;
 import lombok.Data;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.nio.file.Path;
 
 @Data
 public class TransferConfig {
@@ -33,4 +35,35 @@ public class TransferConfig {
     @Valid
     @NotNull
     private SendToVaultConfig sendToVault;
+
+    /**
+     * When a DVE is moved to another file system, it is copied and the size of the copy is verified. If this is true, the checksum of the copy is verified as
+     * well, at the cost of reading both files once more.
+     */
+    private boolean verifyCrossDeviceMoves = false;
+
+    /**
+     * The file of the pipeline journal. If not set, the journal is kept in memory only, so that nothing can be resumed from it after a restart.
+     */
+    private Path journal;
+
+    /**
+     * The cache of the metadata of the DVEs in the pipeline, so that the metadata file of a DVE is only parsed once.
+     */
+    @Valid
+    @NotNull
+    private MetadataCacheConfig metadataCache = new MetadataCacheConfig();
+
+    /**
+     * The weights with which the stages share their workers between the interactive and the bulk lane.
+     */
+    @Valid
+    @NotNull
+    private LanesConfig lanes = new LanesConfig();
+
+    /**
+     * How often the backpressure watermarks are checked while a stage is paused or running.
+     */
+    @NotNull
+    private Duration backpressureCheckInterval = Duration.seconds(1);
 }
@@ -19,6 +19,7 @@ import io.dropwizard.client.JerseyClientConfiguration;
 import lombok.Data;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.net.URI;
 
@@ -30,4 +31,16 @@ public class VaultCatalogConfig {
     @Valid
     @NotNull
     private JerseyClientConfiguration httpClient = new JerseyClientConfiguration();
+
+    /**
+     * The maximum number of requests to the Vault Catalog that may be in flight at the same time.
+     */
+    @Min(1)
+    private int maxInFlight = 8;
+
+    /**
+     * The maximum number of dataset version updates to combine into one request. The default of 1 disables bulk updates, for catalogs that do not support them.
+     */
+    @Min(1)
+    private int maxBatchSize = 1;
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.config;
+
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Runs the tasks of a stage on virtual threads instead of a pool of platform threads. A virtual thread that blocks on disk or network I/O does not hold on to an
+ * operating system thread, so the concurrency of an I/O-bound stage can be raised without the cost of a large thread pool.
+ */
+@Data
+public class VirtualThreadsConfig {
+    private boolean enabled = false;
+
+    /**
+     * The maximum number of tasks that run at the same time. Tasks beyond this limit wait for a permit, not for a thread.
+     */
+    @Min(1)
+    private int maxConcurrency = 16;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Spaces out requests to a remote service, adapting the rate to the way the service responds (additive increase, multiplicative decrease).
+ * </p>
+ * <p>
+ * Every successful response that arrives within the target latency increases the rate by a fixed step. A slow response decreases the rate slightly; a response
+ * that signals overload (HTTP 429, 5xx or a timeout) halves it. The rate always stays between the configured minimum and maximum.
+ * </p>
+ */
+@Slf4j
+public class AdaptiveRateLimiter {
+    private static final double SLOW_RESPONSE_FACTOR = 0.9;
+    private static final double OVERLOAD_FACTOR = 0.5;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double increaseStep;
+    private final long targetLatencyNanos;
+
+    private double rate;
+    private long nextPermitAt = System.nanoTime();
+
+    /**
+     * @param initialRate   the initial rate in requests per second
+     * @param minRate       the minimum rate in requests per second
+     * @param maxRate       the maximum rate in requests per second
+     * @param increaseStep  the increase of the rate after a fast successful response, in requests per second
+     * @param targetLatency the response time above which the rate is decreased, in milliseconds
+     */
+    public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double increaseStep, long targetLatency) {
+        if (minRate <= 0 || minRate > maxRate) {
+            throw new IllegalArgumentException("minRate must be positive and not greater than maxRate");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increaseStep = increaseStep;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.rate = clamp(initialRate);
+    }
+
+    /**
+     * Blocks until the next request may be sent.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            var now = System.nanoTime();
+            var permitAt = Math.max(nextPermitAt, now);
+            nextPermitAt = permitAt + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            waitNanos = permitAt - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Reports a successful response.
+     *
+     * @param latencyNanos the response time in nanoseconds
+     */
+    public synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            setRate(rate * SLOW_RESPONSE_FACTOR);
+        }
+        else {
+            setRate(rate + increaseStep);
+        }
+    }
+
+    /**
+     * Reports a response or error indicating that the service is overloaded.
+     */
+    public synchronized void onOverload() {
+        setRate(rate * OVERLOAD_FACTOR);
+        log.debug("Service overloaded; rate decreased to {}/s", rate);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void setRate(double newRate) {
+        rate = clamp(newRate);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minRate, Math.min(maxRate, value));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Decides whether a stage may take on new work, based on the {@link Watermark}s of the stages downstream and of the resources it uses. The gate closes as soon
+ * as any watermark is high, and opens again when all watermarks that closed it are low. The watermarks are checked every <code>checkInterval</code> and
+ * whenever someone asks whether the gate is open.
+ * </p>
+ * <p>
+ * Pauses and resumes are recorded as the meters <code>&lt;stage&gt;.admission.pauses</code> and <code>&lt;stage&gt;.admission.resumes</code>; the gauge
+ * <code>&lt;stage&gt;.admission.paused</code> is 1 while the gate is closed.
+ * </p>
+ */
+@Slf4j
+public class AdmissionGate implements Managed {
+    private final String stage;
+    private final List<Watermark> watermarks;
+    private final long checkInterval;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable whileClosed;
+    private final Meter pauses;
+    private final Meter resumes;
+
+    private final Set<Watermark> reached = new HashSet<>();
+    private CompletableFuture<Void> opened = CompletableFuture.completedFuture(null);
+    private ScheduledFuture<?> checker;
+
+    /**
+     * @param watermarks    the watermarks that may close the gate
+     * @param checkInterval the interval between checks of the watermarks, in milliseconds
+     * @param scheduler     the executor on which to check the watermarks periodically
+     * @param whileClosed   an action to run periodically by threads that wait for the gate to open, or null
+     * @param metrics       the metrics of the stage that is gated
+     */
+    public AdmissionGate(List<Watermark> watermarks, long checkInterval, ScheduledExecutorService scheduler, Runnable whileClosed, StageMetrics metrics) {
+        this.stage = metrics.getStage();
+        this.watermarks = new ArrayList<>(watermarks);
+        this.checkInterval = checkInterval;
+        this.scheduler = scheduler;
+        this.whileClosed = whileClosed;
+        this.pauses = metrics.getRegistry().meter(MetricRegistry.name(stage, "admission", "pauses"));
+        this.resumes = metrics.getRegistry().meter(MetricRegistry.name(stage, "admission", "resumes"));
+        metrics.registerGauge("admission.paused", () -> isClosed() ? 1 : 0);
+    }
+
+    @Override
+    public void start() {
+        if (!watermarks.isEmpty()) {
+            checker = scheduler.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (checker != null) {
+            checker.cancel(false);
+        }
+    }
+
+    /**
+     * @return whether the stage may take on new work
+     */
+    public boolean isOpen() {
+        check();
+        return !isClosed();
+    }
+
+    /**
+     * Blocks until the gate is open. Use only on threads that do nothing else than feeding the stage.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitOpen() throws InterruptedException {
+        while (!isOpen()) {
+            if (whileClosed != null) {
+                whileClosed.run();
+            }
+            synchronized (this) {
+                if (isClosed()) {
+                    wait(checkInterval);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps an inbox task, so that it waits for the gate to open before it runs. The task then holds up the tasks queued after it, so this is meant for the
+     * dedicated threads on which an inbox runs its tasks, not for shared worker pools.
+     *
+     * @param task the task
+     * @return the gated task
+     */
+    public Runnable admit(Runnable task) {
+        return () -> {
+            try {
+                awaitOpen();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for {} to resume; task not run", stage);
+                return;
+            }
+            task.run();
+        };
+    }
+
+    /**
+     * @return a stage that completes when the gate is open, for callers that must not block
+     */
+    public synchronized CompletionStage<Void> whenOpen() {
+        check();
+        return opened;
+    }
+
+    /**
+     * Checks the watermarks and opens or closes the gate accordingly.
+     */
+    public synchronized void check() {
+        var wasClosed = isClosed();
+        for (var watermark : watermarks) {
+            if (reached.contains(watermark)) {
+                if (watermark.isLow()) {
+                    reached.remove(watermark);
+                }
+            }
+            else if (watermark.isHigh()) {
+                reached.add(watermark);
+                log.warn("Pausing {}: {}", stage, watermark.describe());
+            }
+        }
+        if (!wasClosed && isClosed()) {
+            pauses.mark();
+            opened = new CompletableFuture<>();
+        }
+        else if (wasClosed && !isClosed()) {
+            log.info("Resuming {}", stage);
+            resumes.mark();
+            notifyAll();
+            // Completed outside of this check, so that the continuations do not run while the lock is held
+            var toComplete = opened;
+            scheduler.execute(() -> toComplete.complete(null));
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return !reached.isEmpty();
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.client.DataVaultClient;
+import nl.knaw.dans.transfer.client.DatasetVersion;
+import nl.knaw.dans.transfer.client.ImportJobStatus;
+import nl.knaw.dans.transfer.config.ArchiveConfirmationConfig;
+
+import javax.ws.rs.NotAllowedException;
+import javax.ws.rs.NotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Confirms that the import batches have been archived by the Data Vault, and then marks the DVEs in them as archived in the Vault Catalog.
+ * </p>
+ * <p>
+ * The pending confirmations are kept in a queue ordered by the time of their next check, and the scheduler only wakes up when the first of them is due. A job is
+ * first checked after the expected import duration; while it is still running, the interval between checks doubles, up to a maximum. All jobs that are due at the
+ * same time are checked with a single status request, if the Data Vault supports it, and the DVEs of all batches that turn out to be archived are submitted to the
+ * {@link CatalogUpdater} together, which combines them into bulk updates if those are enabled. So hundreds of open imports cost a handful of requests per interval, and a finished import is noticed without waiting for a
+ * fixed polling cycle.
+ * </p>
+ * <p>
+ * The queue is persisted to a hidden file in the batch root after each change, so the confirmations survive a restart. All state is confined to the single
+ * thread of the scheduled executor.
+ * </p>
+ * <p>
+ * An import job that the Data Vault reports as failed is not retried. It is added to <code>.failed-imports.json</code> in the batch root, and its batch directory is
+ * left in place, so that an operator can find out what went wrong and import the batch again. The <code>failed-imports</code> gauge counts the entries in that
+ * file, so that it can be alerted on; the operator removes an entry once it has been dealt with.
+ * </p>
+ */
+@Slf4j
+public class ArchiveConfirmationScheduler implements Managed {
+    private static final String STATE_FILE = ".pending-confirmations.json";
+    private static final String FAILED_IMPORTS_FILE = ".failed-imports.json";
+
+    /**
+     * An import job that has not been confirmed yet, or whose confirmation has not been recorded in the Vault Catalog yet.
+     *
+     * @param jobId       the id of the import job in the Data Vault
+     * @param batch       the name of the batch directory
+     * @param dves        the DVEs in the batch
+     * @param archived    whether the Data Vault has confirmed the import, so that only the catalog update remains
+     * @param interval    the interval to wait after the next check, in milliseconds
+     * @param nextCheckAt the time of the next check, in milliseconds since the epoch
+     */
+    public record PendingConfirmation(String jobId, String batch, List<BatchedDve> dves, boolean archived, long interval, long nextCheckAt) {
+    }
+
+    private final DataVaultClient dataVaultClient;
+    private final CatalogUpdater catalogUpdater;
+    private final ArchiveConfirmationConfig config;
+    private final Path stateFile;
+    private final Path failedImportsFile;
+    private final ObjectMapper objectMapper;
+    private final ScheduledExecutorService timer;
+    private final StageMetrics metrics;
+
+    private final List<Consumer<List<BatchedDve>>> archivedListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<List<BatchedDve>>> importFailedListeners = new CopyOnWriteArrayList<>();
+    private final PriorityQueue<PendingConfirmation> queue = new PriorityQueue<>(Comparator.comparingLong(PendingConfirmation::nextCheckAt));
+    private ScheduledFuture<?> wakeUp;
+    private boolean bulkStatusSupported = true;
+    private volatile int pending;
+    private volatile int failedImports;
+
+    /**
+     * @param dataVaultClient the client for the Data Vault
+     * @param catalogUpdater  the updater for the Vault Catalog
+     * @param config          the polling intervals
+     * @param batchRoot       the batch root, in which the queue is persisted
+     * @param objectMapper    the object mapper for the persisted queue
+     * @param timer           a single-threaded scheduled executor
+     * @param metrics         the metrics of the archive-confirmation stage
+     */
+    public ArchiveConfirmationScheduler(DataVaultClient dataVaultClient, CatalogUpdater catalogUpdater, ArchiveConfirmationConfig config, Path batchRoot,
+        ObjectMapper objectMapper, ScheduledExecutorService timer, StageMetrics metrics) {
+        this.dataVaultClient = dataVaultClient;
+        this.catalogUpdater = catalogUpdater;
+        this.config = config;
+        this.stateFile = batchRoot.resolve(STATE_FILE);
+        this.failedImportsFile = batchRoot.resolve(FAILED_IMPORTS_FILE);
+        this.objectMapper = objectMapper;
+        this.timer = timer;
+        this.metrics = metrics;
+        metrics.registerGauge("pending", () -> pending);
+        metrics.registerGauge("failed-imports", () -> failedImports);
+    }
+
+    /**
+     * Registers a listener that is called with the DVEs of a batch once the Data Vault has confirmed its import, on the thread of the scheduler and before the
+     * DVEs are marked in the catalog. If a listener throws, the confirmation is checked again later.
+     *
+     * @param listener the listener
+     */
+    public void onArchived(Consumer<List<BatchedDve>> listener) {
+        archivedListeners.add(listener);
+    }
+
+    /**
+     * Registers a listener that is called with the DVEs of a batch of which the Data Vault reports that the import has failed, on the thread of the scheduler
+     * and after the batch has been recorded for an operator. A listener that throws is only logged.
+     *
+     * @param listener the listener
+     */
+    public void onImportFailed(Consumer<List<BatchedDve>> listener) {
+        importFailedListeners.add(listener);
+    }
+
+    @Override
+    public void start() throws Exception {
+        var loaded = load(stateFile);
+        failedImports = load(failedImportsFile).size();
+        if (failedImports > 0) {
+            log.warn("{} failed import job(s) in {} still need the attention of an operator", failedImports, failedImportsFile);
+        }
+        timer.execute(() -> {
+            queue.addAll(loaded);
+            if (!loaded.isEmpty()) {
+                log.info("Resuming confirmation of {} import job(s)", loaded.size());
+            }
+            reschedule();
+        });
+    }
+
+    @Override
+    public void stop() {
+        timer.execute(() -> {
+            if (wakeUp != null) {
+                wakeUp.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * Schedules the confirmation of an import job. Call this when the import of the batch has been requested.
+     *
+     * @param jobId    the id of the import job
+     * @param batchDir the batch directory
+     * @param dves     the DVEs in the batch
+     */
+    public void schedule(String jobId, Path batchDir, List<BatchedDve> dves) {
+        var confirmation = new PendingConfirmation(jobId, batchDir.getFileName().toString(), List.copyOf(dves), false, config.getMinInterval().toMilliseconds(),
+            System.currentTimeMillis() + config.getExpectedImportDuration().toMilliseconds());
+        timer.execute(() -> {
+            queue.add(confirmation);
+            persist();
+            reschedule();
+        });
+    }
+
+    private List<PendingConfirmation> load(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        return objectMapper.readValue(file.toFile(), new TypeReference<List<PendingConfirmation>>() {
+        });
+    }
+
+    private void reschedule() {
+        pending = queue.size();
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        var first = queue.peek();
+        if (first != null) {
+            wakeUp = timer.schedule(this::poll, Math.max(0, first.nextCheckAt() - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void poll() {
+        var now = System.currentTimeMillis();
+        var toCheck = new ArrayList<PendingConfirmation>();
+        var toCatalog = new ArrayList<PendingConfirmation>();
+        while (!queue.isEmpty() && queue.peek().nextCheckAt() <= now && toCheck.size() + toCatalog.size() < config.getMaxJobsPerRequest()) {
+            var confirmation = queue.poll();
+            (confirmation.archived() ? toCatalog : toCheck).add(confirmation);
+        }
+        try {
+            if (!toCheck.isEmpty()) {
+                checkStatuses(toCheck, toCatalog);
+            }
+            if (!toCatalog.isEmpty()) {
+                markArchived(toCatalog);
+            }
+        }
+        finally {
+            persist();
+            reschedule();
+        }
+    }
+
+    private void checkStatuses(List<PendingConfirmation> toCheck, List<PendingConfirmation> toCatalog) {
+        Map<String, ImportJobStatus> statuses;
+        try (var ignored = metrics.phase("status-call").time()) {
+            statuses = getStatuses(toCheck.stream().map(PendingConfirmation::jobId).toList());
+        }
+        catch (Exception e) {
+            log.warn("Unable to get the status of {} import job(s); will retry", toCheck.size(), e);
+            metrics.failed(e);
+            toCheck.forEach(c -> queue.add(backOff(c)));
+            return;
+        }
+        for (var confirmation : toCheck) {
+            var status = statuses.get(confirmation.jobId());
+            if (status == null || status.getStatus() == null) {
+                log.warn("No status found for import job {} of batch {}; will retry", confirmation.jobId(), confirmation.batch());
+                queue.add(backOff(confirmation));
+            }
+            else if (status.getStatus() == ImportJobStatus.Status.SUCCESS) {
+                log.info("Batch {} has been archived (import job {})", confirmation.batch(), confirmation.jobId());
+                try {
+                    archivedListeners.forEach(listener -> listener.accept(confirmation.dves()));
+                }
+                catch (RuntimeException e) {
+                    log.warn("Unable to process the confirmation of batch {}; will retry", confirmation.batch(), e);
+                    metrics.failed(e);
+                    queue.add(backOff(confirmation));
+                    continue;
+                }
+                toCatalog.add(new PendingConfirmation(confirmation.jobId(), confirmation.batch(), confirmation.dves(), true, config.getMinInterval().toMilliseconds(),
+                    confirmation.nextCheckAt()));
+            }
+            else if (status.getStatus() == ImportJobStatus.Status.FAILED) {
+                log.error("Import of batch {} failed (import job {}): {}; the batch is kept for an operator", confirmation.batch(), confirmation.jobId(),
+                    status.getMessage());
+                metrics.failed(new IllegalStateException(status.getMessage()));
+                recordFailedImport(confirmation);
+                try {
+                    importFailedListeners.forEach(listener -> listener.accept(confirmation.dves()));
+                }
+                catch (RuntimeException e) {
+                    log.warn("Unable to process the failed import of batch {}", confirmation.batch(), e);
+                }
+            }
+            else {
+                queue.add(backOff(confirmation));
+            }
+        }
+    }
+
+    private Map<String, ImportJobStatus> getStatuses(List<String> jobIds) {
+        var statuses = new HashMap<String, ImportJobStatus>();
+        if (bulkStatusSupported && jobIds.size() > 1) {
+            try {
+                dataVaultClient.getImportStatuses(jobIds).forEach(status -> statuses.put(status.getId(), status));
+                return statuses;
+            }
+            catch (NotFoundException | NotAllowedException e) {
+                log.info("The Data Vault does not support bulk status requests; falling back to one request per import job");
+                bulkStatusSupported = false;
+            }
+        }
+        for (var jobId : jobIds) {
+            try {
+                statuses.put(jobId, dataVaultClient.getImportStatus(jobId));
+            }
+            catch (NotFoundException e) {
+                // Reported as missing by the caller
+            }
+        }
+        return statuses;
+    }
+
+    /*
+     * Each DVE is a separate version of its dataset, so every DVE gets its own entry, identified by the Dataverse PID version and bag ID. The updates go through
+     * the catalog updater, so that they are only sent in bulk if bulk updates are enabled, and a rejected bulk update is retried one by one.
+     */
+    private void markArchived(List<PendingConfirmation> toCatalog) {
+        var timestamp = Instant.now().toString();
+        var versions = toCatalog.stream()
+            .flatMap(c -> c.dves().stream())
+            .filter(dve -> dve.nbn() != null)
+            .map(dve -> {
+                var version = new DatasetVersion();
+                version.setNbn(dve.nbn());
+                version.setDataversePidVersion(dve.dataversePidVersion());
+                version.setBagId(dve.bagId());
+                version.setArchivedTimestamp(timestamp);
+                return version;
+            })
+            .toList();
+        try (var ignored = metrics.phase("catalog-call").time()) {
+            if (!versions.isEmpty()) {
+                CompletableFuture.allOf(versions.stream()
+                    .map(version -> catalogUpdater.submit(version).toCompletableFuture())
+                    .toArray(CompletableFuture[]::new)).get();
+            }
+            log.info("Marked {} dataset version(s) in {} batch(es) as archived", versions.size(), toCatalog.size());
+            toCatalog.forEach(c -> metrics.processed(0));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            toCatalog.forEach(c -> queue.add(backOff(c)));
+        }
+        catch (ExecutionException | RuntimeException e) {
+            var cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            log.warn("Unable to mark {} dataset version(s) as archived in the Vault Catalog; will retry", versions.size(), cause);
+            metrics.failed(cause);
+            toCatalog.forEach(c -> queue.add(backOff(c)));
+        }
+    }
+
+    private PendingConfirmation backOff(PendingConfirmation confirmation) {
+        var next = Math.min(confirmation.interval() * 2, config.getMaxInterval().toMilliseconds());
+        return new PendingConfirmation(confirmation.jobId(), confirmation.batch(), confirmation.dves(), confirmation.archived(), next,
+            System.currentTimeMillis() + confirmation.interval());
+    }
+
+    /*
+     * Appended to a separate file, so that the failed imports stay visible after the confirmation has left the queue.
+     */
+    private void recordFailedImport(PendingConfirmation confirmation) {
+        try {
+            var failed = load(failedImportsFile);
+            failed.add(confirmation);
+            write(failedImportsFile, failed);
+            failedImports = failed.size();
+        }
+        catch (IOException e) {
+            log.error("Unable to record the failed import job {} of batch {} in {}", confirmation.jobId(), confirmation.batch(), failedImportsFile, e);
+        }
+    }
+
+    private void persist() {
+        try {
+            write(stateFile, new ArrayList<>(queue));
+        }
+        catch (IOException e) {
+            log.error("Unable to persist the pending confirmations to {}", stateFile, e);
+        }
+    }
+
+    private void write(Path file, List<PendingConfirmation> confirmations) throws IOException {
+        var tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writeValue(tempFile.toFile(), confirmations);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
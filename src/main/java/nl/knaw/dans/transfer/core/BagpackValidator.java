@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Timer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Checks that a DVE has the bagpack layout: a ZIP file with a single bag, which contains <code>bagit.txt</code>, <code>bag-info.txt</code>, at least one payload
+ * manifest, the required metadata files and no other top-level directories than <code>data</code> and <code>metadata</code>.
+ * </p>
+ * <p>
+ * The payload is not read. The entries are classified in one pass over the central directory, after which only the tag files are read: <code>bagit.txt</code>,
+ * <code>bag-info.txt</code> and the manifests, to check that every payload file is listed and that every listed file exists. The cost is therefore proportional
+ * to the number of entries, not to the size of the DVE. The checksums themselves are verified by the {@link DveExtractor}, which reads the payload anyway.
+ * </p>
+ * <p>
+ * All violations are collected, so that the producer of the DVE can fix them in one go.
+ * </p>
+ */
+public class BagpackValidator {
+    static final List<String> REQUIRED_METADATA_FILES = List.of("metadata/oai-ore.jsonld", "metadata/pid-mapping.txt");
+    private static final Set<String> ALLOWED_DIRS = Set.of("data", "metadata");
+    private static final Pattern MANIFEST = Pattern.compile("^(tag)?manifest-([a-z0-9]+)\\.txt$");
+    private static final Map<String, Integer> CHECKSUM_LENGTHS = Map.of(
+        "md5", 32,
+        "sha1", 40,
+        "sha256", 64,
+        "sha512", 128);
+    private static final Pattern BAG_INFO_LINE = Pattern.compile("^[^:\\s][^:]*:.*$|^\\s+\\S.*$");
+    // bagit.txt and bag-info.txt are a few lines; anything larger is not a tag file that we are going to read
+    private static final long MAX_TAG_FILE_SIZE = 1024 * 1024;
+
+    private final Timer validation;
+
+    public BagpackValidator() {
+        this(new StageMetrics(StageMetrics.EXTRACT_METADATA));
+    }
+
+    /**
+     * @param metrics the metrics in which to record the <code>bagpack-validation</code> phase
+     */
+    public BagpackValidator(StageMetrics metrics) {
+        this.validation = metrics.phase("bagpack-validation");
+    }
+
+    /**
+     * Validates the layout of the DVE.
+     *
+     * @param dve the DVE ZIP file
+     * @return the violations found, in the order in which they were found; empty if the DVE is a bagpack
+     * @throws IOException if the DVE cannot be read
+     */
+    public List<String> validate(Path dve) throws IOException {
+        try (var ignored = validation.time(); var zip = new ZipFile(dve.toFile())) {
+            return validate(zip);
+        }
+        catch (ZipException e) {
+            return List.of("Not a ZIP file: " + e.getMessage());
+        }
+    }
+
+    private List<String> validate(ZipFile zip) throws IOException {
+        var violations = new ArrayList<String>();
+        var bags = new TreeSet<String>();
+        var unexpectedDirs = new TreeSet<String>();
+        var rootFiles = new TreeSet<String>();
+        var payload = new HashSet<String>();
+        var tagFiles = new HashSet<String>();
+        var manifests = new LinkedHashMap<String, ZipEntry>();
+        var tagManifests = new LinkedHashMap<String, ZipEntry>();
+        var hasDataDir = false;
+        String bag = null;
+        for (var entries = zip.entries(); entries.hasMoreElements(); ) {
+            var entry = entries.nextElement();
+            var name = entry.getName();
+            if (name.startsWith("/") || name.contains("\\") || List.of(name.split("/")).contains("..")) {
+                violations.add("Unsafe path in ZIP file: " + name);
+                continue;
+            }
+            var slash = name.indexOf('/');
+            if (slash < 0) {
+                rootFiles.add(name);
+                continue;
+            }
+            var top = name.substring(0, slash);
+            bags.add(top);
+            if (bag == null) {
+                bag = top;
+            }
+            if (!bag.equals(top)) {
+                continue;
+            }
+            var path = name.substring(slash + 1);
+            var dirEnd = path.indexOf('/');
+            if (dirEnd >= 0) {
+                var dir = path.substring(0, dirEnd);
+                if (!ALLOWED_DIRS.contains(dir)) {
+                    unexpectedDirs.add(dir + "/");
+                }
+                else if (dir.equals("data")) {
+                    hasDataDir = true;
+                    if (!entry.isDirectory()) {
+                        payload.add(path);
+                    }
+                }
+                else if (!entry.isDirectory()) {
+                    tagFiles.add(path);
+                }
+            }
+            else if (!path.isEmpty()) {
+                tagFiles.add(path);
+                var matcher = MANIFEST.matcher(path);
+                if (matcher.matches()) {
+                    (matcher.group(1) == null ? manifests : tagManifests).put(path, entry);
+                }
+            }
+        }
+
+        if (bag == null) {
+            violations.add("No top-level directory found in DVE");
+            return violations;
+        }
+        if (bags.size() > 1) {
+            violations.add("More than one top-level directory: " + summarize(List.copyOf(bags)));
+        }
+        if (!rootFiles.isEmpty()) {
+            violations.add("Files outside the bag: " + summarize(List.copyOf(rootFiles)));
+        }
+        if (!unexpectedDirs.isEmpty()) {
+            violations.add("Unexpected directories in the bag: " + summarize(List.copyOf(unexpectedDirs)));
+        }
+        if (!hasDataDir) {
+            violations.add("No data directory in the bag");
+        }
+        var prefix = bag + "/";
+        validateBagit(zip, prefix, violations);
+        validateBagInfo(zip, prefix, violations);
+        for (var required : REQUIRED_METADATA_FILES) {
+            if (!tagFiles.contains(required)) {
+                violations.add("Required metadata file missing: " + required);
+            }
+        }
+        if (manifests.keySet().stream().noneMatch(BagpackValidator::isSupported)) {
+            violations.add("No payload manifest with a supported checksum algorithm in the bag");
+        }
+        for (var manifest : manifests.entrySet()) {
+            validateManifest(zip, manifest.getKey(), manifest.getValue(), payload, true, violations);
+        }
+        for (var manifest : tagManifests.entrySet()) {
+            validateManifest(zip, manifest.getKey(), manifest.getValue(), tagFiles, false, violations);
+        }
+        return violations;
+    }
+
+    private void validateBagit(ZipFile zip, String prefix, List<String> violations) throws IOException {
+        var lines = readTagFile(zip, prefix, "bagit.txt", violations);
+        if (lines == null) {
+            return;
+        }
+        if (lines.size() != 2 || !lines.get(0).matches("BagIt-Version: \\d+\\.\\d+") || !lines.get(1).startsWith("Tag-File-Character-Encoding: ")) {
+            violations.add("bagit.txt must contain exactly the BagIt-Version and Tag-File-Character-Encoding lines");
+        }
+        else if (!lines.get(1).substring("Tag-File-Character-Encoding: ".length()).equalsIgnoreCase("UTF-8")) {
+            violations.add("Unsupported tag file character encoding: " + lines.get(1));
+        }
+    }
+
+    private void validateBagInfo(ZipFile zip, String prefix, List<String> violations) throws IOException {
+        var lines = readTagFile(zip, prefix, "bag-info.txt", violations);
+        if (lines == null) {
+            return;
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            if (!lines.get(i).isEmpty() && !BAG_INFO_LINE.matcher(lines.get(i)).matches()) {
+                violations.add("Invalid line " + (i + 1) + " in bag-info.txt: " + lines.get(i));
+            }
+        }
+    }
+
+    private List<String> readTagFile(ZipFile zip, String prefix, String name, List<String> violations) throws IOException {
+        var entry = zip.getEntry(prefix + name);
+        if (entry == null || entry.isDirectory()) {
+            violations.add("Required tag file missing: " + name);
+            return null;
+        }
+        if (entry.getSize() > MAX_TAG_FILE_SIZE) {
+            violations.add("Tag file too large: " + name + " (" + entry.getSize() + " bytes)");
+            return null;
+        }
+        try (var reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+            return reader.lines().toList();
+        }
+    }
+
+    /*
+     * Checks that the manifest lists exactly the given files, with checksums of the right length. Payload manifests must list every payload file; tag manifests
+     * may leave out tag files.
+     */
+    private void validateManifest(ZipFile zip, String name, ZipEntry entry, Set<String> files, boolean complete, List<String> violations) throws IOException {
+        if (!isSupported(name)) {
+            violations.add("Unsupported checksum algorithm in " + name);
+            return;
+        }
+        var matcher = MANIFEST.matcher(name);
+        matcher.matches();
+        var checksumLength = CHECKSUM_LENGTHS.get(matcher.group(2));
+        var listed = new HashSet<String>();
+        var missing = new ArrayList<String>();
+        var invalid = new ArrayList<String>();
+        try (var reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+            String line;
+            var lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                var parts = line.split("\\s+", 2);
+                if (parts.length != 2 || parts[0].length() != checksumLength || !parts[0].matches("[0-9a-fA-F]+")) {
+                    invalid.add(Integer.toString(lineNumber));
+                    continue;
+                }
+                var path = decodeManifestPath(parts[1]);
+                listed.add(path);
+                if (!files.contains(path)) {
+                    missing.add(path);
+                }
+            }
+        }
+        if (!invalid.isEmpty()) {
+            violations.add("Invalid lines in " + name + ": " + summarize(invalid));
+        }
+        if (!missing.isEmpty()) {
+            violations.add("Files listed in " + name + " are missing from the bag: " + summarize(missing));
+        }
+        if (complete) {
+            var unlisted = files.stream().filter(file -> !listed.contains(file)).sorted().toList();
+            if (!unlisted.isEmpty()) {
+                violations.add("Payload files not listed in " + name + ": " + summarize(unlisted));
+            }
+        }
+    }
+
+    private static boolean isSupported(String manifest) {
+        var matcher = MANIFEST.matcher(manifest);
+        return matcher.matches() && CHECKSUM_LENGTHS.containsKey(matcher.group(2));
+    }
+
+    /*
+     * BagIt percent-encodes CR, LF and % in manifest paths.
+     */
+    private static String decodeManifestPath(String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        return path.replace("%0D", "\r").replace("%0d", "\r").replace("%0A", "\n").replace("%0a", "\n").replace("%25", "%");
+    }
+
+    private static String summarize(List<String> names) {
+        return names.size() <= 10 ? names.toString() : names.subList(0, 10) + " and " + (names.size() - 10) + " more";
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The persisted state of the import batches of the send-to-vault stage.
+ */
+@Data
+public class BatchState {
+    /**
+     * The name of the open batch, or null if no batch is open.
+     */
+    private String currentBatch;
+
+    /**
+     * The total size of the files extracted into the open batch.
+     */
+    private long bytes;
+
+    /**
+     * The number of files extracted into the open batch.
+     */
+    private long files;
+
+    /**
+     * The number of DVEs extracted into the open batch.
+     */
+    private int dves;
+
+    /**
+     * The time the open batch was created, in milliseconds since the epoch.
+     */
+    private long openedAt;
+
+    /**
+     * The DVEs extracted into the open batch, in order.
+     */
+    private List<BatchedDve> batchedDves = new ArrayList<>();
+
+    /**
+     * Closed batches for which the import has not been requested successfully yet, oldest first.
+     */
+    private List<String> awaitingImport = new ArrayList<>();
+
+    /**
+     * The DVEs in each batch that is awaiting import, so that they can be marked as archived when the import has been confirmed.
+     */
+    private Map<String, List<BatchedDve>> dvesAwaitingImport = new HashMap<>();
+
+    /**
+     * The file names of the DVEs in the batch of which the import was requested last, that have not been journaled as batched yet.
+     */
+    private List<String> lastImportedDveNames = new ArrayList<>();
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * A DVE in an import batch, with what is needed to mark its dataset version as archived in the Vault Catalog and to record it in the {@link DedupIndex} once
+ * the Data Vault has confirmed the import.
+ *
+ * @param dve                 the file name of the DVE
+ * @param nbn                 the NBN of the dataset; null if it was not known when the DVE was added
+ * @param dataversePidVersion the version of the dataset in Dataverse, if any
+ * @param bagId               the bag ID of the DVE, if any
+ * @param fingerprint         the fingerprint of the contents of the DVE (see {@link NbnLocator}); null if it was not known when the DVE was added
+ */
+public record BatchedDve(String dve, String nbn, String dataversePidVersion, String bagId, String fingerprint) {
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Timer;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.client.DatasetVersion;
+import nl.knaw.dans.transfer.client.VaultCatalogClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p>
+ * Sends dataset version updates to the Vault Catalog without blocking the caller. At most <code>maxInFlight</code> requests are outstanding at any time.
+ * Updates submitted while all slots are taken wait in a queue. If bulk updates are enabled, a free slot takes all waiting updates (up to
+ * <code>maxBatchSize</code>) and sends them in one request, so that the number of round trips goes down exactly when the catalog is the bottleneck. Otherwise,
+ * each update is sent in its own request.
+ * </p>
+ * <p>
+ * If a bulk request fails, its updates are sent again one by one, so that one rejected update does not fail the others.
+ * </p>
+ * <p>
+ * Updates for the same dataset must not be submitted before the previous update for that dataset has completed; the updater does not order them.
+ * </p>
+ */
+@Slf4j
+public class CatalogUpdater {
+    private final VaultCatalogClient client;
+    private final int maxInFlight;
+    private final int maxBatchSize;
+    private final Timer callLatency;
+
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private int inFlight;
+
+    private record Pending(DatasetVersion version, CompletableFuture<Void> result, boolean single) {
+    }
+
+    /**
+     * @param client       the Vault Catalog client
+     * @param maxInFlight  the maximum number of outstanding requests
+     * @param maxBatchSize the maximum number of updates per request; 1 disables bulk updates
+     * @param metrics      the metrics in which to record the <code>catalog-call</code> phase
+     */
+    public CatalogUpdater(VaultCatalogClient client, int maxInFlight, int maxBatchSize, StageMetrics metrics) {
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.maxBatchSize = maxBatchSize;
+        this.callLatency = metrics.phase("catalog-call");
+        metrics.registerGauge("catalog.in-flight", this::getInFlight);
+        metrics.registerGauge("catalog.pending", this::getPending);
+    }
+
+    /**
+     * Submits a dataset version update.
+     *
+     * @param version the dataset version
+     * @return a stage that completes when the catalog has accepted the update
+     */
+    public CompletionStage<Void> submit(DatasetVersion version) {
+        var update = new Pending(version, new CompletableFuture<>(), false);
+        synchronized (this) {
+            pending.add(update);
+        }
+        dispatch();
+        return update.result();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    private void dispatch() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || pending.isEmpty()) {
+                    return;
+                }
+                batch = takeBatch();
+                inFlight++;
+            }
+            send(batch);
+        }
+    }
+
+    private List<Pending> takeBatch() {
+        var batch = new ArrayList<Pending>();
+        batch.add(pending.poll());
+        while (!batch.get(0).single() && batch.size() < maxBatchSize && !pending.isEmpty() && !pending.peek().single()) {
+            batch.add(pending.poll());
+        }
+        return batch;
+    }
+
+    private void send(List<Pending> batch) {
+        var timerContext = callLatency.time();
+        CompletionStage<Void> call;
+        try {
+            call = batch.size() == 1
+                ? client.putVersion(batch.get(0).version())
+                : client.putVersions(batch.stream().map(Pending::version).toList());
+        }
+        catch (Exception e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((result, e) -> {
+            timerContext.stop();
+            synchronized (this) {
+                inFlight--;
+                if (e != null && batch.size() > 1) {
+                    log.warn("Bulk update of {} dataset versions failed; retrying them one by one", batch.size(), e);
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        pending.addFirst(new Pending(batch.get(i).version(), batch.get(i).result(), true));
+                    }
+                }
+            }
+            if (e == null) {
+                batch.forEach(update -> update.result().complete(null));
+            }
+            else if (batch.size() == 1) {
+                batch.get(0).result().completeExceptionally(e);
+            }
+            dispatch();
+        });
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.config.ClusterConfig;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Divides the NBNs among the instances of a cluster. The NBNs are hashed into a fixed number of partitions, and each instance holds leases on a share of the
+ * partitions in the database. An instance only processes the NBNs of the partitions it holds, so all DVEs of a dataset are still processed by one instance, in
+ * order.
+ * </p>
+ * <p>
+ * The leases are renewed with a heartbeat. When an instance stops sending heartbeats, its leases expire and the other instances take over its partitions. When
+ * an instance joins, the others notice that their fair share has become smaller: they stop starting new DVEs in their excess partitions and release each of
+ * them as soon as none of its NBNs is being processed any longer, after which the new instance can claim them. Likewise, an instance that cannot reach the
+ * database stops processing once its leases would have expired, so that a partition is never processed by two instances at the same time.
+ * </p>
+ * <p>
+ * Only the extract-metadata inbox is shared; the later stages and the import batches are local to each instance. To keep the DVEs of a dataset in order on
+ * their way to the Data Vault, the journal state of every DVE in the shared inbox and after it is shared through the database (see {@link ClusterDve}) until
+ * its batch has been archived. A draining partition is only released when this instance no longer has any of its DVEs on their way to the Data Vault. Conversely,
+ * an instance that takes over a partition, for instance because the previous holder crashed, holds back the NBNs of which another instance still has DVEs on
+ * their way, and picks them up when those have been archived. It also adopts the lane and stage of the DVEs that are waiting in the partitions it acquires.
+ * </p>
+ * <p>
+ * The heartbeats run on the single thread of the scheduled executor, which is the only thread that changes the state.
+ * </p>
+ */
+@Slf4j
+public class ClusterCoordinator implements Managed, NbnOwnership {
+    private final PartitionLeases leases;
+    private final ClusterConfig config;
+    private final String instanceId;
+    private final ScheduledExecutorService timer;
+    private final Supplier<Collection<String>> activeNbns;
+    private final PipelineJournal journal;
+    private final List<Consumer<Predicate<String>>> acquiredListeners = new CopyOnWriteArrayList<>();
+    // The journal state that has not been shared yet, and the DVEs whose batches have been archived or failed to import since the last heartbeat; guarded by
+    // unshared
+    private final Map<String, ClusterDve> unshared = new LinkedHashMap<>();
+    private final Set<String> archived = new HashSet<>();
+
+    private final Set<Integer> held = new TreeSet<>();
+    private final Set<Integer> draining = new TreeSet<>();
+    private volatile Set<Integer> owned = Set.of();
+    private volatile Set<String> heldBack = Set.of();
+    private volatile int drainingCount;
+    private volatile long validUntil;
+    private ScheduledFuture<?> heartbeats;
+
+    /**
+     * @param leases     the lease store
+     * @param config     the cluster configuration
+     * @param instanceId the unique name of this instance
+     * @param timer      a single-threaded scheduled executor for the heartbeats
+     * @param activeNbns the NBNs that are currently being processed by this instance
+     * @param journal    the journal of this instance, of which the state is shared with the other instances
+     * @param metrics    the registry for the gauges
+     */
+    public ClusterCoordinator(PartitionLeases leases, ClusterConfig config, String instanceId, ScheduledExecutorService timer,
+        Supplier<Collection<String>> activeNbns, PipelineJournal journal, MetricRegistry metrics) {
+        this.leases = leases;
+        this.config = config;
+        this.instanceId = instanceId;
+        this.timer = timer;
+        this.activeNbns = activeNbns;
+        this.journal = journal;
+        journal.addListener(this::journaled);
+        metrics.register(MetricRegistry.name("cluster", "partitions", "owned"), (Gauge<Integer>) () -> owned.size());
+        metrics.register(MetricRegistry.name("cluster", "partitions", "draining"), (Gauge<Integer>) () -> drainingCount);
+        metrics.register(MetricRegistry.name("cluster", "nbns", "held-back"), (Gauge<Integer>) () -> heldBack.size());
+    }
+
+    /**
+     * Registers a listener that is called with a filter selecting the NBNs that this instance has just acquired, so that the DVEs already waiting for them can
+     * be picked up. An NBN is acquired when its partition is acquired, or when it was held back and the other instance no longer has DVEs of it on their way to
+     * the Data Vault.
+     *
+     * @param listener the listener
+     */
+    public void onAcquired(Consumer<Predicate<String>> listener) {
+        acquiredListeners.add(listener);
+    }
+
+    /**
+     * Tells the other instances that the batch with the given DVEs has been archived, so that they no longer have to wait for them. The shared state is
+     * updated before this method returns, on the heartbeat thread, so that it cannot be overtaken by an earlier state of the same DVEs.
+     *
+     * @param dves the DVEs in the batch
+     * @throws IllegalStateException if the shared state cannot be updated
+     */
+    public void archived(Collection<BatchedDve> dves) {
+        try {
+            timer.submit(() -> {
+                synchronized (unshared) {
+                    dves.forEach(dve -> archived.add(dve.dve()));
+                }
+                share();
+            }).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sharing the archived DVEs", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to share the archived DVEs", e.getCause());
+        }
+    }
+
+    /**
+     * Tells the other instances that the import of the batch with the given DVEs has failed. The batch is kept for an operator, so the DVEs are no longer on
+     * their way to the Data Vault and the other instances need not wait for them. The shared state is updated with the next heartbeat.
+     *
+     * @param dves the DVEs in the batch
+     */
+    public void importFailed(Collection<BatchedDve> dves) {
+        synchronized (unshared) {
+            dves.forEach(dve -> archived.add(dve.dve()));
+        }
+    }
+
+    /**
+     * Removes the shared state and the leases of another instance that has left the cluster for good, so that the remaining instances no longer wait for its
+     * DVEs.
+     *
+     * @param otherInstanceId the instance to remove
+     * @return the number of DVEs of the instance that were removed
+     * @throws IllegalArgumentException if the instance is this instance
+     * @throws IllegalStateException    if the instance has sent a heartbeat within the lease duration
+     */
+    public int purge(String otherInstanceId) {
+        if (instanceId.equals(otherInstanceId)) {
+            throw new IllegalArgumentException("Cannot purge the instance itself: " + instanceId);
+        }
+        var purged = leases.purge(otherInstanceId, Duration.ofMillis(config.getLeaseDuration().toMilliseconds()));
+        log.info("Purged {} DVEs and the leases of instance {}", purged, otherInstanceId);
+        return purged;
+    }
+
+    @Override
+    public void start() throws Exception {
+        log.info("Joining cluster as {} ({} partitions)", instanceId, config.getPartitions());
+        leases.ensurePartitions(config.getPartitions());
+        // The first heartbeat is awaited, so that the stages start with the partitions of this instance
+        timer.submit(this::heartbeat).get();
+        var interval = config.getHeartbeatInterval().toMilliseconds();
+        heartbeats = timer.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (heartbeats != null) {
+            heartbeats.cancel(false);
+        }
+        // On the timer thread, so that it cannot be followed by a heartbeat that was already running
+        timer.submit(() -> {
+            owned = Set.of();
+            held.clear();
+            draining.clear();
+            try {
+                share();
+            }
+            catch (Exception e) {
+                log.warn("Unable to share the journal state of {}", instanceId, e);
+            }
+            // Let the other instances take over right away, instead of after the leases have expired; they hold back the NBNs that still have DVEs here
+            leases.releaseAll(instanceId);
+            log.info("Released all partitions of {}", instanceId);
+        }).get();
+    }
+
+    /**
+     * @param nbn the NBN
+     * @return the partition of the NBN
+     */
+    public int getPartition(String nbn) {
+        return Math.floorMod(nbn.hashCode(), config.getPartitions());
+    }
+
+    @Override
+    public boolean owns(String nbn) {
+        return System.currentTimeMillis() < validUntil && owned.contains(getPartition(nbn)) && !heldBack.contains(nbn);
+    }
+
+    void heartbeat() {
+        var started = System.currentTimeMillis();
+        try {
+            share();
+            var busy = activeNbns.get().stream().map(this::getPartition).collect(Collectors.toSet());
+            var release = draining.stream().filter(p -> !busy.contains(p)).collect(Collectors.toList());
+            var result = leases.heartbeat(instanceId, release, config.getPartitions(), Duration.ofMillis(config.getLeaseDuration().toMilliseconds()));
+            if (!result.released().isEmpty()) {
+                log.info("Released partitions {}", result.released());
+                held.removeAll(result.released());
+            }
+            if (result.released().size() < release.size()) {
+                log.debug("Not releasing partitions {} yet: some of their DVEs are still on their way to the Data Vault", release.stream()
+                    .filter(p -> !result.released().contains(p)).toList());
+            }
+            var lost = new TreeSet<>(held);
+            lost.removeAll(result.held());
+            if (!lost.isEmpty()) {
+                log.warn("Lost the leases on partitions {}; another instance has taken them over", lost);
+            }
+            var acquired = new TreeSet<>(result.held());
+            acquired.removeAll(held);
+            held.clear();
+            held.addAll(result.held());
+            draining.retainAll(held);
+            rebalance(result.fairShare());
+            var active = new TreeSet<>(held);
+            active.removeAll(draining);
+            var resumed = new HashSet<>(heldBack);
+            resumed.removeAll(result.heldBack());
+            heldBack = Set.copyOf(result.heldBack());
+            owned = Set.copyOf(active);
+            drainingCount = draining.size();
+            validUntil = started + config.getLeaseDuration().toMilliseconds();
+            if (!acquired.isEmpty()) {
+                log.info("Acquired partitions {}; now holding {} of {}", acquired, held.size(), config.getPartitions());
+                if (!heldBack.isEmpty()) {
+                    log.info("Holding back {} NBN(s) of which another instance still has DVEs on their way to the Data Vault", heldBack.size());
+                }
+                adoptJournalState(acquired);
+                acquiredListeners.forEach(listener -> listener.accept(nbn -> acquired.contains(getPartition(nbn))));
+            }
+            if (!resumed.isEmpty()) {
+                log.info("Resuming {} NBN(s) that no other instance has DVEs of on their way to the Data Vault any longer", resumed.size());
+                acquiredListeners.forEach(listener -> listener.accept(resumed::contains));
+            }
+        }
+        catch (Exception e) {
+            // Ownership lapses by itself when validUntil passes, so a database outage cannot lead to two instances processing the same partition
+            log.warn("Unable to renew the partition leases of {}", instanceId, e);
+        }
+    }
+
+    private void journaled(JournalEntry entry) {
+        // Until it has been collected, a DVE is only in the inbox of this instance
+        if (entry.nbn() == null || entry.stage() == Stage.RESOLVED) {
+            return;
+        }
+        synchronized (unshared) {
+            unshared.put(entry.dve(), new ClusterDve(entry, getPartition(entry.nbn()), instanceId));
+        }
+    }
+
+    /*
+     * On failure, the state is put back for the next heartbeat, unless it has been superseded in the meantime.
+     */
+    private void share() {
+        List<ClusterDve> updated;
+        List<String> archivedDves;
+        synchronized (unshared) {
+            updated = new ArrayList<>(unshared.values());
+            archivedDves = new ArrayList<>(archived);
+            unshared.clear();
+            archived.clear();
+        }
+        if (updated.isEmpty() && archivedDves.isEmpty()) {
+            return;
+        }
+        try {
+            leases.share(updated, archivedDves);
+        }
+        catch (RuntimeException e) {
+            synchronized (unshared) {
+                updated.forEach(dve -> unshared.putIfAbsent(dve.getDve(), dve));
+                archived.addAll(archivedDves);
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Only the DVEs that are still in the extract-metadata inbox are adopted; the ones further down the pipeline of the other instance are left to it.
+     */
+    private void adoptJournalState(Set<Integer> acquired) {
+        try {
+            var adopted = 0;
+            for (var dve : leases.findDves(acquired)) {
+                if (!dve.getOwner().equals(instanceId) && !dve.isBatched() && journal.get(dve.getDve()).isEmpty()) {
+                    journal.adopt(dve.toJournalEntry());
+                    adopted++;
+                }
+            }
+            if (adopted > 0) {
+                log.info("Adopted the journal state of {} DVE(s) in partitions {}", adopted, acquired);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Unable to adopt the journal state of the DVEs in partitions {}; they are processed with the default lane", acquired, e);
+        }
+    }
+
+    /*
+     * Starts draining the highest-numbered partitions beyond the fair share, so that a new instance can take them over.
+     */
+    private void rebalance(int fairShare) {
+        var excess = held.size() - draining.size() - fairShare;
+        if (excess <= 0) {
+            return;
+        }
+        var candidates = new ArrayList<>(held);
+        candidates.removeAll(draining);
+        var toDrain = candidates.subList(candidates.size() - excess, candidates.size());
+        log.info("Handing over partitions {} to rebalance the cluster (fair share is {})", toDrain, fairShare);
+        draining.addAll(toDrain);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.util.Set;
+
+/**
+ * The journal state of a DVE in cluster mode, shared through the database, from the moment it enters the shared extract-metadata inbox until its batch has
+ * been archived. An instance that takes over a partition uses it to learn the lane and stage of the DVEs waiting in it, and to hold back the NBNs of which
+ * another instance still has DVEs on their way to the Data Vault (see {@link ClusterCoordinator}).
+ */
+@Entity
+@Table(name = "cluster_dve", indexes = @Index(name = "cluster_dve_partition_no", columnList = "partition_no"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class ClusterDve {
+    /**
+     * The stages in which the DVE has left the extract-metadata inbox, or is about to, so that it may still be on its way to the Data Vault.
+     */
+    public static final Set<Stage> DOWNSTREAM_STAGES = Set.of(Stage.CATALOGED, Stage.BATCHED, Stage.DONE);
+
+    @Id
+    @Column(name = "dve")
+    private String dve;
+
+    @Column(name = "nbn", nullable = false)
+    private String nbn;
+
+    @Column(name = "partition_no", nullable = false)
+    private int partitionNo;
+
+    @Column(name = "owner", nullable = false)
+    private String owner;
+
+    @Column(name = "size", nullable = false)
+    private long size;
+
+    @Column(name = "modified", nullable = false)
+    private long modified;
+
+    @Column(name = "fingerprint")
+    private String fingerprint;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "stage", nullable = false)
+    private Stage stage;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "lane")
+    private Lane lane;
+
+    @Column(name = "timestamp", nullable = false)
+    private long timestamp;
+
+    /**
+     * @param entry       the journal entry
+     * @param partitionNo the partition of the NBN
+     * @param owner       the instance that recorded the entry
+     */
+    public ClusterDve(JournalEntry entry, int partitionNo, String owner) {
+        this.dve = entry.dve();
+        this.nbn = entry.nbn();
+        this.partitionNo = partitionNo;
+        this.owner = owner;
+        this.size = entry.size();
+        this.modified = entry.modified();
+        this.fingerprint = entry.fingerprint();
+        this.stage = entry.stage();
+        this.lane = entry.lane();
+        this.timestamp = entry.timestamp();
+    }
+
+    /**
+     * @return the state of the DVE as a journal entry
+     */
+    public JournalEntry toJournalEntry() {
+        return new JournalEntry(dve, nbn, size, modified, fingerprint, stage, timestamp, lane);
+    }
+
+    /**
+     * @return whether the DVE has been added to an import batch, so that it will end up in the Data Vault even if it fails later on
+     */
+    public boolean isBatched() {
+        return stage == Stage.BATCHED || stage == Stage.DONE;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * An instance taking part in cluster mode, with the time of its last heartbeat. Used to determine how many partitions each instance should hold, also for an
+ * instance that does not hold any partitions yet.
+ */
+@Entity
+@Table(name = "cluster_member")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ClusterMember {
+    @Id
+    @Column(name = "instance_id")
+    private String instanceId;
+
+    @Column(name = "last_seen", nullable = false)
+    private Instant lastSeen;
+
+    public ClusterMember(String instanceId, Instant lastSeen) {
+        this.instanceId = instanceId;
+        this.lastSeen = lastSeen;
+    }
+}
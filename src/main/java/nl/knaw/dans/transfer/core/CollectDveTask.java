@@ -15,17 +15,16 @@
  */
 package nl.knaw.dans.transfer.core;
 
-import com.jayway.jsonpath.JsonPath;
-import com.jayway.jsonpath.PathNotFoundException;
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.CreationTimeComparator;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
 
 import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.ProviderNotFoundException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * <p>
@@ -36,57 +35,147 @@ import java.nio.file.ProviderNotFoundException;
  * <code>DATASETDIR</code> is the single directory in the root of the DVE. If the task is unable to find the target NBN, it will move the DVE to a subdirectory of the inbox called "failed" and write
  * the stack.
  * </p>
+ * <p>
+ * The NBN may have been resolved in advance, in parallel with other DVEs, or found in the {@link PipelineJournal} (see {@link CollectDveTaskFactory}). In that
+ * case the task only waits for the result. The resolved NBN, the {@link Lane} of the DVE and the move to the NBN directory are recorded in the journal.
+ * </p>
+ * <p>
+ * If a {@link DedupIndex} is configured and the DVE is an exact copy of a DVE that has already been transferred, it is moved to the outbox of the index instead
+ * of to the NBN directory.
+ * </p>
+ * <p>
+ * If a {@link FailedDveHandler} is configured, a DVE that cannot be processed is handed to it, so that the next DVE can be collected while the failed one is
+ * moved to the failed outbox. Otherwise the task moves the DVE to the failed outbox itself and writes the stack trace next to it.
+ * </p>
+ * <p>
+ * If a {@link CollectOrder} is configured, the task is held back while a DVE of the same NBN that arrived earlier, possibly in the other inbox, has not been
+ * collected yet.
+ * </p>
  */
 @Slf4j
-@AllArgsConstructor
 public class CollectDveTask implements Runnable {
-    private static final String METADATA_PATH = "metadata/oai-ore.jsonld";
-    private static final String NBN_PATH = "$.ore:describes.dansDataVaultMetadata:dansNbn";
+    // The NBN directory may be removed by the EmptyDirReaper between creating it and moving the DVE into it
+    private static final int MAX_MOVE_ATTEMPTS = 3;
 
     private final Path dve;
     private final Path failedOutbox;
     private final Path destinationRoot;
+    private final Future<DveIdentity> resolvedIdentity;
+    private final FileMover fileMover;
+    private final PipelineJournal journal;
+    private final DveMetadataCache metadataCache;
+    private final Lane lane;
+    private final DedupIndex dedupIndex;
+    private final FailedDveHandler failedDveHandler;
+    private final CollectOrder collectOrder;
+    private final StageMetrics metrics;
+
+    public CollectDveTask(Path dve, Path failedOutbox, Path destinationRoot) {
+        this(dve, failedOutbox, destinationRoot, null, new FileMover(), new PipelineJournal(), new DveMetadataCache(), Lane.INTERACTIVE, null, null,
+            null, new StageMetrics(StageMetrics.COLLECT_DVE));
+    }
+
+    public CollectDveTask(Path dve, Path failedOutbox, Path destinationRoot, Future<DveIdentity> resolvedIdentity, FileMover fileMover, PipelineJournal journal,
+        DveMetadataCache metadataCache, Lane lane, DedupIndex dedupIndex, FailedDveHandler failedDveHandler, CollectOrder collectOrder, StageMetrics metrics) {
+        this.dve = dve;
+        this.failedOutbox = failedOutbox;
+        this.destinationRoot = destinationRoot;
+        this.resolvedIdentity = resolvedIdentity;
+        this.fileMover = fileMover;
+        this.journal = journal;
+        this.metadataCache = metadataCache;
+        this.lane = lane;
+        this.dedupIndex = dedupIndex;
+        this.failedDveHandler = failedDveHandler;
+        this.collectOrder = collectOrder;
+        this.metrics = metrics;
+    }
 
     @Override
     public void run() {
+        var heldBack = false;
         try {
-            var targetNbn = findTargetNbn();
-            var targetDir = destinationRoot.resolve(targetNbn);
-            ensureExists(targetDir);
-            moveToTargetDir(targetDir);
+            heldBack = collect();
         }
-        catch (Exception e) {
-            log.error("Unable to process DVE: {}", dve, e);
-            moveToFailedOutbox(e);
+        finally {
+            if (collectOrder != null && !heldBack) {
+                collectOrder.collected(dve);
+            }
         }
     }
 
-    private String findTargetNbn() throws IOException {
-        try {
-            try (FileSystem zipFs = FileSystems.newFileSystem(dve, (ClassLoader) null)) {
-                var rootDir = zipFs.getRootDirectories().iterator().next();
-                try (var topLevelDirStream = Files.list(rootDir)) {
-                    var topLevelDir = topLevelDirStream.filter(Files::isDirectory)
-                        .findFirst()
-                        .orElseThrow(() -> new IllegalStateException("No top-level directory found in DVE"));
-
-                    var metadataPath = topLevelDir.resolve(METADATA_PATH);
-                    if (!Files.exists(metadataPath)) {
-                        throw new IllegalStateException("No metadata file found in DVE");
-                    }
-
-                    try (var is = Files.newInputStream(metadataPath)) {
-                        return JsonPath.read(is, NBN_PATH);
-                    } catch (PathNotFoundException e) {
-                        throw new IllegalStateException("No NBN found in DVE", e);
-                    } catch (Exception e) {
-                        throw new IllegalStateException("Unable to read NBN from metadata file", e);
-                    }
+    /*
+     * Returns true if the task is held back by the collect order.
+     */
+    private boolean collect() {
+        try (var ignored = metrics.time()) {
+            DveIdentity identity = null;
+            try {
+                if (!Files.exists(dve)) {
+                    // A task created by a later scan of the inbox, while the task that collected the DVE was held back or running
+                    log.debug("DVE {} is no longer in the inbox; it has been collected already", dve);
+                    return false;
+                }
+                var size = Files.size(dve);
+                identity = findIdentity();
+                if (collectOrder != null && collectOrder.holdBack(dve, identity.nbn(), this)) {
+                    return true;
+                }
+                journal.record(new JournalEntry(getName(), identity.nbn(), size, Files.getLastModifiedTime(dve).toMillis(), identity.fingerprint(), Stage.RESOLVED,
+                    System.currentTimeMillis(), lane));
+                if (isDuplicate(identity)) {
+                    log.info("DVE {} has already been transferred; moving it to {}", dve, dedupIndex.getOutbox());
+                    fileMover.moveToDir(dve, dedupIndex.getOutbox());
+                    CreationTimeComparator.getInstance().forget(dve);
+                    journal.advance(getName(), Stage.DUPLICATE);
+                    metrics.duplicate();
+                    return false;
                 }
+                moveToTargetDir(destinationRoot.resolve(identity.nbn()));
+                journal.advance(getName(), Stage.COLLECTED);
+                metrics.processed(size);
             }
+            catch (Exception e) {
+                log.error("Unable to process DVE: {}", dve, e);
+                metrics.failed(e);
+                journal.advance(getName(), Stage.FAILED);
+                if (failedDveHandler != null) {
+                    failedDveHandler.handle(dve, identity == null ? null : identity.nbn(), e);
+                }
+                else {
+                    moveToFailedOutbox(e);
+                }
+            }
+            return false;
+        }
+    }
+
+    private String getName() {
+        return dve.getFileName().toString();
+    }
+
+    /*
+     * The metadata is only read for the version if the Bloom filter reports a possible match, which for a new DVE is rare.
+     */
+    private boolean isDuplicate(DveIdentity identity) throws IOException {
+        return dedupIndex != null
+            && identity.fingerprint() != null
+            && dedupIndex.mightBeTransferred(identity)
+            && dedupIndex.isTransferred(identity, metadataCache.read(dve).dataversePidVersion());
+    }
+
+    private DveIdentity findIdentity() throws Exception {
+        if (resolvedIdentity == null) {
+            return metadataCache.identify(dve);
         }
-        catch (ProviderNotFoundException e) {
-            throw new RuntimeException("The file system provider is not found. Probably not a ZIP file: " + dve, e);
+        try {
+            return resolvedIdentity.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
     }
 
@@ -97,13 +186,25 @@ public class CollectDveTask implements Runnable {
     }
 
     private void moveToTargetDir(Path targetDir) throws IOException {
-        Files.move(dve, targetDir.resolve(dve.getFileName()));
+        for (int attempt = 1; ; attempt++) {
+            ensureExists(targetDir);
+            try {
+                fileMover.moveToDir(dve, targetDir);
+                break;
+            }
+            catch (NoSuchFileException e) {
+                if (attempt >= MAX_MOVE_ATTEMPTS || !Files.exists(dve) || Files.isDirectory(targetDir)) {
+                    throw e;
+                }
+                log.debug("Directory {} was removed while moving DVE {} into it; retrying", targetDir, dve);
+            }
+        }
+        CreationTimeComparator.getInstance().forget(dve);
     }
 
     private void moveToFailedOutbox(Exception e) {
         try {
-            ensureExists(failedOutbox);
-            Files.move(dve, failedOutbox.resolve(dve.getFileName()));
+            fileMover.moveToDir(dve, failedOutbox);
             var stackTraceFile = failedOutbox.resolve(dve.getFileName() + "-error.log");
             try (var writer = Files.newBufferedWriter(stackTraceFile)) {
                 e.printStackTrace(new java.io.PrintWriter(writer));
@@ -15,18 +15,125 @@
  */
 package nl.knaw.dans.transfer.core;
 
-import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import nl.knaw.dans.lib.util.inbox.InboxTaskFactory;
 
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
-@AllArgsConstructor
+/**
+ * Creates the tasks for the collect-dve inbox. If an NBN resolver executor is configured, the NBN of each DVE is already looked up on that executor when the task
+ * is created, so that the NBNs of a whole scan are resolved in parallel. The tasks themselves still run on the single-threaded collect executor, in the order in
+ * which they were created, and only wait for their own NBN before moving the DVE. The order in which DVEs are committed to their NBN directory is therefore the
+ * same as without the resolver.
+ * <p>
+ * If the {@link PipelineJournal} already knows the NBN of a DVE with the same name and size, for instance because the service was stopped after the NBN was
+ * resolved but before the DVE was moved, the ZIP file is not opened at all. This is not done if a {@link DedupIndex} is configured, because then the
+ * fingerprint must be computed from the contents of the DVE as it is now, not taken from an earlier file with the same name, size and modification time.
+ * </p>
+ * <p>
+ * If a {@link CollectOrder} is configured, each DVE is registered with it on arrival, so that a DVE in one lane is not collected before a DVE of the same NBN
+ * that arrived earlier in the other lane.
+ * </p>
+ */
+@Slf4j
 public class CollectDveTaskFactory implements InboxTaskFactory {
     private final Path destinationRoot;
     private final Path failedOutbox;
+    private final ExecutorService nbnResolver;
+    private final FileMover fileMover;
+    private final PipelineJournal journal;
+    private final StageMetrics metrics;
+    private final DveMetadataCache metadataCache;
+    private final Lane lane;
+    private final DedupIndex dedupIndex;
+    private final FailedDveHandler failedDveHandler;
+    private final CollectOrder collectOrder;
+
+    public CollectDveTaskFactory(Path destinationRoot, Path failedOutbox) {
+        this(destinationRoot, failedOutbox, null, new FileMover(), new StageMetrics(StageMetrics.COLLECT_DVE));
+    }
+
+    public CollectDveTaskFactory(Path destinationRoot, Path failedOutbox, ExecutorService nbnResolver, FileMover fileMover, StageMetrics metrics) {
+        this(destinationRoot, failedOutbox, nbnResolver, fileMover, new PipelineJournal(), metrics);
+    }
+
+    public CollectDveTaskFactory(Path destinationRoot, Path failedOutbox, ExecutorService nbnResolver, FileMover fileMover, PipelineJournal journal,
+        StageMetrics metrics) {
+        this(destinationRoot, failedOutbox, nbnResolver, fileMover, journal, new DveMetadataCache(), Lane.INTERACTIVE, null, null, null, metrics);
+    }
+
+    /**
+     * @param destinationRoot  the directory under which the NBN directories are created
+     * @param failedOutbox     the directory to move failed DVEs to
+     * @param nbnResolver      the executor on which to resolve NBNs in advance; if null, the NBN is resolved by the task itself
+     * @param fileMover        moves the DVEs to their NBN directory or the failed outbox
+     * @param journal          the pipeline journal
+     * @param metadataCache    the cache in which the metadata of the DVEs is kept for the next stages
+     * @param lane             the lane of the DVEs that arrive in this inbox
+     * @param dedupIndex       the index of transferred DVEs; if null, duplicates are not detected
+     * @param failedDveHandler sets aside the DVEs that cannot be processed; if null, the task moves them to the failed outbox itself
+     * @param collectOrder     keeps the DVEs of one NBN in arrival order across the lanes; may be null if there is only one lane
+     * @param metrics          the metrics of the collect-dve stage
+     */
+    public CollectDveTaskFactory(Path destinationRoot, Path failedOutbox, ExecutorService nbnResolver, FileMover fileMover, PipelineJournal journal,
+        DveMetadataCache metadataCache, Lane lane, DedupIndex dedupIndex, FailedDveHandler failedDveHandler, CollectOrder collectOrder, StageMetrics metrics) {
+        this.destinationRoot = destinationRoot;
+        this.failedOutbox = failedOutbox;
+        this.nbnResolver = nbnResolver;
+        this.fileMover = fileMover;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.metadataCache = metadataCache;
+        this.lane = lane;
+        this.dedupIndex = dedupIndex;
+        this.failedDveHandler = failedDveHandler;
+        this.collectOrder = collectOrder;
+    }
 
     @Override
     public Runnable createInboxTask(Path path) {
-        return new CollectDveTask(path, destinationRoot, failedOutbox);
+        if (FileMover.isHidden(path)) {
+            return () -> log.debug("Ignoring {}: it is still being moved into the inbox", path);
+        }
+        var resolvedIdentity = resolveInAdvance(path);
+        if (collectOrder != null) {
+            collectOrder.arrived(path, resolvedIdentity);
+        }
+        return new CollectDveTask(path, failedOutbox, destinationRoot, resolvedIdentity, fileMover, journal, metadataCache, lane, dedupIndex, failedDveHandler,
+            collectOrder, metrics);
+    }
+
+    private Future<DveIdentity> resolveInAdvance(Path dve) {
+        var journaled = findInJournal(dve);
+        if (journaled != null) {
+            return CompletableFuture.completedFuture(journaled);
+        }
+        if (nbnResolver == null) {
+            return null;
+        }
+        try {
+            return nbnResolver.submit(() -> metadataCache.identify(dve));
+        }
+        catch (RejectedExecutionException e) {
+            log.debug("NBN resolver queue is full; NBN of {} will be resolved by the collect task", dve);
+            return null;
+        }
+    }
+
+    private DveIdentity findInJournal(Path dve) {
+        if (dedupIndex != null) {
+            return null;
+        }
+        // Only returned if the size and last modified time of the DVE still match
+        var entry = journal.get(dve).orElse(null);
+        if (entry == null || entry.nbn() == null) {
+            return null;
+        }
+        log.debug("NBN of {} found in journal", dve);
+        return new DveIdentity(entry.nbn(), entry.fingerprint());
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Keeps the DVEs of one dataset in the order in which they arrived in the collect-dve inboxes, across the {@link Lane}s. The {@link LaneExecutor} lets the
+ * interactive lane overtake the bulk lane, which is what it is for, but a newer version of a dataset must not be collected before an older version that is
+ * still waiting in the bulk lane.
+ * </p>
+ * <p>
+ * The task factories of both inboxes register each DVE when it arrives. Once a task has resolved the NBN of its DVE, it asks whether a DVE of the same NBN
+ * arrived earlier and has not been collected yet. If so, the task is held back and run again right after that DVE has been collected or set aside as failed.
+ * A held-back task has returned, so the inbox may create another task for the same DVE on its next scan. Such a task is dropped while the first one is held
+ * back, so that the DVE is collected only once.
+ * </p>
+ * <p>
+ * To compare, the NBNs of the earlier DVEs are needed. They are taken from the NBN resolver if it resolved them in advance, and read from the DVEs otherwise.
+ * Either way they end up in the {@link DveMetadataCache}, so the tasks of those DVEs do not read them again.
+ * </p>
+ */
+@Slf4j
+public class CollectOrder {
+    private final DveMetadataCache metadataCache;
+    private final Map<Path, Arrival> arrivals = new LinkedHashMap<>();
+
+    private static class Arrival {
+        private final Future<DveIdentity> resolvedIdentity;
+        // The tasks held back for this DVE, by the DVE they collect
+        private final Map<Path, Runnable> heldBack = new LinkedHashMap<>();
+        private String nbn;
+        private boolean held;
+
+        private Arrival(Future<DveIdentity> resolvedIdentity) {
+            this.resolvedIdentity = resolvedIdentity;
+        }
+    }
+
+    public CollectOrder(DveMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Registers a DVE that has arrived in one of the inboxes.
+     *
+     * @param dve              the DVE
+     * @param resolvedIdentity the identity of the DVE if it is being resolved in advance, or null
+     */
+    public synchronized void arrived(Path dve, Future<DveIdentity> resolvedIdentity) {
+        arrivals.putIfAbsent(dve, new Arrival(resolvedIdentity));
+    }
+
+    /**
+     * Holds back the task of a DVE if a DVE with the same NBN arrived earlier and has not been collected yet. The task is then run again by
+     * {@link #collected(Path)} of that DVE. If a task for the DVE is already held back, the given task is dropped. Only to be called from the single collect
+     * thread.
+     *
+     * @param dve  the DVE
+     * @param nbn  the NBN of the DVE
+     * @param task the task that collects the DVE
+     * @return true if the task is held back or dropped
+     */
+    public boolean holdBack(Path dve, String nbn, Runnable task) {
+        List<Map.Entry<Path, Arrival>> earlier = new ArrayList<>();
+        synchronized (this) {
+            var own = arrivals.get(dve);
+            if (own == null) {
+                // Already collected by an earlier task for the same file
+                return false;
+            }
+            if (own.held) {
+                log.debug("DVE {} is already held back; dropping the task of a later scan", dve);
+                return true;
+            }
+            for (var entry : arrivals.entrySet()) {
+                if (entry.getKey().equals(dve)) {
+                    break;
+                }
+                earlier.add(entry);
+            }
+        }
+        // Resolving may have to wait for the NBN resolver, so it is done outside the lock
+        for (var entry : earlier) {
+            if (nbn.equals(getNbn(entry.getKey(), entry.getValue()))) {
+                synchronized (this) {
+                    var own = arrivals.get(dve);
+                    if (arrivals.get(entry.getKey()) == entry.getValue() && own != null) {
+                        log.debug("Holding back DVE {} until DVE {} of the same NBN {} has been collected", dve, entry.getKey(), nbn);
+                        entry.getValue().heldBack.put(dve, task);
+                        own.held = true;
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unregisters a DVE that has left the inbox and runs the tasks that were held back for it.
+     *
+     * @param dve the DVE
+     */
+    public void collected(Path dve) {
+        Arrival arrival;
+        synchronized (this) {
+            arrival = arrivals.remove(dve);
+            if (arrival == null) {
+                return;
+            }
+            for (var released : arrival.heldBack.keySet()) {
+                var releasedArrival = arrivals.get(released);
+                if (releasedArrival != null) {
+                    releasedArrival.held = false;
+                }
+            }
+        }
+        arrival.heldBack.values().forEach(Runnable::run);
+    }
+
+    /**
+     * @return the number of tasks that are held back
+     */
+    public synchronized int getHeldBack() {
+        return arrivals.values().stream().mapToInt(arrival -> arrival.heldBack.size()).sum();
+    }
+
+    /*
+     * Returns null if the NBN cannot be determined. The task of that DVE will then fail, so it cannot be overtaken.
+     */
+    private String getNbn(Path dve, Arrival arrival) {
+        if (arrival.nbn == null) {
+            try {
+                var identity = arrival.resolvedIdentity == null ? metadataCache.identify(dve) : arrival.resolvedIdentity.get();
+                arrival.nbn = identity.nbn();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            catch (Exception e) {
+                log.debug("Unable to determine the NBN of DVE {}; not holding back later DVEs for it", dve, e);
+                return null;
+            }
+        }
+        return arrival.nbn;
+    }
+}
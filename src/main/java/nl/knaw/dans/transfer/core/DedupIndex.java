@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * <p>
+ * Remembers which DVEs have been transferred to the vault, so that the collect-dve stage can set aside an exact copy of a DVE that is delivered again, instead
+ * of sending it through the whole pipeline. A DVE is identified by its NBN, the version of the dataset and the fingerprint of its contents (see
+ * {@link NbnLocator}).
+ * </p>
+ * <p>
+ * A DVE is recorded when the Data Vault has confirmed the import of its batch (see {@link ArchiveConfirmationScheduler#onArchived}), not when it is added to
+ * the batch. Otherwise a copy of a DVE whose import failed would be set aside as a duplicate and never reach the vault.
+ * </p>
+ * <p>
+ * The DVEs are stored in the database. A {@link BloomFilter} in front of it, filled from the database at startup, answers most lookups for new DVEs without a
+ * query; only when the filter reports a possible match is the database consulted. In cluster mode, the filter only knows the DVEs transferred by this instance
+ * since startup and by all instances before startup, so a copy that was transferred by another instance in the meantime may still go through the pipeline.
+ * </p>
+ */
+@Slf4j
+public class DedupIndex implements Managed {
+    private final TransferredDves store;
+    @Getter
+    private final Path outbox;
+    private final BloomFilter bloomFilter;
+
+    /**
+     * @param store             the table of transferred DVEs
+     * @param outbox            the directory to move duplicates to
+     * @param expectedEntries   the number of transferred DVEs to size the Bloom filter for
+     * @param falsePositiveRate the rate of lookups that are passed to the database needlessly when the expected number of DVEs has been transferred
+     */
+    public DedupIndex(TransferredDves store, Path outbox, long expectedEntries, double falsePositiveRate) {
+        this.store = store;
+        this.outbox = outbox;
+        this.bloomFilter = new BloomFilter(expectedEntries, falsePositiveRate);
+    }
+
+    @Override
+    public void start() {
+        var count = new long[1];
+        store.forEachKey((nbn, fingerprint) -> {
+            bloomFilter.put(key(nbn, fingerprint));
+            count[0]++;
+        });
+        log.info("Loaded {} transferred DVEs into the dedup index ({} bytes)", count[0], bloomFilter.getSizeInBytes());
+    }
+
+    /**
+     * Returns whether a DVE with this NBN and fingerprint may have been transferred. This does not query the database.
+     *
+     * @param identity the NBN and fingerprint of the DVE
+     * @return false if it certainly has not been transferred
+     */
+    public boolean mightBeTransferred(DveIdentity identity) {
+        return bloomFilter.mightContain(key(identity.nbn(), identity.fingerprint()));
+    }
+
+    /**
+     * @param identity            the NBN and fingerprint of the DVE
+     * @param dataversePidVersion the version of the dataset
+     * @return whether an identical DVE has been transferred
+     */
+    public boolean isTransferred(DveIdentity identity, String dataversePidVersion) {
+        return mightBeTransferred(identity) && store.contains(identity.nbn(), dataversePidVersion, identity.fingerprint());
+    }
+
+    /**
+     * Records that the DVE has been transferred.
+     *
+     * @param dve                 the file name of the DVE
+     * @param identity            the NBN and fingerprint of the DVE
+     * @param dataversePidVersion the version of the dataset
+     */
+    public void record(String dve, DveIdentity identity, String dataversePidVersion) {
+        store.add(new TransferredDve(dve, identity.nbn(), dataversePidVersion, identity.fingerprint(), Instant.now()));
+        bloomFilter.put(key(identity.nbn(), identity.fingerprint()));
+    }
+
+    /**
+     * Records the DVEs of an archived batch. A DVE that is not recorded is only transferred again if it is delivered again, so a failure is only logged and does
+     * not hold up the confirmation of the batch.
+     *
+     * @param dves the DVEs of the batch
+     */
+    public void archived(List<BatchedDve> dves) {
+        for (var dve : dves) {
+            if (dve.nbn() == null || dve.fingerprint() == null) {
+                log.debug("DVE {} was batched without NBN or fingerprint; not recording it in the dedup index", dve.dve());
+                continue;
+            }
+            try {
+                var identity = new DveIdentity(dve.nbn(), dve.fingerprint());
+                // The confirmation of a batch is retried if another listener fails
+                if (!isTransferred(identity, dve.dataversePidVersion())) {
+                    record(dve.dve(), identity, dve.dataversePidVersion());
+                }
+            }
+            catch (RuntimeException e) {
+                log.warn("Unable to record DVE {} in the dedup index", dve.dve(), e);
+            }
+        }
+    }
+
+    private static String key(String nbn, String fingerprint) {
+        return nbn + "\n" + fingerprint;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Extracts a DVE ZIP file into a directory of an import batch.
+ * </p>
+ * <p>
+ * The entries of a ZIP file can be inflated independently, so the files are written by several workers in parallel, largest entries first. Each worker reuses a
+ * large buffer and writes through a {@link FileChannel}. Files whose size is known from the central directory are sized up front. The files are not synced
+ * individually; call {@link #sync(Path)} once for the whole batch before it is handed to the Data Vault.
+ * </p>
+ * <p>
+ * The integrity of the DVE is verified in the same pass, so the ZIP file is read only once: every entry is checked against the CRC-32 in the ZIP, and every
+ * payload file listed in a {@code manifest-<algorithm>.txt} of the bag is hashed while it is written and checked against the manifest. Each worker hashes the
+ * entries it writes, so the hashing is as parallel as the extraction. A DVE that fails either check is rejected with an {@link IOException}.
+ * </p>
+ * <p>
+ * The extractor itself does no bookkeeping: it returns the totals for the DVE to the caller, which remains the single writer of the batch state.
+ * </p>
+ */
+@Slf4j
+public class DveExtractor {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // A payload manifest in the bag, which is either at the root of the ZIP file or in a directory directly below it
+    private static final Pattern MANIFEST = Pattern.compile("^((?:[^/]+/)?)manifest-([a-z0-9]+)\\.txt$");
+    private static final Map<String, String> ALGORITHMS = Map.of(
+        "md5", "MD5",
+        "sha1", "SHA-1",
+        "sha256", "SHA-256",
+        "sha512", "SHA-512");
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * The number of bytes and regular files written for one DVE, and the outcome of the verification.
+     *
+     * @param bytes         the total size of the extracted files
+     * @param files         the number of extracted files
+     * @param verifiedFiles the number of files that were verified against a bag manifest
+     * @param algorithms    the checksum algorithms of the bag manifests, e.g., {@code sha1}
+     */
+    public record Result(long bytes, long files, long verifiedFiles, Set<String> algorithms) {
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        long run() throws IOException;
+    }
+
+    /**
+     * Creates an extractor that works on the calling thread only.
+     */
+    public DveExtractor() {
+        this(null, 1);
+    }
+
+    /**
+     * @param executor    the executor for the extraction workers
+     * @param parallelism the maximum number of workers per DVE
+     */
+    public DveExtractor(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Extracts the ZIP file into the target directory, which must not exist yet, verifying the CRC-32 of each entry and the checksums in the bag manifests.
+     *
+     * @param zip       the DVE
+     * @param targetDir the directory to extract into
+     * @return the number of bytes and files written and the outcome of the verification
+     * @throws IOException if the DVE cannot be read, the files cannot be written or the DVE is corrupt
+     */
+    public Result extract(Path zip, Path targetDir) throws IOException {
+        Files.createDirectories(targetDir);
+        var normalizedTarget = targetDir.toAbsolutePath().normalize();
+        try (var zipFile = new ZipFile(zip.toFile())) {
+            var fileEntries = new ArrayList<ZipEntry>();
+            var fileNames = new HashSet<String>();
+            var dirs = new LinkedHashSet<Path>();
+            var entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                var entry = entries.nextElement();
+                var target = resolveEntry(normalizedTarget, entry.getName());
+                if (entry.isDirectory()) {
+                    dirs.add(target);
+                }
+                else {
+                    dirs.add(target.getParent());
+                    fileEntries.add(entry);
+                    fileNames.add(entry.getName());
+                }
+            }
+            var algorithms = new TreeSet<String>();
+            var expected = readManifests(zipFile, fileEntries, algorithms);
+            var missing = expected.keySet().stream().filter(name -> !fileNames.contains(name)).sorted().collect(Collectors.toList());
+            if (!missing.isEmpty()) {
+                throw new IOException("Files listed in the bag manifest are missing from " + zip.getFileName() + ": " + summarize(missing));
+            }
+            // Create the directories up front, so the workers only write files
+            for (var dir : dirs) {
+                Files.createDirectories(dir);
+            }
+            fileEntries.sort(Comparator.comparingLong(ZipEntry::getSize).reversed());
+            var verified = new AtomicLong();
+            var bytes = writeEntries(zipFile, fileEntries, normalizedTarget, expected, verified);
+            return new Result(bytes, fileEntries.size(), verified.get(), algorithms);
+        }
+    }
+
+    /**
+     * Flushes all files under the directory to disk.
+     *
+     * @param dir the directory, e.g., a closed import batch
+     * @throws IOException if a file cannot be synced
+     */
+    public void sync(Path dir) throws IOException {
+        List<Path> files;
+        try (var stream = Files.walk(dir)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        var next = new AtomicInteger();
+        Worker worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < files.size()) {
+                try (var channel = FileChannel.open(files.get(i), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            return 0;
+        };
+        runWorkers(worker, files.size(), new AtomicBoolean());
+    }
+
+    /*
+     * Returns the expected checksums by ZIP entry name, and adds the algorithms of the manifests to the given set.
+     */
+    private Map<String, Map<String, String>> readManifests(ZipFile zipFile, List<ZipEntry> fileEntries, Set<String> algorithms) throws IOException {
+        var expected = new HashMap<String, Map<String, String>>();
+        for (var entry : fileEntries) {
+            var matcher = MANIFEST.matcher(entry.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            var bagPrefix = matcher.group(1);
+            var algorithm = ALGORITHMS.get(matcher.group(2));
+            if (algorithm == null) {
+                log.warn("Not verifying {}: unsupported checksum algorithm", entry.getName());
+                continue;
+            }
+            algorithms.add(matcher.group(2));
+            try (var reader = new BufferedReader(new InputStreamReader(zipFile.getInputStream(entry), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    var parts = line.split("\\s+", 2);
+                    if (parts.length != 2) {
+                        throw new IOException("Invalid line in " + entry.getName() + ": " + line);
+                    }
+                    expected.computeIfAbsent(bagPrefix + decodeManifestPath(parts[1]), k -> new HashMap<>()).put(algorithm, parts[0].toLowerCase());
+                }
+            }
+        }
+        return expected;
+    }
+
+    /*
+     * BagIt percent-encodes CR, LF and % in manifest paths.
+     */
+    private static String decodeManifestPath(String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        return path.replace("%0D", "\r").replace("%0d", "\r").replace("%0A", "\n").replace("%0a", "\n").replace("%25", "%");
+    }
+
+    private static String summarize(List<String> names) {
+        return names.size() <= 10 ? names.toString() : names.subList(0, 10) + " and " + (names.size() - 10) + " more";
+    }
+
+    private long writeEntries(ZipFile zipFile, List<ZipEntry> fileEntries, Path normalizedTarget, Map<String, Map<String, String>> expected,
+        AtomicLong verified) throws IOException {
+        var next = new AtomicInteger();
+        var failed = new AtomicBoolean();
+        Worker worker = () -> {
+            var buffer = new byte[BUFFER_SIZE];
+            var digests = new HashMap<String, MessageDigest>();
+            long written = 0;
+            int i;
+            while (!failed.get() && (i = next.getAndIncrement()) < fileEntries.size()) {
+                var entry = fileEntries.get(i);
+                var checksums = expected.getOrDefault(entry.getName(), Map.of());
+                written += writeEntry(zipFile, entry, normalizedTarget, buffer, getDigests(digests, checksums.keySet()), checksums);
+                if (!checksums.isEmpty()) {
+                    verified.incrementAndGet();
+                }
+            }
+            return written;
+        };
+        return runWorkers(worker, fileEntries.size(), failed);
+    }
+
+    private long runWorkers(Worker worker, int items, AtomicBoolean failed) throws IOException {
+        var workers = executor == null ? 1 : Math.min(parallelism, items);
+        if (workers <= 1) {
+            return worker.run();
+        }
+        var futures = new ArrayList<Future<Long>>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    return worker.run();
+                }
+                catch (Exception e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }));
+        }
+        long total = 0;
+        IOException error = null;
+        for (var future : futures) {
+            try {
+                total += future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.set(true);
+                throw new IOException("Interrupted while extracting", e);
+            }
+            catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return total;
+    }
+
+    /*
+     * The digests are reused by a worker for all its entries.
+     */
+    private static Map<String, MessageDigest> getDigests(Map<String, MessageDigest> cache, Set<String> algorithms) throws IOException {
+        var digests = new HashMap<String, MessageDigest>(algorithms.size());
+        for (var algorithm : algorithms) {
+            var digest = cache.get(algorithm);
+            if (digest == null) {
+                try {
+                    digest = MessageDigest.getInstance(algorithm);
+                }
+                catch (NoSuchAlgorithmException e) {
+                    throw new IOException("Checksum algorithm not available: " + algorithm, e);
+                }
+                cache.put(algorithm, digest);
+            }
+            digest.reset();
+            digests.put(algorithm, digest);
+        }
+        return digests;
+    }
+
+    private long writeEntry(ZipFile zipFile, ZipEntry entry, Path normalizedTarget, byte[] buffer, Map<String, MessageDigest> digests,
+        Map<String, String> checksums) throws IOException {
+        var target = resolveEntry(normalizedTarget, entry.getName());
+        var crc = new CRC32();
+        long written = 0;
+        try (var is = zipFile.getInputStream(entry); var file = new RandomAccessFile(target.toFile(), "rw"); var channel = file.getChannel()) {
+            if (entry.getSize() > 0) {
+                file.setLength(entry.getSize());
+            }
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+                for (var digest : digests.values()) {
+                    digest.update(buffer, 0, n);
+                }
+                var byteBuffer = ByteBuffer.wrap(buffer, 0, n);
+                while (byteBuffer.hasRemaining()) {
+                    written += channel.write(byteBuffer);
+                }
+            }
+            if (entry.getSize() >= 0 && written != entry.getSize()) {
+                throw new IOException("Size of extracted entry " + entry.getName() + " (" + written + ") differs from size in ZIP (" + entry.getSize() + ")");
+            }
+        }
+        if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+            throw new IOException("CRC-32 of extracted entry " + entry.getName() + " does not match the CRC-32 in the ZIP file");
+        }
+        for (var digest : digests.entrySet()) {
+            var actual = HexFormat.of().formatHex(digest.getValue().digest());
+            if (!actual.equals(checksums.get(digest.getKey()))) {
+                throw new IOException(digest.getKey() + " checksum of " + entry.getName() + " (" + actual + ") does not match the bag manifest ("
+                    + checksums.get(digest.getKey()) + ")");
+            }
+        }
+        return written;
+    }
+
+    static Path resolveEntry(Path normalizedTarget, String entryName) throws IOException {
+        var target = normalizedTarget.resolve(entryName).normalize();
+        if (!target.startsWith(normalizedTarget)) {
+            throw new IOException("ZIP entry points outside of the target directory: " + entryName);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * A file of a DVE, as listed in <code>ore:aggregates</code> in <code>metadata/oai-ore.jsonld</code>.
+ *
+ * @param id             the identifier of the file in Dataverse
+ * @param name           the name of the file
+ * @param directoryLabel the directory of the file in the dataset, if any
+ * @param size           the size of the file in bytes, or -1 if not given
+ * @param checksumType   the checksum algorithm, e.g., <code>SHA-1</code>, if any
+ * @param checksum       the checksum value, if any
+ */
+public record DveFile(String id, String name, String directoryLabel, long size, String checksumType, String checksum) {
+}
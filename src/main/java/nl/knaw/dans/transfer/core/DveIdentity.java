@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * The target NBN of a DVE and the fingerprint of its contents.
+ *
+ * @param nbn         the target NBN
+ * @param fingerprint a hash over the names, CRC-32s and sizes of all entries in the central directory; DVEs with the same contents have the same fingerprint
+ */
+public record DveIdentity(String nbn, String fingerprint) {
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * The metadata of a DVE that is needed to catalog it, as found in <code>ore:describes</code> in <code>metadata/oai-ore.jsonld</code>.
+ *
+ * @param nbn                 the target NBN
+ * @param dataversePid        the persistent identifier of the dataset in Dataverse, if any
+ * @param dataversePidVersion the version of the dataset in Dataverse, if any
+ * @param bagId               the id of the bag
+ * @param title               the title of the dataset
+ */
+public record DveMetadata(String nbn, String dataversePid, String dataversePidVersion, String bagId, String title) {
+}
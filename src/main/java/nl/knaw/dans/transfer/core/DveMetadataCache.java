@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Bounded cache of the {@link DveSummary} of the DVEs in the pipeline, shared by the stages, so that the metadata file of a DVE is parsed only once, no matter
+ * how many stages need it. When the cache is full, the least recently used DVE is dropped.
+ * </p>
+ * <p>
+ * A DVE is identified by its file name, which does not change on its way through the pipeline, together with its size and modification time. If the DVE has
+ * been replaced or touched, the cached summary is not used and the DVE is read again. The send-to-vault stage removes a DVE from the cache when it leaves the
+ * pipeline.
+ * </p>
+ * <p>
+ * If a spill file is configured, the cache is written to it on stop and read from it on start, so that a restart does not require all DVEs in the pipeline to be
+ * read again. The cache is only an optimization: if the spill file cannot be read or written, this is logged and the service continues.
+ * </p>
+ */
+@Slf4j
+public class DveMetadataCache implements Managed {
+    private final DveMetadataReader reader;
+    private final int maxEntries;
+    private final Path spillFile;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Entry> entries;
+    private final Counter hits;
+    private final Counter misses;
+
+    /**
+     * A cached summary, with the size and modification time of the DVE it was read from.
+     */
+    public record Entry(long size, long lastModified, DveSummary summary) {
+    }
+
+    /**
+     * Creates a cache that is kept in memory only and does not record metrics.
+     */
+    public DveMetadataCache() {
+        this(new DveMetadataReader(), 1000, null, new ObjectMapper(), new MetricRegistry());
+    }
+
+    /**
+     * @param reader       reads the DVEs that are not in the cache
+     * @param maxEntries   the maximum number of DVEs in the cache
+     * @param spillFile    the file to keep the cache in across restarts, or null to keep the cache in memory only
+     * @param objectMapper the object mapper to write and read the spill file with
+     * @param metrics      the registry in which to record <code>metadata-cache.hits</code>, <code>metadata-cache.misses</code> and
+     *                     <code>metadata-cache.size</code>
+     */
+    public DveMetadataCache(DveMetadataReader reader, int maxEntries, Path spillFile, ObjectMapper objectMapper, MetricRegistry metrics) {
+        this.reader = reader;
+        this.maxEntries = maxEntries;
+        this.spillFile = spillFile;
+        this.objectMapper = objectMapper;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DveMetadataCache.this.maxEntries;
+            }
+        };
+        this.hits = metrics.counter(MetricRegistry.name("metadata-cache", "hits"));
+        this.misses = metrics.counter(MetricRegistry.name("metadata-cache", "misses"));
+        metrics.register(MetricRegistry.name("metadata-cache", "size"), (Gauge<Integer>) this::size);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (spillFile == null || !Files.exists(spillFile)) {
+            return;
+        }
+        try {
+            // Written in LRU order, so that putting the entries back in the same order restores it
+            Map<String, Entry> spilled = objectMapper.readValue(spillFile.toFile(), new TypeReference<LinkedHashMap<String, Entry>>() {
+            });
+            entries.putAll(spilled);
+            log.info("Read the metadata of {} DVEs from {}", entries.size(), spillFile);
+        }
+        catch (IOException e) {
+            log.warn("Unable to read metadata cache {}; starting with an empty cache", spillFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (spillFile == null) {
+            return;
+        }
+        var tempFile = spillFile.resolveSibling(spillFile.getFileName() + ".tmp");
+        try {
+            objectMapper.writeValue(tempFile.toFile(), entries);
+            Files.move(tempFile, spillFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn("Unable to write metadata cache {}", spillFile, e);
+        }
+    }
+
+    /**
+     * Returns the summary of the DVE, from the cache if the DVE has not changed since it was read, otherwise by reading the DVE.
+     *
+     * @param dve the DVE ZIP file
+     * @return the summary of the DVE
+     * @throws IOException           if the DVE cannot be read
+     * @throws IllegalStateException if the DVE is not a ZIP file, or if the metadata file or the NBN cannot be found
+     */
+    public DveSummary get(Path dve) throws IOException {
+        var name = dve.getFileName().toString();
+        var attributes = Files.readAttributes(dve, BasicFileAttributes.class);
+        var lastModified = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            var entry = entries.get(name);
+            if (entry != null && entry.size() == attributes.size() && entry.lastModified() == lastModified) {
+                hits.inc();
+                return entry.summary();
+            }
+        }
+        misses.inc();
+        // Read outside the lock, so that the stages do not wait for each other's DVEs
+        var summary = reader.summarize(dve);
+        synchronized (this) {
+            entries.put(name, new Entry(attributes.size(), lastModified, summary));
+        }
+        return summary;
+    }
+
+    /**
+     * @param dve the DVE ZIP file
+     * @return the target NBN and fingerprint of the DVE
+     * @throws IOException if the DVE cannot be read
+     * @see #get(Path)
+     */
+    public DveIdentity identify(Path dve) throws IOException {
+        return get(dve).identity();
+    }
+
+    /**
+     * @param dve the DVE ZIP file
+     * @return the metadata of the DVE
+     * @throws IOException if the DVE cannot be read
+     * @see #get(Path)
+     */
+    public DveMetadata read(Path dve) throws IOException {
+        return get(dve).metadata();
+    }
+
+    /**
+     * Removes the DVE from the cache, for instance because it has left the pipeline.
+     *
+     * @param dve the DVE ZIP file
+     */
+    public synchronized void forget(Path dve) {
+        entries.remove(dve.getFileName().toString());
+    }
+
+    /**
+     * @return the number of DVEs in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
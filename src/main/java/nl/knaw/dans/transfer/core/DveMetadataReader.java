@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Reads the {@link DveMetadata} of a DVE. Like {@link NbnLocator}, it looks up the metadata file directly in the central directory and reads it with a streaming
+ * parser. Only the scalar values of <code>ore:describes</code> are read; nested values are skipped.
+ * </p>
+ * <p>
+ * The list of aggregated resources, which for a dataset with 100k files makes up tens of MB of the metadata file, is never materialized. If the files are needed,
+ * {@link #read(Path, Consumer)} passes them to the caller one at a time while they are parsed, so that the memory used does not depend on the number of files.
+ * </p>
+ */
+public class DveMetadataReader {
+    private static final String DESCRIBES = "ore:describes";
+    private static final String AGGREGATES = "ore:aggregates";
+    private static final String NBN = "dansDataVaultMetadata:dansNbn";
+    private static final String DATAVERSE_PID = "dansDataVaultMetadata:dansDataversePid";
+    private static final String DATAVERSE_PID_VERSION = "dansDataVaultMetadata:dansDataversePidVersion";
+    private static final String BAG_ID = "dansDataVaultMetadata:dansBagId";
+    private static final String TITLE = "title";
+    private static final String FILE_ID = "@id";
+    private static final String FILE_NAME = "schema:name";
+    private static final String FILE_DIRECTORY_LABEL = "dvcore:directoryLabel";
+    private static final String FILE_SIZE = "dvcore:filesize";
+    private static final String FILE_CHECKSUM = "dvcore:checksum";
+    private static final String CHECKSUM_TYPE = "@type";
+    private static final String CHECKSUM_VALUE = "@value";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Timer metadataRead;
+
+    public DveMetadataReader() {
+        this(new StageMetrics(StageMetrics.EXTRACT_METADATA));
+    }
+
+    /**
+     * @param metrics the metrics in which to record the <code>metadata-read</code> phase
+     */
+    public DveMetadataReader(StageMetrics metrics) {
+        this.metadataRead = metrics.phase("metadata-read");
+    }
+
+    /**
+     * @param dve the DVE ZIP file
+     * @return the metadata of the DVE
+     * @throws IOException           if the DVE cannot be read
+     * @throws IllegalStateException if the DVE is not a ZIP file, or if the metadata file or the NBN cannot be found
+     */
+    public DveMetadata read(Path dve) throws IOException {
+        return read(dve, null);
+    }
+
+    /**
+     * Reads the metadata of the DVE and passes each file in <code>ore:aggregates</code> to the consumer as soon as it has been parsed, in document order. The
+     * consumer is called on the calling thread, before this method returns.
+     *
+     * @param dve   the DVE ZIP file
+     * @param files the consumer of the files; if null, the files are skipped
+     * @return the metadata of the DVE
+     * @throws IOException           if the DVE cannot be read
+     * @throws IllegalStateException if the DVE is not a ZIP file, or if the metadata file or the NBN cannot be found
+     */
+    public DveMetadata read(Path dve, Consumer<DveFile> files) throws IOException {
+        try (var ignored = metadataRead.time(); var zip = new ZipFile(dve.toFile())) {
+            try (var is = zip.getInputStream(NbnLocator.findMetadataEntry(zip))) {
+                return readMetadata(is, files);
+            }
+        }
+        catch (ZipException e) {
+            throw new IllegalStateException("Unable to open DVE. Probably not a ZIP file: " + dve, e);
+        }
+    }
+
+    /**
+     * Reads the metadata, the fingerprint and the number and total size of the files of the DVE, opening the ZIP file only once.
+     *
+     * @param dve the DVE ZIP file
+     * @return the summary of the DVE
+     * @throws IOException           if the DVE cannot be read
+     * @throws IllegalStateException if the DVE is not a ZIP file, or if the metadata file or the NBN cannot be found
+     */
+    public DveSummary summarize(Path dve) throws IOException {
+        try (var ignored = metadataRead.time(); var zip = new ZipFile(dve.toFile())) {
+            var metadataEntry = NbnLocator.findMetadataEntry(zip);
+            long fileCount = 0;
+            long contentSize = 0;
+            for (var entries = zip.entries(); entries.hasMoreElements(); ) {
+                var entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    fileCount++;
+                    contentSize += entry.getSize();
+                }
+            }
+            try (var is = zip.getInputStream(metadataEntry)) {
+                return new DveSummary(readMetadata(is, null), NbnLocator.fingerprint(zip), fileCount, contentSize);
+            }
+        }
+        catch (ZipException e) {
+            throw new IllegalStateException("Unable to open DVE. Probably not a ZIP file: " + dve, e);
+        }
+    }
+
+    private DveMetadata readMetadata(InputStream is, Consumer<DveFile> files) throws IOException {
+        var values = new HashMap<String, String>();
+        try (var parser = JSON_FACTORY.createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("Unable to read metadata file: not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && DESCRIBES.equals(name)) {
+                    readDescribes(parser, values, files);
+                    break;
+                }
+                parser.skipChildren();
+            }
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to read metadata file", e);
+        }
+        if (values.get(NBN) == null) {
+            throw new IllegalStateException("No NBN found in DVE");
+        }
+        return new DveMetadata(values.get(NBN), values.get(DATAVERSE_PID), values.get(DATAVERSE_PID_VERSION), values.get(BAG_ID), values.get(TITLE));
+    }
+
+    private void readDescribes(JsonParser parser, Map<String, String> values, Consumer<DveFile> files) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.getCurrentName();
+            var token = parser.nextToken();
+            if (token.isScalarValue()) {
+                values.put(name, parser.getValueAsString());
+            }
+            else if (files != null && token == JsonToken.START_ARRAY && AGGREGATES.equals(name)) {
+                readFiles(parser, files);
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readFiles(JsonParser parser, Consumer<DveFile> files) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                files.accept(readFile(parser));
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private DveFile readFile(JsonParser parser) throws IOException {
+        String id = null;
+        String name = null;
+        String directoryLabel = null;
+        long size = -1;
+        String checksumType = null;
+        String checksum = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            var token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT && FILE_CHECKSUM.equals(field)) {
+                var values = new HashMap<String, String>();
+                readScalars(parser, values);
+                checksumType = values.get(CHECKSUM_TYPE);
+                checksum = values.get(CHECKSUM_VALUE);
+            }
+            else if (!token.isScalarValue()) {
+                parser.skipChildren();
+            }
+            else {
+                switch (field) {
+                    case FILE_ID -> id = parser.getValueAsString();
+                    case FILE_NAME -> name = parser.getValueAsString();
+                    case FILE_DIRECTORY_LABEL -> directoryLabel = parser.getValueAsString();
+                    case FILE_SIZE -> size = parser.getValueAsLong(-1);
+                    default -> {
+                        // Not needed
+                    }
+                }
+            }
+        }
+        return new DveFile(id, name, directoryLabel, size, checksumType, checksum);
+    }
+
+    private void readScalars(JsonParser parser, Map<String, String> values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.getCurrentName();
+            if (parser.nextToken().isScalarValue()) {
+                values.put(name, parser.getValueAsString());
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * What the stages need to know about a DVE, gathered in a single pass over the ZIP file (see {@link DveMetadataReader#summarize(java.nio.file.Path)}) and kept
+ * in the {@link DveMetadataCache}.
+ *
+ * @param metadata    the metadata from <code>ore:describes</code>
+ * @param fingerprint the fingerprint of the contents of the DVE (see {@link NbnLocator})
+ * @param fileCount   the number of files in the DVE
+ * @param contentSize the total uncompressed size of the files in the DVE
+ */
+public record DveSummary(DveMetadata metadata, String fingerprint, long fileCount, long contentSize) {
+
+    public DveIdentity identity() {
+        return new DveIdentity(metadata.nbn(), fingerprint);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Removes the NBN directories of the staging area once they are empty. Instead of inspecting every NBN directory on every run, the reaper only looks at the
+ * directories that the extract-metadata stage has reported as drained (see {@link #markDrained(Path)}). Only the first run sweeps all directories, to clean up
+ * those that were left empty before a restart.
+ * </p>
+ * <p>
+ * A directory is removed with a single delete, which the file system refuses if the directory is not empty. So if the collect-dve stage has moved a new DVE into
+ * the directory in the meantime, the directory simply stays. If the directory is removed just before the collect-dve stage moves a DVE into it, the move fails
+ * and is retried by {@link CollectDveTask}. A directory that cannot be removed for any other reason is logged and skipped; it does not stop the run.
+ * </p>
+ */
+@Slf4j
+public class EmptyDirReaper implements Runnable {
+    private final Path root;
+    private final Set<Path> drained = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean swept = new AtomicBoolean();
+
+    /**
+     * @param root the directory containing the NBN directories
+     */
+    public EmptyDirReaper(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Reports that a stage has moved the last DVE out of the directory, so that it is removed on the next run if it is still empty.
+     *
+     * @param dir the NBN directory
+     */
+    public void markDrained(Path dir) {
+        if (root.equals(dir.getParent())) {
+            drained.add(dir);
+        }
+        else {
+            log.warn("Not reaping {}: not a subdirectory of {}", dir, root);
+        }
+    }
+
+    /**
+     * @return the number of directories that will be checked on the next run
+     */
+    public int getPending() {
+        return drained.size();
+    }
+
+    @Override
+    public void run() {
+        if (swept.compareAndSet(false, true)) {
+            new RemoveEmptySubdirsTask(root).run();
+        }
+        for (var dir : drained) {
+            // Removed before the check, so that a directory that is drained again during the check is checked again on the next run
+            drained.remove(dir);
+            deleteIfEmpty(dir);
+        }
+    }
+
+    static boolean deleteIfEmpty(Path dir) {
+        try {
+            Files.delete(dir);
+            log.debug("Deleted empty subdir: {}", dir);
+            return true;
+        }
+        catch (DirectoryNotEmptyException | NoSuchFileException e) {
+            // A DVE has arrived since the directory was drained, or the directory is already gone
+            return false;
+        }
+        catch (IOException e) {
+            log.warn("Failed to delete empty subdir: {}", dir, e);
+            return false;
+        }
+    }
+}
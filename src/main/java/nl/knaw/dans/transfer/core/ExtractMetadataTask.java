@@ -15,43 +15,283 @@
  */
 package nl.knaw.dans.transfer.core;
 
-import lombok.AllArgsConstructor;
+import com.codahale.metrics.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import nl.knaw.dans.transfer.CreationTimeComparator;
+import nl.knaw.dans.transfer.client.DatasetVersion;
+import nl.knaw.dans.transfer.config.OutboxWithRejectedConfig;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Processes the oldest DVE in an NBN directory of the extract-metadata inbox and moves it to the processed outbox, or to the failed outbox if processing fails.
+ * </p>
+ * <p>
+ * The task handles one DVE per run. It reads the metadata, submits the dataset version to the {@link CatalogUpdater} and returns without waiting for the
+ * catalog. When the catalog has responded, the DVE is finished in a follow-up task for the same NBN on the {@link KeyedSequentialExecutor}, after which the task
+ * queues itself again. This way, no worker thread is occupied during the round trip to the catalog, other NBNs get their turn between DVEs, and the DVEs of one
+ * NBN are still processed strictly in order. When the directory is empty the task reports it to the {@link EmptyDirReaper} and ends; it never waits for more DVEs
+ * to arrive.
+ * </p>
+ * <p>
+ * A DVE that the {@link PipelineJournal} reports as cataloged is not sent to the catalog again. While the {@link AdmissionGate} of the stage is closed, or when
+ * the NBN is no longer owned by this instance (see {@link ClusterCoordinator}), no new DVE is started.
+ * </p>
+ * <p>
+ * Before its metadata is read, a DVE is checked by the {@link BagpackValidator}. A DVE that is not a bagpack is moved to <code>rejected/&lt;nbn&gt;</code>
+ * with a file listing all violations. As long as that directory contains a DVE, the NBN is blocked: the later DVEs of the dataset stay in the inbox, because
+ * processing them would leave a gap in the version history. When the rejected DVE has been fixed and put back in the NBN directory (or removed), processing
+ * continues. If a failed DVE cannot be moved out of the NBN directory at all, for instance because the outbox is full, the task waits before it looks again,
+ * doubling the wait up to five minutes.
+ * </p>
+ * <p>
+ * The task is queued in the {@link Lane} of the DVE that is next in line in the directory, so that an NBN with an interactive DVE at the front overtakes NBNs
+ * with bulk DVEs.
+ * </p>
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ExtractMetadataTask implements Supplier<CompletionStage<Void>> {
+    private static final String VIOLATIONS_SUFFIX = "-violations.txt";
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
 
-@AllArgsConstructor
-public class ExtractMetadataTask implements Runnable {
     private final Path targetNbnDir;
+    private final OutboxWithRejectedConfig outbox;
+    private final KeyedSequentialExecutor<String> executor;
+    private final FileMover fileMover;
+    private final BagpackValidator validator;
+    private final DveMetadataCache metadataCache;
+    private final CatalogUpdater catalogUpdater;
+    private final NbnRegistrationQueue nbnRegistrationQueue;
+    private final URI catalogBaseUrl;
+    private final PipelineJournal journal;
+    private final EmptyDirReaper reaper;
+    private final NbnOwnership ownership;
+    private final AdmissionGate admissionGate;
+    private final StageMetrics metrics;
+    // The lane in which to queue this task again after the current DVE: that of the DVE that is next in line
+    private Lane nextLane = Lane.INTERACTIVE;
+    // How long to wait before looking again, after a failed DVE could not be moved out of the directory
+    private long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
 
     @Override
-    public void run() {
+    public CompletionStage<Void> get() {
         try {
+            if (!Files.isDirectory(targetNbnDir)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (!ownership.owns(getNbn())) {
+                // In cluster mode, the partition of this NBN has been handed over to another instance; stop between two DVEs
+                log.debug("NBN {} is no longer owned by this instance", getNbn());
+                return CompletableFuture.completedFuture(null);
+            }
             var dves = getDves();
-            while (!dves.isEmpty()) {
-                for (var dve : dves) {
-                    // Process each DVE
-                }
-                // Get any new DVE files that may have been added while processing
-                dves = getDves();
+            if (dves.isEmpty()) {
+                reaper.markDrained(targetNbnDir);
+                return CompletableFuture.completedFuture(null);
+            }
+            if (isBlocked()) {
+                log.warn("NBN {} is blocked by a rejected DVE in {}; fix or remove it to continue", getNbn(), getRejectedDir());
+                return CompletableFuture.completedFuture(null);
             }
+            if (!admissionGate.isOpen()) {
+                // Hold on to this NBN without occupying a worker thread, and continue where we left off when the stages downstream have caught up
+                return admissionGate.whenOpen().thenRun(() -> executor.executeAsync(getNbn(), getLane(dves.get(0)), this));
+            }
+            nextLane = getLane(dves.get(dves.size() > 1 ? 1 : 0));
+            return processDve(dves.get(0));
         }
         catch (IOException e) {
+            log.error("Unable to list DVEs in {}", targetNbnDir, e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private Lane getLane(Path dve) {
+        return journal.getLane(dve);
+    }
+
+    private String getNbn() {
+        return targetNbnDir.getFileName().toString();
+    }
+
+    private CompletionStage<Void> processDve(Path dve) {
+        var timerContext = metrics.time();
+        try {
+            log.debug("Processing DVE {} for NBN {}", dve, getNbn());
+            if (isCataloged(dve)) {
+                log.debug("DVE {} was already cataloged before the last restart", dve);
+                finishDve(dve, timerContext, null);
+                return CompletableFuture.completedFuture(null);
+            }
+            var violations = validator.validate(dve);
+            if (!violations.isEmpty()) {
+                throw new InvalidBagpackException(dve, violations);
+            }
+            var metadata = metadataCache.read(dve);
+            return catalogUpdater.submit(toDatasetVersion(metadata))
+                // Queued before the returned stage completes, so that it runs before anything else that is queued for this NBN later
+                .handle((result, e) -> {
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    executor.execute(getNbn(), getLane(dve), () -> finishDve(dve, timerContext, cause));
+                    return null;
+                });
+        }
+        catch (Exception e) {
+            finishDve(dve, timerContext, e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void finishDve(Path dve, Timer.Context timerContext, Throwable error) {
+        try {
+            if (error == null) {
+                var size = Files.size(dve);
+                journal.advance(dve.getFileName().toString(), Stage.CATALOGED);
+                if (scheduleNbnRegistration(dve)) {
+                    moveTo(dve, outbox.getProcessed());
+                    metrics.processed(size);
+                }
+            }
+            else {
+                handleFailure(dve, error);
+            }
+        }
+        catch (Exception e) {
+            handleFailure(dve, e);
+        }
+        finally {
+            timerContext.stop();
+        }
+        if (Files.exists(dve)) {
+            // The DVE could not be moved to an outbox, or its NBN could not be scheduled for registration, so it would be first in line again; wait before
+            // retrying, while keeping the NBN in the executor
+            log.error("DVE {} is still in {}; retrying NBN {} in {} ms", dve, targetNbnDir, getNbn(), retryDelayMillis);
+            var delay = CompletableFuture.delayedExecutor(retryDelayMillis, TimeUnit.MILLISECONDS);
+            executor.executeAsync(getNbn(), nextLane, () -> CompletableFuture.runAsync(() -> { }, delay));
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+        }
+        else {
+            retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+        }
+        // Look again after this DVE, so that DVEs that arrived while it was processed are also picked up
+        executor.executeAsync(getNbn(), nextLane, this);
+    }
+
+    private void handleFailure(Path dve, Throwable e) {
+        metrics.failed(e);
+        journal.advance(dve.getFileName().toString(), Stage.FAILED);
+        if (e instanceof InvalidBagpackException invalid && outbox.getRejected() != null) {
+            log.warn("Rejecting DVE: {}", invalid.getMessage());
+            moveToRejected(dve, invalid);
+        }
+        else {
+            log.error("Unable to process DVE: {}", dve, e);
+            moveToFailedOutbox(dve, e);
+        }
+    }
+
+    private Path getRejectedDir() {
+        return outbox.getRejected().resolve(getNbn());
+    }
+
+    private boolean isBlocked() throws IOException {
+        if (outbox.getRejected() == null || !Files.isDirectory(getRejectedDir())) {
+            return false;
+        }
+        try (var files = Files.list(getRejectedDir())) {
+            // The violations file may be left behind
+            return files.anyMatch(file -> !file.getFileName().toString().endsWith(VIOLATIONS_SUFFIX));
+        }
+    }
+
+    private boolean isCataloged(Path dve) {
+        return journal.get(dve)
+            .map(entry -> entry.stage() == Stage.CATALOGED)
+            .orElse(false);
+    }
+
+    private DatasetVersion toDatasetVersion(DveMetadata metadata) {
+        if (!getNbn().equals(metadata.nbn())) {
+            throw new IllegalStateException(String.format("DVE is for NBN %s, but was found in the directory for NBN %s", metadata.nbn(), getNbn()));
+        }
+        return new DatasetVersion(metadata.nbn(), metadata.dataversePid(), metadata.dataversePidVersion(), metadata.bagId(), metadata.title());
+    }
+
+    /*
+     * Only the first version of a dataset actually needs registering; for later versions the queue recognizes the NBN and does nothing. If the registration
+     * cannot be scheduled, the DVE stays in the NBN directory: it has been cataloged, so it must not fail, and when it is next in line again it is recognized as
+     * cataloged and only the scheduling is retried.
+     */
+    private boolean scheduleNbnRegistration(Path dve) {
+        try {
+            nbnRegistrationQueue.schedule(getNbn(), catalogBaseUrl.resolve(getNbn()).toString());
+            return true;
+        }
+        catch (RuntimeException e) {
+            log.warn("DVE {} has been cataloged, but the registration of NBN {} could not be scheduled; will try again", dve, getNbn(), e);
+            return false;
+        }
+    }
+
+    private void moveTo(Path dve, Path dir) throws IOException {
+        fileMover.moveToDir(dve, dir);
+        CreationTimeComparator.getInstance().forget(dve);
+    }
+
+    private void moveToFailedOutbox(Path dve, Throwable e) {
+        try {
+            moveTo(dve, outbox.getFailed());
+            var stackTraceFile = outbox.getFailed().resolve(dve.getFileName() + "-error.log");
+            try (var writer = Files.newBufferedWriter(stackTraceFile)) {
+                e.printStackTrace(new PrintWriter(writer));
+            }
+        }
+        catch (IOException ioe) {
+            log.error("Unable to move DVE to failed outbox: {}", outbox.getFailed(), ioe);
+        }
+    }
+
+    private void moveToRejected(Path dve, InvalidBagpackException e) {
+        try {
+            moveTo(dve, getRejectedDir());
+            Files.write(getRejectedDir().resolve(dve.getFileName() + VIOLATIONS_SUFFIX), e.getViolations());
+        }
+        catch (IOException ioe) {
+            log.error("Unable to move DVE to rejected outbox: {}", getRejectedDir(), ioe);
         }
-        /*
-         * At this point, all DVE files in targetNbnDir have been processed. We are NOT sticking around to wait for more DVEs, as this would prevent our worker thread from taking on other tasks.
-         * The transfer inbox will dete targetNbnDir if it is empty in the next polling cycle. If new DVEs are added for this same NBN, the inbox will create a new targetNbnDir (with a different name)
-         * and create a new ExtractMetadataTask for it. It cannot have the same name, because there would be two tasks instances competing for the same targetNbnDir.
-         */
     }
 
     private List<Path> getDves() throws IOException {
-        try (var dirStream = Files.list(targetNbnDir)) {
-            return dirStream.filter(Files::isRegularFile)
-                .sorted(CreationTimeComparator.getInstance()).toList();
+        return listDves(targetNbnDir);
+    }
+
+    /**
+     * @param nbnDir an NBN directory
+     * @return the DVEs in the directory, in the order in which they must be processed
+     * @throws IOException if the directory cannot be listed
+     */
+    static List<Path> listDves(Path nbnDir) throws IOException {
+        try (var dirStream = Files.list(nbnDir)) {
+            return CreationTimeComparator.getInstance().sort(dirStream
+                .filter(Files::isRegularFile)
+                // Hidden files are still being moved into the directory
+                .filter(p -> !FileMover.isHidden(p))
+                .toList());
         }
     }
 
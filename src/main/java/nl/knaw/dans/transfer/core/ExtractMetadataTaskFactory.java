@@ -15,13 +15,92 @@
  */
 package nl.knaw.dans.transfer.core;
 
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import nl.knaw.dans.lib.util.inbox.InboxTaskFactory;
+import nl.knaw.dans.transfer.config.OutboxWithRejectedConfig;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.function.Predicate;
 
+/**
+ * Creates the inbox tasks for the extract-metadata stage. The inbox contains one subdirectory per target NBN. An inbox task does not process any DVEs itself; it
+ * only hands the NBN directory to the {@link KeyedSequentialExecutor}, which processes the DVEs of one NBN in order and the DVEs of different NBNs in parallel.
+ * NBNs that are owned by another instance of the cluster are skipped.
+ */
+@Slf4j
+@AllArgsConstructor
 public class ExtractMetadataTaskFactory implements InboxTaskFactory {
+    private final Path inbox;
+    private final OutboxWithRejectedConfig outbox;
+    private final KeyedSequentialExecutor<String> executor;
+    private final FileMover fileMover;
+    private final BagpackValidator validator;
+    private final CatalogUpdater catalogUpdater;
+    private final NbnRegistrationQueue nbnRegistrationQueue;
+    private final URI catalogBaseUrl;
+    private final PipelineJournal journal;
+    private final DveMetadataCache metadataCache;
+    private final EmptyDirReaper reaper;
+    private final NbnOwnership ownership;
+    private final AdmissionGate admissionGate;
+    private final StageMetrics metrics;
+
     @Override
     public Runnable createInboxTask(Path path) {
-        return null;
+        // The watching inbox reports a DVE that is added to an existing NBN directory as that directory; a DVE path is mapped to its directory all the same
+        var nbnDir = Files.isDirectory(path) ? path : path.getParent();
+        if (nbnDir == null || nbnDir.equals(inbox)) {
+            return () -> log.warn("Ignoring {}: only NBN directories are expected in the inbox", path);
+        }
+        var nbn = nbnDir.getFileName().toString();
+        if (!ownership.owns(nbn)) {
+            return () -> log.debug("Skipping NBN {}: owned by another instance", nbn);
+        }
+        // If the NBN is already being processed, the task runs once more when it is done, in case it had already seen the directory empty
+        return () -> executor.executeAsyncIfIdle(nbn, getLane(nbnDir), new ExtractMetadataTask(nbnDir, outbox, executor, fileMover, validator, metadataCache,
+            catalogUpdater, nbnRegistrationQueue, catalogBaseUrl, journal, reaper, ownership, admissionGate, metrics));
+    }
+
+    private Lane getLane(Path nbnDir) {
+        try {
+            var dves = ExtractMetadataTask.listDves(nbnDir);
+            return dves.isEmpty() ? Lane.INTERACTIVE : journal.getLane(dves.get(0));
+        }
+        catch (IOException e) {
+            log.debug("Unable to list DVEs in {}", nbnDir, e);
+            return Lane.INTERACTIVE;
+        }
+    }
+
+    /**
+     * Dispatches the NBN directories in the inbox for which the predicate holds, for instance the ones in partitions that this instance has just acquired.
+     *
+     * @param filter selects the NBNs
+     */
+    public void resumeWhere(Predicate<String> filter) {
+        try (var dirs = Files.list(inbox)) {
+            resume(dirs.filter(Files::isDirectory)
+                .map(dir -> dir.getFileName().toString())
+                .filter(filter)
+                .toList());
+        }
+        catch (IOException e) {
+            log.error("Unable to list NBN directories in {}", inbox, e);
+        }
+    }
+
+    /**
+     * Dispatches the given NBN directories immediately, for instance the ones that the {@link PipelineJournal} reports as in progress.
+     *
+     * @param nbns the NBNs
+     */
+    public void resume(Collection<String> nbns) {
+        log.info("Dispatching {} NBN directories", nbns.size());
+        nbns.forEach(nbn -> createInboxTask(inbox.resolve(nbn)).run());
     }
 }
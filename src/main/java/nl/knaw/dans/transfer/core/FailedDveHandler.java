@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Sets aside the DVEs that a stage could not process, without holding up the thread of the stage. The DVE is first renamed into a quarantine directory, which
+ * must be on the same file system as the inbox, so that this is a single atomic rename. Moving the DVE from there to the failed outbox, which may be on another
+ * file system, and recording the failure in the {@link FailureIndex} is left to a separate worker.
+ * </p>
+ * <p>
+ * The worker should have a bounded queue and run rejected tasks on the caller. If the failures come in faster than they can be moved, the stage thread then
+ * does the move itself, so that the quarantine directory does not grow without bound. If the DVE cannot be renamed into the quarantine directory, the stage
+ * thread also does the move itself, from the inbox. A DVE that is no longer there, for instance because it was collected after all, is not recorded as failed.
+ * </p>
+ * <p>
+ * DVEs that are found in the quarantine directory on start were left there by a crash. They are handed to the worker as well and recorded with the cause
+ * {@value #RECOVERED_CAUSE} and the modification time of the file; their exception has been lost, but the log still has it.
+ * </p>
+ */
+@Slf4j
+public class FailedDveHandler implements Managed {
+    public static final String RECOVERED_CAUSE = "recovered from quarantine";
+
+    private final String stage;
+    private final Path quarantine;
+    private final Path failedOutbox;
+    private final FileMover fileMover;
+    private final FailureIndex index;
+    private final ExecutorService worker;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * @param stage        the pipeline stage of which the DVEs are handled
+     * @param quarantine   the directory in which the DVEs wait for the worker; must be on the same file system as the inbox of the stage
+     * @param failedOutbox the directory to move the DVEs to
+     * @param fileMover    moves the DVEs from the quarantine directory to the failed outbox
+     * @param index        the index to record the failures in
+     * @param worker       the executor on which the DVEs are moved and the failures recorded
+     */
+    public FailedDveHandler(String stage, Path quarantine, Path failedOutbox, FileMover fileMover, FailureIndex index, ExecutorService worker) {
+        this.stage = stage;
+        this.quarantine = quarantine;
+        this.failedOutbox = failedOutbox;
+        this.fileMover = fileMover;
+        this.index = index;
+        this.worker = worker;
+    }
+
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(quarantine);
+        try (var files = Files.list(quarantine)) {
+            for (var dve : files.filter(Files::isRegularFile).toList()) {
+                log.warn("Found DVE {} in quarantine; moving it to {}", dve, failedOutbox);
+                // The rename into quarantine keeps the modification time, so this is when the DVE arrived rather than when it failed
+                submit(dve, null, null, Files.getLastModifiedTime(dve).toMillis());
+            }
+        }
+    }
+
+    /**
+     * Sets aside a DVE that could not be processed.
+     *
+     * @param dve the DVE
+     * @param nbn the target NBN, or null if it is not known
+     * @param e   the reason the DVE could not be processed
+     */
+    public void handle(Path dve, String nbn, Exception e) {
+        var failedAt = System.currentTimeMillis();
+        Path quarantined;
+        try {
+            var target = quarantine.resolve(dve.getFileName());
+            // An atomic move may replace an existing file, which would be a DVE with the same name that is still waiting for the worker
+            if (Files.exists(target)) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            quarantined = Files.move(dve, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe) {
+            if (Files.notExists(dve)) {
+                log.warn("DVE {} is no longer there; not recording it as failed", dve, e);
+                return;
+            }
+            log.warn("Unable to move DVE {} to quarantine {}; moving it to {} right away", dve, quarantine, failedOutbox, ioe);
+            dispose(dve, nbn, e, failedAt);
+            return;
+        }
+        submit(quarantined, nbn, e, failedAt);
+    }
+
+    /**
+     * @return the number of DVEs in quarantine that the worker has not moved yet
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    private void submit(Path dve, String nbn, Exception e, long failedAt) {
+        pending.incrementAndGet();
+        worker.execute(() -> {
+            try {
+                dispose(dve, nbn, e, failedAt);
+            }
+            finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    private void dispose(Path dve, String nbn, Exception e, long failedAt) {
+        var location = dve;
+        try {
+            location = fileMover.moveToDir(dve, failedOutbox);
+        }
+        catch (IOException ioe) {
+            if (Files.notExists(dve)) {
+                log.warn("DVE {} is no longer there; not recording it as failed", dve, e);
+                return;
+            }
+            log.error("Unable to move DVE {} to failed outbox {}", dve, failedOutbox, ioe);
+        }
+        if (e == null) {
+            index.record(new FailureRecord(dve.getFileName().toString(), stage, nbn, location.toString(), failedAt, RECOVERED_CAUSE,
+                "Found in quarantine on start; see the log for the original exception", null));
+        }
+        else {
+            index.record(new FailureRecord(dve.getFileName().toString(), stage, nbn, location.toString(), failedAt, e.getClass().getName(),
+                e.getMessage(), getStackTrace(e)));
+        }
+    }
+
+    private static String getStackTrace(Exception e) {
+        var stackTrace = new StringWriter();
+        e.printStackTrace(new PrintWriter(stackTrace));
+        return stackTrace.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Append-only index of the DVEs that could not be processed, one JSON object per line. Each line holds the DVE, the stage, the NBN if it was known, where the
+ * DVE was set aside and the exception, including its stack trace. The file can be queried with a tool like <code>jq</code>.
+ * </p>
+ * <p>
+ * The number of failures per stage and per exception class and the most recent failures are kept in memory, so that a summary can be served without reading
+ * the file. On start the file is replayed to restore them. A line that was torn by a crash is ignored.
+ * </p>
+ */
+@Slf4j
+public class FailureIndex implements Managed {
+    private final Path file;
+    private final ObjectMapper objectMapper;
+    private final int maxRecent;
+    private final Map<String, Long> byStage = new TreeMap<>();
+    private final Map<String, Long> byCause = new HashMap<>();
+    private final Deque<FailureRecord> recent = new ArrayDeque<>();
+    private long total;
+    private BufferedWriter writer;
+
+    /**
+     * @param file         the index file
+     * @param objectMapper the object mapper to serialize the records with
+     * @param maxRecent    the number of most recent failures to keep in memory
+     */
+    public FailureIndex(Path file, ObjectMapper objectMapper, int maxRecent) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+        this.maxRecent = maxRecent;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (Files.exists(file)) {
+            replay();
+        }
+        else {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        log.info("Failure index {} contains {} failures", file, total);
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Records a failure. A failure to write the index is logged, but does not fail the caller; the DVE has already been set aside at that point.
+     *
+     * @param record the failure
+     */
+    public synchronized void record(FailureRecord record) {
+        count(record);
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(objectMapper.writeValueAsString(record));
+            writer.newLine();
+            writer.flush();
+        }
+        catch (IOException e) {
+            log.error("Unable to write to failure index {}; failure of {}: {}", file, record.dve(), record.message(), e);
+        }
+    }
+
+    /**
+     * @param limit the maximum number of recent failures to include
+     * @param stage the stage to include recent failures of, or null for all stages
+     * @return the summary of the failures in the index
+     */
+    public synchronized FailureSummary getSummary(int limit, String stage) {
+        var causes = new LinkedHashMap<String, Long>();
+        byCause.entrySet().stream()
+            .sorted(Map.Entry.<String, Long> comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+            .forEach(entry -> causes.put(entry.getKey(), entry.getValue()));
+        var records = new ArrayList<FailureRecord>();
+        var iterator = recent.descendingIterator();
+        while (iterator.hasNext() && records.size() < limit) {
+            var record = iterator.next();
+            if (stage == null || stage.equals(record.stage())) {
+                records.add(record);
+            }
+        }
+        return new FailureSummary(total, new TreeMap<>(byStage), causes, List.copyOf(records));
+    }
+
+    private void count(FailureRecord record) {
+        total++;
+        byStage.merge(record.stage(), 1L, Long::sum);
+        byCause.merge(record.cause(), 1L, Long::sum);
+        recent.addLast(record);
+        if (recent.size() > maxRecent) {
+            recent.removeFirst();
+        }
+    }
+
+    private void replay() throws IOException {
+        try (var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            lines.filter(line -> !line.isBlank()).forEach(line -> {
+                try {
+                    count(objectMapper.readValue(line, FailureRecord.class));
+                }
+                catch (JsonProcessingException e) {
+                    log.warn("Ignoring unreadable failure index line: {}", line);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * One line of the {@link FailureIndex}: a DVE that could not be processed.
+ *
+ * @param dve        the file name of the DVE
+ * @param stage      the pipeline stage in which the DVE failed
+ * @param nbn        the target NBN, or null if it was not known yet
+ * @param location   the path of the DVE after it was set aside
+ * @param timestamp  the time of the failure, in milliseconds since the epoch
+ * @param cause      the class name of the exception
+ * @param message    the message of the exception
+ * @param stackTrace the stack trace of the exception
+ */
+public record FailureRecord(String dve, String stage, String nbn, String location, long timestamp, String cause, String message, String stackTrace) {
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The failures in a {@link FailureIndex}, counted per stage and per exception class, with the most recent ones first.
+ *
+ * @param total   the number of failures in the index
+ * @param byStage the number of failures per stage
+ * @param byCause the number of failures per exception class, most frequent first
+ * @param recent  the most recent failures, newest first
+ */
+public record FailureSummary(long total, Map<String, Long> byStage, Map<String, Long> byCause, List<FailureRecord> recent) {
+}
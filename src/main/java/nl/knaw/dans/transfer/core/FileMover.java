@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>
+ * Moves files between directories. If source and target are on the same file store, the file is renamed atomically. Otherwise, the file is copied to a hidden
+ * temporary file next to the target, using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} so that the kernel can avoid
+ * copying the data through user space. The copy is then synced to disk, verified, and renamed to its final name, after which the source is deleted. A reader
+ * of the target directory therefore never sees a partially copied file under the target name (readers must ignore hidden files).
+ * </p>
+ * <p>
+ * An existing target is never replaced. A rename silently replaces its target, so instead of renaming, the file is linked under the target name, which fails
+ * if that name is taken, and then unlinked under its old name. Only on file systems without hard links is it renamed, after checking that the target does not
+ * exist yet.
+ * </p>
+ * <p>
+ * The number of bytes moved and the duration of renames and copies are recorded per stage, as <code>&lt;stage&gt;.move.bytes</code>,
+ * <code>&lt;stage&gt;.move.rename</code> and <code>&lt;stage&gt;.move.copy</code>.
+ * </p>
+ * <p>
+ * Every successful move also updates the {@link StageLoad} of the inbox the file leaves and of the inbox it enters, if any.
+ * </p>
+ */
+@Slf4j
+public class FileMover {
+    private static final long TRANSFER_CHUNK_SIZE = 64L * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = 1024L * 1024 * 1024;
+    private static final int VERIFY_BUFFER_SIZE = 1024 * 1024;
+
+    private final boolean verifyChecksum;
+    private final Meter bytesMoved;
+    private final Timer renames;
+    private final Timer copies;
+    private final List<StageLoad> loads;
+
+    /**
+     * Creates a mover that does not record metrics and only verifies the size of cross-device copies.
+     */
+    public FileMover() {
+        this(new MetricRegistry(), "default", false);
+    }
+
+    /**
+     * @param metrics        the registry to record the metrics in
+     * @param stage          the pipeline stage, used as prefix of the metric names
+     * @param verifyChecksum whether to compare the checksums of source and copy for cross-device moves, in addition to the size
+     */
+    public FileMover(MetricRegistry metrics, String stage, boolean verifyChecksum) {
+        this(metrics, stage, verifyChecksum, List.of());
+    }
+
+    /**
+     * @param metrics        the registry to record the metrics in
+     * @param stage          the pipeline stage, used as prefix of the metric names
+     * @param verifyChecksum whether to compare the checksums of source and copy for cross-device moves, in addition to the size
+     * @param loads          the loads of the stage inboxes to keep up to date
+     */
+    public FileMover(MetricRegistry metrics, String stage, boolean verifyChecksum, List<StageLoad> loads) {
+        this.loads = loads;
+        this.verifyChecksum = verifyChecksum;
+        this.bytesMoved = metrics.meter(MetricRegistry.name(stage, "move", "bytes"));
+        this.renames = metrics.timer(MetricRegistry.name(stage, "move", "rename"));
+        this.copies = metrics.timer(MetricRegistry.name(stage, "move", "copy"));
+    }
+
+    /**
+     * Moves a file into a directory, keeping its file name. The directory is created if it does not exist.
+     *
+     * @param source    the file to move
+     * @param targetDir the directory to move it to
+     * @return the new location of the file
+     * @throws IOException if the file could not be moved; the source is then left in place
+     */
+    public Path moveToDir(Path source, Path targetDir) throws IOException {
+        var target = targetDir.resolve(source.getFileName());
+        move(source, target);
+        return target;
+    }
+
+    /**
+     * Moves a file. The parent directory of the target is created if it does not exist.
+     *
+     * @param source the file to move
+     * @param target the new location
+     * @throws IOException if the file could not be moved; the source is then left in place
+     */
+    public void move(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        // Fails early, before a copy across devices; the rename itself also refuses to replace the target
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        var size = Files.size(source);
+        if (Files.getFileStore(source).equals(Files.getFileStore(target.getParent()))) {
+            try (var ignored = renames.time()) {
+                renameWithoutReplacing(source, target);
+                bytesMoved.mark(size);
+                updateLoads(source, target, size);
+                return;
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                log.debug("Atomic move from {} to {} not supported; copying instead", source, target);
+            }
+        }
+        try (var ignored = copies.time()) {
+            copyAcrossDevices(source, target, size);
+            bytesMoved.mark(size);
+        }
+        updateLoads(source, target, size);
+    }
+
+    private void updateLoads(Path source, Path target, long size) {
+        for (var load : loads) {
+            var wasIn = load.contains(source);
+            var isIn = load.contains(target);
+            if (wasIn && !isIn) {
+                load.remove(size);
+            }
+            else if (isIn && !wasIn) {
+                load.add(size);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a path is a hidden file, such as the temporary file of a cross-device move that is still in progress. Inboxes must not pick these up.
+     *
+     * @param path the path
+     * @return true if the file name starts with a dot
+     */
+    public static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    void copyAcrossDevices(Path source, Path target, long size) throws IOException {
+        var temp = target.resolveSibling("." + target.getFileName() + ".part");
+        log.debug("Copying {} ({} bytes) to {} via {}", source, size, target, temp);
+        try {
+            try (var in = FileChannel.open(source, StandardOpenOption.READ);
+                var out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long position = 0;
+                long nextProgress = PROGRESS_INTERVAL;
+                while (position < size) {
+                    var transferred = in.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), out);
+                    if (transferred <= 0) {
+                        throw new IOException("Unexpected end of file while copying " + source + " at position " + position + " of " + size);
+                    }
+                    position += transferred;
+                    if (position >= nextProgress) {
+                        log.info("Copied {} of {} bytes of {}", position, size, source);
+                        nextProgress += PROGRESS_INTERVAL;
+                    }
+                }
+                out.force(true);
+            }
+            verifyCopy(source, temp, size);
+            copyTimes(source, temp);
+            renameWithoutReplacing(temp, target);
+            syncDirectory(target.getParent());
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.delete(source);
+    }
+
+    /*
+     * Renames a file within a file store, failing with a FileAlreadyExistsException if the target exists, also if it was created after the check in move().
+     * If the old name cannot be removed, the new one is removed again, so that the file is left where it was.
+     */
+    void renameWithoutReplacing(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        }
+        catch (FileAlreadyExistsException e) {
+            throw e;
+        }
+        catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug("Unable to link {} to {}; renaming instead", target, source, e);
+            if (Files.exists(target)) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        try {
+            Files.delete(source);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private void verifyCopy(Path source, Path copy, long size) throws IOException {
+        var copySize = Files.size(copy);
+        if (copySize != size) {
+            throw new IOException("Size of copy " + copy + " (" + copySize + ") differs from size of " + source + " (" + size + ")");
+        }
+        if (verifyChecksum && checksum(source) != checksum(copy)) {
+            throw new IOException("Checksum of copy " + copy + " differs from checksum of " + source);
+        }
+    }
+
+    private long checksum(Path file) throws IOException {
+        var crc = new CRC32C();
+        var buffer = ByteBuffer.allocateDirect(VERIFY_BUFFER_SIZE);
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /*
+     * Inboxes order their items by creation time, so keep the timestamps of the source (as far as the file system allows setting them).
+     */
+    private void copyTimes(Path source, Path target) throws IOException {
+        var attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        Files.getFileAttributeView(target, BasicFileAttributeView.class)
+            .setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+    }
+
+    private void syncDirectory(Path dir) {
+        try (var channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            // Not supported on all platforms; the rename is still atomic, just not guaranteed durable yet
+            log.trace("Unable to sync directory {}", dir, e);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.config.DataVaultBatchConfig;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Collects extracted DVEs into import batches for the Data Vault. The manager keeps a running count of the bytes and files in the open batch, so the batch
+ * directory never has to be walked to determine its size. A batch is closed when its size reaches the threshold, when it contains the maximum number of files,
+ * or when it has been open for longer than the maximum age, so that DVEs arriving at a low rate are not held back indefinitely. A closed batch is handed to the
+ * {@link BatchImporter}; batches for which that fails are retried, in order, at the next check.
+ * </p>
+ * <p>
+ * The state is persisted to a hidden file in the batch root after each change, so a restart continues with the same open batch. All methods that change the
+ * state must be called from the single send-to-vault thread; the periodic age check is submitted to that thread as well.
+ * </p>
+ */
+@Slf4j
+public class ImportBatchManager implements Managed {
+    private static final String STATE_FILE = ".batch-state.json";
+    private static final DateTimeFormatter BATCH_NAME_FORMAT = DateTimeFormatter.ofPattern("'batch-'yyyyMMdd'T'HHmmss.SSS").withZone(ZoneOffset.UTC);
+
+    /**
+     * Requests the import of a closed batch.
+     */
+    @FunctionalInterface
+    public interface BatchImporter {
+        /**
+         * @param batchDir the batch directory
+         * @param dves     the DVEs in the batch, in order
+         * @throws Exception if the import could not be requested; it is retried later
+         */
+        void importBatch(Path batchDir, List<BatchedDve> dves) throws Exception;
+    }
+
+    private final Path batchRoot;
+    private final long maxBytes;
+    private final long maxFiles;
+    private final long maxAge;
+    private final DveExtractor extractor;
+    private final BatchImporter importer;
+    private final ObjectMapper objectMapper;
+    private final Executor sendToVaultExecutor;
+    private final ScheduledExecutorService timer;
+    private final Histogram batchBytes;
+    private final Histogram batchFiles;
+    private final Histogram batchAgeSeconds;
+
+    private BatchState state = new BatchState();
+    private volatile long currentBytes;
+    private volatile long currentFiles;
+    private volatile long currentOpenedAt;
+    private ScheduledFuture<?> ageCheck;
+
+    public ImportBatchManager(DataVaultBatchConfig config, DveExtractor extractor, BatchImporter importer, ObjectMapper objectMapper, Executor sendToVaultExecutor,
+        ScheduledExecutorService timer, StageMetrics metrics) {
+        this.batchRoot = config.getBatchRoot();
+        this.maxBytes = config.getThreshold().toBytes();
+        this.maxFiles = config.getMaxFiles();
+        this.maxAge = config.getMaxAge().toMilliseconds();
+        this.extractor = extractor;
+        this.importer = importer;
+        this.objectMapper = objectMapper;
+        this.sendToVaultExecutor = sendToVaultExecutor;
+        this.timer = timer;
+        this.batchBytes = metrics.getRegistry().histogram(MetricRegistry.name(metrics.getStage(), "batch", "bytes"));
+        this.batchFiles = metrics.getRegistry().histogram(MetricRegistry.name(metrics.getStage(), "batch", "files"));
+        this.batchAgeSeconds = metrics.getRegistry().histogram(MetricRegistry.name(metrics.getStage(), "batch", "age-seconds"));
+        metrics.registerGauge("batch.current.bytes", () -> currentBytes);
+        metrics.registerGauge("batch.current.files", () -> currentFiles);
+        metrics.registerGauge("batch.current.age-seconds", () -> currentOpenedAt == 0 ? 0 : (System.currentTimeMillis() - currentOpenedAt) / 1000);
+    }
+
+    @Override
+    public void start() throws Exception {
+        load();
+        var checkInterval = Math.max(1000, Math.min(maxAge / 10, TimeUnit.MINUTES.toMillis(1)));
+        ageCheck = timer.scheduleWithFixedDelay(() -> sendToVaultExecutor.execute(this::closeIfExpired), checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (ageCheck != null) {
+            ageCheck.cancel(false);
+        }
+    }
+
+    /**
+     * Loads the persisted state, if any.
+     *
+     * @throws IOException if the state file exists but cannot be read
+     */
+    public void load() throws IOException {
+        Files.createDirectories(batchRoot);
+        var stateFile = batchRoot.resolve(STATE_FILE);
+        if (Files.exists(stateFile)) {
+            state = objectMapper.readValue(stateFile.toFile(), BatchState.class);
+            log.info("Resuming batch {} ({} bytes, {} files, {} DVEs); {} batch(es) awaiting import", state.getCurrentBatch(), state.getBytes(), state.getFiles(),
+                state.getDves(), state.getAwaitingImport().size());
+        }
+        updateGauges();
+    }
+
+    /**
+     * Extracts a DVE into the open batch, opening a new batch if necessary, and closes the batch if it is full.
+     *
+     * @param dve the DVE ZIP file
+     * @return the outcome of the extraction, including the verification of the checksums
+     * @throws IOException if the DVE cannot be extracted or is corrupt; it is then not counted in the batch
+     */
+    public DveExtractor.Result add(Path dve) throws IOException {
+        return add(dve, new BatchedDve(dve.getFileName().toString(), null, null, null, null));
+    }
+
+    /**
+     * Extracts a DVE into the open batch, opening a new batch if necessary, and closes the batch if it is full.
+     *
+     * @param dve        the DVE ZIP file
+     * @param batchedDve what is passed to the {@link BatchImporter} about the DVE with the batch
+     * @return the outcome of the extraction, including the verification of the checksums
+     * @throws IOException if the DVE cannot be extracted or is corrupt; it is then not counted in the batch
+     */
+    public DveExtractor.Result add(Path dve, BatchedDve batchedDve) throws IOException {
+        if (state.getCurrentBatch() == null) {
+            openBatch();
+        }
+        var targetDir = batchRoot.resolve(state.getCurrentBatch()).resolve(getDveDirName(dve));
+        if (Files.exists(targetDir)) {
+            log.warn("Removing partially extracted DVE {} from a previous attempt", targetDir);
+            FileUtils.deleteDirectory(targetDir.toFile());
+        }
+        DveExtractor.Result result;
+        try {
+            result = extractor.extract(dve, targetDir);
+        }
+        catch (IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(targetDir.toFile());
+            throw e;
+        }
+        state.setBytes(state.getBytes() + result.bytes());
+        state.setFiles(state.getFiles() + result.files());
+        state.setDves(state.getDves() + 1);
+        // Persisted together with the counts, so that after a crash the DVE is known to be in the batch, whatever the journal says
+        state.getBatchedDves().add(batchedDve);
+        persist();
+        if (state.getBytes() >= maxBytes) {
+            close("size threshold reached");
+        }
+        else if (maxFiles > 0 && state.getFiles() >= maxFiles) {
+            close("maximum number of files reached");
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether a DVE has been extracted into the open batch, a batch that is awaiting import, or the batch that was imported last. The latter covers a
+     * DVE that filled up its batch, which is then closed and imported before {@link #add(Path, BatchedDve)} returns.
+     *
+     * @param dveName the file name of the DVE
+     * @return true if the DVE must not be added again
+     */
+    public boolean isBatched(String dveName) {
+        return state.getBatchedDves().stream().anyMatch(dve -> dve.dve().equals(dveName))
+            || state.getLastImportedDveNames().contains(dveName)
+            || state.getDvesAwaitingImport().values().stream().flatMap(List::stream).anyMatch(dve -> dve.dve().equals(dveName));
+    }
+
+    /**
+     * Tells the manager that the journal has recorded the DVE as batched, so that it no longer has to remember the DVE once its batch has been imported. A
+     * copy with the same name that is delivered later is then added again.
+     *
+     * @param dveName the file name of the DVE
+     * @throws IOException if the state cannot be persisted
+     */
+    public void journaled(String dveName) throws IOException {
+        if (state.getLastImportedDveNames().remove(dveName)) {
+            persist();
+        }
+    }
+
+    /**
+     * Closes the open batch if it is older than the maximum age and retries the imports of batches that are still awaiting import.
+     */
+    public void closeIfExpired() {
+        try {
+            if (state.getCurrentBatch() != null && state.getDves() > 0 && System.currentTimeMillis() - state.getOpenedAt() >= maxAge) {
+                close("maximum age reached");
+            }
+            else {
+                importAwaitingBatches();
+            }
+        }
+        catch (Exception e) {
+            log.error("Unable to close expired batch {}", state.getCurrentBatch(), e);
+        }
+    }
+
+    private void openBatch() throws IOException {
+        var now = System.currentTimeMillis();
+        var name = BATCH_NAME_FORMAT.format(Instant.ofEpochMilli(now));
+        Files.createDirectories(batchRoot.resolve(name));
+        state.setCurrentBatch(name);
+        state.setBytes(0);
+        state.setFiles(0);
+        state.setDves(0);
+        state.setOpenedAt(now);
+        state.setBatchedDves(new ArrayList<>());
+        persist();
+        log.info("Opened batch {}", name);
+    }
+
+    private void close(String reason) throws IOException {
+        var name = state.getCurrentBatch();
+        log.info("Closing batch {} ({}): {} bytes, {} files, {} DVEs", name, reason, state.getBytes(), state.getFiles(), state.getDves());
+        // The files are not synced one by one during extraction, so make the whole batch durable before the Data Vault takes it over
+        extractor.sync(batchRoot.resolve(name));
+        batchBytes.update(state.getBytes());
+        batchFiles.update(state.getFiles());
+        batchAgeSeconds.update((System.currentTimeMillis() - state.getOpenedAt()) / 1000);
+        state.getAwaitingImport().add(name);
+        state.getDvesAwaitingImport().put(name, state.getBatchedDves());
+        state.setBatchedDves(new ArrayList<>());
+        state.setCurrentBatch(null);
+        state.setBytes(0);
+        state.setFiles(0);
+        state.setDves(0);
+        state.setOpenedAt(0);
+        persist();
+        importAwaitingBatches();
+    }
+
+    private void importAwaitingBatches() throws IOException {
+        for (var name : new ArrayList<>(state.getAwaitingImport())) {
+            try {
+                importer.importBatch(batchRoot.resolve(name), state.getDvesAwaitingImport().getOrDefault(name, List.of()));
+            }
+            catch (Exception e) {
+                log.error("Unable to request import of batch {}; will retry later", name, e);
+                // Keep the batches in order
+                return;
+            }
+            state.getAwaitingImport().remove(name);
+            var dves = state.getDvesAwaitingImport().remove(name);
+            state.setLastImportedDveNames(dves == null ? new ArrayList<>() : new ArrayList<>(dves.stream().map(BatchedDve::dve).toList()));
+            persist();
+        }
+    }
+
+    private void persist() throws IOException {
+        var stateFile = batchRoot.resolve(STATE_FILE);
+        var tempFile = batchRoot.resolve(STATE_FILE + ".tmp");
+        objectMapper.writeValue(tempFile.toFile(), state);
+        Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        updateGauges();
+    }
+
+    private void updateGauges() {
+        currentBytes = state.getBytes();
+        currentFiles = state.getFiles();
+        currentOpenedAt = state.getOpenedAt();
+    }
+
+    private static String getDveDirName(Path dve) {
+        var name = dve.getFileName().toString();
+        return name.endsWith(".zip") ? name.substring(0, name.length() - ".zip".length()) : name;
+    }
+}
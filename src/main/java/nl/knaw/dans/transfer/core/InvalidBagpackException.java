@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Thrown when a DVE does not have the bagpack layout. The DVE is rejected rather than failed: the producer has to fix it (see {@link BagpackValidator}).
+ */
+@Getter
+public class InvalidBagpackException extends IllegalStateException {
+    private final List<String> violations;
+
+    public InvalidBagpackException(Path dve, List<String> violations) {
+        super(String.format("DVE %s is not a bagpack: %s", dve.getFileName(), String.join("; ", violations)));
+        this.violations = List.copyOf(violations);
+    }
+}
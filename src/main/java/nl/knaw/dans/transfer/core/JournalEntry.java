@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * One line of the {@link PipelineJournal}: the state of a DVE after a stage transition.
+ *
+ * @param dve         the file name of the DVE
+ * @param nbn         the target NBN
+ * @param size        the size of the DVE in bytes
+ * @param modified    the last modified time of the DVE, in milliseconds since the epoch; 0 for entries written before it was recorded
+ * @param fingerprint the fingerprint of the contents of the DVE (see {@link NbnLocator})
+ * @param stage       the stage the DVE has finished
+ * @param timestamp   the time of the transition, in milliseconds since the epoch
+ * @param lane        the lane of the DVE; null for entries written before lanes existed, which are treated as {@link Lane#INTERACTIVE}
+ */
+public record JournalEntry(String dve, String nbn, long size, long modified, String fingerprint, Stage stage, long timestamp, Lane lane) {
+    public enum Stage {
+        /**
+         * The NBN is known, but the DVE may still be in the collect-dve inbox.
+         */
+        RESOLVED,
+        /**
+         * The DVE is in its NBN directory in the extract-metadata inbox.
+         */
+        COLLECTED,
+        /**
+         * The Vault Catalog has accepted the dataset version, but the DVE may still be in its NBN directory.
+         */
+        CATALOGED,
+        /**
+         * The DVE has been extracted into an import batch, but may still be in the send-to-vault inbox.
+         */
+        BATCHED,
+        /**
+         * The DVE has been moved to the processed outbox of the send-to-vault stage.
+         */
+        DONE,
+        /**
+         * The DVE has been moved to a failed outbox.
+         */
+        FAILED,
+        /**
+         * The DVE was an exact copy of a DVE that had already been transferred and has been moved to the outbox of the {@link DedupIndex}.
+         */
+        DUPLICATE;
+
+        public boolean isFinal() {
+            return this == DONE || this == FAILED || this == DUPLICATE;
+        }
+    }
+
+    /**
+     * @param stage the next stage
+     * @return a copy of this entry for the next stage
+     */
+    public JournalEntry advance(Stage stage) {
+        return new JournalEntry(dve, nbn, size, modified, fingerprint, stage, System.currentTimeMillis(), lane);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Runs tasks for the same key one after the other, in submission order, and tasks for different keys in parallel on the delegate executor.
+ * </p>
+ * <p>
+ * Each key has its own queue. At most one task per key is submitted to the delegate at any time, and after every task the key goes to the back of the delegate's
+ * queue if it has more work. A key with many tasks therefore never holds on to a worker thread, and keys with a single task do not have to wait until a large
+ * key is completely drained. When the queue of a key becomes empty, the key is removed.
+ * </p>
+ * <p>
+ * An asynchronous task (see {@link #executeAsync(Object, Supplier)}) releases its worker thread as soon as it has started its work, but the next task for the
+ * same key does not run until the work has completed. This way, a task that waits for a remote service does not occupy a worker thread while it waits.
+ * </p>
+ * <p>
+ * If the delegate is a {@link LaneExecutor}, each task can be given a {@link Lane}. A key then waits for its turn in the lane of the first task in its queue, so
+ * that keys with interactive work overtake keys with bulk work, while the tasks of one key still run in order.
+ * </p>
+ * <p>
+ * A task that only looks for work, such as one that drains a directory, can be queued with {@link #executeAsyncIfIdle(Object, Lane, Supplier)}. While the key
+ * is active, such a task is not queued right away, but is run once more after the last task of the key, so that work that arrived in the meantime is not
+ * missed.
+ * </p>
+ * <p>
+ * A task that throws, whether an exception or an error, does not hold up the tasks after it. If the delegate rejects a key, its queued tasks are dropped.
+ * </p>
+ *
+ * @param <K> the key type, e.g., the NBN of a dataset
+ */
+@Slf4j
+public class KeyedSequentialExecutor<K> {
+    private final Executor delegate;
+    private final LaneExecutor lanes;
+    private final Map<K, KeyQueue> queues = new HashMap<>();
+    private int totalQueued;
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private record QueuedTask(Lane lane, Supplier<? extends CompletionStage<?>> task) {
+    }
+
+    private static class KeyQueue {
+        private final Queue<QueuedTask> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+        // Run once more when the queue is empty; see executeAsyncIfIdle
+        private QueuedTask wakeUp;
+    }
+
+    public KeyedSequentialExecutor(Executor delegate) {
+        this.delegate = delegate;
+        this.lanes = null;
+    }
+
+    /**
+     * Creates an executor that schedules the keys in the lanes of their tasks.
+     *
+     * @param lanes the lanes of the workers
+     */
+    public KeyedSequentialExecutor(LaneExecutor lanes) {
+        this.delegate = lanes;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Queues a task for the given key. It will run after all tasks previously queued for the same key.
+     *
+     * @param key  the key
+     * @param task the task
+     */
+    public void execute(K key, Runnable task) {
+        execute(key, Lane.INTERACTIVE, task);
+    }
+
+    /**
+     * Queues a task for the given key in the given lane. It will run after all tasks previously queued for the same key.
+     *
+     * @param key  the key
+     * @param lane the lane
+     * @param task the task
+     */
+    public void execute(K key, Lane lane, Runnable task) {
+        executeAsync(key, lane, () -> {
+            task.run();
+            return COMPLETED;
+        });
+    }
+
+    /**
+     * Queues an asynchronous task for the given key. It will start after all tasks previously queued for the same key have completed, and the next task for the
+     * key will start after the stage returned by this task has completed.
+     *
+     * @param key  the key
+     * @param task a task that starts its work and returns a stage that completes when the work is done
+     */
+    public void executeAsync(K key, Supplier<? extends CompletionStage<?>> task) {
+        executeAsync(key, Lane.INTERACTIVE, task);
+    }
+
+    /**
+     * Queues an asynchronous task for the given key in the given lane.
+     *
+     * @param key  the key
+     * @param lane the lane
+     * @param task a task that starts its work and returns a stage that completes when the work is done
+     * @see #executeAsync(Object, Supplier)
+     */
+    public void executeAsync(K key, Lane lane, Supplier<? extends CompletionStage<?>> task) {
+        boolean schedule;
+        synchronized (this) {
+            var queue = queues.computeIfAbsent(key, k -> new KeyQueue());
+            queue.tasks.add(new QueuedTask(lane, task));
+            totalQueued++;
+            schedule = !queue.scheduled;
+            queue.scheduled = true;
+        }
+        if (schedule) {
+            schedule(key);
+        }
+    }
+
+    /**
+     * Queues an asynchronous task for the given key if the key has no tasks queued or running. Otherwise, the task is run after the last task of the key, unless
+     * another task is queued before that. Calls for a key that is active are coalesced: only the task of the last call is run.
+     *
+     * @param key  the key
+     * @param lane the lane
+     * @param task a task that starts its work and returns a stage that completes when the work is done
+     */
+    public void executeAsyncIfIdle(K key, Lane lane, Supplier<? extends CompletionStage<?>> task) {
+        synchronized (this) {
+            var queue = queues.get(key);
+            if (queue != null) {
+                queue.wakeUp = new QueuedTask(lane, task);
+                return;
+            }
+        }
+        executeAsync(key, lane, task);
+    }
+
+    /**
+     * @param key the key
+     * @return true if the key has tasks that are queued or running
+     */
+    public synchronized boolean isActive(K key) {
+        return queues.containsKey(key);
+    }
+
+    /**
+     * @param key the key
+     * @return the number of tasks for the key that are waiting to run
+     */
+    public synchronized int getQueueDepth(K key) {
+        var queue = queues.get(key);
+        return queue == null ? 0 : queue.tasks.size();
+    }
+
+    /**
+     * @return the number of tasks, for all keys, that are waiting to run
+     */
+    public synchronized int getTotalQueueDepth() {
+        return totalQueued;
+    }
+
+    /**
+     * @return the number of keys that have tasks queued or running
+     */
+    public synchronized int getActiveKeys() {
+        return queues.size();
+    }
+
+    /**
+     * @return a snapshot of the queue depth per active key
+     */
+    public synchronized Map<K, Integer> getQueueDepths() {
+        var result = new HashMap<K, Integer>();
+        queues.forEach((key, queue) -> result.put(key, queue.tasks.size()));
+        return result;
+    }
+
+    private void schedule(K key) {
+        try {
+            if (lanes == null) {
+                delegate.execute(() -> runNext(key));
+            }
+            else {
+                lanes.execute(headLane(key), () -> runNext(key));
+            }
+        }
+        catch (RejectedExecutionException e) {
+            int dropped = 0;
+            synchronized (this) {
+                var queue = queues.remove(key);
+                if (queue != null) {
+                    dropped = queue.tasks.size();
+                    totalQueued -= dropped;
+                }
+            }
+            log.error("Unable to schedule tasks for key {}; dropped {} tasks", key, dropped, e);
+        }
+    }
+
+    private synchronized Lane headLane(K key) {
+        var queue = queues.get(key);
+        var head = queue == null ? null : queue.tasks.peek();
+        return head == null ? Lane.INTERACTIVE : head.lane();
+    }
+
+    private void runNext(K key) {
+        Supplier<? extends CompletionStage<?>> task;
+        synchronized (this) {
+            task = queues.get(key).tasks.poll().task();
+            totalQueued--;
+        }
+        CompletionStage<?> stage;
+        try {
+            stage = task.get();
+        }
+        catch (Exception e) {
+            log.error("Task for key {} failed", key, e);
+            stage = COMPLETED;
+        }
+        catch (Error e) {
+            log.error("Task for key {} failed", key, e);
+            scheduleNextOrRemove(key);
+            throw e;
+        }
+        if (stage == null) {
+            stage = COMPLETED;
+        }
+        stage.whenComplete((result, e) -> {
+            if (e != null) {
+                log.error("Task for key {} failed", key, e);
+            }
+            scheduleNextOrRemove(key);
+        });
+    }
+
+    private void scheduleNextOrRemove(K key) {
+        boolean more;
+        synchronized (this) {
+            var queue = queues.get(key);
+            if (queue.tasks.isEmpty() && queue.wakeUp != null) {
+                queue.tasks.add(queue.wakeUp);
+                queue.wakeUp = null;
+                totalQueued++;
+            }
+            more = !queue.tasks.isEmpty();
+            if (!more) {
+                queues.remove(key);
+            }
+        }
+        if (more) {
+            schedule(key);
+        }
+    }
+}
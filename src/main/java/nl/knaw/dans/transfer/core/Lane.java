@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import java.util.Locale;
+
+/**
+ * The priority class of a DVE. The lane is decided by the collect-dve inbox in which the DVE arrives, recorded in the {@link PipelineJournal} and honored by the
+ * {@link LaneExecutor} of every stage.
+ */
+public enum Lane {
+    /**
+     * DVEs of regular deposits, for which a depositor is waiting until the dataset can be resolved.
+     */
+    INTERACTIVE,
+    /**
+     * DVEs of bulk operations, such as migrations, for which only the throughput matters.
+     */
+    BULK;
+
+    /**
+     * @return the name of the lane as used in metric names
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Shares the workers of a stage between the {@link Lane}s. Each lane has its own queue, and at most <code>concurrency</code> tasks are handed to the delegate at
+ * any time, so that the order in which tasks start is decided here and not by the queue of the delegate. While more than one lane has tasks waiting, the next
+ * task is taken by smooth weighted round-robin: with weights 4 and 1, four interactive tasks start for every bulk task, evenly spread. A lane without waiting
+ * tasks does not take a turn, so that when only bulk tasks are waiting they get all workers and the bulk throughput is not reduced. Within a lane, tasks start in
+ * the order in which they were queued.
+ * </p>
+ * <p>
+ * The depth of each lane is available as the gauge <code>&lt;stage&gt;.lanes.&lt;lane&gt;.queue-depth</code> and the time tasks wait in it as the timer
+ * <code>&lt;stage&gt;.lanes.&lt;lane&gt;.wait</code>.
+ * </p>
+ */
+@Slf4j
+public class LaneExecutor implements Executor {
+    private final ExecutorService delegate;
+    private final int concurrency;
+    private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    private int running;
+
+    private record QueuedTask(Runnable task, long queuedAt) {
+    }
+
+    private static class LaneQueue {
+        private final Queue<QueuedTask> tasks = new ArrayDeque<>();
+        private final int weight;
+        private final Timer wait;
+        private int credit;
+
+        private LaneQueue(int weight, Timer wait) {
+            this.weight = weight;
+            this.wait = wait;
+        }
+    }
+
+    /**
+     * @param delegate    the workers of the stage
+     * @param concurrency the maximum number of tasks handed to the workers at the same time; use the number of workers
+     * @param weights     the weight of each lane
+     * @param metrics     the metrics of the stage
+     */
+    public LaneExecutor(ExecutorService delegate, int concurrency, Map<Lane, Integer> weights, StageMetrics metrics) {
+        this.delegate = delegate;
+        this.concurrency = Math.max(1, concurrency);
+        for (var lane : Lane.values()) {
+            var queue = new LaneQueue(Math.max(1, weights.getOrDefault(lane, 1)), metrics.laneWait(lane));
+            lanes.put(lane, queue);
+            metrics.registerGauge("lanes." + lane.getName() + ".queue-depth", () -> getQueueDepth(lane));
+        }
+    }
+
+    /**
+     * Queues a task in the interactive lane.
+     *
+     * @param task the task
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(Lane.INTERACTIVE, task);
+    }
+
+    /**
+     * Queues a task in the given lane.
+     *
+     * @param lane the lane
+     * @param task the task
+     */
+    public void execute(Lane lane, Runnable task) {
+        synchronized (this) {
+            lanes.get(lane).tasks.add(new QueuedTask(task, System.nanoTime()));
+        }
+        dispatch();
+    }
+
+    /**
+     * Returns an executor service that queues all its tasks in the given lane, for an inbox that only receives DVEs of one lane. Shutting it down shuts down
+     * the workers of the stage.
+     *
+     * @param lane the lane
+     * @return the executor service
+     */
+    public ExecutorService forLane(Lane lane) {
+        return new LaneView(lane);
+    }
+
+    /**
+     * @param lane the lane
+     * @return the number of tasks waiting in the lane
+     */
+    public synchronized int getQueueDepth(Lane lane) {
+        return lanes.get(lane).tasks.size();
+    }
+
+    private void dispatch() {
+        while (true) {
+            QueuedTask next;
+            Timer wait;
+            synchronized (this) {
+                if (running >= concurrency) {
+                    return;
+                }
+                var queue = pick();
+                if (queue == null) {
+                    return;
+                }
+                next = queue.tasks.poll();
+                wait = queue.wait;
+                running++;
+            }
+            wait.update(System.nanoTime() - next.queuedAt(), TimeUnit.NANOSECONDS);
+            try {
+                delegate.execute(() -> {
+                    try {
+                        next.task().run();
+                    }
+                    finally {
+                        synchronized (this) {
+                            running--;
+                        }
+                        dispatch();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running--;
+                }
+                // Only happens on shutdown; the inbox picks up the item again after a restart
+                log.warn("Workers rejected a queued task; dropping it", e);
+                return;
+            }
+        }
+    }
+
+    /*
+     * Smooth weighted round-robin over the lanes that have tasks waiting. Must be called while holding the lock.
+     */
+    private LaneQueue pick() {
+        LaneQueue best = null;
+        var totalWeight = 0;
+        for (var queue : lanes.values()) {
+            if (queue.tasks.isEmpty()) {
+                // A lane that was idle does not build up credit to spend when it gets busy again
+                queue.credit = 0;
+                continue;
+            }
+            queue.credit += queue.weight;
+            totalWeight += queue.weight;
+            if (best == null || queue.credit > best.credit) {
+                best = queue;
+            }
+        }
+        if (best != null) {
+            best.credit -= totalWeight;
+        }
+        return best;
+    }
+
+    private class LaneView extends AbstractExecutorService {
+        private final Lane lane;
+
+        private LaneView(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            LaneExecutor.this.execute(lane, command);
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>
+ * Finds the target NBN of a DVE without mounting the ZIP as a file system and without parsing the complete metadata file.
+ * </p>
+ * <p>
+ * The central directory is read once, after which <code>DATASETDIR/metadata/oai-ore.jsonld</code> is looked up directly. The metadata file is then read with
+ * a streaming JSON parser, which stops as soon as <code>ore:describes/dansDataVaultMetadata:dansNbn</code> has been found. All other values, including the
+ * (potentially very large) list of aggregated resources, are skipped without being materialized.
+ * </p>
+ */
+public class NbnLocator {
+    static final String METADATA_PATH = "metadata/oai-ore.jsonld";
+    private static final String DESCRIBES = "ore:describes";
+    private static final String NBN = "dansDataVaultMetadata:dansNbn";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Timer zipOpen;
+    private final Timer nbnLookup;
+
+    public NbnLocator() {
+        this(new StageMetrics(StageMetrics.COLLECT_DVE));
+    }
+
+    /**
+     * @param metrics the metrics in which to record the <code>zip-open</code> and <code>nbn-lookup</code> phases
+     */
+    public NbnLocator(StageMetrics metrics) {
+        this.zipOpen = metrics.phase("zip-open");
+        this.nbnLookup = metrics.phase("nbn-lookup");
+    }
+
+    /**
+     * Returns the target NBN of the DVE.
+     *
+     * @param dve the DVE ZIP file
+     * @return the NBN
+     * @throws IOException           if the DVE cannot be read
+     * @throws IllegalStateException if the DVE is not a ZIP file, or if the metadata file or the NBN cannot be found
+     */
+    public String findNbn(Path dve) throws IOException {
+        return identify(dve).nbn();
+    }
+
+    /**
+     * Returns the target NBN of the DVE and the fingerprint of its contents. The fingerprint is computed from the central directory, which has to be read
+     * anyway, so it does not require reading the contents of the entries.
+     *
+     * @param dve the DVE ZIP file
+     * @return the NBN and fingerprint
+     * @throws IOException           if the DVE cannot be read
+     * @throws IllegalStateException if the DVE is not a ZIP file, or if the metadata file or the NBN cannot be found
+     */
+    public DveIdentity identify(Path dve) throws IOException {
+        var zipOpenContext = zipOpen.time();
+        try (var zip = new ZipFile(dve.toFile())) {
+            var entry = findMetadataEntry(zip);
+            var fingerprint = fingerprint(zip);
+            zipOpenContext.stop();
+            try (var ignored = nbnLookup.time(); var is = zip.getInputStream(entry)) {
+                return new DveIdentity(readNbn(is), fingerprint);
+            }
+        }
+        catch (ZipException e) {
+            throw new IllegalStateException("Unable to open DVE. Probably not a ZIP file: " + dve, e);
+        }
+    }
+
+    static String fingerprint(ZipFile zip) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        zip.stream().forEach(entry -> {
+            digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Long.toString(entry.getCrc()).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) 0);
+            digest.update(Long.toString(entry.getSize()).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) '\n');
+        });
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static ZipEntry findMetadataEntry(ZipFile zip) {
+        var topLevelDir = zip.stream()
+            .map(ZipEntry::getName)
+            .filter(name -> name.indexOf('/') > 0)
+            .map(name -> name.substring(0, name.indexOf('/') + 1))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No top-level directory found in DVE"));
+        var entry = zip.getEntry(topLevelDir + METADATA_PATH);
+        if (entry == null) {
+            throw new IllegalStateException("No metadata file found in DVE");
+        }
+        return entry;
+    }
+
+    private String readNbn(InputStream is) throws IOException {
+        try (var parser = JSON_FACTORY.createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("Unable to read NBN from metadata file: not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && DESCRIBES.equals(name)) {
+                    var nbn = readNbnFromDescribes(parser);
+                    if (nbn != null) {
+                        return nbn;
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to read NBN from metadata file", e);
+        }
+        throw new IllegalStateException("No NBN found in DVE");
+    }
+
+    private String readNbnFromDescribes(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.getCurrentName();
+            var token = parser.nextToken();
+            if (NBN.equals(name) && token == JsonToken.VALUE_STRING) {
+                return parser.getText();
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+/**
+ * Decides whether this instance may process the DVEs of an NBN.
+ */
+@FunctionalInterface
+public interface NbnOwnership {
+
+    /**
+     * @param nbn the NBN
+     * @return true if this instance may start processing a DVE of the NBN
+     */
+    boolean owns(String nbn);
+
+    /**
+     * @return the ownership of a standalone instance, which processes all NBNs
+     */
+    static NbnOwnership all() {
+        return nbn -> true;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * The number of NBN registrations that are waiting or in progress. Counting them takes a query, so the count is refreshed every <code>refreshInterval</code> on a
+ * scheduled executor, and reading it only returns the last count. This way the admission gate of the extract-metadata stage, which checks its watermarks
+ * whenever a task asks whether it may run, does not query the database while it holds its lock.
+ * </p>
+ * <p>
+ * If the count cannot be refreshed, the previous count is kept. The count is registered as the gauge <code>nbn-registration.pending</code>.
+ * </p>
+ */
+@Slf4j
+public class NbnRegistrationBacklog implements Managed {
+    private final NbnRegistrationQueue queue;
+    private final long refreshInterval;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long pending;
+    private ScheduledFuture<?> refresher;
+
+    /**
+     * @param queue           the NBN registration queue
+     * @param refreshInterval the interval between refreshes of the count, in milliseconds
+     * @param scheduler       the executor on which to refresh the count
+     * @param metrics         the metrics of the NBN registration stage
+     */
+    public NbnRegistrationBacklog(NbnRegistrationQueue queue, long refreshInterval, ScheduledExecutorService scheduler, StageMetrics metrics) {
+        this.queue = queue;
+        this.refreshInterval = refreshInterval;
+        this.scheduler = scheduler;
+        metrics.registerGauge("pending", this::getPending);
+    }
+
+    @Override
+    public void start() {
+        refresh();
+        refresher = scheduler.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (refresher != null) {
+            refresher.cancel(false);
+        }
+    }
+
+    /**
+     * Counts the pending registrations again.
+     */
+    public void refresh() {
+        try {
+            pending = queue.countPending();
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to count the pending NBN registrations; keeping the previous count of {}", pending, e);
+        }
+    }
+
+    /**
+     * @return the number of registrations that were waiting or in progress at the last refresh
+     */
+    public long getPending() {
+        return pending;
+    }
+}
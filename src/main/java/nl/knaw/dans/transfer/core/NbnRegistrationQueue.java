@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.hibernate.UnitOfWork;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.core.NbnRegistration.Status;
+import nl.knaw.dans.transfer.db.NbnRegistrationDao;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Transactional operations on the NBN registration queue. Create instances with <code>UnitOfWorkAwareProxyFactory</code>, so that each method runs in its own
+ * transaction.
+ */
+@Slf4j
+@AllArgsConstructor
+public class NbnRegistrationQueue {
+    private final NbnRegistrationDao dao;
+
+    /**
+     * Schedules the registration of an NBN, unless it has been scheduled before.
+     *
+     * @param nbn      the NBN
+     * @param location the URL the NBN must resolve to
+     */
+    @UnitOfWork
+    public void schedule(String nbn, String location) {
+        if (dao.findByNbn(nbn).isEmpty()) {
+            dao.save(new NbnRegistration(nbn, location));
+            log.debug("Scheduled registration of {} -> {}", nbn, location);
+        }
+    }
+
+    @UnitOfWork
+    public List<NbnRegistration> claimDue(int limit) {
+        return dao.claimDue(limit, Instant.now());
+    }
+
+    /**
+     * @return the number of registrations that are waiting or in progress
+     */
+    @UnitOfWork
+    public long countPending() {
+        return dao.countPending();
+    }
+
+    @UnitOfWork
+    public int releaseStale(Instant claimedBefore) {
+        return dao.releaseStale(claimedBefore);
+    }
+
+    @UnitOfWork
+    public void markRegistered(long id) {
+        dao.findById(id).ifPresent(registration -> {
+            registration.setStatus(Status.REGISTERED);
+            registration.setRegisteredAt(Instant.now());
+            registration.setLastError(null);
+        });
+    }
+
+    /**
+     * Records a failed attempt. The registration is retried at <code>nextAttemptAt</code>, or marked as failed if <code>nextAttemptAt</code> is null.
+     *
+     * @param id            the id of the registration
+     * @param error         a description of the error
+     * @param nextAttemptAt when to try again, or null to give up
+     */
+    @UnitOfWork
+    public void markAttemptFailed(long id, String error, Instant nextAttemptAt) {
+        dao.findById(id).ifPresent(registration -> {
+            registration.setAttempts(registration.getAttempts() + 1);
+            registration.setLastError(error.length() > 2000 ? error.substring(0, 2000) : error);
+            registration.setClaimedAt(null);
+            if (nextAttemptAt == null) {
+                registration.setStatus(Status.FAILED);
+            }
+            else {
+                registration.setStatus(Status.PENDING);
+                registration.setNextAttemptAt(nextAttemptAt);
+            }
+        });
+    }
+}
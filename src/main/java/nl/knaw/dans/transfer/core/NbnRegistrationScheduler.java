@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.client.GmhClient;
+import nl.knaw.dans.transfer.client.GmhException;
+import nl.knaw.dans.transfer.config.NbnRegistrationConfig;
+
+import javax.ws.rs.ProcessingException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * Drains the NBN registration queue. A dispatcher thread claims due registrations in batches and hands them to a pool of request threads. At most
+ * <code>maxConcurrentRequests</code> registrations are claimed or in flight at any time, so that rows are not locked up in this instance while other instances
+ * could process them.
+ * </p>
+ * <p>
+ * Requests are spaced out by an {@link AdaptiveRateLimiter}. A failed registration is retried with exponential backoff, until the maximum number of attempts is
+ * reached.
+ * </p>
+ */
+@Slf4j
+public class NbnRegistrationScheduler implements Managed {
+    private final NbnRegistrationQueue queue;
+    private final GmhClient gmhClient;
+    private final NbnRegistrationConfig config;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final Semaphore slots;
+    private final ExecutorService dispatcherExecutor;
+    private final ExecutorService requestExecutor;
+    private final StageMetrics metrics;
+
+    private volatile boolean running;
+    private long lastStaleCheck;
+
+    public NbnRegistrationScheduler(NbnRegistrationQueue queue, GmhClient gmhClient, NbnRegistrationConfig config, ExecutorService dispatcherExecutor,
+        ExecutorService requestExecutor, StageMetrics metrics) {
+        this.queue = queue;
+        this.gmhClient = gmhClient;
+        this.config = config;
+        this.rateLimiter = new AdaptiveRateLimiter(config.getInitialRate(), config.getMinRate(), config.getMaxRate(), config.getRateIncreaseStep(),
+            config.getTargetLatency().toMilliseconds());
+        this.slots = new Semaphore(config.getMaxConcurrentRequests());
+        this.dispatcherExecutor = dispatcherExecutor;
+        this.requestExecutor = requestExecutor;
+        this.metrics = metrics;
+        metrics.registerGauge("rate", rateLimiter::getRate);
+        metrics.registerGauge("in-flight", () -> config.getMaxConcurrentRequests() - slots.availablePermits());
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        dispatcherExecutor.execute(this::dispatch);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                releaseStaleClaims();
+                if (dispatchBatch() == 0) {
+                    Thread.sleep(config.getRegistrationInterval());
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e) {
+                log.error("Unable to dispatch NBN registrations", e);
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void releaseStaleClaims() {
+        var now = System.currentTimeMillis();
+        if (now - lastStaleCheck < config.getClaimTimeout().toMilliseconds() / 2) {
+            return;
+        }
+        lastStaleCheck = now;
+        var released = queue.releaseStale(Instant.now().minusMillis(config.getClaimTimeout().toMilliseconds()));
+        if (released > 0) {
+            log.warn("Returned {} stale NBN registration claims to the queue", released);
+        }
+    }
+
+    /*
+     * Claims as many registrations as there are free request slots and dispatches them. Each dispatched registration holds a slot until its request has
+     * finished.
+     */
+    private int dispatchBatch() throws InterruptedException {
+        slots.acquire();
+        var free = 1 + slots.drainPermits();
+        var claimSize = Math.min(free, config.getBatchSize());
+        slots.release(free - claimSize);
+        int dispatched = 0;
+        try {
+            for (var registration : queue.claimDue(claimSize)) {
+                rateLimiter.acquire();
+                requestExecutor.execute(() -> register(registration));
+                dispatched++;
+            }
+        }
+        catch (RejectedExecutionException e) {
+            // Shutting down; the claims expire after claimTimeout
+            log.debug("Request executor rejected NBN registration", e);
+        }
+        finally {
+            slots.release(claimSize - dispatched);
+        }
+        return dispatched;
+    }
+
+    private void register(NbnRegistration registration) {
+        try (var ignored = metrics.time()) {
+            var start = System.nanoTime();
+            gmhClient.registerNbn(registration.getNbn(), registration.getLocation());
+            rateLimiter.onSuccess(System.nanoTime() - start);
+            queue.markRegistered(registration.getId());
+            metrics.processed(0);
+            log.info("Registered NBN {} -> {}", registration.getNbn(), registration.getLocation());
+        }
+        catch (GmhException e) {
+            if (e.isOverload()) {
+                rateLimiter.onOverload();
+            }
+            retryLater(registration, e);
+        }
+        catch (ProcessingException e) {
+            // Connection failures and timeouts
+            rateLimiter.onOverload();
+            retryLater(registration, e);
+        }
+        catch (Exception e) {
+            retryLater(registration, e);
+        }
+        finally {
+            slots.release();
+        }
+    }
+
+    private void retryLater(NbnRegistration registration, Exception e) {
+        metrics.failed(e);
+        try {
+            var attempts = registration.getAttempts() + 1;
+            if (attempts >= config.getMaxAttempts()) {
+                log.error("Giving up registration of NBN {} after {} attempts", registration.getNbn(), attempts, e);
+                queue.markAttemptFailed(registration.getId(), String.valueOf(e.getMessage()), null);
+            }
+            else {
+                var delay = getRetryDelay(attempts);
+                log.warn("Registration of NBN {} failed (attempt {}); retrying in {}: {}", registration.getNbn(), attempts, delay, e.getMessage());
+                queue.markAttemptFailed(registration.getId(), String.valueOf(e.getMessage()), Instant.now().plus(delay));
+            }
+        }
+        catch (Exception dbe) {
+            // The claim expires after claimTimeout, after which the registration is retried
+            log.error("Unable to record failed registration attempt for NBN {}", registration.getNbn(), dbe);
+        }
+    }
+
+    /*
+     * Exponential backoff with jitter, so that registrations that failed together (e.g., during an outage of GMH) are not retried together.
+     */
+    Duration getRetryDelay(int attempts) {
+        var initial = config.getInitialRetryDelay().toMilliseconds();
+        var max = config.getMaxRetryDelay().toMilliseconds();
+        var delay = attempts > 30 ? max : Math.min(max, initial << (attempts - 1));
+        var jitter = ThreadLocalRandom.current().nextDouble(0.8, 1.2);
+        return Duration.ofMillis((long) (delay * jitter));
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(config.getRegistrationInterval());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
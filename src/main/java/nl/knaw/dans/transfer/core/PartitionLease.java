@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * A partition of the NBNs and the instance that currently holds the lease on it. Only used in cluster mode (see {@link ClusterCoordinator}).
+ */
+@Entity
+@Table(name = "partition_lease")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PartitionLease {
+    @Id
+    @Column(name = "partition_no")
+    private Integer partitionNo;
+
+    @Column(name = "owner")
+    private String owner;
+
+    @Column(name = "expires_at")
+    private Instant expiresAt;
+
+    public PartitionLease(int partitionNo) {
+        this.partitionNo = partitionNo;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.hibernate.UnitOfWork;
+import lombok.AllArgsConstructor;
+import nl.knaw.dans.transfer.db.PartitionLeaseDao;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Transactional operations on the partition leases of cluster mode. Create instances with <code>UnitOfWorkAwareProxyFactory</code>, so that each method runs
+ * in its own transaction.
+ */
+@AllArgsConstructor
+public class PartitionLeases {
+    private final PartitionLeaseDao dao;
+
+    /**
+     * The outcome of a heartbeat.
+     *
+     * @param held      the partitions the instance holds after the heartbeat
+     * @param released  the partitions that were released
+     * @param fairShare the number of partitions each live instance should hold
+     * @param heldBack  the NBNs in the held partitions of which another instance still has DVEs on their way to the Data Vault
+     */
+    public record Heartbeat(Set<Integer> held, Set<Integer> released, int fairShare, Set<String> heldBack) {
+    }
+
+    @UnitOfWork
+    public void ensurePartitions(int partitions) {
+        dao.ensurePartitions(partitions);
+    }
+
+    /**
+     * Records the shared state of DVEs and removes the DVEs whose batches have been archived.
+     *
+     * @param updated  the new states of DVEs
+     * @param archived the file names of DVEs that have been archived
+     */
+    @UnitOfWork
+    public void share(Collection<ClusterDve> updated, Collection<String> archived) {
+        updated.forEach(dao::saveDve);
+        dao.deleteDves(archived);
+    }
+
+    /**
+     * Renews the leases of the instance, releases the given partitions as far as none of their DVEs are still on their way to the Data Vault from this
+     * instance, and claims free or expired partitions up to the fair share of the instance.
+     *
+     * @param instanceId    the instance
+     * @param release       the partitions to give up
+     * @param partitions    the total number of partitions
+     * @param leaseDuration how long the leases are valid
+     * @return the partitions held by the instance, the ones released, its fair share and the NBNs it must hold back
+     */
+    @UnitOfWork
+    public Heartbeat heartbeat(String instanceId, Collection<Integer> release, int partitions, Duration leaseDuration) {
+        var now = Instant.now();
+        var expiresAt = now.plus(leaseDuration);
+        dao.touchMember(instanceId, now);
+        var released = new TreeSet<>(release);
+        dao.findPartitionsWithDownstreamDves(instanceId, release).forEach(released::remove);
+        dao.release(instanceId, released);
+        dao.renew(instanceId, expiresAt);
+        var held = new TreeSet<>(dao.findHeld(instanceId));
+        var members = Math.max(1, dao.countLiveMembers(now.minus(leaseDuration)));
+        var fairShare = (int) ((partitions + members - 1) / members);
+        if (held.size() < fairShare) {
+            dao.claimFree(instanceId, fairShare - held.size(), now, expiresAt).forEach(lease -> held.add(lease.getPartitionNo()));
+        }
+        return new Heartbeat(held, released, fairShare, new HashSet<>(dao.findNbnsWithDownstreamDvesElsewhere(instanceId, held)));
+    }
+
+    /**
+     * @param partitions the partitions
+     * @return the shared state of the DVEs in the partitions
+     */
+    @UnitOfWork
+    public List<ClusterDve> findDves(Collection<Integer> partitions) {
+        return dao.findDves(partitions);
+    }
+
+    /**
+     * Removes the DVEs, the leases and the membership of an instance that has left the cluster for good.
+     *
+     * @param instanceId    the instance
+     * @param leaseDuration how long ago the instance must have sent its last heartbeat
+     * @return the number of DVEs removed
+     * @throws IllegalStateException if the instance has sent a heartbeat within the lease duration
+     */
+    @UnitOfWork
+    public int purge(String instanceId, Duration leaseDuration) {
+        var member = dao.findMember(instanceId);
+        if (member != null && member.getLastSeen().isAfter(Instant.now().minus(leaseDuration))) {
+            throw new IllegalStateException("Instance " + instanceId + " is still alive (last seen at " + member.getLastSeen() + ")");
+        }
+        dao.release(instanceId, dao.findHeld(instanceId));
+        dao.deleteMember(instanceId);
+        return dao.deleteDvesOf(instanceId);
+    }
+
+    @UnitOfWork
+    public void releaseAll(String instanceId) {
+        dao.release(instanceId, dao.findHeld(instanceId));
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Append-only journal of the stage transitions of DVEs, one JSON object per line. The latest entry per DVE is kept in memory, so that the stages can look up
+ * what is already known about a DVE (its NBN, size and fingerprint, and the last stage it finished) without opening the ZIP file again.
+ * </p>
+ * <p>
+ * On start the journal is replayed, in time proportional to the number of entries, and compacted: only the latest entry of each DVE that is still in the
+ * pipeline is kept. The same compaction is done while running, whenever the file has grown to twice the number of DVEs in progress, with a minimum of
+ * {@value #MIN_COMPACTION_LINES} lines. The directories remain the source of truth; the journal only tells the stages where to look and what they can skip. A
+ * line that was torn by a crash is ignored.
+ * </p>
+ * <p>
+ * The entries are kept by file name, but the stages look them up by path. An entry is only returned if the size and the last modified time of the file still
+ * match, so that a different DVE that is delivered under the same name does not inherit the state of an earlier one. A stale entry is dropped.
+ * </p>
+ * <p>
+ * If no file is configured, the journal is kept in memory only. Listeners are told about every recorded entry, which is how cluster mode shares the state of
+ * the DVEs with the other instances (see {@link ClusterCoordinator}).
+ * </p>
+ */
+@Slf4j
+public class PipelineJournal implements Managed {
+    static final int MIN_COMPACTION_LINES = 10000;
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+    private final Map<String, JournalEntry> entries = new LinkedHashMap<>();
+    private final List<Consumer<JournalEntry>> listeners = new CopyOnWriteArrayList<>();
+    private BufferedWriter writer;
+    private int linesWritten;
+
+    /**
+     * Creates a journal that is kept in memory only.
+     */
+    public PipelineJournal() {
+        this(null, new ObjectMapper());
+    }
+
+    /**
+     * @param file         the journal file, or null to keep the journal in memory only
+     * @param objectMapper the object mapper to serialize the entries with
+     */
+    public PipelineJournal(Path file, ObjectMapper objectMapper) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (Files.exists(file)) {
+            replay();
+            compact();
+        }
+        openWriter();
+        log.info("Journal {} contains {} DVEs in progress", file, entries.size());
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Registers a listener that is called with every entry that is recorded, on the thread that records it and while holding the lock of the journal.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Consumer<JournalEntry> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Records a stage transition. A failure to write the journal is logged, but does not fail the caller, because the journal is only an aid for recovery.
+     *
+     * @param entry the new state of the DVE
+     */
+    public synchronized void record(JournalEntry entry) {
+        adopt(entry);
+        listeners.forEach(listener -> listener.accept(entry));
+    }
+
+    /**
+     * Records the state of a DVE that was recorded by another instance, without telling the listeners.
+     *
+     * @param entry the state of the DVE
+     */
+    public synchronized void adopt(JournalEntry entry) {
+        if (entry.stage().isFinal()) {
+            entries.remove(entry.dve());
+        }
+        else {
+            entries.put(entry.dve(), entry);
+        }
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(objectMapper.writeValueAsString(entry));
+            writer.newLine();
+            // Flushed to the OS, so that the entry survives a crash of the service
+            writer.flush();
+            if (++linesWritten > Math.max(MIN_COMPACTION_LINES, 2 * entries.size())) {
+                writer.close();
+                writer = null;
+                try {
+                    compact();
+                }
+                finally {
+                    openWriter();
+                }
+            }
+        }
+        catch (IOException e) {
+            log.error("Unable to write to journal {}", file, e);
+        }
+    }
+
+    /**
+     * Records that a DVE has finished the given stage, carrying over what was known about it.
+     *
+     * @param dve   the file name of the DVE
+     * @param stage the stage
+     */
+    public synchronized void advance(String dve, Stage stage) {
+        record(get(dve)
+            .map(entry -> entry.advance(stage))
+            .orElseGet(() -> new JournalEntry(dve, null, -1, 0, null, stage, System.currentTimeMillis(), null)));
+    }
+
+    /**
+     * Returns the latest entry with the given file name, without checking that it belongs to the file that currently has that name. Use {@link #get(Path)}
+     * to look up a DVE.
+     *
+     * @param dve the file name of the DVE
+     * @return the latest entry of the DVE, if it is still in the pipeline
+     */
+    public synchronized Optional<JournalEntry> get(String dve) {
+        return Optional.ofNullable(entries.get(dve));
+    }
+
+    /**
+     * Returns the latest entry of a DVE, if its size and last modified time match those of the file. An entry that does not match was left behind by an
+     * earlier DVE with the same name and is dropped.
+     *
+     * @param dve the DVE
+     * @return the latest entry of the DVE, if it is still in the pipeline
+     */
+    public Optional<JournalEntry> get(Path dve) {
+        var name = dve.getFileName().toString();
+        JournalEntry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        if (entry == null || entry.size() < 0) {
+            return Optional.ofNullable(entry);
+        }
+        try {
+            if (entry.size() == Files.size(dve) && (entry.modified() == 0 || entry.modified() == Files.getLastModifiedTime(dve).toMillis())) {
+                return Optional.of(entry);
+            }
+        }
+        catch (IOException e) {
+            log.debug("Unable to check journal entry of {}", dve, e);
+            return Optional.empty();
+        }
+        log.info("Dropping journal entry of an earlier DVE with the same name as {}", dve);
+        synchronized (this) {
+            entries.remove(name, entry);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param dve the DVE
+     * @return the lane of the DVE, or {@link Lane#INTERACTIVE} if the journal does not know the DVE
+     */
+    public Lane getLane(Path dve) {
+        return get(dve).map(JournalEntry::lane).orElse(Lane.INTERACTIVE);
+    }
+
+    /**
+     * @param stages the stages
+     * @return the NBNs of the DVEs whose last finished stage is one of the given stages
+     */
+    public synchronized Set<String> getNbns(Stage... stages) {
+        var stageSet = Set.of(stages);
+        var nbns = new TreeSet<String>();
+        entries.values().stream()
+            .filter(entry -> entry.nbn() != null && stageSet.contains(entry.stage()))
+            .forEach(entry -> nbns.add(entry.nbn()));
+        return nbns;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void replay() throws IOException {
+        try (var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            lines.filter(line -> !line.isBlank()).forEach(line -> {
+                try {
+                    var entry = objectMapper.readValue(line, JournalEntry.class);
+                    if (entry.stage().isFinal()) {
+                        entries.remove(entry.dve());
+                    }
+                    else {
+                        entries.put(entry.dve(), entry);
+                    }
+                }
+                catch (JsonProcessingException e) {
+                    log.warn("Ignoring unreadable journal line: {}", line);
+                }
+            });
+        }
+    }
+
+    private void openWriter() throws IOException {
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        linesWritten = entries.size();
+    }
+
+    private void compact() throws IOException {
+        var tmp = file.resolveSibling("." + file.getFileName() + ".tmp");
+        try (var out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (var entry : entries.values()) {
+                out.write(objectMapper.writeValueAsString(entry));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
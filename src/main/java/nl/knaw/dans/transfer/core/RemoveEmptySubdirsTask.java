@@ -15,13 +15,15 @@
  */
 package nl.knaw.dans.transfer.core;
 
-import lombok.AllArgsConstructor;
-import lombok.Builder.Default;
 import lombok.extern.slf4j.Slf4j;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 
+/**
+ * Removes all empty subdirectories of a directory. A subdirectory that cannot be removed is logged and skipped, so that one failure does not stop the rest of
+ * the sweep. Use {@link EmptyDirReaper} to only check the subdirectories that may have become empty.
+ */
 @Slf4j
 public class RemoveEmptySubdirsTask implements Runnable {
     private final Path path;
@@ -42,22 +44,11 @@ public class RemoveEmptySubdirsTask implements Runnable {
             stream
                 .filter(Files::isDirectory)
                 .filter(p -> !p.getFileName().toString().equals(skipDirectory))
-                .forEach(this::deleteIfEmpty);
-        }
-        catch (Exception e) {
-            throw new RuntimeException("Failed to list subdirs in: " + path, e);
-        }
-    }
-
-    private void deleteIfEmpty(Path subdir) {
-        try (var stream = Files.list(subdir)) {
-            if (stream.findAny().isEmpty()) {
-                log.debug("Deleting empty subdir: {}", subdir);
-                Files.delete(subdir);
-            }
+                // A single delete both checks that the subdir is empty and removes it, so there is no window in which a file can be added in between
+                .forEach(EmptyDirReaper::deleteIfEmpty);
         }
         catch (Exception e) {
-            throw new RuntimeException("Failed to delete empty subdir: " + subdir, e);
+            log.error("Failed to list subdirs in: {}", path, e);
         }
     }
 }
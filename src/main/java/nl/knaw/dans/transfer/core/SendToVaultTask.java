@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.transfer.CreationTimeComparator;
+import nl.knaw.dans.transfer.client.DatasetVersion;
+import nl.knaw.dans.transfer.config.OutboxConfig;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Extracts a DVE into the current import batch of the Data Vault and then moves the DVE to the processed outbox. If the DVE cannot be extracted, it is moved to
+ * the failed outbox. The extraction verifies the checksums of the DVE, so a corrupt DVE ends up in the failed outbox instead of in the vault; the outcome of the
+ * verification is recorded in the Vault Catalog. Must run on the single send-to-vault thread, because the {@link ImportBatchManager} is not thread-safe.
+ * <p>
+ * The NBN, version, bag ID and fingerprint of the DVE are kept with the batch, so that the DVE can be marked as archived and recorded in the {@link DedupIndex}
+ * once the Data Vault has confirmed the import (see {@link ArchiveConfirmationScheduler}).
+ * </p>
+ */
+@Slf4j
+@AllArgsConstructor
+public class SendToVaultTask implements Runnable {
+    private final Path dve;
+    private final OutboxConfig outbox;
+    private final ImportBatchManager batchManager;
+    private final FileMover fileMover;
+    private final PipelineJournal journal;
+    private final DveMetadataCache metadataCache;
+    private final CatalogUpdater catalogUpdater;
+    private final StageMetrics metrics;
+
+    @Override
+    public void run() {
+        try (var ignored = metrics.time()) {
+            try {
+                var size = Files.size(dve);
+                if (isBatched()) {
+                    log.info("DVE {} was already added to a batch before the last restart", dve);
+                }
+                else {
+                    // Usually still in the cache from the extract-metadata stage
+                    var summary = metadataCache.get(dve);
+                    var metadata = summary.metadata();
+                    var result = batchManager.add(dve, new BatchedDve(getName(), metadata.nbn(), metadata.dataversePidVersion(), metadata.bagId(),
+                        summary.identity().fingerprint()));
+                    journal.advance(getName(), Stage.BATCHED);
+                    batchManager.journaled(getName());
+                    recordVerification(metadata, result);
+                }
+                fileMover.moveToDir(dve, outbox.getProcessed());
+                journal.advance(getName(), Stage.DONE);
+                metadataCache.forget(dve);
+                CreationTimeComparator.getInstance().forget(dve);
+                metrics.processed(size);
+            }
+            catch (Exception e) {
+                log.error("Unable to send DVE to vault: {}", dve, e);
+                metrics.failed(e);
+                journal.advance(getName(), Stage.FAILED);
+                moveToFailedOutbox(e);
+            }
+        }
+    }
+
+    /*
+     * The DVE is in the batch regardless of whether the catalog accepts the update, so a failure is only logged. The catalog identifies the version by its
+     * Dataverse PID version and bag ID, not by the NBN alone.
+     */
+    private void recordVerification(DveMetadata metadata, DveExtractor.Result result) {
+        if (catalogUpdater == null) {
+            return;
+        }
+        var version = new DatasetVersion();
+        version.setNbn(metadata.nbn());
+        version.setDataversePidVersion(metadata.dataversePidVersion());
+        version.setBagId(metadata.bagId());
+        version.setVerifiedFiles(result.verifiedFiles());
+        version.setChecksumAlgorithms(new ArrayList<>(result.algorithms()));
+        catalogUpdater.submit(version).whenComplete((v, e) -> {
+            if (e != null) {
+                log.warn("Unable to record checksum verification of DVE {} in the Vault Catalog", dve, e);
+            }
+        });
+    }
+
+    private String getName() {
+        return dve.getFileName().toString();
+    }
+
+    /*
+     * A DVE must not be added to a batch twice, because the second copy would end up in the vault as well. The batch state is checked as well as the journal,
+     * because the service may have stopped between adding the DVE and journaling it.
+     */
+    private boolean isBatched() {
+        return journal.get(dve)
+            .map(entry -> entry.stage() == Stage.BATCHED)
+            .orElse(false)
+            || batchManager.isBatched(getName());
+    }
+
+    private void moveToFailedOutbox(Exception e) {
+        try {
+            fileMover.moveToDir(dve, outbox.getFailed());
+            var stackTraceFile = outbox.getFailed().resolve(dve.getFileName() + "-error.log");
+            try (var writer = Files.newBufferedWriter(stackTraceFile)) {
+                e.printStackTrace(new PrintWriter(writer));
+            }
+        }
+        catch (IOException ioe) {
+            log.error("Unable to move DVE to failed outbox: {}", outbox.getFailed(), ioe);
+        }
+    }
+}
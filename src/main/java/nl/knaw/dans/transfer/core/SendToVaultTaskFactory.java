@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.lib.util.inbox.InboxTaskFactory;
+import nl.knaw.dans.transfer.config.OutboxConfig;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the inbox tasks for the send-to-vault stage. An inbox task does not send the DVE itself; it queues a {@link SendToVaultTask} on the
+ * {@link KeyedSequentialExecutor} of the stage, keyed by the NBN and in the {@link Lane} of the DVE, both as recorded in the {@link PipelineJournal}. The DVEs of
+ * one NBN are therefore sent in the order in which they arrived, while interactive DVEs of other NBNs can overtake bulk DVEs. Because the tasks queued on the
+ * executor wait there instead of in the queue of the inbox, they are gated by the {@link AdmissionGate} of the stage themselves, and a DVE that is still queued is
+ * not queued a second time.
+ */
+@Slf4j
+@AllArgsConstructor
+public class SendToVaultTaskFactory implements InboxTaskFactory {
+    private final OutboxConfig outbox;
+    private final ImportBatchManager batchManager;
+    private final FileMover fileMover;
+    private final PipelineJournal journal;
+    private final DveMetadataCache metadataCache;
+    private final CatalogUpdater catalogUpdater;
+    private final KeyedSequentialExecutor<String> executor;
+    private final AdmissionGate admissionGate;
+    private final StageMetrics metrics;
+    private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public Runnable createInboxTask(Path path) {
+        if (FileMover.isHidden(path)) {
+            return () -> log.debug("Ignoring {}: it is still being moved into the inbox", path);
+        }
+        return () -> {
+            if (!queued.add(path)) {
+                log.debug("DVE {} is already queued", path);
+                return;
+            }
+            var name = path.getFileName().toString();
+            // Without a journal entry the DVE is its own key, so that it keeps its place in the order of the inbox
+            var entry = journal.get(path);
+            var key = entry.map(JournalEntry::nbn).orElse(name);
+            var task = admissionGate.admit(new SendToVaultTask(path, outbox, batchManager, fileMover, journal, metadataCache, catalogUpdater, metrics));
+            executor.execute(key, entry.map(JournalEntry::lane).orElse(Lane.INTERACTIVE), metrics.trackBacklog(() -> {
+                try {
+                    task.run();
+                }
+                finally {
+                    queued.remove(path);
+                }
+            }));
+        };
+    }
+}
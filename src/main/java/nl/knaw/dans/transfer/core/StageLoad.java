@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * The number of DVEs, and their total size, that are waiting in the inbox of a stage. The load is counted once, when the service starts, and from then on kept
+ * up to date by the {@link FileMover}s that move DVEs into and out of the inbox, so that reading it never requires listing a directory.
+ * </p>
+ * <p>
+ * The load is registered as the gauges <code>&lt;stage&gt;.load.items</code> and <code>&lt;stage&gt;.load.bytes</code>.
+ * </p>
+ */
+@Slf4j
+public class StageLoad {
+    private final Path inbox;
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param inbox   the inbox of the stage
+     * @param metrics the metrics of the stage
+     */
+    public StageLoad(Path inbox, StageMetrics metrics) {
+        this.inbox = inbox.toAbsolutePath().normalize();
+        metrics.registerGauge("load.items", items::get);
+        metrics.registerGauge("load.bytes", bytes::get);
+    }
+
+    /**
+     * Counts the DVEs that are currently in the inbox, including those in subdirectories. Hidden files are not counted.
+     */
+    public void count() {
+        try (var files = Files.walk(inbox)) {
+            long[] totals = new long[2];
+            files.filter(Files::isRegularFile)
+                .filter(file -> !FileMover.isHidden(file))
+                .forEach(file -> {
+                    totals[0]++;
+                    totals[1] += file.toFile().length();
+                });
+            items.set(totals[0]);
+            bytes.set(totals[1]);
+            log.info("Inbox {} contains {} DVEs ({} bytes)", inbox, totals[0], totals[1]);
+        }
+        catch (IOException e) {
+            log.error("Unable to count the DVEs in {}; assuming it is empty", inbox, e);
+        }
+    }
+
+    /**
+     * @param path a path
+     * @return whether the path is located in the inbox
+     */
+    public boolean contains(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(inbox);
+    }
+
+    public void add(long size) {
+        items.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    public void remove(long size) {
+        // Never below zero, in case a DVE was already in the inbox before it was counted
+        items.updateAndGet(n -> Math.max(0, n - 1));
+        bytes.updateAndGet(n -> Math.max(0, n - size));
+    }
+
+    public long getItems() {
+        return items.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.Getter;
+
+/**
+ * <p>
+ * The metrics of one pipeline stage. All metric names are prefixed with the name of the stage:
+ * </p>
+ * <ul>
+ *     <li><code>items</code>: meter of the items (DVEs, registrations, batches) successfully processed;</li>
+ *     <li><code>latency</code>: timer of the processing time per item;</li>
+ *     <li><code>phase.&lt;phase&gt;</code>: timers of the phases within the processing of an item, e.g., <code>zip-open</code>;</li>
+ *     <li><code>bytes</code>: meter and <code>bytes-per-item</code> histogram of the number of bytes processed;</li>
+ *     <li><code>failures</code>: meter of all failures, and <code>failures.&lt;cause&gt;</code> counters per exception type;</li>
+ *     <li><code>backlog</code>: counter of the items that have been picked up but are not finished yet.</li>
+ * </ul>
+ * <p>
+ * The backlog is maintained incrementally, so reading it never requires listing a directory.
+ * </p>
+ */
+public class StageMetrics {
+    public static final String COLLECT_DVE = "collect-dve";
+    public static final String EXTRACT_METADATA = "extract-metadata";
+    public static final String NBN_REGISTRATION = "nbn-registration";
+    public static final String SEND_TO_VAULT = "send-to-vault";
+    public static final String ARCHIVE_CONFIRMATION = "archive-confirmation";
+
+    @Getter
+    private final MetricRegistry registry;
+    @Getter
+    private final String stage;
+    private final Meter items;
+    private final Timer latency;
+    private final Meter bytes;
+    private final Histogram bytesPerItem;
+    private final Meter failures;
+    private final Counter backlog;
+
+    /**
+     * Creates metrics that are not registered anywhere, for use in tests and tools.
+     *
+     * @param stage the name of the stage
+     */
+    public StageMetrics(String stage) {
+        this(new MetricRegistry(), stage);
+    }
+
+    public StageMetrics(MetricRegistry registry, String stage) {
+        this.registry = registry;
+        this.stage = stage;
+        this.items = registry.meter(MetricRegistry.name(stage, "items"));
+        this.latency = registry.timer(MetricRegistry.name(stage, "latency"));
+        this.bytes = registry.meter(MetricRegistry.name(stage, "bytes"));
+        this.bytesPerItem = registry.histogram(MetricRegistry.name(stage, "bytes-per-item"));
+        this.failures = registry.meter(MetricRegistry.name(stage, "failures"));
+        this.backlog = registry.counter(MetricRegistry.name(stage, "backlog"));
+    }
+
+    /**
+     * Starts timing the processing of one item. Stop the returned context when the item is finished, whether it succeeded or not.
+     *
+     * @return the timer context
+     */
+    public Timer.Context time() {
+        return latency.time();
+    }
+
+    /**
+     * @param phase the name of the phase
+     * @return the timer for a phase within the processing of an item
+     */
+    public Timer phase(String phase) {
+        return registry.timer(MetricRegistry.name(stage, "phase", phase));
+    }
+
+    /**
+     * @param lane the lane
+     * @return the timer for the time that the items of the lane wait before they are started
+     */
+    public Timer laneWait(Lane lane) {
+        return registry.timer(MetricRegistry.name(stage, "lanes", lane.getName(), "wait"));
+    }
+
+    /**
+     * Records a successfully processed item.
+     *
+     * @param size the number of bytes processed for the item
+     */
+    public void processed(long size) {
+        items.mark();
+        bytes.mark(size);
+        bytesPerItem.update(size);
+    }
+
+    /**
+     * Records a failure, counted per exception type.
+     *
+     * @param cause the cause of the failure
+     */
+    public void failed(Throwable cause) {
+        failures.mark();
+        registry.counter(MetricRegistry.name(stage, "failures", cause.getClass().getSimpleName())).inc();
+    }
+
+    /**
+     * Records an item that was set aside because it had already been processed before.
+     */
+    public void duplicate() {
+        registry.counter(MetricRegistry.name(stage, "duplicates")).inc();
+    }
+
+    /**
+     * Wraps a task so that it is counted in the backlog from now until it has finished.
+     *
+     * @param task the task
+     * @return the wrapped task
+     */
+    public Runnable trackBacklog(Runnable task) {
+        backlog.inc();
+        return () -> {
+            try {
+                task.run();
+            }
+            finally {
+                backlog.dec();
+            }
+        };
+    }
+
+    /**
+     * Registers a gauge under the name of this stage, replacing any existing gauge with the same name.
+     *
+     * @param name  the name of the gauge, relative to the stage
+     * @param gauge the gauge
+     */
+    public void registerGauge(String name, Gauge<?> gauge) {
+        var fullName = MetricRegistry.name(stage, name);
+        registry.remove(fullName);
+        registry.register(fullName, gauge);
+    }
+}
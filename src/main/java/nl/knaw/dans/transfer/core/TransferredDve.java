@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * A DVE that has been transferred to the vault, identified by its NBN, dataset version and the fingerprint of its contents (see {@link DedupIndex}).
+ */
+@Entity
+@Table(name = "transferred_dve", indexes = @Index(name = "transferred_dve_nbn_fingerprint_idx", columnList = "nbn, fingerprint"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class TransferredDve {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "nbn", nullable = false)
+    private String nbn;
+
+    @Column(name = "dataverse_pid_version")
+    private String dataversePidVersion;
+
+    @Column(name = "fingerprint", nullable = false, length = 64)
+    private String fingerprint;
+
+    @Column(name = "dve_name", nullable = false, length = 1024)
+    private String dveName;
+
+    @Column(name = "transferred_at", nullable = false)
+    private Instant transferredAt;
+
+    public TransferredDve(String dveName, String nbn, String dataversePidVersion, String fingerprint, Instant transferredAt) {
+        this.dveName = dveName;
+        this.nbn = nbn;
+        this.dataversePidVersion = dataversePidVersion;
+        this.fingerprint = fingerprint;
+        this.transferredAt = transferredAt;
+    }
+}
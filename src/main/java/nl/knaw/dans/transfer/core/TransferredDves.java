@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.hibernate.UnitOfWork;
+import lombok.AllArgsConstructor;
+import nl.knaw.dans.transfer.db.TransferredDveDao;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * Transactional operations on the table of transferred DVEs. Create instances with <code>UnitOfWorkAwareProxyFactory</code>, so that each method runs in its
+ * own transaction.
+ */
+@AllArgsConstructor
+public class TransferredDves {
+    private final TransferredDveDao dao;
+
+    @UnitOfWork
+    public boolean contains(String nbn, String dataversePidVersion, String fingerprint) {
+        return dao.find(nbn, fingerprint).stream().anyMatch(dve -> Objects.equals(dve.getDataversePidVersion(), dataversePidVersion));
+    }
+
+    /**
+     * Adds the DVE, unless a DVE with the same NBN, version and fingerprint is already present.
+     *
+     * @param dve the transferred DVE
+     */
+    @UnitOfWork
+    public void add(TransferredDve dve) {
+        if (!contains(dve.getNbn(), dve.getDataversePidVersion(), dve.getFingerprint())) {
+            dao.create(dve);
+        }
+    }
+
+    @UnitOfWork(readOnly = true)
+    public void forEachKey(BiConsumer<String, String> consumer) {
+        dao.forEachKey(consumer);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Runs each task on a new virtual thread, but never more than <code>maxConcurrency</code> tasks at the same time. Tasks beyond the limit park their (virtual)
+ * thread on a fair semaphore until a running task finishes, so they start roughly in submission order. Submitting a task never blocks the caller.
+ * </p>
+ * <p>
+ * Virtual threads are only available from Java 21 on. The service is built for Java 17, so they are looked up via reflection. On an older runtime
+ * {@link #create(String, int)} falls back to a fixed pool of <code>maxConcurrency</code> platform threads, which gives the same concurrency limit.
+ * </p>
+ */
+@Slf4j
+public class VirtualThreadExecutor extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    VirtualThreadExecutor(ExecutorService delegate, int maxConcurrency) {
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Creates an executor that runs at most <code>maxConcurrency</code> tasks at the same time on virtual threads, or on platform threads if the runtime does
+     * not support virtual threads.
+     *
+     * @param name           the name prefix of the threads
+     * @param maxConcurrency the maximum number of tasks that run at the same time
+     * @return the executor
+     */
+    public static ExecutorService create(String name, int maxConcurrency) {
+        try {
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            var factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            var delegate = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            log.info("Running {} on virtual threads, at most {} at a time", name, maxConcurrency);
+            return new VirtualThreadExecutor(delegate, maxConcurrency);
+        }
+        catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not supported by this Java runtime ({}); running {} on {} platform threads", Runtime.version(), name, maxConcurrency);
+            var count = new AtomicInteger();
+            return Executors.newFixedThreadPool(maxConcurrency, r -> new Thread(r, name + "-" + count.getAndIncrement()));
+        }
+    }
+
+    /**
+     * @return the number of tasks that are running
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return the number of tasks that have been submitted, but are waiting for a running task to finish
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        waiting.incrementAndGet();
+        delegate.execute(() -> {
+            try {
+                permits.acquire();
+            }
+            catch (InterruptedException e) {
+                // Only happens on shutdownNow, which drops the tasks that have not started
+                waiting.decrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            waiting.decrementAndGet();
+            try {
+                command.run();
+            }
+            finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
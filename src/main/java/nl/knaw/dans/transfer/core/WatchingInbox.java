@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.knaw.dans.lib.util.inbox.InboxTaskFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * An inbox that is driven by file system notifications instead of polling. It offers the same contract as the polling inbox from dans-java-utils: for each new
+ * top-level item in the inbox a task is created by the task factory and submitted to the executor service, in the order defined by the item comparator.
+ * </p>
+ * <p>
+ * Items are picked up when they are created in or moved into the inbox. As a safety net the complete inbox is re-scanned at a low frequency, so that items for
+ * which no notification was received are still processed. An item is never submitted twice while its task is still pending or running. Hidden files (names
+ * starting with a dot) are ignored, so that files that are still being written under a temporary name are not picked up.
+ * </p>
+ * <p>
+ * If <code>watchSubdirectories</code> is set, the subdirectories of the inbox are watched as well, and an item that is created in or moved into one of them is
+ * reported as the subdirectory itself, because that is the top-level item that has changed. A subdirectory is watched from the moment it is seen in the inbox,
+ * before its task is submitted, so that an item that arrives while the task runs is not missed. When a subdirectory is removed, its watch ends with it.
+ * </p>
+ */
+@Slf4j
+public class WatchingInbox implements Managed {
+    private final Path inbox;
+    private final InboxTaskFactory taskFactory;
+    private final ExecutorService executorService;
+    private final Comparator<Path> inboxItemComparator;
+    private final Runnable onPollingHandler;
+    private final long safetyNetInterval;
+    private final Timer pickupLatency;
+    private final boolean watchSubdirectories;
+
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<Path> watchedSubdirectories = ConcurrentHashMap.newKeySet();
+    private WatchService watchService;
+    private Thread watcherThread;
+    private volatile boolean running;
+
+    /**
+     * @param inbox               the directory to watch
+     * @param taskFactory         creates the task for an inbox item
+     * @param executorService     the executor service to run the tasks on
+     * @param inboxItemComparator the order in which items that are detected together are submitted; may be null
+     * @param onPollingHandler    called after each batch of notifications and each safety-net scan; may be null
+     * @param safetyNetInterval   the interval in milliseconds between full scans of the inbox
+     * @param pickupLatency       records the time between the arrival of an item in the inbox and the submission of its task; may be null
+     * @param watchSubdirectories whether to report changes in the subdirectories of the inbox as changes of those subdirectories
+     */
+    @Builder
+    public WatchingInbox(@NonNull Path inbox, @NonNull InboxTaskFactory taskFactory, @NonNull ExecutorService executorService, Comparator<Path> inboxItemComparator,
+        Runnable onPollingHandler, long safetyNetInterval, Timer pickupLatency, boolean watchSubdirectories) {
+        this.inbox = inbox;
+        this.taskFactory = taskFactory;
+        this.executorService = executorService;
+        this.inboxItemComparator = inboxItemComparator;
+        this.onPollingHandler = onPollingHandler;
+        this.safetyNetInterval = safetyNetInterval > 0 ? safetyNetInterval : TimeUnit.MINUTES.toMillis(1);
+        this.pickupLatency = pickupLatency;
+        this.watchSubdirectories = watchSubdirectories;
+    }
+
+    @Override
+    public void start() throws Exception {
+        Files.createDirectories(inbox);
+        watchService = inbox.getFileSystem().newWatchService();
+        inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        running = true;
+        // Items that were already present are picked up by the initial scan. Registering first ensures that nothing falls between the scan and the watch.
+        scan();
+        watcherThread = new Thread(this::watch, "watching-inbox-" + inbox.getFileName());
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        log.info("Watching inbox {} (safety-net scan every {} ms)", inbox, safetyNetInterval);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (watcherThread != null) {
+            watcherThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Re-scans the inbox and submits all items that are not yet pending or running.
+     */
+    public void scan() {
+        try (var stream = Files.list(inbox)) {
+            var items = stream.collect(Collectors.toList());
+            items.forEach(this::watchIfSubdirectory);
+            dispatch(items);
+        }
+        catch (IOException e) {
+            log.error("Unable to scan inbox {}", inbox, e);
+        }
+        runPollingHandler();
+    }
+
+    private void watch() {
+        var nextScan = System.currentTimeMillis() + safetyNetInterval;
+        while (running) {
+            try {
+                var key = watchService.poll(Math.max(1, nextScan - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    var dir = (Path) key.watchable();
+                    var overflow = false;
+                    List<Path> items = new ArrayList<>();
+                    for (var event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        }
+                        else if (dir.equals(inbox)) {
+                            var item = inbox.resolve((Path) event.context());
+                            watchIfSubdirectory(item);
+                            items.add(item);
+                        }
+                        else if (!FileMover.isHidden(dir.resolve((Path) event.context()))) {
+                            items.add(dir);
+                        }
+                    }
+                    if (!key.reset()) {
+                        if (dir.equals(inbox)) {
+                            log.error("Inbox {} is no longer accessible; falling back to safety-net scans only", inbox);
+                        }
+                        else {
+                            // The subdirectory has been removed; if it has been created again in the meantime, watch the new one and look into it
+                            watchedSubdirectories.remove(dir);
+                            watchIfSubdirectory(dir);
+                            items.add(dir);
+                        }
+                    }
+                    if (overflow) {
+                        log.warn("Notification queue overflow for inbox {}; re-scanning", inbox);
+                        scan();
+                        nextScan = System.currentTimeMillis() + safetyNetInterval;
+                    }
+                    else {
+                        dispatch(items);
+                        runPollingHandler();
+                    }
+                }
+                if (System.currentTimeMillis() >= nextScan) {
+                    scan();
+                    nextScan = System.currentTimeMillis() + safetyNetInterval;
+                }
+            }
+            catch (ClosedWatchServiceException e) {
+                break;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (Exception e) {
+                log.error("Unexpected error while watching inbox {}", inbox, e);
+            }
+        }
+    }
+
+    private void watchIfSubdirectory(Path item) {
+        if (!watchSubdirectories || FileMover.isHidden(item) || !Files.isDirectory(item) || !watchedSubdirectories.add(item)) {
+            return;
+        }
+        try {
+            item.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        }
+        catch (IOException e) {
+            // It may have been removed already; otherwise the next safety-net scan tries again
+            watchedSubdirectories.remove(item);
+            log.debug("Unable to watch {}", item, e);
+        }
+    }
+
+    private void dispatch(List<Path> items) {
+        var candidates = items.stream()
+            .distinct()
+            .filter(p -> !FileMover.isHidden(p))
+            .filter(Files::exists)
+            .filter(p -> !inFlight.contains(p))
+            .collect(Collectors.toList());
+        if (inboxItemComparator != null) {
+            candidates.sort(inboxItemComparator);
+        }
+        for (var item : candidates) {
+            if (!inFlight.add(item)) {
+                continue;
+            }
+            recordPickupLatency(item);
+            try {
+                var task = taskFactory.createInboxTask(item);
+                executorService.execute(() -> {
+                    try {
+                        task.run();
+                    }
+                    finally {
+                        inFlight.remove(item);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                inFlight.remove(item);
+                log.warn("Task for {} rejected; it will be retried on the next scan", item);
+            }
+            catch (Exception e) {
+                inFlight.remove(item);
+                log.error("Unable to create task for {}", item, e);
+            }
+        }
+    }
+
+    private void recordPickupLatency(Path item) {
+        if (pickupLatency == null) {
+            return;
+        }
+        try {
+            var arrived = arrivalTime(item);
+            pickupLatency.update(Math.max(0, System.currentTimeMillis() - arrived), TimeUnit.MILLISECONDS);
+        }
+        catch (IOException | RuntimeException e) {
+            log.debug("Unable to determine arrival time of {}", item, e);
+        }
+    }
+
+    /*
+     * The status change time is updated when an item is moved into the inbox, whereas the creation and modification times are preserved by a rename.
+     * Fall back to the modification time on platforms that do not support the unix attribute view.
+     */
+    private long arrivalTime(Path item) throws IOException {
+        try {
+            return ((FileTime) Files.getAttribute(item, "unix:ctime")).toMillis();
+        }
+        catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return Files.getLastModifiedTime(item).toMillis();
+        }
+    }
+
+    private void runPollingHandler() {
+        if (onPollingHandler == null) {
+            return;
+        }
+        try {
+            onPollingHandler.run();
+        }
+        catch (Exception e) {
+            log.error("Polling handler failed for inbox {}", inbox, e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A limit on a measured quantity, with hysteresis: the limit is reached at the high watermark, and only released again at the low watermark.
+ */
+public interface Watermark {
+
+    /**
+     * @return whether the quantity has reached the point where the limit applies
+     */
+    boolean isHigh();
+
+    /**
+     * @return whether the quantity has gone back far enough for the limit to be released
+     */
+    boolean isLow();
+
+    /**
+     * @return a description of the current state, for logging
+     */
+    String describe();
+
+    /**
+     * A limit on a quantity that must not become too large, such as the number of items waiting in an inbox.
+     *
+     * @param name  the name of the quantity
+     * @param value the current value
+     * @param high  the value at or above which the limit applies
+     * @param low   the value at or below which the limit is released
+     * @return the watermark
+     */
+    static Watermark above(String name, LongSupplier value, long high, long low) {
+        if (low > high) {
+            throw new IllegalArgumentException("Low watermark of " + name + " must not be greater than high watermark");
+        }
+        return new Watermark() {
+
+            @Override
+            public boolean isHigh() {
+                return value.getAsLong() >= high;
+            }
+
+            @Override
+            public boolean isLow() {
+                return value.getAsLong() <= low;
+            }
+
+            @Override
+            public String describe() {
+                return String.format("%s = %d (high = %d, low = %d)", name, value.getAsLong(), high, low);
+            }
+        };
+    }
+
+    /**
+     * A limit on a quantity that must not become too small, such as the free space on a disk.
+     *
+     * @param name   the name of the quantity
+     * @param value  the current value
+     * @param min    the value below which the limit applies
+     * @param resume the value at or above which the limit is released
+     * @return the watermark
+     */
+    static Watermark below(String name, LongSupplier value, long min, long resume) {
+        if (resume < min) {
+            throw new IllegalArgumentException("Resume value of " + name + " must not be less than minimum");
+        }
+        return new Watermark() {
+
+            @Override
+            public boolean isHigh() {
+                return value.getAsLong() < min;
+            }
+
+            @Override
+            public boolean isLow() {
+                return value.getAsLong() >= resume;
+            }
+
+            @Override
+            public String describe() {
+                return String.format("%s = %d (min = %d, resume = %d)", name, value.getAsLong(), min, resume);
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.db;
+
+import io.dropwizard.hibernate.AbstractDAO;
+import nl.knaw.dans.transfer.core.NbnRegistration;
+import nl.knaw.dans.transfer.core.NbnRegistration.Status;
+import org.hibernate.SessionFactory;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public class NbnRegistrationDao extends AbstractDAO<NbnRegistration> {
+
+    public NbnRegistrationDao(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    public Optional<NbnRegistration> findByNbn(String nbn) {
+        return query("FROM NbnRegistration WHERE nbn = :nbn", NbnRegistration.class)
+            .setParameter("nbn", nbn)
+            .uniqueResultOptional();
+    }
+
+    public NbnRegistration save(NbnRegistration registration) {
+        return persist(registration);
+    }
+
+    public Optional<NbnRegistration> findById(long id) {
+        return Optional.ofNullable(get(id));
+    }
+
+    /**
+     * Locks up to <code>limit</code> registrations that are due, skipping rows that are locked by other transactions, and marks them as in progress. Concurrent
+     * callers (also in other instances) therefore never claim the same registration.
+     *
+     * @param limit the maximum number of registrations to claim
+     * @param now   the current time
+     * @return the claimed registrations
+     */
+    @SuppressWarnings("unchecked")
+    public List<NbnRegistration> claimDue(int limit, Instant now) {
+        List<NbnRegistration> due = currentSession()
+            .createNativeQuery("SELECT * FROM nbn_registration WHERE status = :status AND next_attempt_at <= :now "
+                + "ORDER BY next_attempt_at LIMIT :limit FOR UPDATE SKIP LOCKED", NbnRegistration.class)
+            .setParameter("status", Status.PENDING.name())
+            .setParameter("now", now)
+            .setParameter("limit", limit)
+            .getResultList();
+        for (var registration : due) {
+            registration.setStatus(Status.IN_PROGRESS);
+            registration.setClaimedAt(now);
+        }
+        return due;
+    }
+
+    public long countPending() {
+        return query("SELECT COUNT(*) FROM NbnRegistration WHERE status IN (:statuses)", Long.class)
+            .setParameterList("statuses", List.of(Status.PENDING, Status.IN_PROGRESS))
+            .uniqueResult();
+    }
+
+    /**
+     * Returns registrations that were claimed before the cutoff, but never completed (e.g., because the instance that claimed them crashed), to the queue.
+     *
+     * @param claimedBefore the cutoff
+     * @return the number of registrations released
+     */
+    public int releaseStale(Instant claimedBefore) {
+        return currentSession()
+            .createQuery("UPDATE NbnRegistration SET status = :pending, claimedAt = null WHERE status = :inProgress AND claimedAt < :claimedBefore")
+            .setParameter("pending", Status.PENDING)
+            .setParameter("inProgress", Status.IN_PROGRESS)
+            .setParameter("claimedBefore", claimedBefore)
+            .executeUpdate();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.db;
+
+import io.dropwizard.hibernate.AbstractDAO;
+import nl.knaw.dans.transfer.core.ClusterDve;
+import nl.knaw.dans.transfer.core.ClusterMember;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+import nl.knaw.dans.transfer.core.PartitionLease;
+import org.hibernate.SessionFactory;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public class PartitionLeaseDao extends AbstractDAO<PartitionLease> {
+
+    public PartitionLeaseDao(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    /**
+     * Creates the rows for the partitions that do not exist yet.
+     *
+     * @param partitions the number of partitions
+     */
+    public void ensurePartitions(int partitions) {
+        for (int i = 0; i < partitions; i++) {
+            if (get(i) == null) {
+                persist(new PartitionLease(i));
+            }
+        }
+    }
+
+    public List<Integer> findHeld(String owner) {
+        return query("SELECT partitionNo FROM PartitionLease WHERE owner = :owner ORDER BY partitionNo", Integer.class)
+            .setParameter("owner", owner)
+            .getResultList();
+    }
+
+    public int renew(String owner, Instant expiresAt) {
+        return currentSession()
+            .createQuery("UPDATE PartitionLease SET expiresAt = :expiresAt WHERE owner = :owner")
+            .setParameter("expiresAt", expiresAt)
+            .setParameter("owner", owner)
+            .executeUpdate();
+    }
+
+    public int release(String owner, Collection<Integer> partitionNos) {
+        if (partitionNos.isEmpty()) {
+            return 0;
+        }
+        return currentSession()
+            .createQuery("UPDATE PartitionLease SET owner = null, expiresAt = null WHERE owner = :owner AND partitionNo IN (:partitionNos)")
+            .setParameter("owner", owner)
+            .setParameterList("partitionNos", partitionNos)
+            .executeUpdate();
+    }
+
+    /**
+     * Records that the instance is alive.
+     *
+     * @param instanceId the instance
+     * @param now        the current time
+     */
+    public void touchMember(String instanceId, Instant now) {
+        var member = currentSession().get(ClusterMember.class, instanceId);
+        if (member == null) {
+            currentSession().persist(new ClusterMember(instanceId, now));
+        }
+        else {
+            member.setLastSeen(now);
+        }
+    }
+
+    /**
+     * @param instanceId the instance
+     * @return the membership of the instance, or null if it has none
+     */
+    public ClusterMember findMember(String instanceId) {
+        return currentSession().get(ClusterMember.class, instanceId);
+    }
+
+    public void deleteMember(String instanceId) {
+        var member = findMember(instanceId);
+        if (member != null) {
+            currentSession().remove(member);
+        }
+    }
+
+    /**
+     * @param seenSince the cutoff
+     * @return the number of instances that have sent a heartbeat since the cutoff
+     */
+    public long countLiveMembers(Instant seenSince) {
+        return currentSession().createQuery("SELECT COUNT(*) FROM ClusterMember WHERE lastSeen >= :seenSince", Long.class)
+            .setParameter("seenSince", seenSince)
+            .uniqueResult();
+    }
+
+    /**
+     * Takes over up to <code>limit</code> partitions that are free or whose lease has expired, skipping rows that are locked by other instances doing the same.
+     *
+     * @param owner     the instance claiming the partitions
+     * @param limit     the maximum number of partitions to claim
+     * @param now       the current time
+     * @param expiresAt the expiry of the new leases
+     * @return the claimed partitions
+     */
+    @SuppressWarnings("unchecked")
+    public List<PartitionLease> claimFree(String owner, int limit, Instant now, Instant expiresAt) {
+        List<PartitionLease> free = currentSession()
+            .createNativeQuery("SELECT * FROM partition_lease WHERE owner IS NULL OR expires_at < :now "
+                + "ORDER BY partition_no LIMIT :limit FOR UPDATE SKIP LOCKED", PartitionLease.class)
+            .setParameter("now", now)
+            .setParameter("limit", limit)
+            .getResultList();
+        for (var lease : free) {
+            lease.setOwner(owner);
+            lease.setExpiresAt(expiresAt);
+        }
+        return free;
+    }
+
+    /**
+     * Records the shared state of a DVE. A DVE that failed or turned out to be a duplicate is removed, unless it had already been added to an import batch, in
+     * which case it stays until the batch has been archived.
+     *
+     * @param dve the state of the DVE
+     */
+    public void saveDve(ClusterDve dve) {
+        var existing = currentSession().get(ClusterDve.class, dve.getDve());
+        if (dve.getStage() == Stage.FAILED || dve.getStage() == Stage.DUPLICATE) {
+            if (existing != null && !existing.isBatched()) {
+                currentSession().remove(existing);
+            }
+        }
+        else if (existing == null) {
+            currentSession().persist(dve);
+        }
+        else {
+            currentSession().merge(dve);
+        }
+    }
+
+    public int deleteDves(Collection<String> dves) {
+        if (dves.isEmpty()) {
+            return 0;
+        }
+        return currentSession()
+            .createQuery("DELETE FROM ClusterDve WHERE dve IN (:dves)")
+            .setParameterList("dves", dves)
+            .executeUpdate();
+    }
+
+    /**
+     * @param owner the instance
+     * @return the number of DVEs of the instance that were removed
+     */
+    public int deleteDvesOf(String owner) {
+        return currentSession()
+            .createQuery("DELETE FROM ClusterDve WHERE owner = :owner")
+            .setParameter("owner", owner)
+            .executeUpdate();
+    }
+
+    public List<ClusterDve> findDves(Collection<Integer> partitionNos) {
+        if (partitionNos.isEmpty()) {
+            return List.of();
+        }
+        return currentSession().createQuery("FROM ClusterDve WHERE partitionNo IN (:partitionNos)", ClusterDve.class)
+            .setParameterList("partitionNos", partitionNos)
+            .getResultList();
+    }
+
+    /**
+     * @param owner        the instance
+     * @param partitionNos the partitions to look in
+     * @return the partitions in which the instance has DVEs that may still be on their way to the Data Vault
+     */
+    public List<Integer> findPartitionsWithDownstreamDves(String owner, Collection<Integer> partitionNos) {
+        if (partitionNos.isEmpty()) {
+            return List.of();
+        }
+        return query("SELECT DISTINCT partitionNo FROM ClusterDve WHERE owner = :owner AND partitionNo IN (:partitionNos) AND stage IN (:stages)", Integer.class)
+            .setParameter("owner", owner)
+            .setParameterList("partitionNos", partitionNos)
+            .setParameterList("stages", ClusterDve.DOWNSTREAM_STAGES)
+            .getResultList();
+    }
+
+    /**
+     * @param owner        the instance
+     * @param partitionNos the partitions to look in
+     * @return the NBNs of which other instances have DVEs that may still be on their way to the Data Vault
+     */
+    public List<String> findNbnsWithDownstreamDvesElsewhere(String owner, Collection<Integer> partitionNos) {
+        if (partitionNos.isEmpty()) {
+            return List.of();
+        }
+        return query("SELECT DISTINCT nbn FROM ClusterDve WHERE owner <> :owner AND partitionNo IN (:partitionNos) AND stage IN (:stages)", String.class)
+            .setParameter("owner", owner)
+            .setParameterList("partitionNos", partitionNos)
+            .setParameterList("stages", ClusterDve.DOWNSTREAM_STAGES)
+            .getResultList();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.db;
+
+import io.dropwizard.hibernate.AbstractDAO;
+import nl.knaw.dans.transfer.core.TransferredDve;
+import org.hibernate.SessionFactory;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public class TransferredDveDao extends AbstractDAO<TransferredDve> {
+    private static final int FETCH_SIZE = 10000;
+
+    public TransferredDveDao(SessionFactory sessionFactory) {
+        super(sessionFactory);
+    }
+
+    public List<TransferredDve> find(String nbn, String fingerprint) {
+        return list(query("FROM TransferredDve WHERE nbn = :nbn AND fingerprint = :fingerprint")
+            .setParameter("nbn", nbn)
+            .setParameter("fingerprint", fingerprint));
+    }
+
+    public void create(TransferredDve dve) {
+        persist(dve);
+    }
+
+    /**
+     * Passes the NBN and fingerprint of every transferred DVE to the consumer, fetching the rows in chunks rather than loading them all at once.
+     *
+     * @param consumer the consumer of the NBN and fingerprint
+     */
+    public void forEachKey(BiConsumer<String, String> consumer) {
+        try (var rows = currentSession().createQuery("SELECT nbn, fingerprint FROM TransferredDve", Object[].class)
+            .setFetchSize(FETCH_SIZE)
+            .stream()) {
+            rows.forEach(row -> consumer.accept((String) row[0], (String) row[1]));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CreationTimeComparatorTest extends TestDirFixture {
+
+    /*
+     * Returns fixed creation times and records which paths were read.
+     */
+    private static class CountingReader implements ToLongFunction<Path> {
+        private final Map<Path, Long> creationTimes;
+        private final List<Path> reads = new ArrayList<>();
+
+        CountingReader(Map<Path, Long> creationTimes) {
+            this.creationTimes = creationTimes;
+        }
+
+        @Override
+        public long applyAsLong(Path path) {
+            reads.add(path);
+            return creationTimes.get(path);
+        }
+    }
+
+    @Test
+    public void sort_should_return_all_items_in_comparator_order() throws Exception {
+        // Given
+        var b = Files.createFile(testDir.resolve("b.zip"));
+        var a = Files.createFile(testDir.resolve("a.zip"));
+        var c = Files.createFile(testDir.resolve("c.zip"));
+
+        // When
+        var sorted = CreationTimeComparator.getInstance().sort(List.of(c, a, b));
+
+        // Then
+        assertThat(sorted).containsExactlyInAnyOrder(a, b, c);
+        assertThat(sorted).isSortedAccordingTo(CreationTimeComparator.getInstance());
+    }
+
+    @Test
+    public void sort_should_read_each_creation_time_once_across_scans() {
+        // Given
+        var a = Path.of("inbox/a.zip");
+        var b = Path.of("inbox/b.zip");
+        var c = Path.of("inbox/c.zip");
+        var reader = new CountingReader(Map.of(a, 3L, b, 1L, c, 2L));
+        var comparator = new CreationTimeComparator(reader, 100);
+
+        // When
+        var first = comparator.sort(List.of(a, b, c));
+        var second = comparator.sort(List.of(c, b, a));
+        comparator.compare(a, b);
+
+        // Then
+        assertThat(first).containsExactly(b, c, a);
+        assertThat(second).containsExactly(b, c, a);
+        assertThat(reader.reads).containsExactlyInAnyOrder(a, b, c);
+    }
+
+    @Test
+    public void sort_should_order_items_with_equal_creation_times_by_name() {
+        // Given
+        var a = Path.of("inbox/a.zip");
+        var b = Path.of("inbox/b.zip");
+        var c = Path.of("inbox/c.zip");
+        var comparator = new CreationTimeComparator(new CountingReader(Map.of(a, 5L, b, 5L, c, 1L)), 100);
+
+        // When
+        var sorted = comparator.sort(List.of(b, a, c));
+
+        // Then
+        assertThat(sorted).containsExactly(c, a, b);
+        assertThat(comparator.compare(a, b)).isNegative();
+    }
+
+    @Test
+    public void sort_should_order_items_whose_creation_times_are_far_apart() {
+        // Given
+        var a = Path.of("inbox/a.zip");
+        var b = Path.of("inbox/b.zip");
+        var c = Path.of("inbox/c.zip");
+        var comparator = new CreationTimeComparator(new CountingReader(Map.of(a, Long.MAX_VALUE, b, Long.MIN_VALUE, c, 0L)), 100);
+
+        // When
+        var sorted = comparator.sort(List.of(a, b, c));
+
+        // Then
+        assertThat(sorted).containsExactly(b, c, a);
+    }
+
+    @Test
+    public void cache_should_evict_other_path_when_full() {
+        // Given
+        var a = Path.of("inbox1/a.zip");
+        var b = Path.of("inbox2/b.zip");
+        var c = Path.of("inbox3/c.zip");
+        var reader = new CountingReader(Map.of(a, 1L, b, 2L, c, 3L));
+        var comparator = new CreationTimeComparator(reader, 2);
+        comparator.compare(a, b);
+
+        // When
+        comparator.compare(c, c);
+
+        // Then
+        assertThat(comparator.getCachedPaths()).isEqualTo(2);
+        assertThat(reader.reads).containsExactly(a, b, c);
+    }
+
+    @Test
+    public void getInstance_should_return_the_same_instance_from_multiple_threads() throws Exception {
+        var instances = new CreationTimeComparator[8];
+        var threads = new Thread[instances.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> instances[index] = CreationTimeComparator.getInstance());
+            threads[i].start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertThat(instances).containsOnly(CreationTimeComparator.getInstance());
+    }
+}
@@ -18,7 +18,13 @@ package nl.knaw.dans.transfer;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeEach;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public abstract class TestDirFixture {
     protected Path testDir = Path.of("target/test/" + getClass().getSimpleName());
@@ -28,4 +34,38 @@ public abstract class TestDirFixture {
         FileUtils.deleteDirectory(testDir.toFile());
         FileUtils.forceMkdir(testDir.toFile());
     }
+
+    /**
+     * Creates a ZIP file with the given entries, in iteration order. An entry value is either a <code>String</code>, which is written as UTF-8, or a
+     * <code>byte[]</code>. Entries whose name ends with a slash are written as directories and their value is ignored.
+     *
+     * @param zip     the ZIP file to create
+     * @param entries the entry names mapped to their contents
+     * @return the ZIP file
+     * @throws IOException if the file cannot be written
+     */
+    protected Path createZip(Path zip, Map<String, ?> entries) throws IOException {
+        try (var zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (var entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                if (!entry.getKey().endsWith("/")) {
+                    zos.write(entry.getValue() instanceof byte[] bytes ? bytes : entry.getValue().toString().getBytes(StandardCharsets.UTF_8));
+                }
+                zos.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    /**
+     * Creates a DVE that only contains an oai-ore.jsonld with the given content.
+     *
+     * @param zip    the DVE to create
+     * @param oaiOre the content of bag/metadata/oai-ore.jsonld
+     * @return the DVE
+     * @throws IOException if the file cannot be written
+     */
+    protected Path createDve(Path zip, String oaiOre) throws IOException {
+        return createZip(zip, Map.of("bag/metadata/oai-ore.jsonld", oaiOre));
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AdaptiveRateLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    public void should_increase_rate_additively_on_fast_responses() {
+        var limiter = new AdaptiveRateLimiter(1.0, 0.5, 10.0, 0.5, 1000);
+
+        limiter.onSuccess(FAST);
+        limiter.onSuccess(FAST);
+
+        assertThat(limiter.getRate()).isEqualTo(2.0);
+    }
+
+    @Test
+    public void should_halve_rate_on_overload() {
+        var limiter = new AdaptiveRateLimiter(8.0, 0.5, 10.0, 0.5, 1000);
+
+        limiter.onOverload();
+
+        assertThat(limiter.getRate()).isEqualTo(4.0);
+    }
+
+    @Test
+    public void should_decrease_rate_on_slow_responses() {
+        var limiter = new AdaptiveRateLimiter(8.0, 0.5, 10.0, 0.5, 1000);
+
+        limiter.onSuccess(SLOW);
+
+        assertThat(limiter.getRate()).isLessThan(8.0).isGreaterThan(4.0);
+    }
+
+    @Test
+    public void should_keep_rate_within_bounds() {
+        var limiter = new AdaptiveRateLimiter(1.0, 0.5, 2.0, 0.5, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess(FAST);
+        }
+        assertThat(limiter.getRate()).isEqualTo(2.0);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onOverload();
+        }
+        assertThat(limiter.getRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void should_space_out_permits_according_to_rate() throws Exception {
+        // given
+        var limiter = new AdaptiveRateLimiter(20.0, 1.0, 20.0, 0.5, 1000);
+
+        // when
+        var start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+        }
+        var elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // then: the first permit is immediate, the next four are 50 ms apart
+        assertThat(elapsed).isGreaterThanOrEqualTo(190);
+    }
+
+    @Test
+    public void should_reject_invalid_bounds() {
+        assertThatThrownBy(() -> new AdaptiveRateLimiter(1.0, 5.0, 2.0, 0.5, 1000))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionGateTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void should_close_at_high_watermark_and_open_only_at_low_watermark() {
+        var backlog = new AtomicLong();
+        var metrics = new StageMetrics(StageMetrics.COLLECT_DVE);
+        var gate = new AdmissionGate(List.of(Watermark.above("backlog", backlog::get, 10, 5)), 100, scheduler, null, metrics);
+
+        backlog.set(9);
+        assertThat(gate.isOpen()).isTrue();
+        backlog.set(10);
+        assertThat(gate.isOpen()).isFalse();
+        backlog.set(6);
+        assertThat(gate.isOpen()).isFalse();
+        backlog.set(5);
+        assertThat(gate.isOpen()).isTrue();
+
+        assertThat(metrics.getRegistry().meter("collect-dve.admission.pauses").getCount()).isEqualTo(1);
+        assertThat(metrics.getRegistry().meter("collect-dve.admission.resumes").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_close_when_free_space_drops_below_minimum() {
+        var freeSpace = new AtomicLong(1000);
+        var gate = new AdmissionGate(List.of(Watermark.below("free space", freeSpace::get, 100, 200)), 100, scheduler, null,
+            new StageMetrics(StageMetrics.SEND_TO_VAULT));
+
+        freeSpace.set(99);
+        assertThat(gate.isOpen()).isFalse();
+        freeSpace.set(150);
+        assertThat(gate.isOpen()).isFalse();
+        freeSpace.set(200);
+        assertThat(gate.isOpen()).isTrue();
+    }
+
+    @Test
+    public void should_complete_when_open_after_periodic_check() throws Exception {
+        // Given
+        var backlog = new AtomicLong(10);
+        var gate = new AdmissionGate(List.of(Watermark.above("backlog", backlog::get, 10, 5)), 20, scheduler, null, new StageMetrics(StageMetrics.COLLECT_DVE));
+        gate.start();
+        var whenOpen = gate.whenOpen().toCompletableFuture();
+        assertThat(whenOpen).isNotDone();
+
+        // When
+        backlog.set(0);
+
+        // Then
+        whenOpen.get(5, TimeUnit.SECONDS);
+        gate.stop();
+    }
+
+    @Test
+    public void should_hold_admitted_task_until_open_and_run_while_closed_action() throws Exception {
+        // Given
+        var backlog = new AtomicLong(10);
+        var whileClosedRuns = new AtomicLong();
+        var gate = new AdmissionGate(List.of(Watermark.above("backlog", backlog::get, 10, 5)), 20, scheduler, whileClosedRuns::incrementAndGet,
+            new StageMetrics(StageMetrics.SEND_TO_VAULT));
+        var ran = new AtomicBoolean();
+        var thread = new Thread(gate.admit(() -> ran.set(true)));
+
+        // When
+        thread.start();
+        Thread.sleep(200);
+
+        // Then
+        assertThat(ran).isFalse();
+        assertThat(whileClosedRuns.get()).isPositive();
+        backlog.set(0);
+        thread.join(5000);
+        assertThat(ran).isTrue();
+    }
+}
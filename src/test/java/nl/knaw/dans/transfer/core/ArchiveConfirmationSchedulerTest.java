@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.transfer.TestDirFixture;
+import nl.knaw.dans.transfer.client.DataVaultClient;
+import nl.knaw.dans.transfer.client.DatasetVersion;
+import nl.knaw.dans.transfer.client.ImportJobStatus;
+import nl.knaw.dans.transfer.client.VaultCatalogClient;
+import nl.knaw.dans.transfer.config.ArchiveConfirmationConfig;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArchiveConfirmationSchedulerTest extends TestDirFixture {
+
+    /*
+     * Reports each job as running on the first check, and with its final status after that.
+     */
+    private static class FakeDataVaultClient extends DataVaultClient {
+        private final Map<String, ImportJobStatus.Status> finalStatus;
+        private final Set<String> checked = ConcurrentHashMap.newKeySet();
+
+        FakeDataVaultClient(Map<String, ImportJobStatus.Status> finalStatus) {
+            super(null, URI.create("http://localhost/"));
+            this.finalStatus = finalStatus;
+        }
+
+        @Override
+        public ImportJobStatus getImportStatus(String id) {
+            var status = new ImportJobStatus();
+            status.setId(id);
+            status.setStatus(checked.add(id) ? ImportJobStatus.Status.RUNNING : finalStatus.get(id));
+            return status;
+        }
+
+        @Override
+        public List<ImportJobStatus> getImportStatuses(Collection<String> ids) {
+            return ids.stream().map(this::getImportStatus).toList();
+        }
+    }
+
+    private static class FakeCatalogClient extends VaultCatalogClient {
+        private final Set<String> archived = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger bulkCalls = new AtomicInteger();
+
+        FakeCatalogClient() {
+            super(null, URI.create("http://localhost/"));
+        }
+
+        @Override
+        public CompletionStage<Void> putVersion(DatasetVersion version) {
+            assertThat(version.getArchivedTimestamp()).isNotNull();
+            archived.add(version.getNbn() + " " + version.getDataversePidVersion() + " " + version.getBagId());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletionStage<Void> putVersions(List<DatasetVersion> versions) {
+            bulkCalls.incrementAndGet();
+            versions.forEach(this::putVersion);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static CatalogUpdater updater(VaultCatalogClient client, int maxBatchSize) {
+        return new CatalogUpdater(client, 1, maxBatchSize, new StageMetrics(StageMetrics.EXTRACT_METADATA));
+    }
+
+    private static BatchedDve dve(String name, String version) {
+        return new BatchedDve(name + "-" + version + ".zip", "nbn:" + name, version, "bag-" + name + "-" + version, "fp-" + name);
+    }
+
+    @Test
+    public void should_mark_dves_of_archived_batches_in_catalog() throws Exception {
+        // Given
+        var config = new ArchiveConfirmationConfig();
+        config.setExpectedImportDuration(Duration.milliseconds(0));
+        config.setMinInterval(Duration.milliseconds(10));
+        var dataVault = new FakeDataVaultClient(Map.of(
+            "job1", ImportJobStatus.Status.SUCCESS,
+            "job2", ImportJobStatus.Status.SUCCESS,
+            "job3", ImportJobStatus.Status.FAILED));
+        var catalog = new FakeCatalogClient();
+        var timer = Executors.newSingleThreadScheduledExecutor();
+        var metrics = new StageMetrics(StageMetrics.ARCHIVE_CONFIRMATION);
+        var scheduler = new ArchiveConfirmationScheduler(dataVault, updater(catalog, 10), config, testDir, new ObjectMapper(), timer, metrics);
+        scheduler.start();
+
+        try {
+            // When
+            scheduler.schedule("job1", testDir.resolve("batch-1"), List.of(dve("a", "1.0"), dve("b", "1.0"), dve("a", "2.0")));
+            scheduler.schedule("job2", testDir.resolve("batch-2"), List.of(dve("c", "1.0")));
+            scheduler.schedule("job3", testDir.resolve("batch-3"), List.of(dve("d", "1.0")));
+            var pending = metrics.getRegistry().getGauges().get("archive-confirmation.pending");
+            for (int i = 0; i < 100 && (catalog.archived.size() < 4 || !pending.getValue().equals(0)); i++) {
+                Thread.sleep(50);
+            }
+
+            // Then
+            assertThat(catalog.archived).containsExactlyInAnyOrder("nbn:a 1.0 bag-a-1.0", "nbn:b 1.0 bag-b-1.0", "nbn:a 2.0 bag-a-2.0", "nbn:c 1.0 bag-c-1.0");
+            assertThat(pending.getValue()).isEqualTo(0);
+            assertThat(testDir.resolve(".pending-confirmations.json")).hasContent("[]");
+        }
+        finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_keep_failed_import_for_an_operator() throws Exception {
+        // Given
+        var config = new ArchiveConfirmationConfig();
+        config.setExpectedImportDuration(Duration.milliseconds(0));
+        config.setMinInterval(Duration.milliseconds(10));
+        var dataVault = new FakeDataVaultClient(Map.of("job1", ImportJobStatus.Status.FAILED));
+        var timer = Executors.newSingleThreadScheduledExecutor();
+        var metrics = new StageMetrics(StageMetrics.ARCHIVE_CONFIRMATION);
+        var scheduler = new ArchiveConfirmationScheduler(dataVault, updater(new FakeCatalogClient(), 10), config, testDir, new ObjectMapper(), timer, metrics);
+        var batchDir = Files.createDirectories(testDir.resolve("batch-1"));
+        scheduler.start();
+
+        try {
+            // When
+            scheduler.schedule("job1", batchDir, List.of(dve("a", "1.0")));
+            var failedImports = metrics.getRegistry().getGauges().get("archive-confirmation.failed-imports");
+            for (int i = 0; i < 100 && failedImports.getValue().equals(0); i++) {
+                Thread.sleep(50);
+            }
+
+            // Then
+            assertThat(failedImports.getValue()).isEqualTo(1);
+            assertThat(batchDir).isDirectory();
+            var failed = new ObjectMapper().readValue(testDir.resolve(".failed-imports.json").toFile(),
+                new TypeReference<List<ArchiveConfirmationScheduler.PendingConfirmation>>() {
+                });
+            assertThat(failed).singleElement().satisfies(c -> {
+                assertThat(c.jobId()).isEqualTo("job1");
+                assertThat(c.batch()).isEqualTo("batch-1");
+                assertThat(c.dves()).containsExactly(dve("a", "1.0"));
+            });
+
+            // And the count survives a restart
+            var restartedMetrics = new StageMetrics(StageMetrics.ARCHIVE_CONFIRMATION);
+            new ArchiveConfirmationScheduler(dataVault, updater(new FakeCatalogClient(), 10), config, testDir, new ObjectMapper(), timer, restartedMetrics).start();
+            assertThat(restartedMetrics.getRegistry().getGauges().get("archive-confirmation.failed-imports").getValue()).isEqualTo(1);
+        }
+        finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_check_again_when_archived_listener_fails() throws Exception {
+        // Given
+        var config = new ArchiveConfirmationConfig();
+        config.setExpectedImportDuration(Duration.milliseconds(0));
+        config.setMinInterval(Duration.milliseconds(10));
+        var dataVault = new FakeDataVaultClient(Map.of("job1", ImportJobStatus.Status.SUCCESS));
+        var catalog = new FakeCatalogClient();
+        var timer = Executors.newSingleThreadScheduledExecutor();
+        var scheduler = new ArchiveConfirmationScheduler(dataVault, updater(catalog, 10), config, testDir, new ObjectMapper(), timer,
+            new StageMetrics(StageMetrics.ARCHIVE_CONFIRMATION));
+        var calls = new AtomicInteger();
+        scheduler.onArchived(dves -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("database unavailable");
+            }
+        });
+        scheduler.start();
+
+        try {
+            // When
+            scheduler.schedule("job1", testDir.resolve("batch-1"), List.of(dve("a", "1.0")));
+            for (int i = 0; i < 100 && catalog.archived.isEmpty(); i++) {
+                Thread.sleep(50);
+            }
+
+            // Then
+            assertThat(calls.get()).isEqualTo(2);
+            assertThat(catalog.archived).containsExactly("nbn:a 1.0 bag-a-1.0");
+        }
+        finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_not_use_bulk_updates_when_they_are_disabled() throws Exception {
+        // Given
+        var config = new ArchiveConfirmationConfig();
+        config.setExpectedImportDuration(Duration.milliseconds(0));
+        config.setMinInterval(Duration.milliseconds(10));
+        var dataVault = new FakeDataVaultClient(Map.of("job1", ImportJobStatus.Status.SUCCESS));
+        var catalog = new FakeCatalogClient();
+        var timer = Executors.newSingleThreadScheduledExecutor();
+        var scheduler = new ArchiveConfirmationScheduler(dataVault, updater(catalog, 1), config, testDir, new ObjectMapper(), timer,
+            new StageMetrics(StageMetrics.ARCHIVE_CONFIRMATION));
+        scheduler.start();
+
+        try {
+            // When
+            scheduler.schedule("job1", testDir.resolve("batch-1"), List.of(dve("a", "1.0"), dve("b", "1.0")));
+            for (int i = 0; i < 100 && catalog.archived.size() < 2; i++) {
+                Thread.sleep(50);
+            }
+
+            // Then
+            assertThat(catalog.archived).containsExactlyInAnyOrder("nbn:a 1.0 bag-a-1.0", "nbn:b 1.0 bag-b-1.0");
+            assertThat(catalog.bulkCalls.get()).isEqualTo(0);
+        }
+        finally {
+            timer.shutdownNow();
+        }
+    }
+}
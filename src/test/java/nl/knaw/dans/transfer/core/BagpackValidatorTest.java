@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BagpackValidatorTest extends TestDirFixture {
+    private static final String SHA1 = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+    private Map<String, String> bagpack() {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("bag/bagit.txt", "BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n");
+        entries.put("bag/bag-info.txt", "Bagging-Date: 2025-01-01\nExternal-Description: A description\n  that continues here\n");
+        entries.put("bag/manifest-sha1.txt", SHA1 + "  data/a.txt\n" + SHA1 + "  data/sub/b%25.txt\n");
+        entries.put("bag/tagmanifest-sha1.txt", SHA1 + "  bagit.txt\n" + SHA1 + "  metadata/oai-ore.jsonld\n");
+        entries.put("bag/data/a.txt", "");
+        entries.put("bag/data/sub/b%.txt", "");
+        entries.put("bag/metadata/oai-ore.jsonld", "{}");
+        entries.put("bag/metadata/pid-mapping.txt", "");
+        return entries;
+    }
+
+    @Test
+    public void should_accept_bagpack() throws Exception {
+        assertThat(new BagpackValidator().validate(createZip(testDir.resolve("dve.zip"), bagpack()))).isEmpty();
+    }
+
+    @Test
+    public void should_report_all_violations() throws Exception {
+        // Given
+        var entries = bagpack();
+        entries.remove("bag/bag-info.txt");
+        entries.remove("bag/metadata/pid-mapping.txt");
+        entries.put("bag/bagit.txt", "BagIt-Version: 1.0\n");
+        entries.put("bag/manifest-sha1.txt", SHA1 + "  data/a.txt\n" + SHA1 + "  data/missing.txt\nnot-a-checksum  data/sub/b%25.txt\n");
+        entries.put("bag/data/unlisted.txt", "");
+        entries.put("bag/extra/file.txt", "");
+        entries.put("readme.txt", "");
+
+        // When
+        var violations = new BagpackValidator().validate(createZip(testDir.resolve("dve.zip"), entries));
+
+        // Then
+        assertThat(violations).containsExactly(
+            "Files outside the bag: [readme.txt]",
+            "Unexpected directories in the bag: [extra/]",
+            "bagit.txt must contain exactly the BagIt-Version and Tag-File-Character-Encoding lines",
+            "Required tag file missing: bag-info.txt",
+            "Required metadata file missing: metadata/pid-mapping.txt",
+            "Invalid lines in manifest-sha1.txt: [3]",
+            "Files listed in manifest-sha1.txt are missing from the bag: [data/missing.txt]",
+            "Payload files not listed in manifest-sha1.txt: [data/sub/b%.txt, data/unlisted.txt]");
+    }
+
+    @Test
+    public void should_reject_dve_without_supported_payload_manifest() throws Exception {
+        // Given
+        var entries = bagpack();
+        entries.remove("bag/manifest-sha1.txt");
+        entries.put("bag/manifest-crc32.txt", "");
+
+        // When
+        var violations = new BagpackValidator().validate(createZip(testDir.resolve("dve.zip"), entries));
+
+        // Then
+        assertThat(violations).containsExactly(
+            "No payload manifest with a supported checksum algorithm in the bag",
+            "Unsupported checksum algorithm in manifest-crc32.txt");
+    }
+
+    @Test
+    public void should_reject_non_zip_file() throws Exception {
+        var file = Files.writeString(testDir.resolve("nonzip.txt"), "This is not a zip file");
+
+        assertThat(new BagpackValidator().validate(file)).singleElement().asString().startsWith("Not a ZIP file");
+    }
+}
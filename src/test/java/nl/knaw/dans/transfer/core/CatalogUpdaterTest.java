@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.client.DatasetVersion;
+import nl.knaw.dans.transfer.client.VaultCatalogClient;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CatalogUpdaterTest {
+
+    /*
+     * Records the requests and lets the test decide when they complete.
+     */
+    private static class FakeCatalogClient extends VaultCatalogClient {
+        private final List<List<String>> requests = new ArrayList<>();
+        private final List<CompletableFuture<Void>> responses = new ArrayList<>();
+
+        FakeCatalogClient() {
+            super(null, URI.create("http://localhost/"));
+        }
+
+        @Override
+        public synchronized CompletionStage<Void> putVersion(DatasetVersion version) {
+            return record(List.of(version));
+        }
+
+        @Override
+        public synchronized CompletionStage<Void> putVersions(List<DatasetVersion> versions) {
+            return record(versions);
+        }
+
+        private CompletionStage<Void> record(List<DatasetVersion> versions) {
+            requests.add(versions.stream().map(DatasetVersion::getNbn).toList());
+            var response = new CompletableFuture<Void>();
+            responses.add(response);
+            return response;
+        }
+    }
+
+    private static DatasetVersion version(String nbn) {
+        return new DatasetVersion(nbn, null, null, null, null);
+    }
+
+    @Test
+    public void should_pipeline_up_to_max_in_flight_requests() {
+        var client = new FakeCatalogClient();
+        var updater = new CatalogUpdater(client, 2, 1, new StageMetrics(StageMetrics.EXTRACT_METADATA));
+
+        updater.submit(version("a"));
+        updater.submit(version("b"));
+        var third = updater.submit(version("c")).toCompletableFuture();
+
+        assertThat(client.requests).containsExactly(List.of("a"), List.of("b"));
+        assertThat(updater.getPending()).isEqualTo(1);
+
+        client.responses.get(0).complete(null);
+        assertThat(client.requests).hasSize(3);
+        client.responses.get(2).complete(null);
+        assertThat(third).isCompleted();
+    }
+
+    @Test
+    public void should_coalesce_waiting_updates_into_bulk_request() {
+        var client = new FakeCatalogClient();
+        var updater = new CatalogUpdater(client, 1, 10, new StageMetrics(StageMetrics.EXTRACT_METADATA));
+
+        updater.submit(version("a"));
+        var waiting = List.of(updater.submit(version("b")), updater.submit(version("c")), updater.submit(version("d")));
+        client.responses.get(0).complete(null);
+
+        assertThat(client.requests).containsExactly(List.of("a"), List.of("b", "c", "d"));
+        client.responses.get(1).complete(null);
+        assertThat(waiting).allSatisfy(update -> assertThat(update.toCompletableFuture()).isCompleted());
+    }
+
+    @Test
+    public void should_retry_updates_of_failed_bulk_request_one_by_one() throws Exception {
+        var client = new FakeCatalogClient();
+        var updater = new CatalogUpdater(client, 1, 10, new StageMetrics(StageMetrics.EXTRACT_METADATA));
+
+        updater.submit(version("a"));
+        var b = updater.submit(version("b")).toCompletableFuture();
+        var c = updater.submit(version("c")).toCompletableFuture();
+        client.responses.get(0).complete(null);
+        client.responses.get(1).completeExceptionally(new IllegalStateException("rejected"));
+
+        assertThat(client.requests).containsExactly(List.of("a"), List.of("b", "c"), List.of("b"));
+        client.responses.get(2).completeExceptionally(new IllegalStateException("rejected"));
+        client.responses.get(3).complete(null);
+
+        assertThat(client.requests.get(3)).containsExactly("c");
+        assertThat(b).isCompletedExceptionally();
+        assertThat(c.get(1, TimeUnit.SECONDS)).isNull();
+    }
+}
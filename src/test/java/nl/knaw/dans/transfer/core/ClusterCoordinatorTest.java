@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.transfer.config.ClusterConfig;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ClusterCoordinatorTest {
+    private static final int PARTITIONS = 8;
+
+    /*
+     * An in-memory version of the lease and DVE tables, shared by the coordinators in a test. Leases do not expire.
+     */
+    private static class FakeLeases extends PartitionLeases {
+        private final Map<Integer, String> owners = new HashMap<>();
+        private final Set<String> members = new HashSet<>();
+        private final Map<String, ClusterDve> dves = new HashMap<>();
+
+        FakeLeases() {
+            super(null);
+        }
+
+        @Override
+        public void ensurePartitions(int partitions) {
+        }
+
+        @Override
+        public synchronized void share(Collection<ClusterDve> updated, Collection<String> archived) {
+            for (var dve : updated) {
+                if (dve.getStage() != Stage.FAILED && dve.getStage() != Stage.DUPLICATE) {
+                    dves.put(dve.getDve(), dve);
+                }
+                else if (dves.containsKey(dve.getDve()) && !dves.get(dve.getDve()).isBatched()) {
+                    dves.remove(dve.getDve());
+                }
+            }
+            archived.forEach(dves::remove);
+        }
+
+        @Override
+        public synchronized Heartbeat heartbeat(String instanceId, Collection<Integer> release, int partitions, Duration leaseDuration) {
+            members.add(instanceId);
+            var released = new TreeSet<>(release);
+            downstream().filter(dve -> dve.getOwner().equals(instanceId)).forEach(dve -> released.remove(dve.getPartitionNo()));
+            released.forEach(p -> owners.remove(p, instanceId));
+            var fairShare = (partitions + members.size() - 1) / members.size();
+            var held = heldBy(instanceId);
+            for (int p = 0; p < partitions && held.size() < fairShare; p++) {
+                if (owners.putIfAbsent(p, instanceId) == null) {
+                    held.add(p);
+                }
+            }
+            var heldBack = downstream().filter(dve -> !dve.getOwner().equals(instanceId) && held.contains(dve.getPartitionNo()))
+                .map(ClusterDve::getNbn)
+                .collect(Collectors.toSet());
+            return new Heartbeat(held, released, fairShare, heldBack);
+        }
+
+        @Override
+        public synchronized List<ClusterDve> findDves(Collection<Integer> partitions) {
+            return dves.values().stream().filter(dve -> partitions.contains(dve.getPartitionNo())).toList();
+        }
+
+        private Stream<ClusterDve> downstream() {
+            return dves.values().stream().filter(dve -> ClusterDve.DOWNSTREAM_STAGES.contains(dve.getStage()));
+        }
+
+        @Override
+        public synchronized int purge(String instanceId, Duration leaseDuration) {
+            var purged = dves.values().stream().filter(dve -> dve.getOwner().equals(instanceId)).map(ClusterDve::getDve).toList();
+            purged.forEach(dves::remove);
+            releaseAll(instanceId);
+            return purged.size();
+        }
+
+        @Override
+        public synchronized void releaseAll(String instanceId) {
+            owners.values().removeIf(instanceId::equals);
+            members.remove(instanceId);
+        }
+
+        synchronized Set<Integer> heldBy(String instanceId) {
+            return owners.entrySet().stream().filter(e -> e.getValue().equals(instanceId)).map(Map.Entry::getKey).collect(Collectors.toCollection(TreeSet::new));
+        }
+    }
+
+    private final FakeLeases leases = new FakeLeases();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void shutDownTimer() {
+        timer.shutdownNow();
+    }
+
+    private ClusterCoordinator createCoordinator(String instanceId, Collection<String> activeNbns) {
+        return createCoordinator(instanceId, activeNbns, new PipelineJournal());
+    }
+
+    private ClusterCoordinator createCoordinator(String instanceId, Collection<String> activeNbns, PipelineJournal journal) {
+        var config = new ClusterConfig();
+        config.setPartitions(PARTITIONS);
+        return new ClusterCoordinator(leases, config, instanceId, timer, () -> activeNbns, journal, new MetricRegistry());
+    }
+
+    private static String nbnInPartition(ClusterCoordinator coordinator, int partition) {
+        return nbns().stream().filter(nbn -> coordinator.getPartition(nbn) == partition).findFirst().orElseThrow();
+    }
+
+    private static JournalEntry entry(String dve, String nbn, Stage stage, Lane lane) {
+        return new JournalEntry(dve, nbn, 100, 1000, "fp-" + dve, stage, System.currentTimeMillis(), lane);
+    }
+
+    private static List<String> nbns() {
+        return IntStream.range(0, 100).mapToObj(i -> "urn:nbn:nl:ui:13-" + i).toList();
+    }
+
+    @Test
+    public void should_hand_over_partitions_to_joining_instance() {
+        // Given
+        var a = createCoordinator("a", List.of());
+        a.heartbeat();
+        assertThat(nbns()).allMatch(a::owns);
+        var b = createCoordinator("b", List.of());
+        var acquiredByB = new ArrayList<Predicate<String>>();
+        b.onAcquired(acquiredByB::add);
+
+        // When
+        b.heartbeat(); // b joins, but all partitions are taken
+        a.heartbeat(); // a notices that its fair share is smaller and starts draining
+        a.heartbeat(); // a releases the drained partitions, which are idle
+        b.heartbeat(); // b claims them
+
+        // Then
+        assertThat(leases.heldBy("a")).hasSize(PARTITIONS / 2);
+        assertThat(leases.heldBy("b")).hasSize(PARTITIONS / 2);
+        assertThat(acquiredByB).singleElement()
+            .satisfies(acquired -> assertThat(nbns()).allMatch(nbn -> acquired.test(nbn) == leases.heldBy("b").contains(b.getPartition(nbn))));
+        assertThat(nbns()).allMatch(nbn -> a.owns(nbn) ^ b.owns(nbn));
+    }
+
+    @Test
+    public void should_not_release_partition_while_its_nbns_are_being_processed() {
+        // Given
+        var active = new ArrayList<String>();
+        var a = createCoordinator("a", active);
+        a.heartbeat();
+        var b = createCoordinator("b", List.of());
+        b.heartbeat();
+        var busyNbn = nbnInPartition(a, PARTITIONS - 1);
+        active.add(busyNbn);
+
+        // When
+        a.heartbeat();
+        a.heartbeat();
+
+        // Then
+        assertThat(a.owns(busyNbn)).isFalse();
+        assertThat(leases.heldBy("a")).contains(PARTITIONS - 1);
+
+        // When
+        active.clear();
+        a.heartbeat();
+
+        // Then
+        assertThat(leases.heldBy("a")).doesNotContain(PARTITIONS - 1);
+    }
+
+    @Test
+    public void should_not_release_partition_while_its_dves_are_on_their_way_to_the_vault() {
+        // Given
+        var journal = new PipelineJournal();
+        var a = createCoordinator("a", List.of(), journal);
+        a.heartbeat();
+        var b = createCoordinator("b", List.of());
+        b.heartbeat();
+        var nbn = nbnInPartition(a, PARTITIONS - 1);
+        journal.record(entry("dve1.zip", nbn, Stage.COLLECTED, Lane.BULK));
+        journal.advance("dve1.zip", Stage.CATALOGED);
+        journal.advance("dve1.zip", Stage.BATCHED);
+        journal.advance("dve1.zip", Stage.DONE);
+
+        // When
+        a.heartbeat();
+        a.heartbeat();
+
+        // Then
+        assertThat(leases.heldBy("a")).contains(PARTITIONS - 1);
+
+        // When
+        a.archived(List.of(new BatchedDve("dve1.zip", nbn, "1.0", "bag-1", "fp-1")));
+        a.heartbeat();
+
+        // Then
+        assertThat(leases.heldBy("a")).doesNotContain(PARTITIONS - 1);
+    }
+
+    @Test
+    public void should_hold_back_nbn_of_which_another_instance_has_dves_on_their_way_to_the_vault() {
+        // Given
+        var journalOfA = new PipelineJournal();
+        var a = createCoordinator("a", List.of(), journalOfA);
+        a.heartbeat();
+        var nbn = nbnInPartition(a, 0);
+        var otherNbn = nbnInPartition(a, 1);
+        journalOfA.record(entry("dve1.zip", nbn, Stage.COLLECTED, Lane.BULK));
+        journalOfA.advance("dve1.zip", Stage.CATALOGED);
+        journalOfA.advance("dve1.zip", Stage.BATCHED);
+        journalOfA.record(entry("dve2.zip", nbn, Stage.COLLECTED, Lane.BULK));
+        journalOfA.record(entry("dve3.zip", otherNbn, Stage.COLLECTED, Lane.BULK));
+        a.heartbeat();
+        // a stops without the chance to import its batch; its leases are released or expire
+        leases.releaseAll("a");
+        var journalOfB = new PipelineJournal();
+        var b = createCoordinator("b", List.of(), journalOfB);
+        var acquiredByB = new ArrayList<Predicate<String>>();
+        b.onAcquired(acquiredByB::add);
+
+        // When
+        b.heartbeat();
+
+        // Then
+        assertThat(b.owns(nbn)).isFalse();
+        assertThat(b.owns(otherNbn)).isTrue();
+        assertThat(journalOfB.get("dve2.zip")).hasValueSatisfying(e -> assertThat(e.lane()).isEqualTo(Lane.BULK));
+        assertThat(journalOfB.get("dve3.zip")).hasValueSatisfying(e -> assertThat(e.lane()).isEqualTo(Lane.BULK));
+        assertThat(journalOfB.get("dve1.zip")).isEmpty();
+
+        // When
+        a.archived(List.of(new BatchedDve("dve1.zip", nbn, "1.0", "bag-1", "fp-1")));
+        b.heartbeat();
+
+        // Then
+        assertThat(b.owns(nbn)).isTrue();
+        assertThat(acquiredByB).hasSize(2);
+        assertThat(acquiredByB.get(1).test(nbn)).isTrue();
+        assertThat(acquiredByB.get(1).test(otherNbn)).isFalse();
+    }
+
+    @Test
+    public void should_stop_holding_back_nbn_when_import_of_batch_of_other_instance_failed() {
+        // Given
+        var journalOfA = new PipelineJournal();
+        var a = createCoordinator("a", List.of(), journalOfA);
+        a.heartbeat();
+        var nbn = nbnInPartition(a, 0);
+        journalOfA.record(entry("dve1.zip", nbn, Stage.COLLECTED, Lane.BULK));
+        journalOfA.advance("dve1.zip", Stage.CATALOGED);
+        journalOfA.advance("dve1.zip", Stage.BATCHED);
+        a.heartbeat();
+        leases.releaseAll("a");
+        var b = createCoordinator("b", List.of());
+        b.heartbeat();
+        assertThat(b.owns(nbn)).isFalse();
+
+        // When
+        a.importFailed(List.of(new BatchedDve("dve1.zip", nbn, "1.0", "bag-1", "fp-1")));
+        a.heartbeat();
+        b.heartbeat();
+
+        // Then
+        assertThat(b.owns(nbn)).isTrue();
+    }
+
+    @Test
+    public void should_stop_holding_back_nbn_when_instance_that_left_is_purged() {
+        // Given
+        var journalOfA = new PipelineJournal();
+        var a = createCoordinator("a", List.of(), journalOfA);
+        a.heartbeat();
+        var nbn = nbnInPartition(a, 0);
+        journalOfA.record(entry("dve1.zip", nbn, Stage.COLLECTED, Lane.BULK));
+        journalOfA.advance("dve1.zip", Stage.CATALOGED);
+        journalOfA.advance("dve1.zip", Stage.BATCHED);
+        a.heartbeat();
+        leases.releaseAll("a");
+        var b = createCoordinator("b", List.of());
+        b.heartbeat();
+        assertThat(b.owns(nbn)).isFalse();
+
+        // When
+        var purged = b.purge("a");
+        b.heartbeat();
+
+        // Then
+        assertThat(purged).isEqualTo(1);
+        assertThat(b.owns(nbn)).isTrue();
+        assertThatThrownBy(() -> b.purge("b")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
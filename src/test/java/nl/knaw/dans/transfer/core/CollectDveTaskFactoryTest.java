@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CollectDveTaskFactoryTest extends TestDirFixture {
+
+    private Path createDve(Path dir, String name, String nbn) throws IOException {
+        return createDve(dir.resolve(name), "{\"ore:describes\": {\"dansDataVaultMetadata:dansNbn\": \"" + nbn + "\"}}");
+    }
+
+    @Test
+    public void should_move_dves_resolved_in_advance_to_their_nbn_dirs() throws Exception {
+        // Given
+        var inbox = testDir.resolve("inbox");
+        var dest = testDir.resolve("dest");
+        var failed = testDir.resolve("failed");
+        Files.createDirectories(inbox);
+        Files.createDirectories(dest);
+        var dve1 = createDve(inbox, "dve1.zip", "urn:nbn:nl:ui:13-1");
+        var dve2 = createDve(inbox, "dve2.zip", "urn:nbn:nl:ui:13-2");
+        var resolver = Executors.newFixedThreadPool(4);
+        var factory = new CollectDveTaskFactory(dest, failed, resolver, new FileMover(), new StageMetrics(StageMetrics.COLLECT_DVE));
+
+        // When
+        try {
+            var task1 = factory.createInboxTask(dve1);
+            var task2 = factory.createInboxTask(dve2);
+            task1.run();
+            task2.run();
+        }
+        finally {
+            resolver.shutdownNow();
+        }
+
+        // Then
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-1").resolve("dve1.zip")).exists();
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-2").resolve("dve2.zip")).exists();
+        assertThat(failed).doesNotExist();
+    }
+
+    @Test
+    public void should_ignore_hidden_file_of_move_in_progress() throws Exception {
+        // Given
+        var inbox = testDir.resolve("inbox");
+        var dest = testDir.resolve("dest");
+        var failed = testDir.resolve("failed");
+        Files.createDirectories(inbox);
+        var partial = Files.writeString(inbox.resolve(".dve1.zip.part"), "half a zip");
+        var factory = new CollectDveTaskFactory(dest, failed);
+
+        // When
+        factory.createInboxTask(partial).run();
+
+        // Then
+        assertThat(partial).exists();
+        assertThat(failed).doesNotExist();
+        assertThat(dest).doesNotExist();
+    }
+
+    @Test
+    public void should_use_nbn_from_journal_without_opening_the_dve() throws Exception {
+        // Given
+        var inbox = testDir.resolve("inbox");
+        var dest = testDir.resolve("dest");
+        var failed = testDir.resolve("failed");
+        Files.createDirectories(inbox);
+        Files.createDirectories(dest);
+        // Not a ZIP file, so the NBN lookup would fail if the DVE were opened
+        var dve = Files.writeString(inbox.resolve("dve1.zip"), "not a zip");
+        var journal = new PipelineJournal();
+        journal.record(new JournalEntry("dve1.zip", "urn:nbn:nl:ui:13-1", Files.size(dve), Files.getLastModifiedTime(dve).toMillis(), "fp",
+            JournalEntry.Stage.RESOLVED, System.currentTimeMillis(), Lane.INTERACTIVE));
+        var factory = new CollectDveTaskFactory(dest, failed, null, new FileMover(), journal, new StageMetrics(StageMetrics.COLLECT_DVE));
+
+        // When
+        factory.createInboxTask(dve).run();
+
+        // Then
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-1").resolve("dve1.zip")).exists();
+        assertThat(journal.get("dve1.zip")).hasValueSatisfying(e -> assertThat(e.stage()).isEqualTo(JournalEntry.Stage.COLLECTED));
+    }
+
+    @Test
+    public void should_hold_back_interactive_dve_until_earlier_bulk_dve_of_same_nbn_is_collected() throws Exception {
+        // Given
+        var bulkInbox = testDir.resolve("bulk");
+        var interactiveInbox = testDir.resolve("interactive");
+        var dest = testDir.resolve("dest");
+        var failed = testDir.resolve("failed");
+        Files.createDirectories(bulkInbox);
+        Files.createDirectories(interactiveInbox);
+        Files.createDirectories(dest);
+        var v1 = createDve(bulkInbox, "v1.zip", "urn:nbn:nl:ui:13-1");
+        var v2 = createDve(interactiveInbox, "v2.zip", "urn:nbn:nl:ui:13-1");
+        var other = createDve(interactiveInbox, "other.zip", "urn:nbn:nl:ui:13-2");
+        var metadataCache = new DveMetadataCache();
+        var collectOrder = new CollectOrder(metadataCache);
+        var journal = new PipelineJournal();
+        var metrics = new StageMetrics(StageMetrics.COLLECT_DVE);
+        var moved = new ArrayList<String>();
+        var fileMover = new FileMover() {
+
+            @Override
+            public Path moveToDir(Path source, Path targetDir) throws IOException {
+                moved.add(source.getFileName().toString());
+                return super.moveToDir(source, targetDir);
+            }
+        };
+        var bulkFactory = new CollectDveTaskFactory(dest, failed, null, fileMover, journal, metadataCache, Lane.BULK, null, null, collectOrder, metrics);
+        var interactiveFactory = new CollectDveTaskFactory(dest, failed, null, fileMover, journal, metadataCache, Lane.INTERACTIVE, null, null, collectOrder,
+            metrics);
+        var bulkTask = bulkFactory.createInboxTask(v1);
+        var interactiveTask = interactiveFactory.createInboxTask(v2);
+        var otherTask = interactiveFactory.createInboxTask(other);
+
+        // When the interactive lane goes first
+        interactiveTask.run();
+        otherTask.run();
+
+        // Then only the DVE of the other NBN is collected
+        assertThat(v2).exists();
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-2").resolve("other.zip")).exists();
+        assertThat(collectOrder.getHeldBack()).isEqualTo(1);
+
+        // When the bulk lane gets its turn
+        bulkTask.run();
+
+        // Then both versions are collected, the earlier one first
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-1").resolve("v1.zip")).exists();
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-1").resolve("v2.zip")).exists();
+        assertThat(moved).containsExactly("other.zip", "v1.zip", "v2.zip");
+        assertThat(collectOrder.getHeldBack()).isEqualTo(0);
+    }
+
+    @Test
+    public void should_collect_held_back_dve_once_when_inbox_is_scanned_again() throws Exception {
+        // Given
+        var bulkInbox = testDir.resolve("bulk");
+        var interactiveInbox = testDir.resolve("interactive");
+        var dest = testDir.resolve("dest");
+        var failed = testDir.resolve("failed");
+        Files.createDirectories(bulkInbox);
+        Files.createDirectories(interactiveInbox);
+        Files.createDirectories(dest);
+        var v1 = createDve(bulkInbox, "v1.zip", "urn:nbn:nl:ui:13-1");
+        var v2 = createDve(interactiveInbox, "v2.zip", "urn:nbn:nl:ui:13-1");
+        var metadataCache = new DveMetadataCache();
+        var collectOrder = new CollectOrder(metadataCache);
+        var journal = new PipelineJournal();
+        var metrics = new StageMetrics(StageMetrics.COLLECT_DVE);
+        var moved = new ArrayList<String>();
+        var fileMover = new FileMover() {
+
+            @Override
+            public Path moveToDir(Path source, Path targetDir) throws IOException {
+                moved.add(source.getFileName().toString());
+                return super.moveToDir(source, targetDir);
+            }
+        };
+        var bulkFactory = new CollectDveTaskFactory(dest, failed, null, fileMover, journal, metadataCache, Lane.BULK, null, null, collectOrder, metrics);
+        var interactiveFactory = new CollectDveTaskFactory(dest, failed, null, fileMover, journal, metadataCache, Lane.INTERACTIVE, null, null, collectOrder,
+            metrics);
+        var bulkTask = bulkFactory.createInboxTask(v1);
+        interactiveFactory.createInboxTask(v2).run();
+
+        // When the inbox is scanned again while v2 is held back, before and after v1 has been collected
+        interactiveFactory.createInboxTask(v2).run();
+        var lateTask = interactiveFactory.createInboxTask(v2);
+        bulkTask.run();
+        lateTask.run();
+
+        // Then v2 is collected once and not reported as failed
+        assertThat(moved).containsExactly("v1.zip", "v2.zip");
+        assertThat(collectOrder.getHeldBack()).isEqualTo(0);
+        assertThat(journal.get("v2.zip")).hasValueSatisfying(e -> assertThat(e.stage()).isEqualTo(JournalEntry.Stage.COLLECTED));
+        assertThat(failed).doesNotExist();
+    }
+}
@@ -15,11 +15,13 @@
  */
 package nl.knaw.dans.transfer.core;
 
+import com.codahale.metrics.MetricRegistry;
 import nl.knaw.dans.transfer.TestDirFixture;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -111,5 +113,43 @@ public class CollectDveTaskTest extends TestDirFixture {
         assertThat(inbox.resolve("failed").resolve("dve.zip-error.log")).content().contains("No NBN found in DVE");
     }
 
+    @Test
+    public void should_move_transferred_dve_to_dedup_outbox() throws Exception {
+        // Given
+        var inbox = testDir.resolve("inbox");
+        Files.createDirectories(inbox);
+        var dest = testDir.resolve("dest");
+        Files.createDirectories(dest);
+        var duplicates = testDir.resolve("duplicates");
+
+        var dve = createDve(inbox.resolve("dve.zip"), "{\"ore:describes\": {\"dansDataVaultMetadata:dansNbn\": \"urn:nbn:nl:ui:13-1\","
+            + " \"dansDataVaultMetadata:dansDataversePidVersion\": \"1.0\"}}");
+        var metadataCache = new DveMetadataCache();
+        var transferred = new HashSet<String>();
+        var dedupIndex = new DedupIndex(new TransferredDves(null) {
+
+            @Override
+            public boolean contains(String nbn, String dataversePidVersion, String fingerprint) {
+                return transferred.contains(nbn + " " + dataversePidVersion + " " + fingerprint);
+            }
+
+            @Override
+            public void add(TransferredDve dve) {
+                transferred.add(dve.getNbn() + " " + dve.getDataversePidVersion() + " " + dve.getFingerprint());
+            }
+        }, duplicates, 100, 0.01);
+        dedupIndex.record("earlier-copy.zip", metadataCache.identify(dve), "1.0");
+        var metrics = new MetricRegistry();
+
+        var collectDveTask = new CollectDveTask(dve, inbox.resolve("failed"), dest, null, new FileMover(), new PipelineJournal(), metadataCache,
+            Lane.INTERACTIVE, dedupIndex, null, null, new StageMetrics(metrics, StageMetrics.COLLECT_DVE));
 
+        // When
+        collectDveTask.run();
+
+        // Then
+        assertThat(duplicates.resolve("dve.zip")).exists();
+        assertThat(dest.resolve("urn:nbn:nl:ui:13-1")).doesNotExist();
+        assertThat(metrics.counter("collect-dve.duplicates").getCount()).isEqualTo(1);
+    }
 }
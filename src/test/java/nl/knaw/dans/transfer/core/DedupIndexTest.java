@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DedupIndexTest {
+
+    /*
+     * An in-memory version of the table of transferred DVEs, which counts the lookups.
+     */
+    private static class FakeTransferredDves extends TransferredDves {
+        private final List<TransferredDve> dves = new ArrayList<>();
+        private int lookups;
+
+        FakeTransferredDves() {
+            super(null);
+        }
+
+        @Override
+        public boolean contains(String nbn, String dataversePidVersion, String fingerprint) {
+            lookups++;
+            return dves.stream().anyMatch(dve -> dve.getNbn().equals(nbn) && Objects.equals(dve.getDataversePidVersion(), dataversePidVersion)
+                && dve.getFingerprint().equals(fingerprint));
+        }
+
+        @Override
+        public void add(TransferredDve dve) {
+            dves.add(dve);
+        }
+
+        @Override
+        public void forEachKey(BiConsumer<String, String> consumer) {
+            dves.forEach(dve -> consumer.accept(dve.getNbn(), dve.getFingerprint()));
+        }
+    }
+
+    private final FakeTransferredDves store = new FakeTransferredDves();
+
+    @Test
+    public void should_recognize_recorded_dve_by_nbn_version_and_fingerprint() {
+        // Given
+        var index = new DedupIndex(store, Path.of("duplicates"), 1000, 0.01);
+        var identity = new DveIdentity("urn:nbn:nl:ui:13-1", "fp1");
+
+        // When
+        index.record("dve1.zip", identity, "1.0");
+
+        // Then
+        assertThat(index.isTransferred(identity, "1.0")).isTrue();
+        assertThat(index.isTransferred(identity, "2.0")).isFalse();
+        assertThat(index.isTransferred(new DveIdentity("urn:nbn:nl:ui:13-1", "fp2"), "1.0")).isFalse();
+    }
+
+    @Test
+    public void should_load_transferred_dves_at_startup() throws Exception {
+        // Given
+        store.add(new TransferredDve("dve1.zip", "urn:nbn:nl:ui:13-1", "1.0", "fp1", null));
+        var index = new DedupIndex(store, Path.of("duplicates"), 1000, 0.01);
+        assertThat(index.mightBeTransferred(new DveIdentity("urn:nbn:nl:ui:13-1", "fp1"))).isFalse();
+
+        // When
+        index.start();
+
+        // Then
+        assertThat(index.mightBeTransferred(new DveIdentity("urn:nbn:nl:ui:13-1", "fp1"))).isTrue();
+        assertThat(index.isTransferred(new DveIdentity("urn:nbn:nl:ui:13-1", "fp1"), "1.0")).isTrue();
+    }
+
+    @Test
+    public void should_not_query_database_for_most_new_dves() {
+        // Given
+        var index = new DedupIndex(store, Path.of("duplicates"), 10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            index.record("dve" + i + ".zip", new DveIdentity("urn:nbn:nl:ui:13-" + i, "fp" + i), "1.0");
+        }
+        store.lookups = 0;
+
+        // When
+        var duplicates = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (index.isTransferred(new DveIdentity("urn:nbn:nl:ui:13-" + i, "other-fp" + i), "1.0")) {
+                duplicates++;
+            }
+        }
+
+        // Then
+        assertThat(duplicates).isZero();
+        assertThat(store.lookups).isLessThan(200);
+    }
+
+    @Test
+    public void should_record_dves_of_archived_batch_once() {
+        // Given
+        var index = new DedupIndex(store, Path.of("duplicates"), 1000, 0.01);
+        var dves = List.of(
+            new BatchedDve("dve1.zip", "urn:nbn:nl:ui:13-1", "1.0", "bag-1", "fp1"),
+            new BatchedDve("dve2.zip", null, null, null, null));
+
+        // When the confirmation is processed twice, e.g., because another listener failed the first time
+        index.archived(dves);
+        index.archived(dves);
+
+        // Then
+        assertThat(index.isTransferred(new DveIdentity("urn:nbn:nl:ui:13-1", "fp1"), "1.0")).isTrue();
+        assertThat(store.dves).hasSize(1);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DveExtractorTest extends TestDirFixture {
+
+    private Path createZip(String... names) throws IOException {
+        var entries = new LinkedHashMap<String, Object>();
+        int i = 0;
+        for (var name : names) {
+            entries.put(name, name.endsWith("/") ? "" : new byte[++i * 1000]);
+        }
+        return createZip(testDir.resolve("dve.zip"), entries);
+    }
+
+    @Test
+    public void should_extract_all_entries_in_parallel() throws Exception {
+        var zip = createZip("bag/bagit.txt", "bag/data/a/1.bin", "bag/data/b/2.bin", "bag/data/empty/", "bag/data/3.bin");
+        var pool = Executors.newFixedThreadPool(3);
+        try {
+            var result = new DveExtractor(pool, 3).extract(zip, testDir.resolve("out"));
+
+            assertThat(result.files()).isEqualTo(4);
+            assertThat(result.bytes()).isEqualTo(1000 + 2000 + 3000 + 4000);
+            assertThat(testDir.resolve("out/bag/data/a/1.bin")).hasSize(2000);
+            assertThat(testDir.resolve("out/bag/data/3.bin")).hasSize(4000);
+            assertThat(testDir.resolve("out/bag/data/empty")).isDirectory();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Path createBag(Map<String, String> manifest) throws IOException {
+        var entries = new LinkedHashMap<String, Object>();
+        entries.put("bag/data/1.txt", "one");
+        entries.put("bag/data/2.txt", "two");
+        var sb = new StringBuilder();
+        for (var e : manifest.entrySet()) {
+            sb.append(e.getValue()).append("  ").append(e.getKey()).append("
+");
+        }
+        entries.put("bag/manifest-sha1.txt", sb.toString());
+        return createZip(testDir.resolve("bag.zip"), entries);
+    }
+
+    private static String sha1(String s) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(s.getBytes()));
+    }
+
+    @Test
+    public void should_verify_files_against_bag_manifest() throws Exception {
+        // Given
+        var zip = createBag(Map.of("data/1.txt", sha1("one"), "data/2.txt", sha1("two")));
+        var pool = Executors.newFixedThreadPool(2);
+        try {
+            // When
+            var result = new DveExtractor(pool, 2).extract(zip, testDir.resolve("out"));
+
+            // Then
+            assertThat(result.verifiedFiles()).isEqualTo(2);
+            assertThat(result.algorithms()).containsExactly("sha1");
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_reject_file_that_does_not_match_bag_manifest() throws Exception {
+        // Given
+        var zip = createBag(Map.of("data/1.txt", sha1("one"), "data/2.txt", sha1("three")));
+
+        // When / Then
+        assertThatThrownBy(() -> new DveExtractor().extract(zip, testDir.resolve("out")))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("bag/data/2.txt")
+            .hasMessageContaining("does not match the bag manifest");
+    }
+
+    @Test
+    public void should_reject_bag_with_missing_payload_file() throws Exception {
+        // Given
+        var zip = createBag(Map.of("data/1.txt", sha1("one"), "data/2.txt", sha1("two"), "data/3.txt", sha1("three")));
+
+        // When / Then
+        assertThatThrownBy(() -> new DveExtractor().extract(zip, testDir.resolve("out")))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("missing")
+            .hasMessageContaining("bag/data/3.txt");
+    }
+
+    @Test
+    public void should_refuse_entries_outside_target_dir() throws Exception {
+        var zip = createZip("bag/bagit.txt", "../evil.txt");
+
+        assertThatThrownBy(() -> new DveExtractor().extract(zip, testDir.resolve("out")))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("outside of the target directory");
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DveMetadataCacheTest extends TestDirFixture {
+
+    private Path createDve(String name, String nbn) throws IOException {
+        return createZip(testDir.resolve(name), Map.of(
+            "bag/metadata/oai-ore.jsonld", "{\"ore:describes\": {\"dansDataVaultMetadata:dansNbn\": \"" + nbn + "\", \"title\": \"Title of " + nbn + "\"}}",
+            "bag/data/file.bin", new byte[1000]));
+    }
+
+    private DveMetadataCache createCache(int maxEntries, Path spillFile, MetricRegistry metrics) {
+        return new DveMetadataCache(new DveMetadataReader(), maxEntries, spillFile, new ObjectMapper(), metrics);
+    }
+
+    @Test
+    public void should_read_dve_only_once_until_it_changes() throws Exception {
+        // Given
+        var metrics = new MetricRegistry();
+        var cache = createCache(10, null, metrics);
+        var dve = createDve("dve1.zip", "urn:nbn:nl:ui:13-1");
+
+        // When
+        var first = cache.get(dve);
+        var second = cache.identify(dve);
+        Files.setLastModifiedTime(dve, FileTime.fromMillis(Files.getLastModifiedTime(dve).toMillis() + 1000));
+        var third = cache.read(dve);
+
+        // Then
+        assertThat(first.metadata().nbn()).isEqualTo("urn:nbn:nl:ui:13-1");
+        assertThat(first.metadata().title()).isEqualTo("Title of urn:nbn:nl:ui:13-1");
+        assertThat(first.fileCount()).isEqualTo(2);
+        assertThat(first.contentSize()).isGreaterThan(1000);
+        assertThat(second).isEqualTo(first.identity());
+        assertThat(third).isEqualTo(first.metadata());
+        assertThat(metrics.counter("metadata-cache.hits").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("metadata-cache.misses").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_drop_least_recently_used_dve_when_full() throws Exception {
+        // Given
+        var metrics = new MetricRegistry();
+        var cache = createCache(2, null, metrics);
+        var dve1 = createDve("dve1.zip", "urn:nbn:nl:ui:13-1");
+        var dve2 = createDve("dve2.zip", "urn:nbn:nl:ui:13-2");
+        var dve3 = createDve("dve3.zip", "urn:nbn:nl:ui:13-3");
+
+        // When
+        cache.get(dve1);
+        cache.get(dve2);
+        cache.get(dve1);
+        cache.get(dve3);
+        cache.get(dve1);
+        cache.get(dve2);
+
+        // Then
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(metrics.counter("metadata-cache.hits").getCount()).isEqualTo(2);
+        assertThat(metrics.counter("metadata-cache.misses").getCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void should_keep_cache_across_restart_in_spill_file() throws Exception {
+        // Given
+        var spillFile = testDir.resolve("metadata-cache.json");
+        var dve = createDve("dve1.zip", "urn:nbn:nl:ui:13-1");
+        var cache = createCache(10, spillFile, new MetricRegistry());
+        cache.start();
+        var summary = cache.get(dve);
+        cache.stop();
+
+        // When
+        var metrics = new MetricRegistry();
+        var restarted = createCache(10, spillFile, metrics);
+        restarted.start();
+
+        // Then
+        assertThat(restarted.get(dve)).isEqualTo(summary);
+        assertThat(metrics.counter("metadata-cache.hits").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("metadata-cache.misses").getCount()).isZero();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DveMetadataReaderTest extends TestDirFixture {
+
+    @Test
+    public void should_pass_aggregated_files_to_consumer() throws Exception {
+        // Given
+        var dve = createDve(testDir.resolve("dve.zip"), "{\"ore:describes\": {"
+            + " \"dansDataVaultMetadata:dansDataversePid\": \"doi:10.5072/DAR/ABC\","
+            + " \"ore:aggregates\": ["
+            + "  {\"@id\": \"file-1\", \"schema:name\": \"a.txt\", \"dvcore:directoryLabel\": \"sub\", \"dvcore:filesize\": 123,"
+            + "   \"dvcore:checksum\": {\"@type\": \"SHA-1\", \"@value\": \"abc\"}, \"dvcore:restricted\": {\"nested\": [1, 2]}},"
+            + "  {\"@id\": \"file-2\", \"schema:name\": \"b.txt\"}],"
+            + " \"dansDataVaultMetadata:dansNbn\": \"urn:nbn:nl:ui:13-123\","
+            + " \"dansDataVaultMetadata:dansDataversePidVersion\": \"2.1\"}}");
+        var files = new ArrayList<DveFile>();
+
+        // When
+        var metadata = new DveMetadataReader().read(dve, files::add);
+
+        // Then
+        assertThat(metadata.nbn()).isEqualTo("urn:nbn:nl:ui:13-123");
+        assertThat(metadata.dataversePid()).isEqualTo("doi:10.5072/DAR/ABC");
+        assertThat(metadata.dataversePidVersion()).isEqualTo("2.1");
+        assertThat(files).containsExactly(
+            new DveFile("file-1", "a.txt", "sub", 123, "SHA-1", "abc"),
+            new DveFile("file-2", "b.txt", null, -1, null, null));
+    }
+
+    @Test
+    public void should_skip_aggregated_files_without_consumer() throws Exception {
+        var dve = createDve(testDir.resolve("dve.zip"), "{\"ore:describes\": {\"ore:aggregates\": [{\"@id\": \"file-1\"}], \"dansDataVaultMetadata:dansNbn\": \"urn:nbn:nl:ui:13-123\"}}");
+
+        assertThat(new DveMetadataReader().read(dve).nbn()).isEqualTo("urn:nbn:nl:ui:13-123");
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmptyDirReaperTest extends TestDirFixture {
+
+    @Test
+    public void should_sweep_all_subdirs_on_first_run_and_only_drained_ones_after() throws Exception {
+        // Given
+        var leftOver = Files.createDirectories(testDir.resolve("urn:nbn:1"));
+        var reaper = new EmptyDirReaper(testDir);
+        reaper.run();
+        assertThat(leftOver).doesNotExist();
+        var drained = Files.createDirectories(testDir.resolve("urn:nbn:2"));
+        var notDrained = Files.createDirectories(testDir.resolve("urn:nbn:3"));
+
+        // When
+        reaper.markDrained(drained);
+        reaper.run();
+
+        // Then
+        assertThat(drained).doesNotExist();
+        assertThat(notDrained).exists();
+        assertThat(reaper.getPending()).isZero();
+    }
+
+    @Test
+    public void should_keep_refilled_dirs_and_ignore_removed_ones() throws Exception {
+        // Given
+        var reaper = new EmptyDirReaper(testDir);
+        reaper.run();
+        var refilled = Files.createDirectories(testDir.resolve("urn:nbn:1"));
+        Files.createFile(refilled.resolve("dve.zip"));
+        var removed = testDir.resolve("urn:nbn:2");
+        var empty = Files.createDirectories(testDir.resolve("urn:nbn:3"));
+
+        // When
+        reaper.markDrained(refilled);
+        reaper.markDrained(removed);
+        reaper.markDrained(empty);
+        reaper.run();
+
+        // Then
+        assertThat(refilled.resolve("dve.zip")).exists();
+        assertThat(empty).doesNotExist();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FailedDveHandlerTest extends TestDirFixture {
+    private Path inbox;
+    private Path quarantine;
+    private Path failed;
+    private FailureIndex index;
+    private HeldExecutor worker;
+
+    /*
+     * Holds the tasks until they are run explicitly, so that the test can look at the state in between.
+     */
+    private static class HeldExecutor extends AbstractExecutorService {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        void runAll() {
+            tasks.forEach(Runnable::run);
+            tasks.clear();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        super.setUp();
+        inbox = Files.createDirectories(testDir.resolve("inbox"));
+        quarantine = testDir.resolve("quarantine");
+        failed = testDir.resolve("failed");
+        index = new FailureIndex(testDir.resolve("failures.jsonl"), new ObjectMapper(), 10);
+        index.start();
+        worker = new HeldExecutor();
+    }
+
+    @Test
+    public void should_quarantine_dve_and_leave_move_and_record_to_worker() throws Exception {
+        // Given
+        var handler = new FailedDveHandler(StageMetrics.COLLECT_DVE, quarantine, failed, new FileMover(), index, worker);
+        handler.start();
+        var dve = Files.writeString(inbox.resolve("dve.zip"), "not a zip");
+
+        // When
+        handler.handle(dve, "urn:nbn:nl:ui:13-1", new ZipException("zip END header not found"));
+
+        // Then
+        assertThat(dve).doesNotExist();
+        assertThat(quarantine.resolve("dve.zip")).exists();
+        assertThat(handler.getPending()).isEqualTo(1);
+        assertThat(index.getSummary(10, null).total()).isZero();
+
+        worker.runAll();
+        assertThat(quarantine.resolve("dve.zip")).doesNotExist();
+        assertThat(failed.resolve("dve.zip")).exists();
+        assertThat(failed.resolve("dve.zip-error.log")).doesNotExist();
+        assertThat(handler.getPending()).isZero();
+        var recent = index.getSummary(10, null).recent();
+        assertThat(recent).hasSize(1);
+        assertThat(recent.get(0).nbn()).isEqualTo("urn:nbn:nl:ui:13-1");
+        assertThat(recent.get(0).location()).isEqualTo(failed.resolve("dve.zip").toString());
+        assertThat(recent.get(0).cause()).isEqualTo(ZipException.class.getName());
+        assertThat(recent.get(0).stackTrace()).contains("zip END header not found");
+        assertThat(testDir.resolve("failures.jsonl")).content().contains("\"dve\":\"dve.zip\"");
+    }
+
+    @Test
+    public void should_move_dve_right_away_if_it_cannot_be_quarantined() throws Exception {
+        // Given
+        var handler = new FailedDveHandler(StageMetrics.COLLECT_DVE, quarantine, failed, new FileMover(), index, worker);
+        handler.start();
+        // An earlier DVE with the same name is still waiting for the worker
+        Files.writeString(quarantine.resolve("dve.zip"), "earlier");
+        var dve = Files.writeString(inbox.resolve("dve.zip"), "not a zip");
+
+        // When
+        handler.handle(dve, null, new IllegalStateException("No NBN found in DVE"));
+
+        // Then
+        assertThat(failed.resolve("dve.zip")).content().isEqualTo("not a zip");
+        assertThat(quarantine.resolve("dve.zip")).content().isEqualTo("earlier");
+        assertThat(index.getSummary(10, null).recent()).extracting(FailureRecord::message).containsExactly("No NBN found in DVE");
+    }
+
+    @Test
+    public void should_move_dves_left_in_quarantine_on_start() throws Exception {
+        // Given
+        Files.createDirectories(quarantine);
+        Files.writeString(quarantine.resolve("dve1.zip"), "left behind");
+        Files.writeString(quarantine.resolve("dve2.zip"), "left behind");
+        Files.setLastModifiedTime(quarantine.resolve("dve1.zip"), FileTime.fromMillis(1_000_000L));
+        var handler = new FailedDveHandler(StageMetrics.COLLECT_DVE, quarantine, failed, new FileMover(), index, worker);
+
+        // When
+        handler.start();
+        worker.runAll();
+
+        // Then
+        assertThat(failed.resolve("dve1.zip")).exists();
+        assertThat(failed.resolve("dve2.zip")).exists();
+        assertThat(quarantine).isEmptyDirectory();
+        var recent = index.getSummary(10, null).recent();
+        assertThat(recent).hasSize(2);
+        assertThat(recent).allSatisfy(record -> assertThat(record.cause()).isEqualTo(FailedDveHandler.RECOVERED_CAUSE));
+        assertThat(recent).filteredOn(record -> record.dve().equals("dve1.zip")).singleElement()
+            .satisfies(record -> assertThat(record.timestamp()).isEqualTo(1_000_000L));
+    }
+
+    @Test
+    public void should_not_record_dve_that_is_no_longer_there() throws Exception {
+        // Given
+        var handler = new FailedDveHandler(StageMetrics.COLLECT_DVE, quarantine, failed, new FileMover(), index, worker);
+        handler.start();
+
+        // When
+        handler.handle(inbox.resolve("gone.zip"), "urn:nbn:nl:ui:13-1", new NoSuchFileException("gone.zip"));
+        worker.runAll();
+
+        // Then
+        assertThat(handler.getPending()).isZero();
+        assertThat(index.getSummary(10, null).total()).isZero();
+        assertThat(failed.resolve("gone.zip")).doesNotExist();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FailureIndexTest extends TestDirFixture {
+
+    private FailureRecord failure(String dve, String stage, String cause, long timestamp) {
+        return new FailureRecord(dve, stage, null, "failed/" + dve, timestamp, cause, "failure of " + dve, cause + ": failure of " + dve);
+    }
+
+    @Test
+    public void should_count_failures_per_stage_and_cause() throws Exception {
+        // Given
+        var index = new FailureIndex(testDir.resolve("failures.jsonl"), new ObjectMapper(), 100);
+        index.start();
+
+        // When
+        index.record(failure("dve1.zip", StageMetrics.COLLECT_DVE, "java.util.zip.ZipException", 1));
+        index.record(failure("dve2.zip", StageMetrics.COLLECT_DVE, "java.lang.IllegalStateException", 2));
+        index.record(failure("dve3.zip", StageMetrics.COLLECT_DVE, "java.util.zip.ZipException", 3));
+        index.record(failure("dve4.zip", StageMetrics.SEND_TO_VAULT, "java.io.IOException", 4));
+
+        // Then
+        var summary = index.getSummary(2, null);
+        assertThat(summary.total()).isEqualTo(4);
+        assertThat(summary.byStage()).containsEntry(StageMetrics.COLLECT_DVE, 3L).containsEntry(StageMetrics.SEND_TO_VAULT, 1L);
+        assertThat(summary.byCause().keySet()).first().isEqualTo("java.util.zip.ZipException");
+        assertThat(summary.byCause()).containsEntry("java.util.zip.ZipException", 2L);
+        assertThat(summary.recent()).extracting(FailureRecord::dve).containsExactly("dve4.zip", "dve3.zip");
+        assertThat(index.getSummary(10, StageMetrics.SEND_TO_VAULT).recent()).extracting(FailureRecord::dve).containsExactly("dve4.zip");
+        index.stop();
+    }
+
+    @Test
+    public void should_restore_summary_after_restart_and_ignore_torn_line() throws Exception {
+        // Given
+        var file = testDir.resolve("failures.jsonl");
+        var index = new FailureIndex(file, new ObjectMapper(), 2);
+        index.start();
+        index.record(failure("dve1.zip", StageMetrics.COLLECT_DVE, "java.util.zip.ZipException", 1));
+        index.record(failure("dve2.zip", StageMetrics.COLLECT_DVE, "java.util.zip.ZipException", 2));
+        index.record(failure("dve3.zip", StageMetrics.COLLECT_DVE, "java.lang.IllegalStateException", 3));
+        index.stop();
+        Files.writeString(file, "{\"dve\":\"dve4.zip\",\"sta", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        // When
+        var restarted = new FailureIndex(file, new ObjectMapper(), 2);
+        restarted.start();
+
+        // Then
+        var summary = restarted.getSummary(10, null);
+        assertThat(summary.total()).isEqualTo(3);
+        assertThat(summary.byCause()).containsEntry("java.util.zip.ZipException", 2L).containsEntry("java.lang.IllegalStateException", 1L);
+        assertThat(summary.recent()).extracting(FailureRecord::dve).containsExactly("dve3.zip", "dve2.zip");
+        restarted.stop();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FileMoverTest extends TestDirFixture {
+
+    @Test
+    public void should_move_file_into_new_directory_and_record_bytes() throws Exception {
+        var source = Files.writeString(testDir.resolve("dve.zip"), "content");
+        var metrics = new MetricRegistry();
+
+        var target = new FileMover(metrics, "test", true).moveToDir(source, testDir.resolve("out/nested"));
+
+        assertThat(source).doesNotExist();
+        assertThat(target).hasContent("content");
+        assertThat(metrics.meter("test.move.bytes").getCount()).isEqualTo(7);
+    }
+
+    @Test
+    public void should_not_overwrite_existing_target() throws Exception {
+        var source = Files.writeString(testDir.resolve("dve.zip"), "new");
+        Files.createDirectories(testDir.resolve("out"));
+        Files.writeString(testDir.resolve("out/dve.zip"), "old");
+
+        assertThatThrownBy(() -> new FileMover().moveToDir(source, testDir.resolve("out")))
+            .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(source).hasContent("new");
+        assertThat(testDir.resolve("out/dve.zip")).hasContent("old");
+    }
+
+    @Test
+    public void copy_across_devices_should_leave_no_temporary_file_and_delete_source() throws Exception {
+        var content = "x".repeat(100_000);
+        var source = Files.writeString(testDir.resolve("dve.zip"), content);
+        var target = Files.createDirectories(testDir.resolve("out")).resolve("dve.zip");
+
+        new FileMover(new MetricRegistry(), "test", true).copyAcrossDevices(source, target, Files.size(source));
+
+        assertThat(source).doesNotExist();
+        assertThat(target).hasContent(content);
+        assertThat(testDir.resolve("out/.dve.zip.part")).doesNotExist();
+    }
+
+    @Test
+    public void rename_should_not_replace_target_created_after_the_check() throws Exception {
+        var source = Files.writeString(testDir.resolve("dve.zip"), "new");
+        var target = Files.writeString(testDir.resolve("out.zip"), "old");
+
+        assertThatThrownBy(() -> new FileMover().renameWithoutReplacing(source, target))
+            .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(source).hasContent("new");
+        assertThat(target).hasContent("old");
+    }
+
+    @Test
+    public void copy_across_devices_should_not_replace_target_created_after_the_check() throws Exception {
+        var source = Files.writeString(testDir.resolve("dve.zip"), "new");
+        var target = Files.writeString(Files.createDirectories(testDir.resolve("out")).resolve("dve.zip"), "old");
+
+        assertThatThrownBy(() -> new FileMover().copyAcrossDevices(source, target, Files.size(source)))
+            .isInstanceOf(FileAlreadyExistsException.class);
+        assertThat(source).hasContent("new");
+        assertThat(target).hasContent("old");
+        assertThat(testDir.resolve("out/.dve.zip.part")).doesNotExist();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.transfer.TestDirFixture;
+import nl.knaw.dans.transfer.config.DataVaultBatchConfig;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImportBatchManagerTest extends TestDirFixture {
+    private final List<Path> imported = new ArrayList<>();
+
+    private Path createDve(String name, int payloadSize) throws IOException {
+        var entries = new LinkedHashMap<String, Object>();
+        entries.put("bag/bagit.txt", "BagIt-Version: 1.0
+");
+        entries.put("bag/data/file.bin", new byte[payloadSize]);
+        return createZip(testDir.resolve(name), entries);
+    }
+
+    private ImportBatchManager createManager(DataVaultBatchConfig config) {
+        return new ImportBatchManager(config, new DveExtractor(), (batchDir, dves) -> imported.add(batchDir), new ObjectMapper(), Runnable::run,
+            Executors.newSingleThreadScheduledExecutor(), new StageMetrics(StageMetrics.SEND_TO_VAULT));
+    }
+
+    private DataVaultBatchConfig createConfig() {
+        var config = new DataVaultBatchConfig();
+        config.setBatchRoot(testDir.resolve("batches"));
+        config.setThreshold(DataSize.bytes(1500));
+        config.setMaxAge(Duration.hours(1));
+        return config;
+    }
+
+    @Test
+    public void should_close_batch_when_threshold_is_reached() throws Exception {
+        var manager = createManager(createConfig());
+        manager.load();
+
+        manager.add(createDve("dve1.zip", 1000));
+        assertThat(imported).isEmpty();
+        manager.add(createDve("dve2.zip", 1000));
+
+        assertThat(imported).hasSize(1);
+        assertThat(imported.get(0).resolve("dve1/bag/data/file.bin")).hasSize(1000);
+        assertThat(imported.get(0).resolve("dve2/bag/data/file.bin")).hasSize(1000);
+    }
+
+    @Test
+    public void should_resume_open_batch_after_restart() throws Exception {
+        var config = createConfig();
+        var manager = createManager(config);
+        manager.load();
+        manager.add(createDve("dve1.zip", 1000));
+
+        var restarted = createManager(config);
+        restarted.load();
+        restarted.add(createDve("dve2.zip", 1000));
+
+        assertThat(imported).hasSize(1);
+        assertThat(imported.get(0).resolve("dve1")).isDirectory();
+        assertThat(imported.get(0).resolve("dve2")).isDirectory();
+    }
+
+    @Test
+    public void should_remember_batched_dves_across_restart_until_journaled() throws Exception {
+        var config = createConfig();
+        var manager = createManager(config);
+        manager.load();
+        manager.add(createDve("dve1.zip", 10));
+
+        // The service stops before the DVE is journaled as batched
+        var restarted = createManager(config);
+        restarted.load();
+        assertThat(restarted.isBatched("dve1.zip")).isTrue();
+        assertThat(restarted.isBatched("dve2.zip")).isFalse();
+
+        // dve2 fills up the batch, which is then imported right away
+        restarted.add(createDve("dve2.zip", 2000));
+        assertThat(imported).hasSize(1);
+        assertThat(restarted.isBatched("dve2.zip")).isTrue();
+        restarted.journaled("dve1.zip");
+        restarted.journaled("dve2.zip");
+        assertThat(restarted.isBatched("dve1.zip")).isFalse();
+        assertThat(restarted.isBatched("dve2.zip")).isFalse();
+    }
+
+    @Test
+    public void should_close_expired_batch() throws Exception {
+        var config = createConfig();
+        config.setMaxAge(Duration.milliseconds(0));
+        var manager = createManager(config);
+        manager.load();
+        manager.add(createDve("dve1.zip", 10));
+        assertThat(imported).isEmpty();
+
+        manager.closeIfExpired();
+
+        assertThat(imported).hasSize(1);
+    }
+}
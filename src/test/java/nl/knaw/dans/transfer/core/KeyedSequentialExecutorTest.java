@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyedSequentialExecutorTest {
+
+    @Test
+    public void should_run_tasks_for_the_same_key_in_order() throws Exception {
+        var pool = Executors.newFixedThreadPool(4);
+        var executor = new KeyedSequentialExecutor<String>(pool);
+        var results = new ConcurrentHashMap<String, List<Integer>>();
+        var done = new CountDownLatch(300);
+
+        for (int i = 0; i < 100; i++) {
+            for (var key : List.of("a", "b", "c")) {
+                int n = i;
+                executor.execute(key, () -> {
+                    results.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(n);
+                    done.countDown();
+                });
+            }
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        for (var key : List.of("a", "b", "c")) {
+            assertThat(results.get(key)).isSorted().hasSize(100);
+        }
+        assertThat(executor.getTotalQueueDepth()).isZero();
+    }
+
+    @Test
+    public void should_not_block_other_keys_while_one_key_is_busy() throws Exception {
+        var pool = Executors.newFixedThreadPool(2);
+        var executor = new KeyedSequentialExecutor<String>(pool);
+        var release = new CountDownLatch(1);
+        var otherKeyDone = new CountDownLatch(1);
+        var bigDone = new CountDownLatch(2);
+        Runnable bigTask = () -> {
+            awaitQuietly(release);
+            bigDone.countDown();
+        };
+
+        executor.execute("big", bigTask);
+        executor.execute("big", bigTask);
+        executor.execute("small", otherKeyDone::countDown);
+
+        assertThat(otherKeyDone.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.isActive("big")).isTrue();
+        assertThat(executor.getQueueDepth("big")).isEqualTo(1);
+        release.countDown();
+        assertThat(bigDone.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.isActive("big")).isFalse();
+    }
+
+    @Test
+    public void should_hold_key_until_async_task_completes_without_occupying_a_thread() throws Exception {
+        var pool = Executors.newFixedThreadPool(1);
+        var executor = new KeyedSequentialExecutor<String>(pool);
+        var remoteCall = new CompletableFuture<Void>();
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        var done = new CountDownLatch(2);
+
+        executor.executeAsync("a", () -> remoteCall.thenRun(() -> order.add("a1")));
+        executor.execute("a", () -> {
+            order.add("a2");
+            done.countDown();
+        });
+        executor.execute("b", () -> {
+            order.add("b1");
+            done.countDown();
+        });
+
+        // The only worker thread is free, so b runs while a waits for its remote call
+        assertThat(waitFor(() -> order.contains("b1"))).isTrue();
+        assertThat(order).doesNotContain("a2");
+        assertThat(executor.isActive("a")).isTrue();
+
+        remoteCall.complete(null);
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        assertThat(order).containsSubsequence("a1", "a2");
+    }
+
+    @Test
+    public void should_run_task_queued_if_idle_once_more_after_last_task_of_active_key() throws Exception {
+        var pool = Executors.newFixedThreadPool(1);
+        var executor = new KeyedSequentialExecutor<String>(pool);
+        var remoteCall = new CompletableFuture<Void>();
+        var order = Collections.synchronizedList(new ArrayList<String>());
+
+        executor.executeAsync("a", () -> remoteCall.thenRun(() -> order.add("drain")));
+        // Both arrive while the key is active; only the last one is run, after the running task
+        executor.executeAsyncIfIdle("a", Lane.INTERACTIVE, () -> CompletableFuture.runAsync(() -> order.add("wake-up-1")));
+        executor.executeAsyncIfIdle("a", Lane.INTERACTIVE, () -> CompletableFuture.runAsync(() -> order.add("wake-up-2")));
+        assertThat(executor.getQueueDepth("a")).isZero();
+
+        remoteCall.complete(null);
+        assertThat(waitFor(() -> !executor.isActive("a"))).isTrue();
+        pool.shutdown();
+        assertThat(order).containsExactly("drain", "wake-up-2");
+    }
+
+    @Test
+    public void should_release_key_when_task_throws_an_error() throws Exception {
+        var pool = Executors.newFixedThreadPool(1);
+        var executor = new KeyedSequentialExecutor<String>(pool);
+        var done = new CountDownLatch(1);
+
+        executor.execute("a", () -> {
+            throw new AssertionError("boom");
+        });
+        executor.execute("a", done::countDown);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(waitFor(() -> !executor.isActive("a"))).isTrue();
+        pool.shutdown();
+        assertThat(executor.getTotalQueueDepth()).isZero();
+    }
+
+    @Test
+    public void should_drop_tasks_of_key_that_the_delegate_rejects() {
+        var pool = Executors.newFixedThreadPool(1);
+        pool.shutdown();
+        var executor = new KeyedSequentialExecutor<String>(pool);
+
+        executor.execute("a", () -> {
+        });
+
+        assertThat(executor.isActive("a")).isFalse();
+        assertThat(executor.getTotalQueueDepth()).isZero();
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(100);
+        }
+        return condition.getAsBoolean();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LaneExecutorTest {
+    private static final Map<Lane, Integer> WEIGHTS = Map.of(Lane.INTERACTIVE, 4, Lane.BULK, 1);
+
+    @Test
+    public void should_share_workers_between_lanes_by_weight() throws Exception {
+        // Given
+        var pool = Executors.newSingleThreadExecutor();
+        var lanes = new LaneExecutor(pool, 1, WEIGHTS, new StageMetrics(StageMetrics.SEND_TO_VAULT));
+        var blocker = new CountDownLatch(1);
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        var done = new CountDownLatch(20);
+        lanes.execute(Lane.INTERACTIVE, () -> awaitQuietly(blocker));
+
+        // When
+        for (int i = 0; i < 10; i++) {
+            var n = i;
+            lanes.execute(Lane.BULK, () -> {
+                order.add("b" + n);
+                done.countDown();
+            });
+        }
+        for (int i = 0; i < 10; i++) {
+            var n = i;
+            lanes.execute(Lane.INTERACTIVE, () -> {
+                order.add("i" + n);
+                done.countDown();
+            });
+        }
+        assertThat(lanes.getQueueDepth(Lane.BULK)).isEqualTo(10);
+        assertThat(lanes.getQueueDepth(Lane.INTERACTIVE)).isEqualTo(10);
+        blocker.countDown();
+
+        // Then
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        assertThat(order.subList(0, 10)).containsExactly("i0", "i1", "b0", "i2", "i3", "i4", "i5", "b1", "i6", "i7");
+        // Once the interactive lane is empty, the bulk lane gets every turn
+        assertThat(order.subList(10, 20)).containsExactly("i8", "i9", "b2", "b3", "b4", "b5", "b6", "b7", "b8", "b9");
+    }
+
+    @Test
+    public void should_not_hand_more_than_concurrency_tasks_to_workers() throws Exception {
+        // Given
+        var pool = Executors.newCachedThreadPool();
+        var lanes = new LaneExecutor(pool, 2, WEIGHTS, new StageMetrics(StageMetrics.EXTRACT_METADATA));
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var done = new CountDownLatch(20);
+
+        // When
+        for (int i = 0; i < 20; i++) {
+            lanes.execute(i % 2 == 0 ? Lane.BULK : Lane.INTERACTIVE, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleepQuietly(10);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        // Then
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_keep_order_of_key_when_its_tasks_are_in_different_lanes() throws Exception {
+        // Given
+        var pool = Executors.newSingleThreadExecutor();
+        var executor = new KeyedSequentialExecutor<String>(new LaneExecutor(pool, 1, WEIGHTS, new StageMetrics(StageMetrics.SEND_TO_VAULT)));
+        var blocker = new CountDownLatch(1);
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        var done = new CountDownLatch(4);
+        executor.execute("blocker", () -> awaitQuietly(blocker));
+
+        // When
+        for (var task : List.of("a1", "b1", "b2")) {
+            executor.execute(task.substring(0, 1), Lane.BULK, () -> {
+                order.add(task);
+                done.countDown();
+            });
+        }
+        executor.execute("a", Lane.INTERACTIVE, () -> {
+            order.add("a2");
+            done.countDown();
+        });
+        blocker.countDown();
+
+        // Then
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        pool.shutdown();
+        assertThat(order).containsSubsequence("a1", "a2");
+        assertThat(order).containsSubsequence("b1", "b2");
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NbnLocatorTest extends TestDirFixture {
+
+    @Test
+    public void should_find_nbn_after_large_aggregates_list() throws Exception {
+        var entries = new LinkedHashMap<String, String>();
+        entries.put("bag/bagit.txt", "BagIt-Version: 1.0\n");
+        entries.put("bag/metadata/oai-ore.jsonld", "{\"@context\": {\"ore\": \"http://www.openarchives.org/ore/terms/\"},"
+            + " \"ore:describes\": {\"ore:aggregates\": [{\"@id\": \"a\", \"nested\": {\"dansDataVaultMetadata:dansNbn\": \"wrong\"}}],"
+            + " \"dansDataVaultMetadata:dansNbn\": \"urn:nbn:nl:ui:13-123\"}}");
+
+        assertThat(new NbnLocator().findNbn(createZip(testDir.resolve("dve.zip"), entries))).isEqualTo("urn:nbn:nl:ui:13-123");
+    }
+
+    @Test
+    public void should_fail_if_no_metadata_file() throws Exception {
+        var zip = createZip(testDir.resolve("dve.zip"), Map.of("bag/bagit.txt", "BagIt-Version: 1.0\n"));
+
+        assertThatThrownBy(() -> new NbnLocator().findNbn(zip))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("No metadata file found in DVE");
+    }
+
+    @Test
+    public void should_fail_if_no_nbn() throws Exception {
+        var zip = createZip(testDir.resolve("dve.zip"), Map.of("bag/metadata/oai-ore.jsonld", "{\"ore:describes\": {\"title\": \"No NBN here\"}}"));
+
+        assertThatThrownBy(() -> new NbnLocator().findNbn(zip))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("No NBN found in DVE");
+    }
+
+    @Test
+    public void should_fail_if_not_a_zip() throws Exception {
+        var file = Files.writeString(testDir.resolve("nonzip.txt"), "This is not a zip file");
+
+        assertThatThrownBy(() -> new NbnLocator().findNbn(file))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("not a ZIP file:");
+    }
+}
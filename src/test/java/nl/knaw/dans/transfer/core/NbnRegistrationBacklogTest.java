@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NbnRegistrationBacklogTest {
+
+    /*
+     * Returns the next count on each call, and fails when the count is negative.
+     */
+    private static class FakeQueue extends NbnRegistrationQueue {
+        private final long[] counts;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        FakeQueue(long... counts) {
+            super(null);
+            this.counts = counts;
+        }
+
+        @Override
+        public long countPending() {
+            var count = counts[Math.min(calls.getAndIncrement(), counts.length - 1)];
+            if (count < 0) {
+                throw new IllegalStateException("database unavailable");
+            }
+            return count;
+        }
+    }
+
+    @Test
+    public void should_only_query_the_queue_when_refreshed() {
+        // Given
+        var queue = new FakeQueue(5, 8);
+        var backlog = new NbnRegistrationBacklog(queue, 60_000, null, new StageMetrics(StageMetrics.NBN_REGISTRATION));
+
+        // When
+        backlog.refresh();
+        var first = backlog.getPending();
+        var second = backlog.getPending();
+        backlog.refresh();
+
+        // Then
+        assertThat(first).isEqualTo(5);
+        assertThat(second).isEqualTo(5);
+        assertThat(backlog.getPending()).isEqualTo(8);
+        assertThat(queue.calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void should_keep_previous_count_when_refresh_fails() {
+        // Given
+        var backlog = new NbnRegistrationBacklog(new FakeQueue(3, -1), 60_000, null, new StageMetrics(StageMetrics.NBN_REGISTRATION));
+        backlog.refresh();
+
+        // When
+        backlog.refresh();
+
+        // Then
+        assertThat(backlog.getPending()).isEqualTo(3);
+    }
+
+    @Test
+    public void should_count_on_start_and_then_periodically() throws Exception {
+        // Given
+        var queue = new FakeQueue(1, 2);
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var backlog = new NbnRegistrationBacklog(queue, 10, scheduler, new StageMetrics(StageMetrics.NBN_REGISTRATION));
+
+        try {
+            // When
+            backlog.start();
+            var onStart = backlog.getPending();
+            for (int i = 0; i < 100 && backlog.getPending() < 2; i++) {
+                Thread.sleep(10);
+            }
+
+            // Then
+            assertThat(onStart).isEqualTo(1);
+            assertThat(backlog.getPending()).isEqualTo(2);
+        }
+        finally {
+            backlog.stop();
+            scheduler.shutdownNow();
+        }
+    }
+}
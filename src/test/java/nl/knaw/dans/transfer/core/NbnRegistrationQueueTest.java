@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.testing.junit5.DAOTestExtension;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import nl.knaw.dans.transfer.core.NbnRegistration.Status;
+import nl.knaw.dans.transfer.db.NbnRegistrationDao;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class NbnRegistrationQueueTest {
+    private final DAOTestExtension db = DAOTestExtension.newBuilder()
+        .addEntityClass(NbnRegistration.class)
+        .build();
+
+    private NbnRegistrationDao dao;
+    private NbnRegistrationQueue queue;
+
+    @BeforeEach
+    public void setUp() {
+        dao = new NbnRegistrationDao(db.getSessionFactory());
+        queue = new NbnRegistrationQueue(dao);
+    }
+
+    private NbnRegistration claim(String nbn) {
+        db.inTransaction(() -> queue.schedule(nbn, "https://catalog/" + nbn));
+        return db.inTransaction(() -> queue.claimDue(1)).get(0);
+    }
+
+    private NbnRegistration find(String nbn) {
+        db.getSessionFactory().getCurrentSession().clear();
+        return db.inTransaction(() -> dao.findByNbn(nbn)).orElseThrow();
+    }
+
+    @Test
+    public void should_schedule_nbn_only_once() {
+        // Given
+        db.inTransaction(() -> queue.schedule("nbn:1", "https://catalog/nbn:1"));
+
+        // When
+        db.inTransaction(() -> queue.schedule("nbn:1", "https://catalog/other"));
+
+        // Then
+        assertThat(db.inTransaction(() -> queue.countPending())).isEqualTo(1);
+        assertThat(find("nbn:1").getLocation()).isEqualTo("https://catalog/nbn:1");
+    }
+
+    @Test
+    public void should_return_failed_attempt_to_queue_until_next_attempt() {
+        // Given
+        var registration = claim("nbn:1");
+        var nextAttemptAt = Instant.now().plusSeconds(60).truncatedTo(ChronoUnit.MILLIS);
+
+        // When
+        db.inTransaction(() -> queue.markAttemptFailed(registration.getId(), "x".repeat(3000), nextAttemptAt));
+
+        // Then
+        var failed = find("nbn:1");
+        assertThat(failed.getStatus()).isEqualTo(Status.PENDING);
+        assertThat(failed.getAttempts()).isEqualTo(1);
+        assertThat(failed.getNextAttemptAt()).isEqualTo(nextAttemptAt);
+        assertThat(failed.getClaimedAt()).isNull();
+        assertThat(failed.getLastError()).hasSize(2000);
+        assertThat(db.inTransaction(() -> queue.claimDue(1))).isEmpty();
+    }
+
+    @Test
+    public void should_mark_registration_failed_when_giving_up() {
+        // Given
+        var registration = claim("nbn:1");
+
+        // When
+        db.inTransaction(() -> queue.markAttemptFailed(registration.getId(), "GMH responded with 400", null));
+
+        // Then
+        var failed = find("nbn:1");
+        assertThat(failed.getStatus()).isEqualTo(Status.FAILED);
+        assertThat(failed.getLastError()).isEqualTo("GMH responded with 400");
+        assertThat(db.inTransaction(() -> queue.countPending())).isEqualTo(0);
+    }
+
+    @Test
+    public void should_mark_registration_registered() {
+        // Given
+        var registration = claim("nbn:1");
+        db.inTransaction(() -> queue.markAttemptFailed(registration.getId(), "timeout", Instant.now().minusSeconds(1)));
+        var retried = db.inTransaction(() -> queue.claimDue(1)).get(0);
+
+        // When
+        db.inTransaction(() -> queue.markRegistered(retried.getId()));
+
+        // Then
+        var registered = find("nbn:1");
+        assertThat(registered.getStatus()).isEqualTo(Status.REGISTERED);
+        assertThat(registered.getAttempts()).isEqualTo(1);
+        assertThat(registered.getRegisteredAt()).isNotNull();
+        assertThat(registered.getLastError()).isNull();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import io.dropwizard.util.Duration;
+import nl.knaw.dans.transfer.client.GmhClient;
+import nl.knaw.dans.transfer.client.GmhException;
+import nl.knaw.dans.transfer.config.NbnRegistrationConfig;
+import nl.knaw.dans.transfer.core.NbnRegistration.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NbnRegistrationSchedulerTest {
+    private final ExecutorService dispatcherExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService requestExecutor = Executors.newFixedThreadPool(4);
+
+    /*
+     * Keeps the registrations in memory, and records what the scheduler reports about them.
+     */
+    private static class FakeQueue extends NbnRegistrationQueue {
+        private final List<NbnRegistration> due = new ArrayList<>();
+        private final Map<Long, Instant> registered = new ConcurrentHashMap<>();
+        private final Map<Long, Instant> retryAt = new ConcurrentHashMap<>();
+        private final Map<Long, String> gaveUp = new ConcurrentHashMap<>();
+        private final List<Instant> staleCutoffs = new ArrayList<>();
+
+        FakeQueue(NbnRegistration... registrations) {
+            super(null);
+            due.addAll(List.of(registrations));
+        }
+
+        @Override
+        public synchronized List<NbnRegistration> claimDue(int limit) {
+            var claimed = new ArrayList<>(due.subList(0, Math.min(limit, due.size())));
+            due.removeAll(claimed);
+            return claimed;
+        }
+
+        @Override
+        public synchronized int releaseStale(Instant claimedBefore) {
+            staleCutoffs.add(claimedBefore);
+            return 0;
+        }
+
+        @Override
+        public void markRegistered(long id) {
+            registered.put(id, Instant.now());
+        }
+
+        @Override
+        public void markAttemptFailed(long id, String error, Instant nextAttemptAt) {
+            if (nextAttemptAt == null) {
+                gaveUp.put(id, error);
+            }
+            else {
+                retryAt.put(id, nextAttemptAt);
+            }
+        }
+    }
+
+    /*
+     * Fails the NBNs that have a status code, and accepts all others.
+     */
+    private static class FakeGmhClient extends GmhClient {
+        private final Map<String, Integer> failures;
+
+        FakeGmhClient(Map<String, Integer> failures) {
+            super(null, URI.create("http://localhost/"), "token");
+            this.failures = failures;
+        }
+
+        @Override
+        public void registerNbn(String nbn, String location) {
+            if (failures.containsKey(nbn)) {
+                throw new GmhException(failures.get(nbn), "GMH responded with " + failures.get(nbn) + " for NBN " + nbn);
+            }
+        }
+    }
+
+    private static NbnRegistration registration(long id, String nbn, int attempts) {
+        var registration = new NbnRegistration(nbn, "https://catalog/" + nbn);
+        registration.setId(id);
+        registration.setStatus(Status.IN_PROGRESS);
+        registration.setAttempts(attempts);
+        return registration;
+    }
+
+    private static NbnRegistrationConfig config() {
+        var config = new NbnRegistrationConfig();
+        config.setRegistrationInterval(10);
+        config.setInitialRate(1000.0);
+        config.setMaxRate(1000.0);
+        config.setMaxAttempts(3);
+        config.setInitialRetryDelay(Duration.seconds(10));
+        config.setMaxRetryDelay(Duration.minutes(1));
+        return config;
+    }
+
+    private NbnRegistrationScheduler start(FakeQueue queue, GmhClient gmh, NbnRegistrationConfig config) {
+        var scheduler = new NbnRegistrationScheduler(queue, gmh, config, dispatcherExecutor, requestExecutor,
+            new StageMetrics(StageMetrics.NBN_REGISTRATION));
+        scheduler.start();
+        return scheduler;
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 200 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dispatcherExecutor.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    @Test
+    public void should_register_claimed_nbns() throws Exception {
+        // Given
+        var queue = new FakeQueue(registration(1, "nbn:1", 0), registration(2, "nbn:2", 0), registration(3, "nbn:3", 0));
+
+        // When
+        var scheduler = start(queue, new FakeGmhClient(Map.of()), config());
+        awaitUntil(() -> queue.registered.size() == 3);
+        scheduler.stop();
+
+        // Then
+        assertThat(queue.registered).containsOnlyKeys(1L, 2L, 3L);
+        assertThat(queue.retryAt).isEmpty();
+        assertThat(queue.gaveUp).isEmpty();
+    }
+
+    @Test
+    public void should_retry_failed_registration_after_backoff() throws Exception {
+        // Given
+        var queue = new FakeQueue(registration(1, "nbn:1", 0), registration(2, "nbn:2", 1));
+        var config = config();
+
+        // When
+        var before = Instant.now();
+        var scheduler = start(queue, new FakeGmhClient(Map.of("nbn:1", 503, "nbn:2", 503)), config);
+        awaitUntil(() -> queue.retryAt.size() == 2);
+        scheduler.stop();
+
+        // Then
+        assertThat(queue.retryAt.get(1L)).isBetween(before.plusSeconds(8), Instant.now().plusSeconds(12));
+        assertThat(queue.retryAt.get(2L)).isBetween(before.plusSeconds(16), Instant.now().plusSeconds(24));
+        assertThat(queue.registered).isEmpty();
+    }
+
+    @Test
+    public void should_give_up_after_max_attempts() throws Exception {
+        // Given
+        var queue = new FakeQueue(registration(1, "nbn:1", 2));
+
+        // When
+        var scheduler = start(queue, new FakeGmhClient(Map.of("nbn:1", 400)), config());
+        awaitUntil(() -> !queue.gaveUp.isEmpty());
+        scheduler.stop();
+
+        // Then
+        assertThat(queue.gaveUp).containsEntry(1L, "GMH responded with 400 for NBN nbn:1");
+        assertThat(queue.retryAt).isEmpty();
+    }
+
+    @Test
+    public void should_return_stale_claims_to_queue() throws Exception {
+        // Given
+        var queue = new FakeQueue();
+        var config = config();
+        config.setClaimTimeout(Duration.minutes(10));
+
+        // When
+        var before = Instant.now();
+        var scheduler = start(queue, new FakeGmhClient(Map.of()), config);
+        awaitUntil(() -> {
+            synchronized (queue) {
+                return !queue.staleCutoffs.isEmpty();
+            }
+        });
+        scheduler.stop();
+
+        // Then
+        synchronized (queue) {
+            assertThat(queue.staleCutoffs.get(0)).isBetween(before.minusSeconds(600), Instant.now().minusSeconds(600));
+        }
+    }
+
+    @Test
+    public void should_double_retry_delay_up_to_maximum() {
+        // Given
+        var scheduler = new NbnRegistrationScheduler(new FakeQueue(), new FakeGmhClient(Map.of()), config(), dispatcherExecutor, requestExecutor,
+            new StageMetrics(StageMetrics.NBN_REGISTRATION));
+
+        // When
+        var first = scheduler.getRetryDelay(1);
+        var third = scheduler.getRetryDelay(3);
+        var last = scheduler.getRetryDelay(40);
+
+        // Then
+        assertThat(first.toMillis()).isBetween(8_000L, 12_000L);
+        assertThat(third.toMillis()).isBetween(32_000L, 48_000L);
+        assertThat(last.toMillis()).isBetween(48_000L, 72_000L);
+    }
+}
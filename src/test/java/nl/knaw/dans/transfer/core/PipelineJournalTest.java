@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.knaw.dans.transfer.TestDirFixture;
+import nl.knaw.dans.transfer.core.JournalEntry.Stage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PipelineJournalTest extends TestDirFixture {
+
+    private JournalEntry entry(String dve, String nbn, Stage stage) {
+        return new JournalEntry(dve, nbn, 100, 0, "fp-" + dve, stage, System.currentTimeMillis(), Lane.BULK);
+    }
+
+    @Test
+    public void should_restore_latest_state_of_dves_after_restart() throws Exception {
+        // Given
+        var file = testDir.resolve("journal.jsonl");
+        var journal = new PipelineJournal(file, new ObjectMapper());
+        journal.start();
+        journal.record(entry("dve1.zip", "urn:nbn:nl:ui:13-1", Stage.RESOLVED));
+        journal.advance("dve1.zip", Stage.COLLECTED);
+        journal.record(entry("dve2.zip", "urn:nbn:nl:ui:13-2", Stage.RESOLVED));
+        journal.advance("dve2.zip", Stage.CATALOGED);
+        journal.advance("dve2.zip", Stage.BATCHED);
+        journal.record(entry("dve3.zip", "urn:nbn:nl:ui:13-3", Stage.COLLECTED));
+        journal.advance("dve3.zip", Stage.FAILED);
+        journal.stop();
+
+        // When
+        var restarted = new PipelineJournal(file, new ObjectMapper());
+        restarted.start();
+
+        // Then
+        assertThat(restarted.size()).isEqualTo(2);
+        assertThat(restarted.get("dve1.zip")).hasValueSatisfying(e -> {
+            assertThat(e.stage()).isEqualTo(Stage.COLLECTED);
+            assertThat(e.nbn()).isEqualTo("urn:nbn:nl:ui:13-1");
+            assertThat(e.fingerprint()).isEqualTo("fp-dve1.zip");
+            assertThat(e.lane()).isEqualTo(Lane.BULK);
+        });
+        assertThat(restarted.get("dve2.zip")).hasValueSatisfying(e -> assertThat(e.stage()).isEqualTo(Stage.BATCHED));
+        assertThat(restarted.get("dve3.zip")).isEmpty();
+        assertThat(restarted.getNbns(Stage.COLLECTED, Stage.CATALOGED)).containsExactly("urn:nbn:nl:ui:13-1");
+        restarted.stop();
+    }
+
+    @Test
+    public void should_compact_journal_on_start() throws Exception {
+        // Given
+        var file = testDir.resolve("journal.jsonl");
+        var journal = new PipelineJournal(file, new ObjectMapper());
+        journal.start();
+        for (int i = 0; i < 10; i++) {
+            journal.record(entry("dve" + i + ".zip", "urn:nbn:nl:ui:13-" + i, Stage.RESOLVED));
+            journal.advance("dve" + i + ".zip", Stage.COLLECTED);
+            journal.advance("dve" + i + ".zip", Stage.CATALOGED);
+            if (i > 0) {
+                journal.advance("dve" + i + ".zip", Stage.DONE);
+            }
+        }
+        journal.stop();
+        assertThat(Files.readAllLines(file)).hasSize(39);
+
+        // When
+        new PipelineJournal(file, new ObjectMapper()).start();
+
+        // Then
+        assertThat(Files.readAllLines(file)).hasSize(1);
+    }
+
+    @Test
+    public void should_compact_journal_while_running() throws Exception {
+        // Given
+        var file = testDir.resolve("journal.jsonl");
+        var journal = new PipelineJournal(file, new ObjectMapper());
+        journal.start();
+        journal.record(entry("dve0.zip", "urn:nbn:nl:ui:13-0", Stage.RESOLVED));
+
+        // When
+        for (int i = 1; i <= PipelineJournal.MIN_COMPACTION_LINES; i++) {
+            journal.record(entry("dve" + i + ".zip", "urn:nbn:nl:ui:13-" + i, Stage.RESOLVED));
+            journal.advance("dve" + i + ".zip", Stage.DONE);
+        }
+        journal.stop();
+
+        // Then
+        assertThat(Files.readAllLines(file)).hasSizeLessThanOrEqualTo(PipelineJournal.MIN_COMPACTION_LINES);
+        var restarted = new PipelineJournal(file, new ObjectMapper());
+        restarted.start();
+        assertThat(restarted.size()).isEqualTo(1);
+        assertThat(restarted.get("dve0.zip")).isPresent();
+        restarted.stop();
+    }
+
+    @Test
+    public void should_not_return_entry_of_earlier_dve_with_same_name() throws Exception {
+        // Given
+        var dve = Files.writeString(testDir.resolve("dve1.zip"), "first");
+        var journal = new PipelineJournal();
+        journal.record(new JournalEntry("dve1.zip", "urn:nbn:nl:ui:13-1", Files.size(dve), Files.getLastModifiedTime(dve).toMillis(), "fp", Stage.FAILED,
+            System.currentTimeMillis(), Lane.BULK));
+        assertThat(journal.get(dve)).isPresent();
+
+        // When
+        Files.writeString(dve, "second version of the DVE");
+
+        // Then
+        assertThat(journal.get(dve)).isEmpty();
+        assertThat(journal.get("dve1.zip")).isEmpty();
+    }
+
+    @Test
+    public void should_ignore_torn_last_line() throws Exception {
+        // Given
+        var file = testDir.resolve("journal.jsonl");
+        var journal = new PipelineJournal(file, new ObjectMapper());
+        journal.start();
+        journal.record(entry("dve1.zip", "urn:nbn:nl:ui:13-1", Stage.COLLECTED));
+        journal.stop();
+        Files.writeString(file, "{\"dve\":\"dve2.zip\",\"nb", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        // When
+        var restarted = new PipelineJournal(file, new ObjectMapper());
+        restarted.start();
+
+        // Then
+        assertThat(restarted.size()).isEqualTo(1);
+        assertThat(restarted.get("dve1.zip")).isPresent();
+    }
+
+    @Test
+    public void should_keep_state_in_memory_without_file() {
+        var journal = new PipelineJournal();
+
+        journal.record(entry("dve1.zip", "urn:nbn:nl:ui:13-1", Stage.RESOLVED));
+        journal.advance("dve1.zip", Stage.COLLECTED);
+
+        assertThat(journal.get("dve1.zip")).hasValueSatisfying(e -> assertThat(e.stage()).isEqualTo(Stage.COLLECTED));
+    }
+}
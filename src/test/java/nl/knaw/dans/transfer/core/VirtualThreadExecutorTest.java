@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadExecutorTest {
+
+    @Test
+    public void should_not_run_more_than_max_concurrency_tasks_at_the_same_time() throws Exception {
+        // Given
+        var executor = new VirtualThreadExecutor(Executors.newCachedThreadPool(), 3);
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var done = new CountDownLatch(30);
+
+        // When
+        for (int i = 0; i < 30; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleepQuietly(10);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        // Then
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(3);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.getActiveCount()).isZero();
+        assertThat(executor.getWaitingCount()).isZero();
+    }
+
+    @Test
+    public void should_keep_per_key_order_when_used_by_keyed_sequential_executor() throws Exception {
+        // Given
+        var workers = VirtualThreadExecutor.create("test-worker", 4);
+        var executor = new KeyedSequentialExecutor<String>(workers);
+        var results = new ConcurrentHashMap<String, List<Integer>>();
+        var done = new CountDownLatch(150);
+
+        // When
+        for (int i = 0; i < 50; i++) {
+            for (var key : List.of("a", "b", "c")) {
+                int n = i;
+                executor.execute(key, () -> {
+                    results.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(n);
+                    done.countDown();
+                });
+            }
+        }
+
+        // Then
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        workers.shutdown();
+        for (var key : List.of("a", "b", "c")) {
+            assertThat(results.get(key)).isSorted().hasSize(50);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
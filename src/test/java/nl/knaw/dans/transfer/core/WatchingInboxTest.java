@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.core;
+
+import nl.knaw.dans.transfer.TestDirFixture;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WatchingInboxTest extends TestDirFixture {
+
+    @Test
+    public void should_pick_up_existing_and_new_items_once() throws Exception {
+        // Given
+        var inboxDir = testDir.resolve("inbox");
+        Files.createDirectories(inboxDir);
+        Files.createFile(inboxDir.resolve("existing.zip"));
+        Files.createFile(inboxDir.resolve(".hidden.part"));
+        List<Path> processed = new CopyOnWriteArrayList<>();
+        var latch = new CountDownLatch(2);
+        var executor = Executors.newSingleThreadExecutor();
+        var inbox = WatchingInbox.builder()
+            .inbox(inboxDir)
+            .taskFactory(path -> () -> {
+                processed.add(path.getFileName());
+                latch.countDown();
+            })
+            .executorService(executor)
+            .safetyNetInterval(TimeUnit.MINUTES.toMillis(10))
+            .build();
+
+        // When
+        inbox.start();
+        Files.move(Files.createFile(testDir.resolve("new.zip")), inboxDir.resolve("new.zip"));
+        try {
+            // Then
+            assertThat(latch.await(30, TimeUnit.SECONDS)).isTrue();
+            assertThat(processed).containsExactly(Path.of("existing.zip"), Path.of("new.zip"));
+        }
+        finally {
+            inbox.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Waits for the next task, and then for the inbox to have seen it finish, so that a new notification for the same item is not skipped as in flight.
+     */
+    private static Path next(BlockingQueue<Path> processed, ExecutorService executor) throws Exception {
+        var item = processed.poll(30, TimeUnit.SECONDS);
+        executor.submit(() -> { }).get();
+        return item;
+    }
+
+    @Test
+    public void should_report_items_arriving_in_subdirectory_as_that_subdirectory() throws Exception {
+        // Given
+        var inboxDir = testDir.resolve("inbox");
+        var existingDir = Files.createDirectories(inboxDir.resolve("nbn-1"));
+        BlockingQueue<Path> processed = new LinkedBlockingQueue<>();
+        var executor = Executors.newSingleThreadExecutor();
+        var inbox = WatchingInbox.builder()
+            .inbox(inboxDir)
+            .taskFactory(path -> () -> processed.add(path.getFileName()))
+            .executorService(executor)
+            .safetyNetInterval(TimeUnit.MINUTES.toMillis(10))
+            .watchSubdirectories(true)
+            .build();
+
+        try {
+            // When
+            inbox.start();
+            var onStart = next(processed, executor);
+            Files.createFile(existingDir.resolve(".dve.zip.part"));
+            var afterHiddenFile = processed.poll(500, TimeUnit.MILLISECONDS);
+            Files.move(Files.createFile(testDir.resolve("dve1.zip")), existingDir.resolve("dve1.zip"));
+            var afterMoveIntoExisting = next(processed, executor);
+            var newDir = Files.createDirectories(inboxDir.resolve("nbn-2"));
+            var afterCreate = next(processed, executor);
+            Files.move(Files.createFile(testDir.resolve("dve2.zip")), newDir.resolve("dve2.zip"));
+            var afterMoveIntoNew = next(processed, executor);
+
+            // Then
+            assertThat(onStart).isEqualTo(Path.of("nbn-1"));
+            assertThat(afterHiddenFile).isNull();
+            assertThat(afterMoveIntoExisting).isEqualTo(Path.of("nbn-1"));
+            assertThat(afterCreate).isEqualTo(Path.of("nbn-2"));
+            assertThat(afterMoveIntoNew).isEqualTo(Path.of("nbn-2"));
+        }
+        finally {
+            inbox.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_watch_subdirectory_again_after_it_has_been_removed_and_created_again() throws Exception {
+        // Given
+        var inboxDir = testDir.resolve("inbox");
+        var nbnDir = Files.createDirectories(inboxDir.resolve("nbn-1"));
+        BlockingQueue<Path> processed = new LinkedBlockingQueue<>();
+        var executor = Executors.newSingleThreadExecutor();
+        var inbox = WatchingInbox.builder()
+            .inbox(inboxDir)
+            .taskFactory(path -> () -> processed.add(path.getFileName()))
+            .executorService(executor)
+            .safetyNetInterval(TimeUnit.MINUTES.toMillis(10))
+            .watchSubdirectories(true)
+            .build();
+
+        try {
+            inbox.start();
+            next(processed, executor);
+
+            // When
+            Files.delete(nbnDir);
+            Thread.sleep(200);
+            Files.createDirectories(nbnDir);
+            var afterCreate = next(processed, executor);
+            Files.move(Files.createFile(testDir.resolve("dve1.zip")), nbnDir.resolve("dve1.zip"));
+            var afterMove = next(processed, executor);
+
+            // Then
+            assertThat(afterCreate).isEqualTo(Path.of("nbn-1"));
+            assertThat(afterMove).isEqualTo(Path.of("nbn-1"));
+        }
+        finally {
+            inbox.stop();
+            executor.shutdownNow();
+        }
+    }
+}
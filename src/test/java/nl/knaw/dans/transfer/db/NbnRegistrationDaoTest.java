@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2025 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.transfer.db;
+
+import io.dropwizard.testing.junit5.DAOTestExtension;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import nl.knaw.dans.transfer.core.NbnRegistration;
+import nl.knaw.dans.transfer.core.NbnRegistration.Status;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class NbnRegistrationDaoTest {
+    private final DAOTestExtension db = DAOTestExtension.newBuilder()
+        .addEntityClass(NbnRegistration.class)
+        .build();
+
+    private final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    private NbnRegistrationDao dao;
+
+    @BeforeEach
+    public void setUp() {
+        dao = new NbnRegistrationDao(db.getSessionFactory());
+    }
+
+    private NbnRegistration registration(String nbn, Status status, Instant nextAttemptAt) {
+        var registration = new NbnRegistration(nbn, "https://catalog/" + nbn);
+        registration.setStatus(status);
+        registration.setNextAttemptAt(nextAttemptAt);
+        return db.inTransaction(() -> dao.save(registration));
+    }
+
+    private List<String> nbns(List<NbnRegistration> registrations) {
+        return registrations.stream().map(NbnRegistration::getNbn).toList();
+    }
+
+    @Test
+    public void should_claim_due_registrations_in_order_of_next_attempt() {
+        // Given
+        registration("nbn:later", Status.PENDING, now.minusSeconds(10));
+        registration("nbn:first", Status.PENDING, now.minusSeconds(60));
+        registration("nbn:not-due", Status.PENDING, now.plusSeconds(60));
+        registration("nbn:registered", Status.REGISTERED, now.minusSeconds(120));
+
+        // When
+        var claimed = db.inTransaction(() -> dao.claimDue(10, now));
+
+        // Then
+        assertThat(nbns(claimed)).containsExactly("nbn:first", "nbn:later");
+        assertThat(claimed).allSatisfy(r -> {
+            assertThat(r.getStatus()).isEqualTo(Status.IN_PROGRESS);
+            assertThat(r.getClaimedAt()).isEqualTo(now);
+        });
+        assertThat(db.inTransaction(() -> dao.claimDue(10, now))).isEmpty();
+    }
+
+    @Test
+    public void should_claim_no_more_than_limit() {
+        // Given
+        registration("nbn:1", Status.PENDING, now.minusSeconds(3));
+        registration("nbn:2", Status.PENDING, now.minusSeconds(2));
+        registration("nbn:3", Status.PENDING, now.minusSeconds(1));
+
+        // When
+        var claimed = db.inTransaction(() -> dao.claimDue(2, now));
+
+        // Then
+        assertThat(nbns(claimed)).containsExactly("nbn:1", "nbn:2");
+        assertThat(db.inTransaction(() -> dao.countPending())).isEqualTo(3);
+    }
+
+    @Test
+    public void should_skip_registrations_locked_by_another_transaction() throws Exception {
+        // Given
+        registration("nbn:1", Status.PENDING, now.minusSeconds(60));
+        registration("nbn:2", Status.PENDING, now.minusSeconds(10));
+        var claimedByOther = new CountDownLatch(1);
+        var finishOther = new CountDownLatch(1);
+        // Another instance claims the registrations that were due half a minute ago, and keeps its transaction open
+        var other = CompletableFuture.supplyAsync(() -> {
+            try (var session = db.getSessionFactory().openSession()) {
+                ManagedSessionContext.bind(session);
+                var transaction = session.beginTransaction();
+                try {
+                    var claimed = nbns(dao.claimDue(10, now.minusSeconds(30)));
+                    claimedByOther.countDown();
+                    finishOther.await(10, TimeUnit.SECONDS);
+                    transaction.commit();
+                    return claimed;
+                }
+                catch (InterruptedException e) {
+                    transaction.rollback();
+                    throw new IllegalStateException(e);
+                }
+                finally {
+                    ManagedSessionContext.unbind(db.getSessionFactory());
+                }
+            }
+        });
+        assertThat(claimedByOther.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // When
+        var claimed = db.inTransaction(() -> dao.claimDue(10, now));
+        finishOther.countDown();
+
+        // Then
+        assertThat(other.get(10, TimeUnit.SECONDS)).containsExactly("nbn:1");
+        assertThat(nbns(claimed)).containsExactly("nbn:2");
+    }
+
+    @Test
+    public void should_count_waiting_and_claimed_registrations_as_pending() {
+        // Given
+        registration("nbn:pending", Status.PENDING, now.plusSeconds(60));
+        registration("nbn:in-progress", Status.IN_PROGRESS, now);
+        registration("nbn:registered", Status.REGISTERED, now);
+        registration("nbn:failed", Status.FAILED, now);
+
+        // When
+        var pending = db.inTransaction(() -> dao.countPending());
+
+        // Then
+        assertThat(pending).isEqualTo(2);
+    }
+
+    @Test
+    public void should_return_stale_claims_to_the_queue() {
+        // Given
+        registration("nbn:stale", Status.PENDING, now.minusSeconds(900));
+        registration("nbn:recent", Status.PENDING, now.minusSeconds(30));
+        db.inTransaction(() -> dao.claimDue(1, now.minusSeconds(600)));
+        db.inTransaction(() -> dao.claimDue(1, now));
+
+        // When
+        var released = db.inTransaction(() -> dao.releaseStale(now.minusSeconds(300)));
+
+        // Then
+        assertThat(released).isEqualTo(1);
+        db.getSessionFactory().getCurrentSession().clear();
+        assertThat(db.inTransaction(() -> dao.findByNbn("nbn:stale"))).hasValueSatisfying(r -> {
+            assertThat(r.getStatus()).isEqualTo(Status.PENDING);
+            assertThat(r.getClaimedAt()).isNull();
+        });
+        assertThat(db.inTransaction(() -> dao.findByNbn("nbn:recent"))).hasValueSatisfying(r -> assertThat(r.getStatus()).isEqualTo(Status.IN_PROGRESS));
+    }
+}